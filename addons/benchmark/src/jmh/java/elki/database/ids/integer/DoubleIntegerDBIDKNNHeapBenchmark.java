@@ -0,0 +1,114 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2019
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package elki.database.ids.integer;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import elki.database.ids.DBIDArrayIter;
+import elki.database.ids.DBIDRange;
+import elki.database.ids.DBIDUtil;
+
+/**
+ * Microbenchmark for the insertion throughput of
+ * {@link DoubleIntegerDBIDKNNHeap}.
+ *
+ * @author Erich Schubert
+ * @since 0.8.0
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@OperationsPerInvocation(DoubleIntegerDBIDKNNHeapBenchmark.SIZE)
+public class DoubleIntegerDBIDKNNHeapBenchmark {
+  /**
+   * Number of insertions per invocation.
+   */
+  static final int SIZE = 100000;
+
+  /**
+   * Heap size.
+   */
+  @Param({ "1", "10", "100" })
+  int k;
+
+  /**
+   * Random distances.
+   */
+  double[] dists;
+
+  /**
+   * Object ids.
+   */
+  DBIDRange ids;
+
+  /**
+   * Generate the data.
+   */
+  @Setup
+  public void setup() {
+    Random rnd = new Random(0L);
+    dists = new double[SIZE];
+    for(int i = 0; i < SIZE; i++) {
+      dists[i] = rnd.nextDouble();
+    }
+    ids = DBIDUtil.generateStaticDBIDRange(SIZE);
+  }
+
+  /**
+   * Insert every candidate into the heap.
+   *
+   * @return kNN distance
+   */
+  @Benchmark
+  public double insert() {
+    final DoubleIntegerDBIDKNNHeap heap = new DoubleIntegerDBIDKNNHeap(k);
+    final double[] dists = this.dists;
+    DBIDArrayIter it = ids.iter();
+    for(int i = 0; i < SIZE; i++, it.advance()) {
+      heap.insert(dists[i], it);
+    }
+    return heap.getKNNDistance();
+  }
+
+  /**
+   * Insert with the bound check used by the linear scans.
+   *
+   * @return kNN distance
+   */
+  @Benchmark
+  public double insertBounded() {
+    final DoubleIntegerDBIDKNNHeap heap = new DoubleIntegerDBIDKNNHeap(k);
+    final double[] dists = this.dists;
+    double max = Double.POSITIVE_INFINITY;
+    DBIDArrayIter it = ids.iter();
+    for(int i = 0; i < SIZE; i++, it.advance()) {
+      final double dist = dists[i];
+      max = dist <= max ? heap.insert(dist, it) : max;
+    }
+    return max;
+  }
+}
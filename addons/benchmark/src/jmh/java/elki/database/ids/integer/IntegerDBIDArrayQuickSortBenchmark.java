@@ -0,0 +1,133 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2019
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package elki.database.ids.integer;
+
+import java.util.Comparator;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import elki.database.ids.ArrayModifiableDBIDs;
+import elki.database.ids.DBIDArrayIter;
+import elki.database.ids.DBIDRange;
+import elki.database.ids.DBIDRef;
+import elki.database.ids.DBIDUtil;
+import elki.database.ids.QuickSelectDBIDs;
+
+/**
+ * Microbenchmark for sorting and selecting in DBID arrays, using
+ * {@link IntegerDBIDArrayQuickSort} and {@link QuickSelectDBIDs}.
+ *
+ * @author Erich Schubert
+ * @since 0.8.0
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class IntegerDBIDArrayQuickSortBenchmark {
+  /**
+   * Array size.
+   */
+  @Param({ "1000", "100000" })
+  int size;
+
+  /**
+   * Sort keys, by offset in the DBID range.
+   */
+  double[] keys;
+
+  /**
+   * Shuffled ids.
+   */
+  ArrayModifiableDBIDs shuffled;
+
+  /**
+   * Shuffled ids, as integer array.
+   */
+  int[] original;
+
+  /**
+   * Working copy for sorting.
+   */
+  int[] data;
+
+  /**
+   * Working copy for selection.
+   */
+  ArrayModifiableDBIDs ids;
+
+  /**
+   * Comparator.
+   */
+  Comparator<DBIDRef> comp;
+
+  /**
+   * Generate the data.
+   */
+  @Setup
+  public void setup() {
+    Random rnd = new Random(0L);
+    keys = new double[size];
+    for(int i = 0; i < size; i++) {
+      keys[i] = rnd.nextDouble();
+    }
+    final DBIDRange range = DBIDUtil.generateStaticDBIDRange(size);
+    shuffled = DBIDUtil.newArray(range);
+    DBIDUtil.randomShuffle(shuffled, rnd);
+    original = new int[size];
+    for(DBIDArrayIter it = shuffled.iter(); it.valid(); it.advance()) {
+      original[it.getOffset()] = it.internalGetIndex();
+    }
+    data = new int[size];
+    ids = DBIDUtil.newArray(size);
+    final double[] keys = this.keys;
+    comp = (a, b) -> Double.compare(keys[range.getOffset(a)], keys[range.getOffset(b)]);
+  }
+
+  /**
+   * Sort a copy of the shuffled array.
+   *
+   * @return Sorted array
+   */
+  @Benchmark
+  public int[] sort() {
+    System.arraycopy(original, 0, data, 0, size);
+    IntegerDBIDArrayQuickSort.sort(data, comp);
+    return data;
+  }
+
+  /**
+   * Select the median of the shuffled array.
+   *
+   * @return Array
+   */
+  @Benchmark
+  public ArrayModifiableDBIDs quickSelectMedian() {
+    ids.clear();
+    ids.addDBIDs(shuffled);
+    QuickSelectDBIDs.quickSelect(ids, comp, size >>> 1);
+    return ids;
+  }
+}
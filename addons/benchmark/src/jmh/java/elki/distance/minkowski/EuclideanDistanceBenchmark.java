@@ -0,0 +1,159 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2019
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package elki.distance.minkowski;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import elki.data.DoubleVector;
+import elki.data.FloatVector;
+import elki.data.SparseDoubleVector;
+
+/**
+ * Microbenchmark for Euclidean and squared Euclidean distance on dense double,
+ * dense float, and sparse vectors.
+ *
+ * @author Erich Schubert
+ * @since 0.8.0
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@OperationsPerInvocation(EuclideanDistanceBenchmark.SIZE)
+public class EuclideanDistanceBenchmark {
+  /**
+   * Number of vectors (power of two).
+   */
+  static final int SIZE = 1024;
+
+  /**
+   * Dimensionality.
+   */
+  @Param({ "2", "10", "100", "1000" })
+  int dim;
+
+  /**
+   * Fraction of non-zero values in sparse vectors.
+   */
+  @Param({ "0.1" })
+  double density;
+
+  /**
+   * Dense double vectors.
+   */
+  DoubleVector[] dvecs;
+
+  /**
+   * Dense float vectors.
+   */
+  FloatVector[] fvecs;
+
+  /**
+   * Sparse vectors.
+   */
+  SparseDoubleVector[] svecs;
+
+  /**
+   * Generate the data.
+   */
+  @Setup
+  public void setup() {
+    Random rnd = new Random(0L);
+    dvecs = new DoubleVector[SIZE];
+    fvecs = new FloatVector[SIZE];
+    svecs = new SparseDoubleVector[SIZE];
+    for(int i = 0; i < SIZE; i++) {
+      double[] dense = new double[dim], sparse = new double[dim];
+      for(int d = 0; d < dim; d++) {
+        dense[d] = rnd.nextDouble();
+        sparse[d] = rnd.nextDouble() < density ? rnd.nextDouble() : 0.;
+      }
+      dvecs[i] = DoubleVector.wrap(dense);
+      fvecs[i] = FloatVector.FACTORY.newNumberVector(dense);
+      svecs[i] = new SparseDoubleVector(sparse);
+    }
+  }
+
+  @Benchmark
+  public double euclideanDouble() {
+    final EuclideanDistance dist = EuclideanDistance.STATIC;
+    double sum = 0.;
+    for(int i = 0; i < SIZE; i++) {
+      sum += dist.distance(dvecs[i], dvecs[(i + 1) & (SIZE - 1)]);
+    }
+    return sum;
+  }
+
+  @Benchmark
+  public double squaredEuclideanDouble() {
+    final SquaredEuclideanDistance dist = SquaredEuclideanDistance.STATIC;
+    double sum = 0.;
+    for(int i = 0; i < SIZE; i++) {
+      sum += dist.distance(dvecs[i], dvecs[(i + 1) & (SIZE - 1)]);
+    }
+    return sum;
+  }
+
+  @Benchmark
+  public double euclideanFloat() {
+    final EuclideanDistance dist = EuclideanDistance.STATIC;
+    double sum = 0.;
+    for(int i = 0; i < SIZE; i++) {
+      sum += dist.distance(fvecs[i], fvecs[(i + 1) & (SIZE - 1)]);
+    }
+    return sum;
+  }
+
+  @Benchmark
+  public double squaredEuclideanFloat() {
+    final SquaredEuclideanDistance dist = SquaredEuclideanDistance.STATIC;
+    double sum = 0.;
+    for(int i = 0; i < SIZE; i++) {
+      sum += dist.distance(fvecs[i], fvecs[(i + 1) & (SIZE - 1)]);
+    }
+    return sum;
+  }
+
+  @Benchmark
+  public double euclideanSparse() {
+    final EuclideanDistance dist = EuclideanDistance.STATIC;
+    double sum = 0.;
+    for(int i = 0; i < SIZE; i++) {
+      sum += dist.distance(svecs[i], svecs[(i + 1) & (SIZE - 1)]);
+    }
+    return sum;
+  }
+
+  @Benchmark
+  public double squaredEuclideanSparse() {
+    final SquaredEuclideanDistance dist = SquaredEuclideanDistance.STATIC;
+    double sum = 0.;
+    for(int i = 0; i < SIZE; i++) {
+      sum += dist.distance(svecs[i], svecs[(i + 1) & (SIZE - 1)]);
+    }
+    return sum;
+  }
+}
@@ -0,0 +1,193 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2019
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package elki.index;
+
+import java.util.Collections;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import elki.data.DoubleVector;
+import elki.data.type.TypeUtil;
+import elki.database.Database;
+import elki.database.StaticArrayDatabase;
+import elki.database.query.LinearScanQuery;
+import elki.database.query.QueryBuilder;
+import elki.database.query.knn.KNNSearcher;
+import elki.database.relation.Relation;
+import elki.datasource.ArrayAdapterDatabaseConnection;
+import elki.distance.minkowski.EuclideanDistance;
+import elki.index.tree.metrical.covertree.CoverTree;
+import elki.index.tree.metrical.mtreevariants.mtree.MTreeFactory;
+import elki.index.tree.spatial.kd.SmallMemoryKDTree;
+import elki.index.tree.spatial.rstarvariants.rstar.RStarTreeFactory;
+import elki.index.vafile.VAFile;
+import elki.utilities.ELKIBuilder;
+
+/**
+ * Microbenchmark for kNN queries on different index structures, on generated
+ * Gaussian mixture data. Index construction is not part of the measurement.
+ *
+ * @author Erich Schubert
+ * @since 0.8.0
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@OperationsPerInvocation(KNNIndexBenchmark.QUERIES)
+public class KNNIndexBenchmark {
+  /**
+   * Number of queries per invocation.
+   */
+  static final int QUERIES = 1000;
+
+  /**
+   * Index structures to benchmark.
+   *
+   * @author Erich Schubert
+   */
+  public enum IndexType {
+    COVERTREE {
+      @Override
+      IndexFactory<?> make() {
+        return new ELKIBuilder<>(CoverTree.Factory.class) //
+            .with(CoverTree.Factory.Par.DISTANCE_FUNCTION_ID, EuclideanDistance.class).build();
+      }
+    },
+    KDTREE {
+      @Override
+      IndexFactory<?> make() {
+        return new ELKIBuilder<>(SmallMemoryKDTree.Factory.class).build();
+      }
+    },
+    RSTARTREE {
+      @Override
+      IndexFactory<?> make() {
+        return new ELKIBuilder<>(RStarTreeFactory.class).build();
+      }
+    },
+    MTREE {
+      @Override
+      IndexFactory<?> make() {
+        return new ELKIBuilder<>(MTreeFactory.class).build();
+      }
+    },
+    VAFILE {
+      @Override
+      IndexFactory<?> make() {
+        return new ELKIBuilder<>(VAFile.Factory.class) //
+            .with(VAFile.Factory.Par.PARTITIONS_ID, 16).build();
+      }
+    };
+
+    /**
+     * Make the index factory.
+     *
+     * @return Factory
+     */
+    abstract IndexFactory<?> make();
+  }
+
+  /**
+   * Index to use.
+   */
+  @Param
+  IndexType index;
+
+  /**
+   * Data set size.
+   */
+  @Param({ "100000" })
+  int size;
+
+  /**
+   * Dimensionality.
+   */
+  @Param({ "2", "8", "32" })
+  int dim;
+
+  /**
+   * Number of neighbors.
+   */
+  @Param({ "10" })
+  int k;
+
+  /**
+   * kNN searcher.
+   */
+  KNNSearcher<DoubleVector> knnq;
+
+  /**
+   * Query points.
+   */
+  DoubleVector[] queries;
+
+  /**
+   * Generate the data and build the index.
+   */
+  @Setup
+  public void setup() {
+    Random rnd = new Random(0L);
+    // Gaussian mixture with 10 components.
+    double[][] centers = new double[10][dim];
+    for(double[] c : centers) {
+      for(int d = 0; d < dim; d++) {
+        c[d] = rnd.nextDouble() * 10.;
+      }
+    }
+    double[][] data = new double[size][dim];
+    for(double[] row : data) {
+      double[] c = centers[rnd.nextInt(centers.length)];
+      for(int d = 0; d < dim; d++) {
+        row[d] = c[d] + rnd.nextGaussian();
+      }
+    }
+    queries = new DoubleVector[QUERIES];
+    for(int i = 0; i < QUERIES; i++) {
+      queries[i] = DoubleVector.copy(data[rnd.nextInt(size)]);
+    }
+    Database db = new StaticArrayDatabase(new ArrayAdapterDatabaseConnection(data), Collections.singletonList(index.make()));
+    db.initialize();
+    Relation<DoubleVector> relation = db.getRelation(TypeUtil.DOUBLE_VECTOR_FIELD);
+    knnq = new QueryBuilder<>(relation, EuclideanDistance.STATIC).cheapOnly().kNNByObject(k);
+    if(knnq instanceof LinearScanQuery) {
+      throw new IllegalStateException("Index " + index + " is not used for kNN queries.");
+    }
+  }
+
+  /**
+   * Run a batch of kNN queries.
+   *
+   * @return Sum of kNN distances
+   */
+  @Benchmark
+  public double knn() {
+    double sum = 0.;
+    for(DoubleVector q : queries) {
+      sum += knnq.getKNN(q, k).getKNNDistance();
+    }
+    return sum;
+  }
+}
@@ -0,0 +1,91 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2019
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package elki.utilities.datastructures;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Microbenchmark for {@link QuickSelect} on primitive double arrays.
+ *
+ * @author Erich Schubert
+ * @since 0.8.0
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class QuickSelectBenchmark {
+  /**
+   * Array size.
+   */
+  @Param({ "1000", "100000" })
+  int size;
+
+  /**
+   * Random data.
+   */
+  double[] original;
+
+  /**
+   * Working copy.
+   */
+  double[] data;
+
+  /**
+   * Generate the data.
+   */
+  @Setup
+  public void setup() {
+    Random rnd = new Random(0L);
+    original = new double[size];
+    for(int i = 0; i < size; i++) {
+      original[i] = rnd.nextDouble();
+    }
+    data = new double[size];
+  }
+
+  /**
+   * Median of a copy of the random array.
+   *
+   * @return Median
+   */
+  @Benchmark
+  public double median() {
+    System.arraycopy(original, 0, data, 0, size);
+    return QuickSelect.median(data);
+  }
+
+  /**
+   * First percentile of a copy of the random array.
+   *
+   * @return Quantile
+   */
+  @Benchmark
+  public double quantile() {
+    System.arraycopy(original, 0, data, 0, size);
+    return QuickSelect.quickSelect(data, size / 100);
+  }
+}
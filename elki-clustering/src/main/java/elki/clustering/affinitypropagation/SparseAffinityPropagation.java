@@ -0,0 +1,543 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2019
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package elki.clustering.affinitypropagation;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+
+import elki.clustering.ClusteringAlgorithm;
+import elki.data.Clustering;
+import elki.data.model.MedoidModel;
+import elki.data.type.TypeInformation;
+import elki.data.type.TypeUtil;
+import elki.database.datastore.DataStoreFactory;
+import elki.database.datastore.DataStoreUtil;
+import elki.database.datastore.WritableIntegerDataStore;
+import elki.database.ids.ArrayDBIDs;
+import elki.database.ids.DBIDArrayIter;
+import elki.database.ids.DBIDRef;
+import elki.database.ids.DBIDUtil;
+import elki.database.ids.DoubleDBIDList;
+import elki.database.ids.DoubleDBIDListIter;
+import elki.database.query.QueryBuilder;
+import elki.database.query.knn.KNNSearcher;
+import elki.database.query.range.RangeSearcher;
+import elki.database.relation.Relation;
+import elki.distance.Distance;
+import elki.distance.minkowski.SquaredEuclideanDistance;
+import elki.logging.Logging;
+import elki.logging.progress.FiniteProgress;
+import elki.logging.progress.IndefiniteProgress;
+import elki.logging.progress.MutableProgress;
+import elki.logging.statistics.LongStatistic;
+import elki.parallel.ParallelCore;
+import elki.parallel.ParallelExecutor;
+import elki.utilities.datastructures.QuickSelect;
+import elki.utilities.documentation.Reference;
+import elki.utilities.documentation.Title;
+import elki.utilities.optionhandling.OptionID;
+import elki.utilities.optionhandling.Parameterizer;
+import elki.utilities.optionhandling.constraints.CommonConstraints;
+import elki.utilities.optionhandling.parameterization.Parameterization;
+import elki.utilities.optionhandling.parameters.DoubleParameter;
+import elki.utilities.optionhandling.parameters.IntParameter;
+import elki.utilities.optionhandling.parameters.ObjectParameter;
+
+/**
+ * Sparse affinity propagation, which only passes messages along the edges of
+ * a k-nearest-neighbor or &epsilon;-neighborhood graph.
+ * <p>
+ * Instead of the dense similarity, responsibility and availability matrixes of
+ * {@link AffinityPropagation}, this variant only stores one value each per
+ * edge of the neighborhood graph, in compressed sparse row arrays. The
+ * neighborhoods are obtained using the query API, and hence will use an
+ * index (such as a materialized kNN index) when available. Every object is
+ * also a candidate exemplar for itself, with the preference set to a quantile
+ * of the similarities in the graph. Because the graph only contains the
+ * largest similarities, the minimum is used by default (the dense variant
+ * uses the median of all similarities).
+ * <p>
+ * The responsibility updates are independent for each row, the availability
+ * updates for each column, and are hence both performed in parallel.
+ * <p>
+ * Reference:
+ * <p>
+ * B. J. Frey, D. Dueck<br>
+ * Clustering by Passing Messages Between Data Points<br>
+ * Science Vol 315
+ *
+ * @author Erich Schubert
+ * @since 0.8.0
+ *
+ * @param <O> object type
+ */
+@Title("Sparse Affinity Propagation")
+@Reference(title = "Clustering by Passing Messages Between Data Points", //
+    authors = "B. J. Frey, D. Dueck", //
+    booktitle = "Science Vol 315", //
+    url = "https://doi.org/10.1126/science.1136800", //
+    bibkey = "doi:10.1126/science.1136800")
+public class SparseAffinityPropagation<O> implements ClusteringAlgorithm<Clustering<MedoidModel>> {
+  /**
+   * Class logger
+   */
+  private static final Logging LOG = Logging.getLogger(SparseAffinityPropagation.class);
+
+  /**
+   * Number of blocks per thread for parallel processing.
+   */
+  private static final int BLOCKS_PER_THREAD = 16;
+
+  /**
+   * Minimum block size for parallel processing.
+   */
+  private static final int MIN_BLOCKSIZE = 64;
+
+  /**
+   * Distance function.
+   */
+  Distance<? super O> distance;
+
+  /**
+   * Number of neighbors (when not using a radius).
+   */
+  int k;
+
+  /**
+   * Neighborhood radius, or 0 to use the k nearest neighbors.
+   */
+  double epsilon;
+
+  /**
+   * Quantile to use for the preferences.
+   */
+  double quantile;
+
+  /**
+   * Damping factor lambda.
+   */
+  double lambda = 0.5;
+
+  /**
+   * Terminate after 10 iterations with no changes.
+   */
+  int convergence = 10;
+
+  /**
+   * Maximum number of iterations.
+   */
+  int maxiter = 1000;
+
+  /**
+   * Constructor.
+   *
+   * @param distance Distance function
+   * @param k Number of neighbors
+   * @param epsilon Neighborhood radius, 0 to use the k nearest neighbors
+   * @param quantile Quantile for the preferences
+   * @param lambda Damping factor
+   * @param convergence Termination threshold (Number of stable iterations)
+   * @param maxiter Maximum number of iterations
+   */
+  public SparseAffinityPropagation(Distance<? super O> distance, int k, double epsilon, double quantile, double lambda, int convergence, int maxiter) {
+    super();
+    this.distance = distance;
+    this.k = k;
+    this.epsilon = epsilon;
+    this.quantile = quantile;
+    this.lambda = lambda;
+    this.convergence = convergence;
+    this.maxiter = maxiter;
+  }
+
+  @Override
+  public TypeInformation[] getInputTypeRestriction() {
+    return TypeUtil.array(distance.getInputTypeRestriction());
+  }
+
+  /**
+   * Perform sparse affinity propagation clustering.
+   *
+   * @param relation Relation
+   * @return Clustering result
+   */
+  public Clustering<MedoidModel> run(Relation<O> relation) {
+    ArrayDBIDs ids = DBIDUtil.ensureArray(relation.getDBIDs());
+    final int size = ids.size();
+    Graph g = buildGraph(relation, ids);
+    final int nnz = g.rowptr[size];
+    LOG.statistics(new LongStatistic(getClass().getName() + ".edges", nnz));
+    double[] r = new double[nnz], a = new double[nnz];
+    int[] assignment = new int[size];
+
+    final int blocksize = parallelism() <= 1 ? size : Math.max(MIN_BLOCKSIZE, size / (parallelism() * BLOCKS_PER_THREAD));
+    IndefiniteProgress prog = LOG.isVerbose() ? new IndefiniteProgress("Affinity Propagation Iteration", LOG) : null;
+    MutableProgress aprog = LOG.isVerbose() ? new MutableProgress("Stable assignments", size + 1, LOG) : null;
+
+    int inactive = 0;
+    for(int iteration = 0; iteration < maxiter && inactive < convergence; iteration++) {
+      ParallelExecutor.forEach(size, blocksize, i -> updateResponsibilities(g, a, r, i));
+      ParallelExecutor.forEach(size, blocksize, i -> updateAvailabilities(g, r, a, i));
+      LongAdder changes = new LongAdder();
+      ParallelExecutor.forEach(size, blocksize, i -> {
+        if(updateAssignment(g, r, a, assignment, i)) {
+          changes.increment();
+        }
+      });
+      final int changed = changes.intValue();
+      inactive = changed > 0 ? 0 : (inactive + 1);
+      LOG.incrementProcessed(prog);
+      if(aprog != null) {
+        aprog.setProcessed(size - changed, LOG);
+      }
+    }
+    if(aprog != null) {
+      aprog.setProcessed(aprog.getTotal(), LOG);
+    }
+    LOG.setCompleted(prog);
+    return AffinityPropagation.buildResult(ids, assignment);
+  }
+
+  /**
+   * Build the sparse similarity graph. Each row begins with the diagonal entry,
+   * followed by the neighbors.
+   *
+   * @param relation Data relation
+   * @param ids Object ids
+   * @return Graph
+   */
+  private Graph buildGraph(Relation<O> relation, ArrayDBIDs ids) {
+    final int size = ids.size();
+    WritableIntegerDataStore offsets = DataStoreUtil.makeIntegerStorage(ids, DataStoreFactory.HINT_TEMP | DataStoreFactory.HINT_HOT, -1);
+    for(DBIDArrayIter it = ids.iter(); it.valid(); it.advance()) {
+      offsets.putInt(it, it.getOffset());
+    }
+    QueryBuilder<O> qb = new QueryBuilder<>(relation, distance);
+    KNNSearcher<DBIDRef> knnq = epsilon > 0 ? null : qb.kNNByDBID(k + 1);
+    RangeSearcher<DBIDRef> rq = epsilon > 0 ? qb.rangeByDBID(epsilon) : null;
+
+    final int[] rowptr = new int[size + 1];
+    int[] col = new int[size * (epsilon > 0 ? 8 : (k + 1))];
+    double[] s = new double[col.length];
+    int nnz = 0;
+    FiniteProgress prog = LOG.isVerbose() ? new FiniteProgress("Neighborhood graph", size, LOG) : null;
+    for(DBIDArrayIter it = ids.iter(); it.valid(); it.advance()) {
+      final int i = it.getOffset();
+      DoubleDBIDList neighbors = epsilon > 0 ? rq.getRange(it, epsilon) : knnq.getKNN(it, k + 1);
+      if(nnz + neighbors.size() + 1 > col.length) {
+        final int newsize = Math.max(col.length + (col.length >>> 1), nnz + neighbors.size() + 1);
+        col = Arrays.copyOf(col, newsize);
+        s = Arrays.copyOf(s, newsize);
+      }
+      rowptr[i] = nnz;
+      col[nnz++] = i; // Diagonal entry, preference is set below.
+      int added = 0;
+      for(DoubleDBIDListIter n = neighbors.iter(); n.valid() && (epsilon > 0 || added < k); n.advance()) {
+        final int j = offsets.intValue(n);
+        if(j == i || j < 0) {
+          continue;
+        }
+        col[nnz] = j;
+        s[nnz++] = -n.doubleValue();
+        ++added;
+      }
+      LOG.incrementProcessed(prog);
+    }
+    LOG.ensureCompleted(prog);
+    offsets.destroy();
+    rowptr[size] = nnz;
+    if(nnz < col.length) {
+      col = Arrays.copyOf(col, nnz);
+      s = Arrays.copyOf(s, nnz);
+    }
+    // Preference: quantile of the off-diagonal similarities
+    double pref = 0.;
+    if(nnz > size) {
+      double[] flat = new double[nnz - size];
+      for(int i = 0, j = 0; i < size; i++) {
+        final int len = rowptr[i + 1] - rowptr[i] - 1;
+        System.arraycopy(s, rowptr[i] + 1, flat, j, len);
+        j += len;
+      }
+      pref = QuickSelect.quantile(flat, quantile);
+    }
+    for(int i = 0; i < size; i++) {
+      s[rowptr[i]] = pref;
+    }
+    // Transposed index, to process the columns:
+    int[] colptr = new int[size + 1], colidx = new int[nnz];
+    for(int e = 0; e < nnz; e++) {
+      ++colptr[col[e] + 1];
+    }
+    for(int i = 0; i < size; i++) {
+      colptr[i + 1] += colptr[i];
+    }
+    int[] fill = new int[size];
+    for(int e = 0; e < nnz; e++) {
+      final int c = col[e];
+      colidx[colptr[c] + fill[c]++] = e;
+    }
+    return new Graph(rowptr, col, s, colptr, colidx);
+  }
+
+  /**
+   * Update the responsibilities of one row.
+   *
+   * @param g Graph
+   * @param a Availability
+   * @param r Responsibilities
+   * @param i Row
+   */
+  private void updateResponsibilities(Graph g, double[] a, double[] r, int i) {
+    final int start = g.rowptr[i], end = g.rowptr[i + 1];
+    if(end - start < 2) {
+      return; // Isolated object, its own exemplar.
+    }
+    final double[] s = g.s;
+    // Find the two largest values
+    double max1 = Double.NEGATIVE_INFINITY, max2 = Double.NEGATIVE_INFINITY;
+    int maxe = -1;
+    for(int e = start; e < end; e++) {
+      double val = a[e] + s[e];
+      if(val > max1) {
+        max2 = max1;
+        max1 = val;
+        maxe = e;
+      }
+      else if(val > max2) {
+        max2 = val;
+      }
+    }
+    // With the maximum value known, update r:
+    for(int e = start; e < end; e++) {
+      double val = s[e] - ((e != maxe) ? max1 : max2);
+      r[e] = r[e] * lambda + val * (1. - lambda);
+    }
+  }
+
+  /**
+   * Update the availabilities of one column.
+   *
+   * @param g Graph
+   * @param r Responsibilities
+   * @param a Availability
+   * @param c Column
+   */
+  private void updateAvailabilities(Graph g, double[] r, double[] a, int c) {
+    final int start = g.colptr[c], end = g.colptr[c + 1];
+    final int diag = g.rowptr[c];
+    // Compute sum of max(0, r_ik) for all i.
+    // For r_kk, don't apply the max.
+    double colposum = 0.;
+    for(int j = start; j < end; j++) {
+      final int e = g.colidx[j];
+      if(e == diag || r[e] > 0.) {
+        colposum += r[e];
+      }
+    }
+    for(int j = start; j < end; j++) {
+      final int e = g.colidx[j];
+      double val = colposum;
+      // Adjust column sum by the one extra term.
+      if(e == diag || r[e] > 0.) {
+        val -= r[e];
+      }
+      if(e != diag && val > 0.) { // min
+        val = 0.;
+      }
+      a[e] = a[e] * lambda + val * (1 - lambda);
+    }
+  }
+
+  /**
+   * Update the cluster assignment of one object.
+   *
+   * @param g Graph
+   * @param r Responsibilities
+   * @param a Affinities
+   * @param assignment Assignment storage
+   * @param i Object
+   * @return {@code true} if the assignment changed
+   */
+  private static boolean updateAssignment(Graph g, double[] r, double[] a, int[] assignment, int i) {
+    final int start = g.rowptr[i], end = g.rowptr[i + 1];
+    // The diagonal comes first, and hence is preferred on ties.
+    double max = Double.NEGATIVE_INFINITY;
+    int maxe = start;
+    for(int e = start; e < end; e++) {
+      double v = a[e] + r[e];
+      if(v > max) {
+        max = v;
+        maxe = e;
+      }
+    }
+    final int maxj = g.col[maxe];
+    if(assignment[i] != maxj) {
+      assignment[i] = maxj;
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * Get the current parallelism.
+   *
+   * @return Number of threads
+   */
+  private static int parallelism() {
+    return ParallelCore.getCore().getParallelism();
+  }
+
+  /**
+   * Sparse similarity graph, in compressed sparse row format, with an
+   * additional index of the edges by column.
+   *
+   * @author Erich Schubert
+   */
+  private static class Graph {
+    /**
+     * Start of each row in the edge arrays, and the number of edges.
+     */
+    final int[] rowptr;
+
+    /**
+     * Column of each edge.
+     */
+    final int[] col;
+
+    /**
+     * Similarity of each edge.
+     */
+    final double[] s;
+
+    /**
+     * Start of each column in the column index.
+     */
+    final int[] colptr;
+
+    /**
+     * Edge numbers, ordered by column.
+     */
+    final int[] colidx;
+
+    /**
+     * Constructor.
+     *
+     * @param rowptr Row starts
+     * @param col Edge columns
+     * @param s Edge similarities
+     * @param colptr Column starts
+     * @param colidx Edges ordered by column
+     */
+    Graph(int[] rowptr, int[] col, double[] s, int[] colptr, int[] colidx) {
+      this.rowptr = rowptr;
+      this.col = col;
+      this.s = s;
+      this.colptr = colptr;
+      this.colidx = colidx;
+    }
+  }
+
+  /**
+   * Parameterization class.
+   *
+   * @author Erich Schubert
+   *
+   * @hidden
+   *
+   * @param <O> object type
+   */
+  public static class Par<O> implements Parameterizer {
+    /**
+     * Number of neighbors to use.
+     */
+    public static final OptionID K_ID = new OptionID("ap.knn", "Number of nearest neighbors to pass messages to.");
+
+    /**
+     * Neighborhood radius to use instead of the nearest neighbors.
+     */
+    public static final OptionID EPSILON_ID = new OptionID("ap.epsilon", "Neighborhood radius to use instead of the k nearest neighbors.");
+
+    /**
+     * Distance function.
+     */
+    Distance<? super O> distance;
+
+    /**
+     * Number of neighbors.
+     */
+    int k;
+
+    /**
+     * Neighborhood radius.
+     */
+    double epsilon = 0.;
+
+    /**
+     * Quantile to use.
+     */
+    double quantile;
+
+    /**
+     * Dampening parameter.
+     */
+    double lambda = .5;
+
+    /**
+     * Number of stable iterations for convergence.
+     */
+    int convergence;
+
+    /**
+     * Maximum number of iterations.
+     */
+    int maxiter;
+
+    @Override
+    public void configure(Parameterization config) {
+      new ObjectParameter<Distance<? super O>>(DistanceBasedInitializationWithMedian.Par.DISTANCE_ID, Distance.class, SquaredEuclideanDistance.class) //
+          .grab(config, x -> distance = x);
+      new IntParameter(K_ID, 20) //
+          .addConstraint(CommonConstraints.GREATER_EQUAL_ONE_INT) //
+          .grab(config, x -> k = x);
+      new DoubleParameter(EPSILON_ID) //
+          .setOptional(true) //
+          .addConstraint(CommonConstraints.GREATER_THAN_ZERO_DOUBLE) //
+          .grab(config, x -> epsilon = x);
+      new DoubleParameter(AffinityPropagationInitialization.QUANTILE_ID, 0.) //
+          .grab(config, x -> quantile = x);
+      new DoubleParameter(AffinityPropagation.Par.LAMBDA_ID, .5) //
+          .addConstraint(CommonConstraints.GREATER_THAN_ZERO_DOUBLE) //
+          .addConstraint(CommonConstraints.LESS_THAN_ONE_DOUBLE) //
+          .grab(config, x -> lambda = x);
+      new IntParameter(AffinityPropagation.Par.CONVERGENCE_ID, 15) //
+          .addConstraint(CommonConstraints.GREATER_EQUAL_ONE_INT) //
+          .grab(config, x -> convergence = x);
+      new IntParameter(AffinityPropagation.Par.MAXITER_ID, 1000) //
+          .grab(config, x -> maxiter = x);
+    }
+
+    @Override
+    public SparseAffinityPropagation<O> make() {
+      return new SparseAffinityPropagation<>(distance, k, epsilon, quantile, lambda, convergence, maxiter);
+    }
+  }
+}
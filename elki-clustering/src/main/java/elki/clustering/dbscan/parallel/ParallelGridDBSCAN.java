@@ -0,0 +1,713 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2019
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package elki.clustering.dbscan.parallel;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.function.IntConsumer;
+
+import elki.clustering.ClusteringAlgorithm;
+import elki.clustering.dbscan.DBSCAN;
+import elki.data.Cluster;
+import elki.data.Clustering;
+import elki.data.NumberVector;
+import elki.data.model.ClusterModel;
+import elki.data.model.Model;
+import elki.data.type.TypeInformation;
+import elki.data.type.TypeUtil;
+import elki.database.ids.ArrayDBIDs;
+import elki.database.ids.DBIDArrayIter;
+import elki.database.ids.DBIDUtil;
+import elki.database.ids.ModifiableDBIDs;
+import elki.database.relation.Relation;
+import elki.database.relation.RelationUtil;
+import elki.logging.Logging;
+import elki.logging.statistics.LongStatistic;
+import elki.parallel.ParallelCore;
+import elki.parallel.ParallelExecutor;
+import elki.result.Metadata;
+import elki.utilities.datastructures.arrays.IntegerArrayQuickSort;
+import elki.utilities.documentation.Reference;
+import elki.utilities.documentation.Title;
+import elki.utilities.exceptions.AbortException;
+import elki.utilities.optionhandling.Parameterizer;
+import elki.utilities.optionhandling.constraints.CommonConstraints;
+import elki.utilities.optionhandling.parameterization.Parameterization;
+import elki.utilities.optionhandling.parameters.DoubleParameter;
+import elki.utilities.optionhandling.parameters.IntParameter;
+
+import net.jafama.FastMath;
+
+/**
+ * Exact grid-based DBSCAN for low-dimensional data and Euclidean distance,
+ * parallelized with a concurrent union-find data structure.
+ * <p>
+ * The data is partitioned into grid cells of width &epsilon;/&radic;d, such
+ * that all points within one cell are neighbors of each other. Cells with at
+ * least minPts points consist of core points only; in all other cells, the
+ * neighbors are counted in the nearby cells only. Two core cells are connected
+ * if a pair of their core points is within &epsilon;, and connected cells are
+ * merged with a union-find data structure. Border points are assigned to the
+ * cluster of a core point within &epsilon;.
+ * <p>
+ * All phases are processed in parallel over the grid cells. No index is
+ * required, but the number of neighboring cells grows exponentially with the
+ * dimensionality, so this is only suitable for low-dimensional data.
+ * <p>
+ * Reference:
+ * <p>
+ * J. Gan, Y. Tao<br>
+ * DBSCAN Revisited: Mis-Claim, Un-Fixability, and Approximation<br>
+ * Proc. ACM SIGMOD Int. Conf. on Management of Data
+ * <p>
+ * Y. Wang, Y. Gu, J. Shun<br>
+ * Theoretically-Efficient and Practical Parallel DBSCAN<br>
+ * Proc. ACM SIGMOD Int. Conf. on Management of Data
+ *
+ * @author Erich Schubert
+ * @since 0.8.0
+ *
+ * @has - - - Instance
+ *
+ * @param <V> the type of vector the algorithm is applied to
+ */
+@Title("Parallel Grid-based DBSCAN")
+@Reference(authors = "J. Gan, Y. Tao", //
+    title = "DBSCAN Revisited: Mis-Claim, Un-Fixability, and Approximation", //
+    booktitle = "Proc. ACM SIGMOD Int. Conf. on Management of Data", //
+    url = "https://doi.org/10.1145/2723372.2737792", //
+    bibkey = "DBLP:conf/sigmod/GanT15")
+@Reference(authors = "Y. Wang, Y. Gu, J. Shun", //
+    title = "Theoretically-Efficient and Practical Parallel DBSCAN", //
+    booktitle = "Proc. ACM SIGMOD Int. Conf. on Management of Data", //
+    url = "https://doi.org/10.1145/3318464.3380582", //
+    bibkey = "DBLP:conf/sigmod/WangGS20")
+public class ParallelGridDBSCAN<V extends NumberVector> implements ClusteringAlgorithm<Clustering<Model>> {
+  /**
+   * The logger for this class.
+   */
+  private static final Logging LOG = Logging.getLogger(ParallelGridDBSCAN.class);
+
+  /**
+   * Number of blocks per thread for parallel processing.
+   */
+  private static final int BLOCKS_PER_THREAD = 16;
+
+  /**
+   * Maximum number of neighbor cell offsets.
+   */
+  private static final int MAX_OFFSETS = 1 << 20;
+
+  /**
+   * Holds the epsilon radius threshold.
+   */
+  protected double epsilon;
+
+  /**
+   * Holds the minimum cluster size.
+   */
+  protected int minpts;
+
+  /**
+   * Constructor with parameters.
+   *
+   * @param epsilon Epsilon value
+   * @param minpts Minpts parameter
+   */
+  public ParallelGridDBSCAN(double epsilon, int minpts) {
+    super();
+    this.epsilon = epsilon;
+    this.minpts = minpts;
+  }
+
+  @Override
+  public TypeInformation[] getInputTypeRestriction() {
+    return TypeUtil.array(TypeUtil.NUMBER_VECTOR_FIELD);
+  }
+
+  /**
+   * Performs the DBSCAN algorithm on the given database.
+   *
+   * @param relation Relation to process
+   * @return Clustering result
+   */
+  public Clustering<Model> run(Relation<V> relation) {
+    final ArrayDBIDs ids = DBIDUtil.ensureArray(relation.getDBIDs());
+    // Degenerate result:
+    if(ids.size() < minpts) {
+      Clustering<Model> result = new Clustering<>();
+      Metadata.of(result).setLongName("DBSCAN Clustering");
+      result.addToplevelCluster(new Cluster<Model>(ids, true, ClusterModel.CLUSTER));
+      return result;
+    }
+    return new Instance(relation, ids).run();
+  }
+
+  /**
+   * Instance for a single data set.
+   *
+   * @author Erich Schubert
+   */
+  protected class Instance {
+    /**
+     * Object ids.
+     */
+    private ArrayDBIDs ids;
+
+    /**
+     * Dimensionality.
+     */
+    private int dim;
+
+    /**
+     * Squared epsilon.
+     */
+    private double eps2;
+
+    /**
+     * Original offset of each point, in grid order.
+     */
+    private int[] order;
+
+    /**
+     * Coordinates of the points, in grid order.
+     */
+    private double[] data;
+
+    /**
+     * Start of each cell in grid order, and the number of points.
+     */
+    private int[] cellStart;
+
+    /**
+     * Grid coordinates of each cell.
+     */
+    private int[] cellCoord;
+
+    /**
+     * Offsets of the potential neighbor cells, dim values each.
+     */
+    private int[] offsets;
+
+    /**
+     * Neighbor cells of each cell (except the cell itself).
+     */
+    private int[][] neighbors;
+
+    /**
+     * Core point flags, in grid order.
+     */
+    private boolean[] core;
+
+    /**
+     * Core cell flags.
+     */
+    private boolean[] coreCell;
+
+    /**
+     * Union-find parents of the cells.
+     */
+    private AtomicIntegerArray parent;
+
+    /**
+     * Cluster number of each point, in grid order, -1 for noise.
+     */
+    private int[] cluster;
+
+    /**
+     * Constructor.
+     *
+     * @param relation Data relation
+     * @param ids Object ids
+     */
+    protected Instance(Relation<V> relation, ArrayDBIDs ids) {
+      this.ids = ids;
+      this.dim = RelationUtil.dimensionality(relation);
+      this.eps2 = epsilon * epsilon;
+      buildGrid(relation);
+      this.offsets = neighborOffsets();
+    }
+
+    /**
+     * Run the clustering.
+     *
+     * @return Clustering
+     */
+    protected Clustering<Model> run() {
+      final int ncells = cellStart.length - 1;
+      neighbors = new int[ncells][];
+      parallel(ncells, this::findNeighbors);
+      core = new boolean[data.length / dim];
+      coreCell = new boolean[ncells];
+      parallel(ncells, this::markCore);
+      parent = new AtomicIntegerArray(ncells);
+      int ncore = 0;
+      for(int c = 0; c < ncells; c++) {
+        parent.set(c, c);
+        ncore += coreCell[c] ? 1 : 0;
+      }
+      parallel(ncells, this::connectCell);
+      // Number the clusters, by their union-find roots.
+      int[] cellCluster = new int[ncells];
+      Arrays.fill(cellCluster, -1);
+      int nclusters = 0;
+      for(int c = 0; c < ncells; c++) {
+        if(coreCell[c]) {
+          final int root = find(c);
+          cellCluster[c] = cellCluster[root] >= 0 ? cellCluster[root] : (cellCluster[root] = nclusters++);
+        }
+      }
+      cluster = new int[core.length];
+      parallel(ncells, c -> assignCell(c, cellCluster));
+      if(LOG.isStatistics()) {
+        final String key = ParallelGridDBSCAN.class.getName();
+        LOG.statistics(new LongStatistic(key + ".cells", ncells));
+        LOG.statistics(new LongStatistic(key + ".corecells", ncore));
+        LOG.statistics(new LongStatistic(key + ".clusters", nclusters));
+      }
+      return buildResult(nclusters);
+    }
+
+    /**
+     * Assign the points to grid cells, and sort them by cell.
+     *
+     * @param relation Data relation
+     */
+    private void buildGrid(Relation<V> relation) {
+      final int size = ids.size();
+      final double side = epsilon / FastMath.sqrt(dim);
+      double[] min = new double[dim];
+      Arrays.fill(min, Double.POSITIVE_INFINITY);
+      for(DBIDArrayIter it = ids.iter(); it.valid(); it.advance()) {
+        NumberVector vec = relation.get(it);
+        for(int d = 0; d < dim; d++) {
+          final double v = vec.doubleValue(d);
+          min[d] = v < min[d] ? v : min[d];
+        }
+      }
+      final int[] coords = new int[size * dim];
+      final double[] raw = new double[size * dim];
+      for(DBIDArrayIter it = ids.iter(); it.valid(); it.advance()) {
+        NumberVector vec = relation.get(it);
+        for(int d = 0, j = it.getOffset() * dim; d < dim; d++, j++) {
+          final double v = raw[j] = vec.doubleValue(d);
+          final double c = (v - min[d]) / side;
+          if(!(c < Integer.MAX_VALUE)) {
+            throw new AbortException("Epsilon is too small for the extent of the data, or the data contains infinite values.");
+          }
+          coords[j] = (int) c;
+        }
+      }
+      order = new int[size];
+      for(int i = 0; i < size; i++) {
+        order[i] = i;
+      }
+      IntegerArrayQuickSort.sort(order, (a, b) -> {
+        for(int d = 0, i = a * dim, j = b * dim; d < dim; d++, i++, j++) {
+          if(coords[i] != coords[j]) {
+            return coords[i] < coords[j] ? -1 : +1;
+          }
+        }
+        return 0;
+      });
+      // Copy data in grid order, and find the cell boundaries:
+      data = new double[size * dim];
+      int[] start = new int[size + 1];
+      int[] ccoord = new int[size * dim];
+      int ncells = 0;
+      for(int i = 0; i < size; i++) {
+        final int o = order[i] * dim;
+        System.arraycopy(raw, o, data, i * dim, dim);
+        if(i == 0 || compare(ccoord, (ncells - 1) * dim, coords, o) != 0) {
+          System.arraycopy(coords, o, ccoord, ncells * dim, dim);
+          start[ncells++] = i;
+        }
+      }
+      start[ncells] = size;
+      cellStart = Arrays.copyOf(start, ncells + 1);
+      cellCoord = Arrays.copyOf(ccoord, ncells * dim);
+    }
+
+    /**
+     * Find the non-empty neighbor cells of a cell that may contain points
+     * within epsilon.
+     *
+     * @param c Cell
+     */
+    private void findNeighbors(int c) {
+      final int noff = offsets.length / dim;
+      int[] buf = new int[dim], found = new int[16];
+      int n = 0;
+      for(int o = 0; o < noff; o++) {
+        for(int d = 0, i = c * dim, j = o * dim; d < dim; d++, i++, j++) {
+          buf[d] = cellCoord[i] + offsets[j];
+        }
+        final int nc = findCell(buf);
+        if(nc >= 0) {
+          if(n == found.length) {
+            found = Arrays.copyOf(found, n << 1);
+          }
+          found[n++] = nc;
+        }
+      }
+      neighbors[c] = Arrays.copyOf(found, n);
+    }
+
+    /**
+     * Mark the core points of a cell.
+     *
+     * @param c Cell
+     */
+    private void markCore(int c) {
+      final int start = cellStart[c], end = cellStart[c + 1];
+      if(end - start >= minpts) {
+        Arrays.fill(core, start, end, true);
+        coreCell[c] = true;
+        return;
+      }
+      boolean any = false;
+      for(int p = start; p < end; p++) {
+        int count = end - start;
+        for(int nc : neighbors[c]) {
+          for(int q = cellStart[nc], e = cellStart[nc + 1]; q < e && count < minpts; q++) {
+            count += sqdist(p, q) <= eps2 ? 1 : 0;
+          }
+          if(count >= minpts) {
+            break;
+          }
+        }
+        any |= core[p] = count >= minpts;
+      }
+      coreCell[c] = any;
+    }
+
+    /**
+     * Connect a core cell with its neighbor core cells (of higher index), if
+     * any two core points are within epsilon.
+     *
+     * @param c Cell
+     */
+    private void connectCell(int c) {
+      if(!coreCell[c]) {
+        return;
+      }
+      for(int nc : neighbors[c]) {
+        if(nc < c || !coreCell[nc] || find(c) == find(nc)) {
+          continue;
+        }
+        if(hasClosePair(c, nc)) {
+          union(c, nc);
+        }
+      }
+    }
+
+    /**
+     * Bichromatic closest pair test: check if any two core points of the
+     * two cells are within epsilon.
+     *
+     * @param c1 First cell
+     * @param c2 Second cell
+     * @return {@code true} when the cells are connected
+     */
+    private boolean hasClosePair(int c1, int c2) {
+      for(int p = cellStart[c1], e1 = cellStart[c1 + 1]; p < e1; p++) {
+        if(!core[p]) {
+          continue;
+        }
+        for(int q = cellStart[c2], e2 = cellStart[c2 + 1]; q < e2; q++) {
+          if(core[q] && sqdist(p, q) <= eps2) {
+            return true;
+          }
+        }
+      }
+      return false;
+    }
+
+    /**
+     * Assign the points of a cell to clusters.
+     *
+     * @param c Cell
+     * @param cellCluster Cluster numbers of the core cells
+     */
+    private void assignCell(int c, int[] cellCluster) {
+      final int start = cellStart[c], end = cellStart[c + 1];
+      if(coreCell[c]) {
+        // All points are within epsilon of the core points of the cell.
+        Arrays.fill(cluster, start, end, cellCluster[c]);
+        return;
+      }
+      for(int p = start; p < end; p++) {
+        cluster[p] = borderCluster(c, p, cellCluster);
+      }
+    }
+
+    /**
+     * Find the cluster of a border point, if any.
+     *
+     * @param c Cell
+     * @param p Point
+     * @param cellCluster Cluster numbers of the core cells
+     * @return Cluster number, or -1 for noise
+     */
+    private int borderCluster(int c, int p, int[] cellCluster) {
+      for(int nc : neighbors[c]) {
+        if(!coreCell[nc]) {
+          continue;
+        }
+        for(int q = cellStart[nc], e = cellStart[nc + 1]; q < e; q++) {
+          if(core[q] && sqdist(p, q) <= eps2) {
+            return cellCluster[nc];
+          }
+        }
+      }
+      return -1;
+    }
+
+    /**
+     * Build the clustering result.
+     *
+     * @param nclusters Number of clusters
+     * @return Clustering
+     */
+    private Clustering<Model> buildResult(int nclusters) {
+      List<ModifiableDBIDs> clusters = new ArrayList<>(nclusters);
+      for(int i = 0; i < nclusters; i++) {
+        clusters.add(DBIDUtil.newArray());
+      }
+      ModifiableDBIDs noise = DBIDUtil.newArray();
+      DBIDArrayIter it = ids.iter();
+      for(int p = 0; p < cluster.length; p++) {
+        it.seek(order[p]);
+        (cluster[p] >= 0 ? clusters.get(cluster[p]) : noise).add(it);
+      }
+      Clustering<Model> result = new Clustering<>();
+      Metadata.of(result).setLongName("DBSCAN Clustering");
+      for(ModifiableDBIDs c : clusters) {
+        result.addToplevelCluster(new Cluster<Model>(c, ClusterModel.CLUSTER));
+      }
+      if(noise.size() > 0) {
+        result.addToplevelCluster(new Cluster<Model>(noise, true, ClusterModel.CLUSTER));
+      }
+      return result;
+    }
+
+    /**
+     * Offsets of all cells that may contain points within epsilon of a point
+     * in the center cell.
+     *
+     * @return Offsets, dim values each
+     */
+    private int[] neighborOffsets() {
+      final int r = (int) FastMath.ceil(FastMath.sqrt(dim));
+      final int width = 2 * r + 1;
+      if(FastMath.pow(width, dim) > MAX_OFFSETS) {
+        throw new AbortException("Grid-based DBSCAN is only feasible for low-dimensional data.");
+      }
+      // Cells are at most dim steps of width eps/sqrt(d) apart:
+      int[] buf = new int[dim], tmp = new int[dim * 16];
+      int n = 0;
+      Arrays.fill(buf, -r);
+      while(true) {
+        int sq = 0;
+        boolean center = true;
+        for(int d = 0; d < dim; d++) {
+          final int a = Math.abs(buf[d]) - 1;
+          sq += a > 0 ? a * a : 0;
+          center &= buf[d] == 0;
+        }
+        if(!center && sq <= dim) { // i.e. (sq * side^2 <= eps^2)
+          if(n + dim > tmp.length) {
+            tmp = Arrays.copyOf(tmp, tmp.length << 1);
+          }
+          System.arraycopy(buf, 0, tmp, n, dim);
+          n += dim;
+        }
+        // Advance to the next offset:
+        int d = dim - 1;
+        while(d >= 0 && buf[d] == r) {
+          buf[d--] = -r;
+        }
+        if(d < 0) {
+          break;
+        }
+        ++buf[d];
+      }
+      return Arrays.copyOf(tmp, n);
+    }
+
+    /**
+     * Find a cell by its coordinates, using binary search.
+     *
+     * @param coord Coordinates
+     * @return Cell number, or -1
+     */
+    private int findCell(int[] coord) {
+      int lo = 0, hi = cellStart.length - 2;
+      while(lo <= hi) {
+        final int mid = (lo + hi) >>> 1;
+        final int cmp = compare(cellCoord, mid * dim, coord, 0);
+        if(cmp == 0) {
+          return mid;
+        }
+        if(cmp < 0) {
+          lo = mid + 1;
+        }
+        else {
+          hi = mid - 1;
+        }
+      }
+      return -1;
+    }
+
+    /**
+     * Compare two grid coordinates lexicographically.
+     *
+     * @param a First array
+     * @param i Offset in the first array
+     * @param b Second array
+     * @param j Offset in the second array
+     * @return Comparison result
+     */
+    private int compare(int[] a, int i, int[] b, int j) {
+      for(int d = 0; d < dim; d++, i++, j++) {
+        if(a[i] != b[j]) {
+          return a[i] < b[j] ? -1 : +1;
+        }
+      }
+      return 0;
+    }
+
+    /**
+     * Squared Euclidean distance of two points, in grid order.
+     *
+     * @param p First point
+     * @param q Second point
+     * @return Squared distance
+     */
+    private double sqdist(int p, int q) {
+      double sum = 0.;
+      for(int d = 0, i = p * dim, j = q * dim; d < dim; d++, i++, j++) {
+        final double v = data[i] - data[j];
+        sum += v * v;
+      }
+      return sum;
+    }
+
+    /**
+     * Find the union-find root of a cell, with path halving.
+     *
+     * @param x Cell
+     * @return Root
+     */
+    private int find(int x) {
+      while(true) {
+        final int p = parent.get(x);
+        if(p == x) {
+          return x;
+        }
+        final int gp = parent.get(p);
+        if(gp != p) {
+          parent.compareAndSet(x, p, gp);
+        }
+        x = gp;
+      }
+    }
+
+    /**
+     * Merge the sets of two cells. The root with the larger index is linked
+     * to the smaller, which ensures that concurrent unions cannot form cycles.
+     *
+     * @param a First cell
+     * @param b Second cell
+     */
+    private void union(int a, int b) {
+      while(true) {
+        a = find(a);
+        b = find(b);
+        if(a == b) {
+          return;
+        }
+        if(a < b) {
+          final int tmp = a;
+          a = b;
+          b = tmp;
+        }
+        if(parent.compareAndSet(a, a, b)) {
+          return;
+        }
+      }
+    }
+  }
+
+  /**
+   * Process the range [0:size) in parallel.
+   *
+   * @param size Range size
+   * @param op Operation for each index
+   */
+  private static void parallel(int size, IntConsumer op) {
+    final int parallelism = ParallelCore.getCore().getParallelism();
+    ParallelExecutor.forEach(size, Math.max(1, size / (parallelism * BLOCKS_PER_THREAD)), op);
+  }
+
+  /**
+   * Parameterization class.
+   *
+   * @author Erich Schubert
+   *
+   * @hidden
+   *
+   * @param <O> Vector type to use
+   */
+  public static class Par<O extends NumberVector> implements Parameterizer {
+    /**
+     * Holds the epsilon radius threshold.
+     */
+    protected double epsilon;
+
+    /**
+     * Holds the minimum cluster size.
+     */
+    protected int minpts;
+
+    @Override
+    public void configure(Parameterization config) {
+      new DoubleParameter(DBSCAN.Par.EPSILON_ID) //
+          .addConstraint(CommonConstraints.GREATER_THAN_ZERO_DOUBLE) //
+          .grab(config, x -> epsilon = x);
+      new IntParameter(DBSCAN.Par.MINPTS_ID) //
+          .addConstraint(CommonConstraints.GREATER_EQUAL_ONE_INT) //
+          .grab(config, x -> {
+            minpts = x;
+            if(minpts <= 2) {
+              LOG.warning("DBSCAN with minPts <= 2 is equivalent to single-link clustering at a single height. Consider using larger values of minPts.");
+            }
+          });
+    }
+
+    @Override
+    public ParallelGridDBSCAN<O> make() {
+      return new ParallelGridDBSCAN<>(epsilon, minpts);
+    }
+  }
+}
@@ -20,22 +20,25 @@
  */
 package elki.clustering.em;
 
-import static elki.math.linearalgebra.VMath.argmax;
-
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.RecursiveAction;
 
 import elki.clustering.ClusteringAlgorithm;
 import elki.clustering.kmeans.KMeans;
 import elki.data.Cluster;
 import elki.data.Clustering;
 import elki.data.model.MeanModel;
+import elki.data.model.Model;
 import elki.data.type.SimpleTypeInformation;
 import elki.data.type.TypeInformation;
 import elki.data.type.TypeUtil;
 import elki.database.datastore.DataStoreFactory;
 import elki.database.datastore.DataStoreUtil;
 import elki.database.datastore.WritableDataStore;
+import elki.database.ids.ArrayDBIDs;
+import elki.database.ids.DBIDArrayIter;
 import elki.database.ids.DBIDIter;
 import elki.database.ids.DBIDUtil;
 import elki.database.ids.ModifiableDBIDs;
@@ -44,11 +47,13 @@ import elki.database.relation.Relation;
 import elki.logging.Logging;
 import elki.logging.statistics.DoubleStatistic;
 import elki.logging.statistics.LongStatistic;
+import elki.parallel.ParallelCore;
 import elki.result.Metadata;
 import elki.utilities.Priority;
 import elki.utilities.documentation.Description;
 import elki.utilities.documentation.Reference;
 import elki.utilities.documentation.Title;
+import elki.utilities.exceptions.AbortException;
 import elki.utilities.optionhandling.OptionID;
 import elki.utilities.optionhandling.Parameterizer;
 import elki.utilities.optionhandling.constraints.CommonConstraints;
@@ -149,6 +154,16 @@ public class EM<O, M extends MeanModel> implements ClusteringAlgorithm<Clusterin
    */
   private static final double MIN_LOGLIKELIHOOD = -100000;
 
+  /**
+   * Number of blocks per thread for parallel processing.
+   */
+  private static final int BLOCKS_PER_THREAD = 4;
+
+  /**
+   * Minimum block size for parallel processing.
+   */
+  private static final int MIN_BLOCKSIZE = 256;
+
   /**
    * Soft assignment result type.
    */
@@ -234,10 +249,17 @@ public class EM<O, M extends MeanModel> implements ClusteringAlgorithm<Clusterin
     if(relation.size() == 0) {
       throw new IllegalArgumentException("database empty: must contain elements");
     }
+    // Soft assignments, stored in one contiguous array of n rows of k values
+    ArrayDBIDs ids = DBIDUtil.ensureArray(relation.getDBIDs());
+    final long size = ids.size() * (long) k;
+    if(size > Integer.MAX_VALUE - 8) {
+      throw new AbortException("EM stores all soft assignments in a single array, which does not scale to " + //
+          ids.size() + " instances times " + k + " clusters, as the Java maximum array size is exceeded.");
+    }
     // initial models
     List<? extends EMClusterModel<O, M>> models = mfactory.buildInitialModels(relation, k);
-    WritableDataStore<double[]> probClusterIGivenX = DataStoreUtil.makeStorage(relation.getDBIDs(), DataStoreFactory.HINT_HOT | DataStoreFactory.HINT_SORTED, double[].class);
-    double loglikelihood = assignProbabilitiesToInstances(relation, models, probClusterIGivenX);
+    double[] probClusterIGivenX = new double[(int) size];
+    double loglikelihood = assignProbabilitiesToInstances(relation, ids, models, probClusterIGivenX);
     DoubleStatistic likestat = new DoubleStatistic(this.getClass().getName() + ".loglikelihood");
     LOG.statistics(likestat.setDouble(loglikelihood));
 
@@ -246,9 +268,9 @@ public class EM<O, M extends MeanModel> implements ClusteringAlgorithm<Clusterin
     double bestloglikelihood = loglikelihood; // For detecting instabilities.
     for(++it; it < maxiter || maxiter < 0; it++) {
       final double oldloglikelihood = loglikelihood;
-      recomputeCovarianceMatrices(relation, probClusterIGivenX, models, prior);
+      recomputeCovarianceMatrices(relation, ids, probClusterIGivenX, models, prior);
       // reassign probabilities
-      loglikelihood = assignProbabilitiesToInstances(relation, models, probClusterIGivenX);
+      loglikelihood = assignProbabilitiesToInstances(relation, ids, models, probClusterIGivenX);
 
       LOG.statistics(likestat.setDouble(loglikelihood));
       if(loglikelihood - bestloglikelihood > delta) {
@@ -268,8 +290,13 @@ public class EM<O, M extends MeanModel> implements ClusteringAlgorithm<Clusterin
     }
 
     // provide a hard clustering
-    for(DBIDIter iditer = relation.iterDBIDs(); iditer.valid(); iditer.advance()) {
-      hardClusters.get(argmax(probClusterIGivenX.get(iditer))).add(iditer);
+    for(DBIDArrayIter iditer = ids.iter(); iditer.valid(); iditer.advance()) {
+      final int off = iditer.getOffset() * k;
+      int best = 0;
+      for(int i = 1; i < k; i++) {
+        best = probClusterIGivenX[off + i] > probClusterIGivenX[off + best] ? i : best;
+      }
+      hardClusters.get(best).add(iditer);
     }
     Clustering<M> result = new Clustering<>();
     Metadata.of(result).setLongName("EM Clustering");
@@ -278,10 +305,12 @@ public class EM<O, M extends MeanModel> implements ClusteringAlgorithm<Clusterin
       result.addToplevelCluster(new Cluster<>(hardClusters.get(i), models.get(i).finalizeCluster()));
     }
     if(soft) {
-      Metadata.hierarchyOf(result).addChild(new MaterializedRelation<>("EM Cluster Probabilities", SOFT_TYPE, relation.getDBIDs(), probClusterIGivenX));
-    }
-    else {
-      probClusterIGivenX.destroy();
+      WritableDataStore<double[]> softassign = DataStoreUtil.makeStorage(relation.getDBIDs(), DataStoreFactory.HINT_DB | DataStoreFactory.HINT_SORTED, double[].class);
+      for(DBIDArrayIter iditer = ids.iter(); iditer.valid(); iditer.advance()) {
+        final int off = iditer.getOffset() * k;
+        softassign.put(iditer, Arrays.copyOfRange(probClusterIGivenX, off, off + k));
+      }
+      Metadata.hierarchyOf(result).addChild(new MaterializedRelation<>("EM Cluster Probabilities", SOFT_TYPE, relation.getDBIDs(), softassign));
     }
     return result;
   }
@@ -371,6 +400,99 @@ public class EM<O, M extends MeanModel> implements ClusteringAlgorithm<Clusterin
     return emSum / relation.size();
   }
 
+  /**
+   * Recompute the covariance matrixes, using soft assignments stored in a
+   * contiguous array.
+   * <p>
+   * The data is processed in parallel blocks; each block aggregates into
+   * partial models (see {@link EMClusterModel#newPartialE()}), which are merged
+   * pairwise in a fixed order. If a model does not support partial aggregation,
+   * the data is processed sequentially.
+   *
+   * @param relation Vector data
+   * @param ids Object ids, in the order of the probability array
+   * @param probClusterIGivenX Object probabilities, k values per object
+   * @param models Cluster models to update
+   * @param prior MAP prior (use 0 for MLE)
+   * @param <O> Object type
+   * @param <M> Model type
+   */
+  public static <O, M extends Model> void recomputeCovarianceMatrices(Relation<? extends O> relation, ArrayDBIDs ids, double[] probClusterIGivenX, List<? extends EMClusterModel<O, M>> models, double prior) {
+    final int k = models.size(), size = ids.size();
+    boolean needsTwoPass = false;
+    for(EMClusterModel<?, ?> m : models) {
+      m.beginEStep();
+      needsTwoPass |= m.needsTwoPass();
+    }
+    final int blocksize = blocksize(size);
+    // First pass, only for two-pass models.
+    if(needsTwoPass) {
+      invoke(new MStepTask<>(relation, ids, probClusterIGivenX, models, new double[k], true, 0, size, blocksize), blocksize, size);
+      for(EMClusterModel<?, ?> m : models) {
+        m.finalizeFirstPassE();
+      }
+    }
+    double[] wsum = new double[k];
+    invoke(new MStepTask<>(relation, ids, probClusterIGivenX, models, wsum, false, 0, size, blocksize), blocksize, size);
+    for(int i = 0; i < k; i++) {
+      // MLE / MAP
+      final double weight = prior <= 0. ? wsum[i] / size : (wsum[i] + prior - 1) / (size + prior * k - k);
+      models.get(i).finalizeEStep(weight, prior);
+    }
+  }
+
+  /**
+   * Assigns the current probability values to the instances, stored in a
+   * contiguous array, and compute the expectation value of the current mixture
+   * of distributions. The data is processed in parallel blocks.
+   *
+   * @param relation the database used for assignment to instances
+   * @param ids Object ids, in the order of the probability array
+   * @param models Cluster models
+   * @param probClusterIGivenX Output cluster probabilities, k values per object
+   * @param <O> Object type
+   * @return the expectation value of the current mixture of distributions
+   */
+  public static <O> double assignProbabilitiesToInstances(Relation<? extends O> relation, ArrayDBIDs ids, List<? extends EMClusterModel<O, ?>> models, double[] probClusterIGivenX) {
+    final int size = ids.size(), blocksize = blocksize(size);
+    EStepTask<O> task = new EStepTask<>(relation, ids, models, probClusterIGivenX, 0, size, blocksize);
+    invoke(task, blocksize, size);
+    return task.loglikelihood / size;
+  }
+
+  /**
+   * Choose the block size for parallel processing.
+   *
+   * @param size Data set size
+   * @return Block size
+   */
+  private static int blocksize(int size) {
+    final int parallelism = ParallelCore.getCore().getParallelism();
+    return parallelism <= 1 ? size : Math.max(MIN_BLOCKSIZE, size / (parallelism * BLOCKS_PER_THREAD));
+  }
+
+  /**
+   * Run a task, in parallel if the data consists of more than one block.
+   *
+   * @param task Task to run
+   * @param blocksize Block size
+   * @param size Data set size
+   */
+  private static void invoke(RecursiveAction task, int blocksize, int size) {
+    if(size <= blocksize) {
+      task.invoke(); // No parallelism needed.
+      return;
+    }
+    ParallelCore core = ParallelCore.getCore();
+    core.connect();
+    try {
+      core.invoke(task);
+    }
+    finally {
+      core.disconnect();
+    }
+  }
+
   /**
    * Compute log(sum(exp(x_i)), with attention to numerical issues.
    * 
@@ -378,14 +500,26 @@ public class EM<O, M extends MeanModel> implements ClusteringAlgorithm<Clusterin
    * @return Result
    */
   private static double logSumExp(double[] x) {
-    double max = x[0];
-    for(int i = 1; i < x.length; i++) {
+    return logSumExp(x, 0, x.length);
+  }
+
+  /**
+   * Compute log(sum(exp(x_i)), with attention to numerical issues.
+   * 
+   * @param x Input
+   * @param start First index
+   * @param end End index (exclusive)
+   * @return Result
+   */
+  private static double logSumExp(double[] x, int start, int end) {
+    double max = x[start];
+    for(int i = start + 1; i < end; i++) {
       final double v = x[i];
       max = v > max ? v : max;
     }
     final double cutoff = max - 35.350506209; // log_e(2**51)
     double acc = 0.;
-    for(int i = 0; i < x.length; i++) {
+    for(int i = start; i < end; i++) {
       final double v = x[i];
       if(v > cutoff) {
         acc += v < max ? FastMath.exp(v - max) : 1.;
@@ -404,6 +538,220 @@ public class EM<O, M extends MeanModel> implements ClusteringAlgorithm<Clusterin
     this.soft = soft;
   }
 
+  /**
+   * Task for the parallel E-step, computing the cluster probabilities and the
+   * log-likelihood of a range of objects.
+   *
+   * @author Erich Schubert
+   *
+   * @param <O> Object type
+   */
+  private static class EStepTask<O> extends RecursiveAction {
+    /**
+     * Serialization version.
+     */
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Data relation.
+     */
+    private Relation<? extends O> relation;
+
+    /**
+     * Object ids.
+     */
+    private ArrayDBIDs ids;
+
+    /**
+     * Cluster models.
+     */
+    private List<? extends EMClusterModel<O, ?>> models;
+
+    /**
+     * Output probabilities.
+     */
+    private double[] probs;
+
+    /**
+     * Object range, and block size.
+     */
+    private int start, end, blocksize;
+
+    /**
+     * Sum of the log-likelihoods of the range.
+     */
+    double loglikelihood;
+
+    /**
+     * Constructor.
+     *
+     * @param relation Data relation
+     * @param ids Object ids
+     * @param models Cluster models
+     * @param probs Output probabilities
+     * @param start First object
+     * @param end End object (exclusive)
+     * @param blocksize Block size
+     */
+    EStepTask(Relation<? extends O> relation, ArrayDBIDs ids, List<? extends EMClusterModel<O, ?>> models, double[] probs, int start, int end, int blocksize) {
+      this.relation = relation;
+      this.ids = ids;
+      this.models = models;
+      this.probs = probs;
+      this.start = start;
+      this.end = end;
+      this.blocksize = blocksize;
+    }
+
+    @Override
+    protected void compute() {
+      if(end - start > blocksize) {
+        final int mid = (start + end) >>> 1;
+        EStepTask<O> left = new EStepTask<>(relation, ids, models, probs, start, mid, blocksize);
+        EStepTask<O> right = new EStepTask<>(relation, ids, models, probs, mid, end, blocksize);
+        invokeAll(left, right);
+        loglikelihood = left.loglikelihood + right.loglikelihood;
+        return;
+      }
+      final int k = models.size();
+      double emSum = 0.;
+      DBIDArrayIter iditer = ids.iter().seek(start);
+      for(int off = start * k; iditer.getOffset() < end; iditer.advance(), off += k) {
+        O vec = relation.get(iditer);
+        for(int i = 0; i < k; i++) {
+          double v = models.get(i).estimateLogDensity(vec);
+          probs[off + i] = v > MIN_LOGLIKELIHOOD ? v : MIN_LOGLIKELIHOOD;
+        }
+        final double logP = logSumExp(probs, off, off + k);
+        for(int i = 0; i < k; i++) {
+          probs[off + i] = FastMath.exp(probs[off + i] - logP);
+        }
+        emSum += logP;
+      }
+      loglikelihood = emSum;
+    }
+  }
+
+  /**
+   * Task for the parallel M-step, aggregating a range of objects into the
+   * cluster models. When split, the second half aggregates into new partial
+   * models, which are merged into the models of the first half afterwards.
+   *
+   * @author Erich Schubert
+   *
+   * @param <O> Object type
+   * @param <M> Model type
+   */
+  private static class MStepTask<O, M extends Model> extends RecursiveAction {
+    /**
+     * Serialization version.
+     */
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Data relation.
+     */
+    private Relation<? extends O> relation;
+
+    /**
+     * Object ids.
+     */
+    private ArrayDBIDs ids;
+
+    /**
+     * Cluster probabilities.
+     */
+    private double[] probs;
+
+    /**
+     * Models to aggregate into.
+     */
+    private List<? extends EMClusterModel<O, M>> models;
+
+    /**
+     * Cluster weight sums.
+     */
+    private double[] wsum;
+
+    /**
+     * Flag for the first pass of two-pass models.
+     */
+    private boolean firstPass;
+
+    /**
+     * Object range, and block size.
+     */
+    private int start, end, blocksize;
+
+    /**
+     * Constructor.
+     *
+     * @param relation Data relation
+     * @param ids Object ids
+     * @param probs Cluster probabilities
+     * @param models Models to aggregate into
+     * @param wsum Cluster weight sums
+     * @param firstPass First pass of two-pass models
+     * @param start First object
+     * @param end End object (exclusive)
+     * @param blocksize Block size
+     */
+    MStepTask(Relation<? extends O> relation, ArrayDBIDs ids, double[] probs, List<? extends EMClusterModel<O, M>> models, double[] wsum, boolean firstPass, int start, int end, int blocksize) {
+      this.relation = relation;
+      this.ids = ids;
+      this.probs = probs;
+      this.models = models;
+      this.wsum = wsum;
+      this.firstPass = firstPass;
+      this.start = start;
+      this.end = end;
+      this.blocksize = blocksize;
+    }
+
+    @Override
+    protected void compute() {
+      final int k = models.size();
+      if(end - start > blocksize) {
+        List<EMClusterModel<O, M>> partials = new ArrayList<>(k);
+        for(EMClusterModel<O, M> m : models) {
+          EMClusterModel<O, M> partial = m.newPartialE();
+          if(partial == null) {
+            break;
+          }
+          partials.add(partial);
+        }
+        if(partials.size() == k) {
+          final int mid = (start + end) >>> 1;
+          double[] rwsum = new double[k];
+          invokeAll(new MStepTask<>(relation, ids, probs, models, wsum, firstPass, start, mid, blocksize), //
+              new MStepTask<>(relation, ids, probs, partials, rwsum, firstPass, mid, end, blocksize));
+          for(int i = 0; i < k; i++) {
+            models.get(i).mergeE(partials.get(i));
+            wsum[i] += rwsum[i];
+          }
+          return;
+        }
+        // Otherwise, process the entire range sequentially.
+      }
+      DBIDArrayIter iditer = ids.iter().seek(start);
+      for(int off = start * k; iditer.getOffset() < end; iditer.advance(), off += k) {
+        O instance = relation.get(iditer);
+        for(int i = 0; i < k; i++) {
+          final double prob = probs[off + i];
+          if(prob > 1e-10) {
+            if(firstPass) {
+              models.get(i).firstPassE(instance, prob);
+            }
+            else {
+              models.get(i).updateE(instance, prob);
+            }
+          }
+          wsum[i] += prob;
+        }
+      }
+    }
+  }
+
   /**
    * Parameterization class.
    * 
@@ -75,6 +75,30 @@ public interface EMClusterModel<O, M extends Model> {
    */
   void updateE(O vec, double weight);
 
+  /**
+   * Create an empty model of the same type, to aggregate a part of the data
+   * in parallel with {@link #firstPassE} and {@link #updateE}. The partial
+   * results are then combined with {@link #mergeE}. A new partial model must
+   * be created for every pass, after {@link #beginEStep} respectively
+   * {@link #finalizeFirstPassE}.
+   * <p>
+   * By default, this is not supported, and {@code null} is returned.
+   *
+   * @return Empty partial model, or {@code null}
+   */
+  default EMClusterModel<O, M> newPartialE() {
+    return null;
+  }
+
+  /**
+   * Merge the aggregates of a partial model into this model.
+   *
+   * @param partial Partial model, obtained via {@link #newPartialE()}
+   */
+  default void mergeE(EMClusterModel<O, M> partial) {
+    throw new UnsupportedOperationException("Model does not support parallel aggregation.");
+  }
+
   /**
    * Finalize the E step.
    * 
@@ -111,6 +111,17 @@ public class MultivariateGaussianModel implements EMClusterModel<NumberVector, E
     this.logNormDet = FastMath.log(weight) - .5 * logNorm - getHalfLogDeterminant(this.chol);
   }
 
+  /**
+   * Constructor for an empty partial model.
+   *
+   * @param dim Dimensionality
+   */
+  private MultivariateGaussianModel(int dim) {
+    this.mean = new double[dim];
+    this.covariance = new double[dim][dim];
+    this.nmea = new double[dim];
+  }
+
   @Override
   public void beginEStep() {
     wsum = 0.;
@@ -151,6 +162,45 @@ public class MultivariateGaussianModel implements EMClusterModel<NumberVector, E
     System.arraycopy(nmea, 0, mean, 0, nmea.length);
   }
 
+  @Override
+  public MultivariateGaussianModel newPartialE() {
+    return new MultivariateGaussianModel(mean.length);
+  }
+
+  @Override
+  public void mergeE(EMClusterModel<NumberVector, EMModel> partial) {
+    final MultivariateGaussianModel other = (MultivariateGaussianModel) partial;
+    if(!(other.wsum > 0)) {
+      return;
+    }
+    final int dim = mean.length;
+    if(!(wsum > 0)) {
+      for(int i = 0; i < dim; i++) {
+        System.arraycopy(other.covariance[i], 0, covariance[i], 0, i + 1);
+      }
+      System.arraycopy(other.mean, 0, mean, 0, dim);
+      wsum = other.wsum;
+      return;
+    }
+    // Combine the scatter matrixes, as in Chan et al.'s parallel variance:
+    final double nwsum = wsum + other.wsum, f = other.wsum / nwsum, s = wsum * f;
+    for(int i = 0; i < dim; i++) {
+      nmea[i] = other.mean[i] - mean[i];
+    }
+    for(int i = 0; i < dim; i++) {
+      final double[] cov_i = covariance[i], ocov_i = other.covariance[i];
+      final double delta_i = nmea[i] * s;
+      for(int j = 0; j <= i; j++) {
+        cov_i[j] += ocov_i[j] + delta_i * nmea[j];
+      }
+      // Other half is NOT updated here, but in finalizeEStep!
+    }
+    for(int i = 0; i < dim; i++) {
+      mean[i] += nmea[i] * f;
+    }
+    wsum = nwsum;
+  }
+
   @Override
   public void finalizeEStep(double weight, double prior) {
     final int dim = covariance.length;
@@ -104,6 +104,17 @@ public class TwoPassMultivariateGaussianModel implements EMClusterModel<NumberVe
     this.logNormDet = FastMath.log(weight) - .5 * logNorm - MultivariateGaussianModel.getHalfLogDeterminant(this.chol);
   }
 
+  /**
+   * Constructor for an empty partial model.
+   *
+   * @param dim Dimensionality
+   */
+  private TwoPassMultivariateGaussianModel(int dim) {
+    this.mean = new double[dim];
+    this.covariance = new double[dim][dim];
+    this.tmp = new double[dim];
+  }
+
   @Override
   public void beginEStep() {
     wsum = 0.;
@@ -169,6 +180,26 @@ public class TwoPassMultivariateGaussianModel implements EMClusterModel<NumberVe
     }
   }
 
+  @Override
+  public TwoPassMultivariateGaussianModel newPartialE() {
+    TwoPassMultivariateGaussianModel partial = new TwoPassMultivariateGaussianModel(mean.length);
+    if(wsum > 0) { // Second pass: share the (read-only) mean for centering.
+      partial.mean = mean;
+      partial.wsum = wsum;
+    }
+    return partial;
+  }
+
+  @Override
+  public void mergeE(EMClusterModel<NumberVector, EMModel> partial) {
+    final TwoPassMultivariateGaussianModel other = (TwoPassMultivariateGaussianModel) partial;
+    if(other.mean != mean) { // First pass: weighted sums
+      plusEquals(mean, other.mean);
+      wsum += other.wsum;
+    }
+    plusEquals(covariance, other.covariance);
+  }
+
   @Override
   public void finalizeEStep(double weight, double prior) {
     final int dim = covariance.length;
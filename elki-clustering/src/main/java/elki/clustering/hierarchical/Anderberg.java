@@ -44,6 +44,7 @@ import elki.utilities.Priority;
 import elki.utilities.documentation.Reference;
 import elki.utilities.optionhandling.Parameterizer;
 import elki.utilities.optionhandling.parameterization.Parameterization;
+import elki.utilities.optionhandling.parameters.EnumParameter;
 import elki.utilities.optionhandling.parameters.ObjectParameter;
 
 /**
@@ -95,6 +96,11 @@ public class Anderberg<O> implements HierarchicalClusteringAlgorithm {
    */
   protected Linkage linkage = WardLinkage.STATIC;
 
+  /**
+   * Matrix storage type.
+   */
+  protected MatrixParadigm.Storage storage = MatrixParadigm.Storage.DOUBLE;
+
   /**
    * Constructor.
    *
@@ -102,9 +108,21 @@ public class Anderberg<O> implements HierarchicalClusteringAlgorithm {
    * @param linkage Linkage method
    */
   public Anderberg(Distance<? super O> distance, Linkage linkage) {
+    this(distance, linkage, MatrixParadigm.Storage.DOUBLE);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param distance Distance function to use
+   * @param linkage Linkage method
+   * @param storage Matrix storage type
+   */
+  public Anderberg(Distance<? super O> distance, Linkage linkage, MatrixParadigm.Storage storage) {
     super();
     this.distance = distance;
     this.linkage = linkage;
+    this.storage = storage;
   }
 
   /**
@@ -119,7 +137,7 @@ public class Anderberg<O> implements HierarchicalClusteringAlgorithm {
     }
     DistanceQuery<O> dq = new QueryBuilder<>(relation, distance).distanceQuery();
     final DBIDs ids = relation.getDBIDs();
-    MatrixParadigm mat = new MatrixParadigm(ids);
+    MatrixParadigm mat = new MatrixParadigm(ids, storage);
     final int size = ids.size();
 
     // Position counter - must agree with computeOffset!
@@ -128,7 +146,7 @@ public class Anderberg<O> implements HierarchicalClusteringAlgorithm {
     // Arrays used for caching:
     double[] bestd = new double[size];
     int[] besti = new int[size];
-    initializeNNCache(mat.matrix, bestd, besti);
+    initializeNNCache(mat, bestd, besti);
 
     // Initialize space for result:
     PointerHierarchyRepresentationBuilder builder = new PointerHierarchyRepresentationBuilder(ids, dq.getDistance().isSquared());
@@ -149,31 +167,34 @@ public class Anderberg<O> implements HierarchicalClusteringAlgorithm {
   /**
    * Initialize the NN cache.
    *
-   * @param scratch Scratch space
+   * @param mat Matrix paradigm
    * @param bestd Best distance
    * @param besti Best index
    */
-  protected static void initializeNNCache(double[] scratch, double[] bestd, int[] besti) {
+  protected static void initializeNNCache(MatrixParadigm mat, double[] bestd, int[] besti) {
     final int size = bestd.length;
     Arrays.fill(bestd, Double.POSITIVE_INFINITY);
     Arrays.fill(besti, -1);
     besti[0] = Integer.MAX_VALUE; // invalid, but not deactivated
-    int p = 0;
-    for(int x = 1; x < size; x++) {
-      double bestdx = Double.POSITIVE_INFINITY;
-      int bestix = -1;
-      for(int y = 0; y < x; y++) {
-        final double v = scratch[p++];
-        if(v < bestdx) {
-          bestdx = v;
-          bestix = y;
+    // Rows are independent, so this can be parallelized
+    mat.processRows(size, (it, start, end) -> {
+      long p = MatrixParadigm.triangleSizeLong(start);
+      for(int x = Math.max(start, 1); x < end; x++) {
+        double bestdx = Double.POSITIVE_INFINITY;
+        int bestix = -1;
+        for(int y = 0; y < x; y++) {
+          final double v = mat.get(p++);
+          if(v < bestdx) {
+            bestdx = v;
+            bestix = y;
+          }
         }
+        assert 0 <= bestix && bestix < x;
+        bestd[x] = bestdx;
+        besti[x] = bestix;
       }
-      assert 0 <= bestix && bestix < x;
-      bestd[x] = bestdx;
-      besti[x] = bestix;
-    }
-    assert p == MatrixParadigm.triangleSize(size);
+      assert p == MatrixParadigm.triangleSizeLong(end);
+    });
   }
 
   /**
@@ -236,18 +257,20 @@ public class Anderberg<O> implements HierarchicalClusteringAlgorithm {
     final int sizex = builder.getSize(ix), sizey = builder.getSize(iy);
     builder.setSize(iy, sizex + sizey);
     besti[x] = -1; // Deactivate removed cluster.
-    updateMatrix(size, mat.matrix, iy, bestd, besti, builder, mindist, x, y, sizex, sizey);
+    updateMatrix(size, mat, bestd, besti, builder, mindist, x, y, sizex, sizey);
     if(y > 0) {
-      findBest(mat.matrix, bestd, besti, y);
+      findBest(mat, bestd, besti, y);
     }
   }
 
   /**
    * Update the scratch distance matrix.
+   * <p>
+   * Every object j only modifies the matrix entry of (y, j), and the cache
+   * of row j (rescanning only row j), so this can be performed in parallel.
    *
    * @param size Data set size
-   * @param scratch Scratch matrix.
-   * @param ij Iterator to reuse
+   * @param mat Matrix paradigm
    * @param bestd Best distance
    * @param besti Index of best distance
    * @param builder Hierarchy builder
@@ -257,51 +280,29 @@ public class Anderberg<O> implements HierarchicalClusteringAlgorithm {
    * @param sizex Old size of first cluster, with {@code x > y}
    * @param sizey Old size of second cluster, with {@code y > x}
    */
-  protected void updateMatrix(int size, double[] scratch, DBIDArrayIter ij, double[] bestd, int[] besti, PointerHierarchyRepresentationBuilder builder, double mindist, int x, int y, final int sizex, final int sizey) {
+  protected void updateMatrix(int size, MatrixParadigm mat, double[] bestd, int[] besti, PointerHierarchyRepresentationBuilder builder, double mindist, int x, int y, final int sizex, final int sizey) {
     // Update distance matrix. Note: miny < minx
-    final int xbase = MatrixParadigm.triangleSize(x);
-    final int ybase = MatrixParadigm.triangleSize(y);
-
-    // Write to (y, j), with j < y
-    int j = 0;
-    for(; j < y; j++) {
-      if(builder.isLinked(ij.seek(j))) {
-        continue;
-      }
-      final int sizej = builder.getSize(ij);
-      final int yb = ybase + j;
-      final double d = scratch[yb] = linkage.combine(sizex, scratch[xbase + j], sizey, scratch[yb], sizej, mindist);
-      updateCache(scratch, bestd, besti, x, y, j, d);
-    }
-    j++; // Skip y
-    // Write to (j, y), with y < j < x
-    int jbase = MatrixParadigm.triangleSize(j);
-    for(; j < x; jbase += j++) {
-      if(builder.isLinked(ij.seek(j))) {
-        continue;
-      }
-      final int sizej = builder.getSize(ij);
-      final int jb = jbase + y;
-      final double d = scratch[jb] = linkage.combine(sizex, scratch[xbase + j], sizey, scratch[jb], sizej, mindist);
-      updateCache(scratch, bestd, besti, x, y, j, d);
-    }
-    jbase += j++; // Skip x
-    // Write to (j, y), with y < x < j
-    for(; j < size; jbase += j++) {
-      if(builder.isLinked(ij.seek(j))) {
-        continue;
+    final long xbase = MatrixParadigm.triangleSizeLong(x);
+    final long ybase = MatrixParadigm.triangleSizeLong(y);
+    mat.processRange(size, (ij, start, end) -> {
+      for(int j = start; j < end; j++) {
+        if(j == x || j == y || builder.isLinked(ij.seek(j))) {
+          continue;
+        }
+        // Write to (y, j) with j < y, or to (j, y) with y < j
+        final long yj = j < y ? ybase + j : MatrixParadigm.triangleSizeLong(j) + y;
+        final long xj = j < x ? xbase + j : MatrixParadigm.triangleSizeLong(j) + x;
+        final double d = linkage.combine(sizex, mat.get(xj), sizey, mat.get(yj), builder.getSize(ij), mindist);
+        mat.set(yj, d);
+        updateCache(mat, bestd, besti, x, y, j, d);
       }
-      final int sizej = builder.getSize(ij);
-      final int jb = jbase + y;
-      final double d = scratch[jb] = linkage.combine(sizex, scratch[jbase + x], sizey, scratch[jb], sizej, mindist);
-      updateCache(scratch, bestd, besti, x, y, j, d);
-    }
+    });
   }
 
   /**
    * Update the cache.
    *
-   * @param scratch Scratch matrix
+   * @param mat Matrix paradigm
    * @param bestd Best distance
    * @param besti Best index
    * @param x First cluster
@@ -309,7 +310,7 @@ public class Anderberg<O> implements HierarchicalClusteringAlgorithm {
    * @param j Updated value d(y, j)
    * @param d New distance
    */
-  protected static void updateCache(double[] scratch, double[] bestd, int[] besti, int x, int y, int j, double d) {
+  protected static void updateCache(MatrixParadigm mat, double[] bestd, int[] besti, int x, int y, int j, double d) {
     assert y < x;
     // New best
     if(y < j && d <= bestd[j]) {
@@ -319,27 +320,28 @@ public class Anderberg<O> implements HierarchicalClusteringAlgorithm {
     }
     // Needs slow update.
     if(besti[j] == x || besti[j] == y) {
-      findBest(scratch, bestd, besti, j);
+      findBest(mat, bestd, besti, j);
     }
   }
 
   /**
    * Find the best in a row of the triangular matrix.
    *
-   * @param scratch Scratch matrix
+   * @param mat Matrix paradigm
    * @param bestd Best distances cache
    * @param besti Best indexes cache
    * @param j Row to update
    */
-  protected static void findBest(double[] scratch, double[] bestd, int[] besti, int j) {
+  protected static void findBest(MatrixParadigm mat, double[] bestd, int[] besti, int j) {
     // The distance has increased, we may no longer be the best merge.
     double bestdj = Double.POSITIVE_INFINITY;
     int bestij = -1;
-    for(int i = 0, o = MatrixParadigm.triangleSize(j); i < j; i++, o++) {
+    long o = MatrixParadigm.triangleSizeLong(j);
+    for(int i = 0; i < j; i++, o++) {
       if(besti[i] < 0) {
         continue;
       }
-      final double dist = scratch[o];
+      final double dist = mat.get(o);
       if(dist <= bestdj) {
         bestdj = dist;
         bestij = i;
@@ -375,6 +377,11 @@ public class Anderberg<O> implements HierarchicalClusteringAlgorithm {
      */
     protected Distance<? super O> distance;
 
+    /**
+     * Matrix storage type.
+     */
+    protected MatrixParadigm.Storage storage;
+
     @Override
     public void configure(Parameterization config) {
       new ObjectParameter<Linkage>(AGNES.Par.LINKAGE_ID, Linkage.class) //
@@ -384,11 +391,13 @@ public class Anderberg<O> implements HierarchicalClusteringAlgorithm {
           ? SquaredEuclideanDistance.class : EuclideanDistance.class;
       new ObjectParameter<Distance<? super O>>(Algorithm.Utils.DISTANCE_FUNCTION_ID, Distance.class, defaultD) //
           .grab(config, x -> distance = x);
+      new EnumParameter<MatrixParadigm.Storage>(AGNES.Par.MATRIX_ID, MatrixParadigm.Storage.class, MatrixParadigm.Storage.DOUBLE) //
+          .grab(config, x -> storage = x);
     }
 
     @Override
     public Anderberg<O> make() {
-      return new Anderberg<>(distance, linkage);
+      return new Anderberg<>(distance, linkage, storage);
     }
   }
 }
@@ -20,11 +20,20 @@
  */
 package elki.clustering.hierarchical;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.DoubleUnaryOperator;
+
 import elki.database.ids.ArrayDBIDs;
 import elki.database.ids.DBIDArrayIter;
 import elki.database.ids.DBIDUtil;
 import elki.database.ids.DBIDs;
 import elki.database.query.distance.DistanceQuery;
+import elki.index.distancematrix.TriangleStorage;
+import elki.logging.Logging;
+import elki.logging.progress.FiniteProgress;
+import elki.parallel.ParallelCore;
 import elki.utilities.exceptions.AbortException;
 
 /**
@@ -37,42 +46,129 @@ import elki.utilities.exceptions.AbortException;
  * <p>
  * While this will usually store (merge-) distances when clustering, it can
  * store arbitrary doubles.
+ * <p>
+ * The matrix can be stored with double precision (limited to 65536 objects),
+ * or with single precision in memory or in a memory-mapped temporary file
+ * (see {@link TriangleStorage}), which halves the memory requirements and
+ * allows larger data sets. The initialization, and updates via
+ * {@link #processRows} and {@link #processRange}, are performed in parallel.
  *
  * @author Erich Schubert
  * @since 0.7.5
  */
 public class MatrixParadigm {
   /**
-   * Two iterators to reference to objects.
+   * Storage type of the matrix.
+   *
+   * @author Erich Schubert
    */
-  public final DBIDArrayIter ix, iy;
+  public enum Storage {
+    /** Double precision, in memory (at most 65536 objects) */
+    DOUBLE,
+    /** Single precision, in memory */
+    FLOAT,
+    /** Single precision, in a memory-mapped temporary file */
+    FLOAT_MAPPED,
+  }
+
+  /**
+   * Minimum number of objects per parallel task.
+   */
+  private static final int MIN_OBJECTS_PER_TASK = 1 << 12;
 
   /**
-   * Distance matrix (<b>modifiable</b>).
+   * Minimum number of matrix cells per parallel task.
    */
-  public final double[] matrix;
+  private static final long MIN_CELLS_PER_TASK = 1 << 16;
+
+  /**
+   * Number of tasks per thread.
+   */
+  private static final int TASKS_PER_THREAD = 8;
+
+  /**
+   * Two iterators to reference to objects.
+   */
+  public final DBIDArrayIter ix, iy;
 
   /**
    * Number of rows/columns.
    */
   public final int size;
 
+  /**
+   * Object ids.
+   */
+  private final ArrayDBIDs ids;
+
+  /**
+   * Matrix storage (<b>modifiable</b>).
+   */
+  private final TriangleStorage matrix;
+
   /**
    * Constructor.
    *
    * @param ids Database ids.
    */
   public MatrixParadigm(DBIDs ids) {
+    this(ids, Storage.DOUBLE);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param ids Database ids.
+   * @param storage Storage type
+   */
+  public MatrixParadigm(DBIDs ids, Storage storage) {
     size = ids.size();
-    if(size > 0x10000) {
-      throw new AbortException("This implementation does not scale to data sets larger than " + //
-          0x10000 // = 65535
-          + " instances (~16 GB RAM), at which point the Java maximum array size is reached.");
+    this.ids = DBIDUtil.ensureArray(ids);
+    ix = this.ids.iter();
+    iy = this.ids.iter();
+    final long tsize = triangleSizeLong(size);
+    switch(storage){
+    case DOUBLE:
+      if(size > 0x10000) {
+        throw new AbortException("This implementation does not scale to data sets larger than " + //
+            0x10000 // = 65535
+            + " instances (~16 GB RAM), at which point the Java maximum array size is reached. Use single precision storage instead.");
+      }
+      matrix = TriangleStorage.make(tsize, false, null);
+      break;
+    case FLOAT:
+      matrix = TriangleStorage.make(tsize, true, null);
+      break;
+    case FLOAT_MAPPED:
+      matrix = makeMapped(tsize);
+      break;
+    default:
+      throw new AbortException("Unsupported storage type: " + storage);
+    }
+  }
+
+  /**
+   * Single precision storage in a memory-mapped temporary file. The file is
+   * deleted immediately where the operating system permits this, and on exit
+   * otherwise.
+   *
+   * @param tsize Number of values
+   * @return Storage
+   */
+  private static TriangleStorage makeMapped(long tsize) {
+    File file = null;
+    try {
+      file = File.createTempFile("elki-matrix", ".bin");
+      return TriangleStorage.make(tsize, true, file.toPath());
+    }
+    catch(IOException e) {
+      throw new AbortException("Could not map the distance matrix to a temporary file.", e);
+    }
+    finally {
+      if(file != null && !file.delete()) {
+        file.deleteOnExit();
+      }
     }
-    ArrayDBIDs aids = DBIDUtil.ensureArray(ids);
-    ix = aids.iter();
-    iy = aids.iter();
-    matrix = new double[triangleSize(size)];
   }
 
   /**
@@ -85,6 +181,17 @@ public class MatrixParadigm {
     return (x * (x - 1)) >>> 1;
   }
 
+  /**
+   * Compute the size of a complete x by x triangle (minus diagonal), without
+   * the overflow of {@link #triangleSize} beyond 65536 objects.
+   *
+   * @param x Offset
+   * @return Size of complete triangle
+   */
+  public static long triangleSizeLong(int x) {
+    return (x * (long) (x - 1)) >>> 1;
+  }
+
   /**
    * Get a value from the (upper triangular) distance matrix.
    * <p>
@@ -96,7 +203,27 @@ public class MatrixParadigm {
    * @return Distance
    */
   public double get(int x, int y) {
-    return x == y ? 0 : x < y ? matrix[triangleSize(y) + x] : matrix[triangleSize(x) + y];
+    return x == y ? 0 : x < y ? matrix.get(triangleSizeLong(y) + x) : matrix.get(triangleSizeLong(x) + y);
+  }
+
+  /**
+   * Get a value from the matrix, by its position.
+   *
+   * @param pos Position, {@code triangleSize(x) + y} for {@code y < x}
+   * @return Value
+   */
+  public double get(long pos) {
+    return matrix.get(pos);
+  }
+
+  /**
+   * Set a value of the matrix, by its position.
+   *
+   * @param pos Position, {@code triangleSize(x) + y} for {@code y < x}
+   * @param v New value
+   */
+  public void set(long pos, double v) {
+    matrix.set(pos, v);
   }
 
   /**
@@ -106,16 +233,172 @@ public class MatrixParadigm {
    * @return this
    */
   public MatrixParadigm initializeWithDistances(DistanceQuery<?> dq) {
-    final DBIDArrayIter ix = this.ix, iy = this.iy;
-    final double[] matrix = this.matrix;
-    int pos = 0;
-    for(ix.seek(0); ix.valid(); ix.advance()) {
-      final int x = ix.getOffset();
-      assert (pos == triangleSize(x));
-      for(iy.seek(0); iy.getOffset() < x; iy.advance()) {
-        matrix[pos++] = dq.distance(ix, iy);
+    return initializeWithDistances(dq, null, null, null);
+  }
+
+  /**
+   * Initialize a distance matrix, in parallel.
+   *
+   * @param dq Distance query
+   * @param transform Transformation of the distances, may be {@code null}
+   * @param prog Progress (in rows), may be {@code null}
+   * @param log Logger for progress, may be {@code null}
+   * @return this
+   */
+  public MatrixParadigm initializeWithDistances(DistanceQuery<?> dq, DoubleUnaryOperator transform, FiniteProgress prog, Logging log) {
+    processRows(size, (it, start, end) -> {
+      final DBIDArrayIter it2 = ids.iter();
+      double[] buf = new double[end];
+      for(int x = start; x < end; x++) {
+        it.seek(x);
+        for(it2.seek(0); it2.getOffset() < x; it2.advance()) {
+          final double d = dq.distance(it, it2);
+          buf[it2.getOffset()] = transform != null ? transform.applyAsDouble(d) : d;
+        }
+        matrix.setRange(triangleSizeLong(x), buf, x);
+        if(log != null && prog != null) {
+          log.incrementProcessed(prog);
+        }
       }
-    }
+    });
     return this;
   }
+
+  /**
+   * Process the rows {@code [0:end)} of the triangular matrix, in parallel
+   * for large matrixes. The rows are partitioned such that every task covers
+   * a similar number of matrix cells, and each task receives its own iterator.
+   * <p>
+   * The operation must only modify the matrix positions of its own rows, or
+   * synchronize otherwise.
+   *
+   * @param end End row (exclusive)
+   * @param op Operation
+   */
+  public void processRows(int end, RowOperation op) {
+    final long cells = triangleSizeLong(end);
+    final int parallelism = ParallelCore.getCore().getParallelism();
+    if(parallelism <= 1 || cells < MIN_CELLS_PER_TASK << 1) {
+      op.process(ids.iter(), 0, end);
+      return;
+    }
+    run(new RowTask(op, true, 0, end, Math.max(MIN_CELLS_PER_TASK, cells / (parallelism * TASKS_PER_THREAD))));
+  }
+
+  /**
+   * Process the objects {@code [0:end)}, in parallel for large matrixes. The
+   * range is partitioned into blocks of equal size, for operations that need
+   * about the same time for every object, such as updating a single column
+   * of the matrix. Each task receives its own iterator.
+   * <p>
+   * The operation must only modify the matrix positions of its own objects,
+   * or synchronize otherwise.
+   *
+   * @param end End (exclusive)
+   * @param op Operation
+   */
+  public void processRange(int end, RowOperation op) {
+    final int parallelism = ParallelCore.getCore().getParallelism();
+    if(parallelism <= 1 || end < MIN_OBJECTS_PER_TASK << 1) {
+      op.process(ids.iter(), 0, end);
+      return;
+    }
+    run(new RowTask(op, false, 0, end, Math.max(MIN_OBJECTS_PER_TASK, end / (parallelism * TASKS_PER_THREAD))));
+  }
+
+  /**
+   * Run a task in the parallel core.
+   *
+   * @param task Task to run
+   */
+  private static void run(RowTask task) {
+    ParallelCore core = ParallelCore.getCore();
+    core.connect();
+    try {
+      core.invoke(task);
+    }
+    finally {
+      core.disconnect();
+    }
+  }
+
+  /**
+   * Operation on a range of rows.
+   *
+   * @author Erich Schubert
+   */
+  @FunctionalInterface
+  public interface RowOperation {
+    /**
+     * Process a range of rows.
+     *
+     * @param it Iterator for this task
+     * @param start First row
+     * @param end End row (exclusive)
+     */
+    void process(DBIDArrayIter it, int start, int end);
+  }
+
+  /**
+   * Task to process a range of rows, splitting the range such that the halves
+   * have a similar cost.
+   *
+   * @author Erich Schubert
+   */
+  private class RowTask extends RecursiveAction {
+    /**
+     * Serialization version.
+     */
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Operation to perform.
+     */
+    private RowOperation op;
+
+    /**
+     * Balance by the number of matrix cells, or by the number of rows.
+     */
+    private boolean triangular;
+
+    /**
+     * Row range.
+     */
+    private int start, end;
+
+    /**
+     * Maximum cost per task.
+     */
+    private long blocksize;
+
+    /**
+     * Constructor.
+     *
+     * @param op Operation
+     * @param triangular Balance by the number of matrix cells
+     * @param start First row
+     * @param end End row (exclusive)
+     * @param blocksize Maximum cost per task
+     */
+    RowTask(RowOperation op, boolean triangular, int start, int end, long blocksize) {
+      this.op = op;
+      this.triangular = triangular;
+      this.start = start;
+      this.end = end;
+      this.blocksize = blocksize;
+    }
+
+    @Override
+    protected void compute() {
+      final long cost = triangular ? triangleSizeLong(end) - triangleSizeLong(start) : end - start;
+      if(end - start > 1 && cost > blocksize) {
+        // Split such that both halves have about the same cost:
+        int mid = triangular ? (int) Math.sqrt(0.5 * ((double) start * start + (double) end * end)) : (start + end) >>> 1;
+        mid = mid <= start ? start + 1 : mid >= end ? end - 1 : mid;
+        invokeAll(new RowTask(op, triangular, start, mid, blocksize), new RowTask(op, triangular, mid, end, blocksize));
+        return;
+      }
+      op.process(ids.iter(), start, end);
+    }
+  }
 }
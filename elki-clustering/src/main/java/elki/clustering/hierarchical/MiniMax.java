@@ -32,8 +32,10 @@ import elki.distance.minkowski.EuclideanDistance;
 import elki.logging.Logging;
 import elki.logging.progress.FiniteProgress;
 import elki.utilities.documentation.Reference;
+import elki.utilities.exceptions.AbortException;
 import elki.utilities.optionhandling.Parameterizer;
 import elki.utilities.optionhandling.parameterization.Parameterization;
+import elki.utilities.optionhandling.parameters.EnumParameter;
 import elki.utilities.optionhandling.parameters.ObjectParameter;
 
 import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
@@ -80,14 +82,30 @@ public class MiniMax<O> implements HierarchicalClusteringAlgorithm {
    */
   protected Distance<? super O> distance;
 
+  /**
+   * Matrix storage type.
+   */
+  protected MatrixParadigm.Storage storage = MatrixParadigm.Storage.DOUBLE;
+
   /**
    * Constructor.
    *
    * @param distance Distance function to use.
    */
   public MiniMax(Distance<? super O> distance) {
+    this(distance, MatrixParadigm.Storage.DOUBLE);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param distance Distance function to use.
+   * @param storage Matrix storage type
+   */
+  public MiniMax(Distance<? super O> distance, MatrixParadigm.Storage storage) {
     super();
     this.distance = distance;
+    this.storage = storage;
   }
 
   @Override
@@ -111,8 +129,8 @@ public class MiniMax<O> implements HierarchicalClusteringAlgorithm {
     Int2ObjectOpenHashMap<ModifiableDBIDs> clusters = new Int2ObjectOpenHashMap<>(size);
 
     // Allocate working space:
-    MatrixParadigm mat = new MatrixParadigm(ids);
-    ArrayModifiableDBIDs prots = DBIDUtil.newArray(MatrixParadigm.triangleSize(size));
+    MatrixParadigm mat = new MatrixParadigm(ids, storage);
+    ArrayModifiableDBIDs prots = newPrototypeArray(size);
     initializeMatrices(mat, prots, dq);
 
     DBIDArrayMIter protiter = prots.iter();
@@ -127,6 +145,20 @@ public class MiniMax<O> implements HierarchicalClusteringAlgorithm {
     return (PointerPrototypeHierarchyRepresentationResult) builder.complete();
   }
 
+  /**
+   * Allocate the storage for the prototypes of all possible merges.
+   *
+   * @param size Data set size
+   * @return Prototype storage
+   */
+  protected static ArrayModifiableDBIDs newPrototypeArray(int size) {
+    if(size > 0x10000) {
+      throw new AbortException("The prototype storage does not scale to data sets larger than " + //
+          0x10000 + " instances, at which point the Java maximum array size is reached.");
+    }
+    return DBIDUtil.newArray(MatrixParadigm.triangleSize(size));
+  }
+
   /**
    * Initializes the inter-cluster distance matrix of possible merges
    * 
@@ -135,11 +167,10 @@ public class MiniMax<O> implements HierarchicalClusteringAlgorithm {
    */
   protected static <O> void initializeMatrices(MatrixParadigm mat, ArrayModifiableDBIDs prots, DistanceQuery<O> dq) {
     final DBIDArrayIter ix = mat.ix, iy = mat.iy;
-    final double[] distances = mat.matrix;
-    int pos = 0;
+    long pos = 0;
     for(ix.seek(0); ix.valid(); ix.advance()) {
       for(iy.seek(0); iy.getOffset() < ix.getOffset(); iy.advance()) {
-        distances[pos++] = dq.distance(ix, iy);
+        mat.set(pos++, dq.distance(ix, iy));
         prots.add(iy);
       }
     }
@@ -158,7 +189,6 @@ public class MiniMax<O> implements HierarchicalClusteringAlgorithm {
    */
   protected static int findMerge(int end, MatrixParadigm mat, DBIDArrayMIter prots, PointerHierarchyRepresentationBuilder builder, Int2ObjectOpenHashMap<ModifiableDBIDs> clusters, DistanceQuery<?> dq) {
     final DBIDArrayIter ix = mat.ix, iy = mat.iy;
-    final double[] distances = mat.matrix;
     double mindist = Double.POSITIVE_INFINITY;
     int x = -1, y = -1;
 
@@ -167,7 +197,7 @@ public class MiniMax<O> implements HierarchicalClusteringAlgorithm {
       if(builder.isLinked(ix.seek(dx))) {
         continue;
       }
-      final int xoffset = MatrixParadigm.triangleSize(dx);
+      final long xoffset = MatrixParadigm.triangleSizeLong(dx);
 
       for(int dy = 0; dy < dx; dy++) {
         // Skip if object is already linked
@@ -175,7 +205,7 @@ public class MiniMax<O> implements HierarchicalClusteringAlgorithm {
           continue;
         }
 
-        double dist = distances[xoffset + dy];
+        double dist = mat.get(xoffset + dy);
         if(dist < mindist) {
           mindist = dist;
           x = dx;
@@ -205,11 +235,10 @@ public class MiniMax<O> implements HierarchicalClusteringAlgorithm {
   protected static void merge(int size, MatrixParadigm mat, DBIDArrayMIter prots, PointerHierarchyRepresentationBuilder builder, Int2ObjectOpenHashMap<ModifiableDBIDs> clusters, DistanceQuery<?> dq, int x, int y) {
     assert (y < x);
     final DBIDArrayIter ix = mat.ix.seek(x), iy = mat.iy.seek(y);
-    final double[] distances = mat.matrix;
-    int offset = MatrixParadigm.triangleSize(x) + y;
+    final int offset = MatrixParadigm.triangleSize(x) + y;
 
     if(LOG.isDebuggingFine()) {
-      LOG.debugFine("Merging: " + DBIDUtil.toString(ix) + " -> " + DBIDUtil.toString(iy) + " " + distances[offset]);
+      LOG.debugFine("Merging: " + DBIDUtil.toString(ix) + " -> " + DBIDUtil.toString(iy) + " " + mat.get(offset));
     }
 
     ModifiableDBIDs cx = clusters.get(x), cy = clusters.get(y);
@@ -229,7 +258,7 @@ public class MiniMax<O> implements HierarchicalClusteringAlgorithm {
     clusters.put(y, cy);
 
     // parent of x is set to y
-    builder.add(ix, distances[offset], iy, prots.seek(offset));
+    builder.add(ix, mat.get(offset), iy, prots.seek(offset));
 
     updateMatrices(size, mat, prots, builder, clusters, dq, y);
   }
@@ -285,7 +314,6 @@ public class MiniMax<O> implements HierarchicalClusteringAlgorithm {
   protected static void updateEntry(MatrixParadigm mat, DBIDArrayMIter prots, Int2ObjectOpenHashMap<ModifiableDBIDs> clusters, DistanceQuery<?> dq, int x, int y) {
     assert (y < x);
     final DBIDArrayIter ix = mat.ix, iy = mat.iy;
-    final double[] distances = mat.matrix;
     ModifiableDBIDs cx = clusters.get(x), cy = clusters.get(y);
 
     DBIDVar prototype = DBIDUtil.newVar(ix.seek(x)); // Default prototype
@@ -309,7 +337,7 @@ public class MiniMax<O> implements HierarchicalClusteringAlgorithm {
     }
 
     final int offset = MatrixParadigm.triangleSize(x) + y;
-    distances[offset] = minMaxDist;
+    mat.set(offset, minMaxDist);
     prots.seek(offset).setDBID(prototype);
   }
 
@@ -419,15 +447,22 @@ public class MiniMax<O> implements HierarchicalClusteringAlgorithm {
      */
     protected Distance<? super O> distance;
 
+    /**
+     * Matrix storage type.
+     */
+    protected MatrixParadigm.Storage storage;
+
     @Override
     public void configure(Parameterization config) {
       new ObjectParameter<Distance<? super O>>(Algorithm.Utils.DISTANCE_FUNCTION_ID, Distance.class, EuclideanDistance.class) //
           .grab(config, x -> distance = x);
+      new EnumParameter<MatrixParadigm.Storage>(AGNES.Par.MATRIX_ID, MatrixParadigm.Storage.class, MatrixParadigm.Storage.DOUBLE) //
+          .grab(config, x -> storage = x);
     }
 
     @Override
     public MiniMax<O> make() {
-      return new MiniMax<>(distance);
+      return new MiniMax<>(distance, storage);
     }
   }
 }
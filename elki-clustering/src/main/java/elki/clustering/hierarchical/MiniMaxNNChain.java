@@ -35,6 +35,7 @@ import elki.utilities.datastructures.arraylike.IntegerArray;
 import elki.utilities.documentation.Reference;
 import elki.utilities.optionhandling.Parameterizer;
 import elki.utilities.optionhandling.parameterization.Parameterization;
+import elki.utilities.optionhandling.parameters.EnumParameter;
 import elki.utilities.optionhandling.parameters.ObjectParameter;
 
 import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
@@ -81,14 +82,30 @@ public class MiniMaxNNChain<O> implements HierarchicalClusteringAlgorithm {
    */
   protected Distance<? super O> distance;
 
+  /**
+   * Matrix storage type.
+   */
+  protected MatrixParadigm.Storage storage = MatrixParadigm.Storage.DOUBLE;
+
   /**
    * Constructor.
    *
    * @param distance Distance function
    */
   public MiniMaxNNChain(Distance<? super O> distance) {
+    this(distance, MatrixParadigm.Storage.DOUBLE);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param distance Distance function
+   * @param storage Matrix storage type
+   */
+  public MiniMaxNNChain(Distance<? super O> distance, MatrixParadigm.Storage storage) {
     super();
     this.distance = distance;
+    this.storage = storage;
   }
 
   @Override
@@ -110,8 +127,8 @@ public class MiniMaxNNChain<O> implements HierarchicalClusteringAlgorithm {
     PointerHierarchyRepresentationBuilder builder = new PointerHierarchyRepresentationBuilder(ids, dq.getDistance().isSquared());
     Int2ObjectOpenHashMap<ModifiableDBIDs> clusters = new Int2ObjectOpenHashMap<>(ids.size());
 
-    MatrixParadigm mat = new MatrixParadigm(ids);
-    ArrayModifiableDBIDs prots = DBIDUtil.newArray(MatrixParadigm.triangleSize(ids.size()));
+    MatrixParadigm mat = new MatrixParadigm(ids, storage);
+    ArrayModifiableDBIDs prots = MiniMax.newPrototypeArray(ids.size());
 
     MiniMax.initializeMatrices(mat, prots, dq);
 
@@ -132,7 +149,6 @@ public class MiniMaxNNChain<O> implements HierarchicalClusteringAlgorithm {
    */
   private void nnChainCore(MatrixParadigm mat, DBIDArrayMIter prots, DistanceQuery<O> dq, PointerHierarchyRepresentationBuilder builder, Int2ObjectOpenHashMap<ModifiableDBIDs> clusters) {
     final DBIDArrayIter ix = mat.ix;
-    final double[] distances = mat.matrix;
     final int size = mat.size;
     // The maximum chain size = number of ids + 1
     IntegerArray chain = new IntegerArray(size + 1);
@@ -167,10 +183,10 @@ public class MiniMaxNNChain<O> implements HierarchicalClusteringAlgorithm {
       double minDist = mat.get(a, b);
       do {
         int c = b;
-        final int ta = MatrixParadigm.triangleSize(a);
+        final long ta = MatrixParadigm.triangleSizeLong(a);
         for(int i = 0; i < a; i++) {
           if(i != b && !builder.isLinked(ix.seek(i))) {
-            double dist = distances[ta + i];
+            double dist = mat.get(ta + i);
             if(dist < minDist) {
               minDist = dist;
               c = i;
@@ -179,7 +195,7 @@ public class MiniMaxNNChain<O> implements HierarchicalClusteringAlgorithm {
         }
         for(int i = a + 1; i < size; i++) {
           if(i != b && !builder.isLinked(ix.seek(i))) {
-            double dist = distances[MatrixParadigm.triangleSize(i) + a];
+            double dist = mat.get(MatrixParadigm.triangleSizeLong(i) + a);
             if(dist < minDist) {
               minDist = dist;
               c = i;
@@ -224,15 +240,22 @@ public class MiniMaxNNChain<O> implements HierarchicalClusteringAlgorithm {
      */
     protected Distance<? super O> distance;
 
+    /**
+     * Matrix storage type.
+     */
+    protected MatrixParadigm.Storage storage;
+
     @Override
     public void configure(Parameterization config) {
       new ObjectParameter<Distance<? super O>>(Algorithm.Utils.DISTANCE_FUNCTION_ID, Distance.class, EuclideanDistance.class) //
           .grab(config, x -> distance = x);
+      new EnumParameter<MatrixParadigm.Storage>(AGNES.Par.MATRIX_ID, MatrixParadigm.Storage.class, MatrixParadigm.Storage.DOUBLE) //
+          .grab(config, x -> storage = x);
     }
 
     @Override
     public MiniMaxNNChain<O> make() {
-      return new MiniMaxNNChain<>(distance);
+      return new MiniMaxNNChain<>(distance, storage);
     }
   }
 }
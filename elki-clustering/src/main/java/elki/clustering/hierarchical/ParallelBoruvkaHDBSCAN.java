@@ -0,0 +1,425 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2019
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package elki.clustering.hierarchical;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import elki.data.type.TypeInformation;
+import elki.data.type.TypeUtil;
+import elki.database.datastore.DataStoreFactory;
+import elki.database.datastore.DataStoreUtil;
+import elki.database.datastore.WritableDBIDDataStore;
+import elki.database.datastore.WritableDoubleDataStore;
+import elki.database.datastore.WritableIntegerDataStore;
+import elki.database.ids.ArrayDBIDs;
+import elki.database.ids.DBIDArrayIter;
+import elki.database.ids.DBIDRef;
+import elki.database.ids.DBIDUtil;
+import elki.database.query.PrioritySearcher;
+import elki.database.query.QueryBuilder;
+import elki.database.query.knn.KNNSearcher;
+import elki.database.relation.Relation;
+import elki.distance.Distance;
+import elki.logging.Logging;
+import elki.logging.progress.FiniteProgress;
+import elki.logging.statistics.LongStatistic;
+import elki.parallel.ParallelCore;
+import elki.parallel.ParallelExecutor;
+import elki.utilities.datastructures.heap.DoubleLongHeap;
+import elki.utilities.datastructures.heap.DoubleLongMinHeap;
+import elki.utilities.documentation.Reference;
+import elki.utilities.documentation.Title;
+
+/**
+ * HDBSCAN* clustering, with the minimum spanning tree computed by a parallel
+ * variant of Borůvka's algorithm.
+ * <p>
+ * Core distances are obtained from the kNN searcher of the query builder, and
+ * in every Borůvka round each point searches the closest point of a different
+ * component in mutual reachability distance, using a priority searcher. With
+ * an index such as the k-d-tree or cover tree, this search only visits few
+ * candidates, because the mutual reachability distance is bounded from below
+ * by both the core distance and the regular distance, and the search is
+ * pruned with the best edge found so far for the component. Without an index,
+ * this falls back to a linear scan, i.e., quadratic runtime.
+ * <p>
+ * The searches are performed in parallel, and the result is the same
+ * {@link PointerDensityHierarchyRepresentationResult} as produced by
+ * {@link HDBSCANLinearMemory}.
+ * <p>
+ * Reference:
+ * <p>
+ * R. J. G. B. Campello, D. Moulavi, J. Sander<br>
+ * Density-Based Clustering Based on Hierarchical Density Estimates<br>
+ * Pacific-Asia Conf. Advances in Knowledge Discovery and Data Mining (PAKDD)
+ * <p>
+ * L. McInnes, J. Healy<br>
+ * Accelerated Hierarchical Density Based Clustering<br>
+ * IEEE Int. Conf. Data Mining Workshops (ICDMW)
+ *
+ * @author Erich Schubert
+ * @since 0.8.0
+ *
+ * @has - - - PointerDensityHierarchyRepresentationResult
+ *
+ * @param <O> Object type
+ */
+@Title("HDBSCAN*, with a parallel Borůvka minimum spanning tree")
+@Reference(authors = "L. McInnes, J. Healy", //
+    title = "Accelerated Hierarchical Density Based Clustering", //
+    booktitle = "IEEE Int. Conf. Data Mining Workshops (ICDMW)", //
+    url = "https://doi.org/10.1109/ICDMW.2017.12", //
+    bibkey = "DBLP:conf/icdm/McInnesH17")
+public class ParallelBoruvkaHDBSCAN<O> extends AbstractHDBSCAN<O> implements HierarchicalClusteringAlgorithm {
+  /**
+   * Class logger.
+   */
+  private static final Logging LOG = Logging.getLogger(ParallelBoruvkaHDBSCAN.class);
+
+  /**
+   * Number of blocks per thread for parallel processing.
+   */
+  private static final int BLOCKS_PER_THREAD = 16;
+
+  /**
+   * Minimum block size.
+   */
+  private static final int MIN_BLOCKSIZE = 64;
+
+  /**
+   * Constructor.
+   *
+   * @param distance Distance function
+   * @param minPts Minimum number of points for density
+   */
+  public ParallelBoruvkaHDBSCAN(Distance<? super O> distance, int minPts) {
+    super(distance, minPts);
+  }
+
+  @Override
+  public TypeInformation[] getInputTypeRestriction() {
+    return TypeUtil.array(distance.getInputTypeRestriction());
+  }
+
+  /**
+   * Run the algorithm
+   *
+   * @param relation Relation
+   * @return Clustering hierarchy
+   */
+  public PointerDensityHierarchyRepresentationResult run(Relation<O> relation) {
+    final QueryBuilder<O> qb = new QueryBuilder<>(relation, distance);
+    // We need array addressing later.
+    final ArrayDBIDs ids = DBIDUtil.ensureArray(relation.getDBIDs());
+    final int size = ids.size();
+    final int parallelism = ParallelCore.getCore().getParallelism();
+    final int blocksize = parallelism <= 1 ? size : Math.max(MIN_BLOCKSIZE, size / (parallelism * BLOCKS_PER_THREAD));
+    final int nblocks = ParallelExecutor.numBlocks(size, blocksize);
+
+    // 1. Compute the core distances
+    final double[] core = new double[size];
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    final KNNSearcher<DBIDRef>[] knnqs = new KNNSearcher[nblocks];
+    for(int b = 0; b < nblocks; b++) {
+      // Searchers are not thread safe, and neither is the query builder.
+      knnqs[b] = qb.kNNByDBID(minPts);
+    }
+    ParallelExecutor.processBlocks(ids, blocksize, (b, it, start, end) -> {
+      for(int i = start; i < end; i++) {
+        core[i] = knnqs[b].getKNN(it.seek(i), minPts).getKNNDistance();
+      }
+    });
+    final WritableDoubleDataStore coredists = DataStoreUtil.makeDoubleStorage(ids, DataStoreFactory.HINT_HOT | DataStoreFactory.HINT_DB);
+    for(DBIDArrayIter it = ids.iter(); it.valid(); it.advance()) {
+      coredists.putDouble(it, core[it.getOffset()]);
+    }
+
+    // 2. Build spanning tree.
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    final PrioritySearcher<DBIDRef>[] prioqs = new PrioritySearcher[nblocks];
+    for(int b = 0; b < nblocks; b++) {
+      prioqs[b] = qb.priorityByDBID();
+    }
+    final WritableIntegerDataStore offsets = DataStoreUtil.makeIntegerStorage(ids, DataStoreFactory.HINT_HOT | DataStoreFactory.HINT_TEMP);
+    for(DBIDArrayIter it = ids.iter(); it.valid(); it.advance()) {
+      offsets.putInt(it, it.getOffset());
+    }
+    final int numedges = size - 1;
+    DoubleLongHeap heap = new DoubleLongMinHeap(numedges);
+    FiniteProgress mprog = LOG.isVerbose() ? new FiniteProgress("Computing minimum spanning tree (n-1 edges)", numedges, LOG) : null;
+    Boruvka boruvka = new Boruvka(ids, core, offsets, prioqs, blocksize);
+    int rounds = 0;
+    while(heap.size() < numedges) {
+      ++rounds;
+      if(!boruvka.round(heap, mprog)) {
+        LOG.warning("Borůvka did not find an edge to connect the remaining components; the result will be a forest.");
+        break;
+      }
+    }
+    LOG.ensureCompleted(mprog);
+    offsets.destroy();
+    if(LOG.isStatistics()) {
+      LOG.statistics(new LongStatistic(ParallelBoruvkaHDBSCAN.class.getName() + ".rounds", rounds));
+    }
+    // Storage for pointer representation:
+    WritableDBIDDataStore pi = DataStoreUtil.makeDBIDStorage(ids, DataStoreFactory.HINT_HOT | DataStoreFactory.HINT_STATIC);
+    WritableDoubleDataStore lambda = DataStoreUtil.makeDoubleStorage(ids, DataStoreFactory.HINT_HOT | DataStoreFactory.HINT_STATIC, Double.POSITIVE_INFINITY);
+    convertToPointerRepresentation(ids, heap, pi, lambda);
+
+    return new PointerDensityHierarchyRepresentationResult(ids, pi, lambda, distance.isSquared(), coredists);
+  }
+
+  /**
+   * State of the Borůvka minimum spanning tree algorithm.
+   *
+   * @author Erich Schubert
+   */
+  private static class Boruvka {
+    /**
+     * Object ids.
+     */
+    ArrayDBIDs ids;
+
+    /**
+     * Core distances.
+     */
+    double[] core;
+
+    /**
+     * Map from DBIDs to offsets.
+     */
+    WritableIntegerDataStore offsets;
+
+    /**
+     * Priority searchers, one per block.
+     */
+    PrioritySearcher<DBIDRef>[] prioqs;
+
+    /**
+     * Block size.
+     */
+    int blocksize;
+
+    /**
+     * Union-find parent array.
+     */
+    int[] parent;
+
+    /**
+     * Component of each point in the current round.
+     */
+    int[] comp;
+
+    /**
+     * Best edge found for each point.
+     */
+    double[] bestDist;
+
+    /**
+     * Target of the best edge of each point.
+     */
+    int[] bestTo;
+
+    /**
+     * Bound for each component, as long bits of a non-negative double.
+     */
+    AtomicLongArray bound;
+
+    /**
+     * Constructor.
+     *
+     * @param ids Object ids
+     * @param core Core distances
+     * @param offsets Map from DBIDs to offsets
+     * @param prioqs Priority searchers, one per block
+     * @param blocksize Block size
+     */
+    Boruvka(ArrayDBIDs ids, double[] core, WritableIntegerDataStore offsets, PrioritySearcher<DBIDRef>[] prioqs, int blocksize) {
+      final int size = ids.size();
+      this.ids = ids;
+      this.core = core;
+      this.offsets = offsets;
+      this.prioqs = prioqs;
+      this.blocksize = blocksize;
+      this.parent = new int[size];
+      this.comp = new int[size];
+      this.bestDist = new double[size];
+      this.bestTo = new int[size];
+      this.bound = new AtomicLongArray(size);
+      for(int i = 0; i < size; i++) {
+        parent[i] = i;
+      }
+    }
+
+    /**
+     * Perform one round of Borůvka's algorithm, adding the shortest outgoing
+     * edge of every component.
+     *
+     * @param heap Output heap for the edges
+     * @param prog Progress
+     * @return {@code false} if no edge was found
+     */
+    boolean round(DoubleLongHeap heap, FiniteProgress prog) {
+      final int size = ids.size();
+      for(int i = 0; i < size; i++) {
+        comp[i] = find(i);
+        bound.set(i, Double.doubleToLongBits(Double.POSITIVE_INFINITY));
+      }
+      ParallelExecutor.processBlocks(ids, blocksize, this::searchBlock);
+      // Best edge of each component, with deterministic tie breaking:
+      int[] compBest = new int[size];
+      Arrays.fill(compBest, -1);
+      for(int i = 0; i < size; i++) {
+        if(bestTo[i] >= 0) {
+          final int c = comp[i], o = compBest[c];
+          if(o < 0 || better(bestDist[i], i, bestTo[i], bestDist[o], o, bestTo[o])) {
+            compBest[c] = i;
+          }
+        }
+      }
+      boolean found = false;
+      for(int c = 0; c < size; c++) {
+        final int i = compBest[c];
+        if(i < 0) {
+          continue;
+        }
+        final int j = bestTo[i];
+        final int ri = find(i), rj = find(j);
+        if(ri == rj) {
+          continue; // Edge was chosen by both components.
+        }
+        parent[Math.max(ri, rj)] = Math.min(ri, rj);
+        heap.add(bestDist[i], (((long) Math.min(i, j)) << 31) | Math.max(i, j));
+        LOG.incrementProcessed(prog);
+        found = true;
+      }
+      return found;
+    }
+
+    /**
+     * Find the best outgoing edge for a block of points.
+     *
+     * @param b Block number
+     * @param it Iterator
+     * @param start Start offset
+     * @param end End offset
+     */
+    private void searchBlock(int b, DBIDArrayIter it, int start, int end) {
+      final PrioritySearcher<DBIDRef> prioq = prioqs[b];
+      for(int i = start; i < end; i++) {
+        final int c = comp[i];
+        double best = Double.longBitsToDouble(bound.get(c));
+        int bestj = -1;
+        bestTo[i] = -1;
+        if(core[i] > best) {
+          continue; // Cannot improve the component's edge
+        }
+        for(prioq.search(it.seek(i), best); prioq.valid(); prioq.advance()) {
+          final int j = offsets.intValue(prioq);
+          if(comp[j] == c || core[j] > best) {
+            continue;
+          }
+          final double d = Math.max(prioq.computeExactDistance(), Math.max(core[i], core[j]));
+          if(bestj < 0 ? d <= best : better(d, i, j, best, i, bestj)) {
+            best = d;
+            bestj = j;
+            prioq.decreaseCutoff(best);
+          }
+        }
+        if(bestj >= 0) {
+          bestDist[i] = best;
+          bestTo[i] = bestj;
+          updateBound(c, best);
+        }
+      }
+    }
+
+    /**
+     * Decrease the bound of a component.
+     *
+     * @param c Component
+     * @param d New bound
+     */
+    private void updateBound(int c, double d) {
+      final long bits = Double.doubleToLongBits(d);
+      // Non-negative doubles are ordered as their long bits:
+      for(long prev = bound.get(c); bits < prev; prev = bound.get(c)) {
+        if(bound.compareAndSet(c, prev, bits)) {
+          return;
+        }
+      }
+    }
+
+    /**
+     * Compare two edges, by distance and then by their endpoints.
+     *
+     * @param d1 First distance
+     * @param i1 First edge source
+     * @param j1 First edge target
+     * @param d2 Second distance
+     * @param i2 Second edge source
+     * @param j2 Second edge target
+     * @return {@code true} if the first edge is better
+     */
+    private static boolean better(double d1, int i1, int j1, double d2, int i2, int j2) {
+      if(d1 != d2) {
+        return d1 < d2;
+      }
+      final int a1 = Math.min(i1, j1), a2 = Math.min(i2, j2);
+      return a1 != a2 ? a1 < a2 : Math.max(i1, j1) < Math.max(i2, j2);
+    }
+
+    /**
+     * Find the union-find root of a point, with path halving.
+     *
+     * @param x Point
+     * @return Root
+     */
+    private int find(int x) {
+      while(parent[x] != x) {
+        x = parent[x] = parent[parent[x]];
+      }
+      return x;
+    }
+  }
+
+  @Override
+  protected Logging getLogger() {
+    return LOG;
+  }
+
+  /**
+   * Parameterization class
+   *
+   * @author Erich Schubert
+   *
+   * @hidden
+   *
+   * @param <O> Object type
+   */
+  public static class Par<O> extends AbstractHDBSCAN.Par<O> {
+    @Override
+    public ParallelBoruvkaHDBSCAN<O> make() {
+      return new ParallelBoruvkaHDBSCAN<>(distance, minPts);
+    }
+  }
+}
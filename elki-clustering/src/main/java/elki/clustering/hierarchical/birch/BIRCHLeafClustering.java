@@ -35,6 +35,7 @@ import elki.database.ids.DBIDUtil;
 import elki.database.ids.ModifiableDBIDs;
 import elki.database.relation.Relation;
 import elki.database.relation.RelationUtil;
+import elki.datasource.bundle.BundleStreamSource;
 import elki.result.Metadata;
 import elki.utilities.documentation.Reference;
 import elki.utilities.optionhandling.Parameterizer;
@@ -120,6 +121,30 @@ public class BIRCHLeafClustering implements ClusteringAlgorithm<Clustering<MeanM
     return result;
   }
 
+  /**
+   * Run the clustering algorithm on a data stream, in a single pass.
+   * <p>
+   * As the objects are not retained, the resulting clusters carry the cluster
+   * models only.
+   *
+   * @param source Data source
+   * @return Clustering
+   */
+  public Clustering<MeanModel> run(BundleStreamSource source) {
+    CFTree tree = cffactory.newTree(source);
+    Clustering<MeanModel> result = new Clustering<>();
+    for(CFTree.LeafIterator iter = tree.leafIterator(); iter.valid(); iter.advance()) {
+      ClusteringFeature leaf = iter.get();
+      double[] center = new double[leaf.getDimensionality()];
+      for(int i = 0; i < center.length; i++) {
+        center[i] = leaf.centroid(i);
+      }
+      result.addToplevelCluster(new Cluster<>(DBIDUtil.EMPTYDBIDS, new MeanModel(center)));
+    }
+    Metadata.of(result).setLongName("BIRCH Clustering");
+    return result;
+  }
+
   /**
    * Parameterization class.
    *
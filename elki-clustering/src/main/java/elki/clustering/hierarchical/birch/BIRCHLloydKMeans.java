@@ -38,6 +38,7 @@ import elki.database.ids.DBIDIter;
 import elki.database.ids.DBIDUtil;
 import elki.database.ids.ModifiableDBIDs;
 import elki.database.relation.Relation;
+import elki.datasource.bundle.BundleStreamSource;
 import elki.logging.Logging;
 import elki.logging.statistics.DoubleStatistic;
 import elki.logging.statistics.LongStatistic;
@@ -181,6 +182,39 @@ public class BIRCHLloydKMeans implements ClusteringAlgorithm<Clustering<MeanMode
     return result;
   }
 
+  /**
+   * Run the clustering algorithm on a data stream, in a single pass.
+   * <p>
+   * As the objects are not retained, the resulting clusters carry the cluster
+   * models only, and the variance sums are computed from the cluster features.
+   *
+   * @param source Data source
+   * @return Clustering
+   */
+  public Clustering<KMeansModel> run(BundleStreamSource source) {
+    CFTree tree = cffactory.newTree(source);
+    ClusteringFeature[] cfs = new ClusteringFeature[tree.leaves];
+    double[][] cfmeans = new double[tree.leaves][];
+    int z = 0;
+    for(LeafIterator iter = tree.leafIterator(); iter.valid(); iter.advance()) {
+      ClusteringFeature f = cfs[z] = iter.get();
+      cfmeans[z] = times(f.ls, 1. / f.n);
+      z++;
+    }
+    int[] assignment = new int[tree.leaves], weights = new int[k];
+    Arrays.fill(assignment, -1);
+    double[][] means = kmeans(cfmeans, cfs, assignment, weights);
+    // Recompute the means of the final assignment, for the variances:
+    means = means(assignment, means, cfs, weights);
+    double[] varsum = calculateVariances(assignment, means, cfs, weights);
+    Clustering<KMeansModel> result = new Clustering<>();
+    for(int i = 0; i < k; i++) {
+      result.addToplevelCluster(new Cluster<KMeansModel>(DBIDUtil.EMPTYDBIDS, new KMeansModel(means[i], varsum[i])));
+    }
+    Metadata.of(result).setLongName("BIRCH k-Means Clustering");
+    return result;
+  }
+
   /**
    * Perform k-means clustering.
    *
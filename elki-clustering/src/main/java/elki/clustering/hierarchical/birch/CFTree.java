@@ -24,13 +24,23 @@ import java.util.ArrayList;
 import java.util.Arrays;
 
 import elki.data.NumberVector;
+import elki.data.type.TypeUtil;
+import elki.database.ids.ArrayDBIDs;
+import elki.database.ids.DBIDArrayIter;
 import elki.database.ids.DBIDIter;
+import elki.database.ids.DBIDUtil;
 import elki.database.ids.DBIDs;
 import elki.database.relation.Relation;
+import elki.datasource.bundle.BundleMeta;
+import elki.datasource.bundle.BundleStreamSource;
 import elki.logging.Logging;
 import elki.logging.progress.FiniteProgress;
+import elki.logging.progress.IndefiniteProgress;
+import elki.parallel.ParallelCore;
+import elki.parallel.ParallelExecutor;
 import elki.utilities.datastructures.iterator.Iter;
 import elki.utilities.documentation.Reference;
+import elki.utilities.exceptions.AbortException;
 import elki.utilities.io.FormatUtil;
 import elki.utilities.optionhandling.Parameterizer;
 import elki.utilities.optionhandling.OptionID;
@@ -38,6 +48,7 @@ import elki.utilities.optionhandling.constraints.CommonConstraints;
 import elki.utilities.optionhandling.constraints.GreaterEqualConstraint;
 import elki.utilities.optionhandling.parameterization.Parameterization;
 import elki.utilities.optionhandling.parameters.DoubleParameter;
+import elki.utilities.optionhandling.parameters.Flag;
 import elki.utilities.optionhandling.parameters.IntParameter;
 import elki.utilities.optionhandling.parameters.ObjectParameter;
 
@@ -47,15 +58,20 @@ import elki.utilities.optionhandling.parameters.ObjectParameter;
  * Important differences:
  * <ol>
  * <li>Leaf nodes and directory nodes have the same capacity</li>
- * <li>Condensing and memory limits are not implemented</li>
+ * <li>The memory limit is a number of leaves, not a number of pages</li>
  * <li>Merging refinement (merge-resplit) is not implemented</li>
  * </ol>
  * Because we want to be able to track the cluster assignments of all data
  * points easily, we need to store the point IDs, and it is not possible to
  * implement the originally proposed page size management at the same time.
  * <p>
- * Condensing and merging refinement are possible, and improvements to this code
- * are welcome - please send a pull request!
+ * Merging refinement is possible, and improvements to this code are welcome -
+ * please send a pull request!
+ * <p>
+ * When the number of leaves exceeds the budget, the threshold is increased and
+ * the tree is rebuilt from its leaves. The tree can also be built from a data
+ * stream, without materializing the data, and in parallel by building one tree
+ * per partition of the data, then merging their leaves.
  * <p>
  * References:
  * <p>
@@ -89,6 +105,11 @@ public class CFTree {
    */
   public static final Logging LOG = Logging.getLogger(CFTree.class);
 
+  /**
+   * Minimum number of objects per partition when building in parallel.
+   */
+  private static final int MIN_PARTITION_SIZE = 250;
+
   /**
    * Distance function to use.
    */
@@ -162,11 +183,37 @@ public class CFTree {
     }
   }
 
+  /**
+   * Insert a clustering feature into the tree, e.g., a leaf of another tree.
+   * <p>
+   * The clustering feature is not copied, and may be modified by subsequent
+   * insertions.
+   *
+   * @param cf Clustering feature
+   */
+  public void insert(ClusteringFeature cf) {
+    // No root created yet:
+    if(root == null) {
+      root = new TreeNode(cf.getDimensionality(), capacity);
+      root.children[0] = cf;
+      root.addToStatistics(cf);
+      ++leaves;
+      return;
+    }
+    TreeNode other = insert(root, cf);
+    // Handle root overflow:
+    if(other != null) {
+      TreeNode newnode = new TreeNode(cf.getDimensionality(), capacity);
+      newnode.addToStatistics(newnode.children[0] = root);
+      newnode.addToStatistics(newnode.children[1] = other);
+      root = newnode;
+    }
+  }
+
   /**
    * Rebuild the CFTree to condense it to approximately half the size.
    */
   protected void rebuildTree() {
-    final int dim = root.getDimensionality();
     double t = estimateThreshold(root) / leaves;
     t *= t;
     // Never decrease the threshold.
@@ -175,23 +222,10 @@ public class CFTree {
 
     LeafIterator iter = new LeafIterator(root); // Will keep the old root.
     assert (iter.valid());
-    ClusteringFeature first = iter.get();
-
+    root = null;
     leaves = 0;
-    // Make a new root node:
-    root = new TreeNode(dim, capacity);
-    root.children[0] = first;
-    root.addToStatistics(first);
-    ++leaves;
-    for(iter.advance(); iter.valid(); iter.advance()) {
-      TreeNode other = insert(root, iter.get());
-      // Handle root overflow:
-      if(other != null) {
-        TreeNode newnode = new TreeNode(dim, capacity);
-        newnode.addToStatistics(newnode.children[0] = root);
-        newnode.addToStatistics(newnode.children[1] = other);
-        root = newnode;
-      }
+    for(; iter.valid(); iter.advance()) {
+      insert(iter.get());
     }
   }
 
@@ -623,6 +657,11 @@ public class CFTree {
      */
     double maxleaves;
 
+    /**
+     * Build partial trees in parallel.
+     */
+    boolean parallel;
+
     /**
      * Constructor.
      *
@@ -633,35 +672,158 @@ public class CFTree {
      * @param maxleaves Maximum number of leaves
      */
     public Factory(BIRCHDistance distance, BIRCHAbsorptionCriterion absorption, double threshold, int branchingFactor, double maxleaves) {
+      this(distance, absorption, threshold, branchingFactor, maxleaves, false);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param distance Distance to use
+     * @param absorption Absorption criterion (diameter, distance).
+     * @param threshold Distance threshold
+     * @param branchingFactor Maximum branching factor.
+     * @param maxleaves Maximum number of leaves
+     * @param parallel Build partial trees in parallel, and merge them
+     */
+    public Factory(BIRCHDistance distance, BIRCHAbsorptionCriterion absorption, double threshold, int branchingFactor, double maxleaves, boolean parallel) {
       this.distance = distance;
       this.absorption = absorption;
       this.threshold = threshold;
       this.branchingFactor = branchingFactor;
       this.maxleaves = maxleaves;
+      this.parallel = parallel;
     }
 
     /**
      * Make a new tree.
+     * <p>
+     * In parallel mode, the data is partitioned, one tree is built for each
+     * partition (each with a proportional share of the leaf budget), and the
+     * leaves of these trees are then inserted into a single tree.
      *
      * @param ids DBIDs to insert
      * @param relation Data relation
      * @return New tree
      */
     public CFTree newTree(DBIDs ids, Relation<? extends NumberVector> relation) {
-      CFTree tree = new CFTree(distance, absorption, threshold, branchingFactor);
       final double max = maxleaves <= 1 ? maxleaves * ids.size() : maxleaves;
-      FiniteProgress prog = LOG.isVerbose() ? new FiniteProgress("Building tree", relation.size(), LOG) : null;
-      for(DBIDIter it = relation.iterDBIDs(); it.valid(); it.advance()) {
-        tree.insert(relation.get(it));
-        if(tree.leaves > max) {
-          if(LOG.isVerbose()) {
-            LOG.verbose("Compacting CF-tree.");
+      final int parallelism = parallel ? ParallelCore.getCore().getParallelism() : 1;
+      final int nparts = Math.min(parallelism, ids.size() / MIN_PARTITION_SIZE);
+      if(nparts <= 1) {
+        CFTree tree = new CFTree(distance, absorption, threshold, branchingFactor);
+        FiniteProgress prog = LOG.isVerbose() ? new FiniteProgress("Building tree", ids.size(), LOG) : null;
+        for(DBIDIter it = ids.iter(); it.valid(); it.advance()) {
+          tree.insert(relation.get(it));
+          if(tree.leaves > max) {
+            if(LOG.isVerbose()) {
+              LOG.verbose("Compacting CF-tree.");
+            }
+            tree.rebuildTree();
           }
-          tree.rebuildTree();
+          LOG.incrementProcessed(prog);
         }
-        LOG.incrementProcessed(prog);
+        LOG.ensureCompleted(prog);
+        return tree;
       }
+      final ArrayDBIDs aids = DBIDUtil.ensureArray(ids);
+      final CFTree[] trees = new CFTree[nparts];
+      FiniteProgress prog = LOG.isVerbose() ? new FiniteProgress("Building partial trees", aids.size(), LOG) : null;
+      final long size = aids.size();
+      final double pmax = Math.max(1, max / nparts);
+      ParallelExecutor.forEach(nparts, p -> {
+        CFTree tree = new CFTree(distance, absorption, threshold, branchingFactor);
+        final int end = (int) ((p + 1) * size / nparts);
+        for(DBIDArrayIter it = aids.iter().seek((int) (p * size / nparts)); it.getOffset() < end; it.advance()) {
+          tree.insert(relation.get(it));
+          if(tree.leaves > pmax) {
+            tree.rebuildTree();
+          }
+          LOG.incrementProcessed(prog);
+        }
+        trees[p] = tree;
+      });
       LOG.ensureCompleted(prog);
+      return merge(trees, max);
+    }
+
+    /**
+     * Merge partial trees, by inserting all their leaves into a new tree.
+     *
+     * @param trees Partial trees
+     * @param max Maximum number of leaves
+     * @return Merged tree
+     */
+    private CFTree merge(CFTree[] trees, double max) {
+      CFTree tree = new CFTree(distance, absorption, threshold, branchingFactor);
+      // Start with the largest threshold of the partial trees:
+      for(CFTree t : trees) {
+        tree.thresholdsq = t.thresholdsq > tree.thresholdsq ? t.thresholdsq : tree.thresholdsq;
+      }
+      for(CFTree t : trees) {
+        for(LeafIterator iter = t.leafIterator(); iter.valid(); iter.advance()) {
+          tree.insert(iter.get());
+          if(tree.leaves > max) {
+            if(LOG.isVerbose()) {
+              LOG.verbose("Compacting CF-tree.");
+            }
+            tree.rebuildTree();
+          }
+        }
+      }
+      return tree;
+    }
+
+    /**
+     * Make a new tree from a data stream, in a single pass.
+     * <p>
+     * The data is not retained, and the memory use is bounded by the leaf
+     * budget, which hence must be given as an absolute number of leaves.
+     *
+     * @param source Data source
+     * @return New tree
+     */
+    public CFTree newTree(BundleStreamSource source) {
+      if(maxleaves <= 1) {
+        throw new AbortException("When processing a data stream, the maximum number of leaves must be given as an absolute value.");
+      }
+      CFTree tree = new CFTree(distance, absorption, threshold, branchingFactor);
+      IndefiniteProgress prog = LOG.isVerbose() ? new IndefiniteProgress("Building tree", LOG) : null;
+      int dcol = -1;
+      loop: while(true) {
+        switch(source.nextEvent()){
+        case END_OF_STREAM:
+          break loop;
+        case META_CHANGED:
+          BundleMeta meta = source.getMeta();
+          dcol = -1;
+          for(int i = 0; i < meta.size(); i++) {
+            if(TypeUtil.NUMBER_VECTOR_FIELD.isAssignableFromType(meta.get(i))) {
+              if(dcol >= 0) {
+                throw new AbortException("More than one vector column.");
+              }
+              dcol = i;
+            }
+          }
+          break;
+        case NEXT_OBJECT:
+          if(dcol < 0) {
+            throw new AbortException("No vector column available.");
+          }
+          tree.insert((NumberVector) source.data(dcol));
+          if(tree.leaves > maxleaves) {
+            if(LOG.isVerbose()) {
+              LOG.verbose("Compacting CF-tree.");
+            }
+            tree.rebuildTree();
+          }
+          LOG.incrementProcessed(prog);
+          break;
+        }
+      }
+      LOG.setCompleted(prog);
+      if(tree.root == null) {
+        throw new AbortException("The data stream did not contain any objects.");
+      }
       return tree;
     }
 
@@ -696,6 +858,11 @@ public class CFTree {
        */
       public static final OptionID MAXLEAVES_ID = new OptionID("cftree.maxleaves", "Maximum number of leaves (if less than 1, the values is assumed to be relative)");
 
+      /**
+       * Build partial trees in parallel.
+       */
+      public static final OptionID PARALLEL_ID = new OptionID("cftree.parallel", "Build one CF-tree per thread on a partition of the data, and merge their leaves.");
+
       /**
        * BIRCH distance function to use
        */
@@ -721,6 +888,11 @@ public class CFTree {
        */
       double maxleaves;
 
+      /**
+       * Build partial trees in parallel.
+       */
+      boolean parallel;
+
       @Override
       public void configure(Parameterization config) {
         new ObjectParameter<BIRCHDistance>(DISTANCE_ID, BIRCHDistance.class, VarianceIncreaseDistance.class) //
@@ -739,11 +911,12 @@ public class CFTree {
             .addConstraint(CommonConstraints.GREATER_THAN_ZERO_DOUBLE) //
             .setDefaultValue(0.05) //
             .grab(config, x -> maxleaves = x);
+        new Flag(PARALLEL_ID).grab(config, x -> parallel = x);
       }
 
       @Override
       public CFTree.Factory make() {
-        return new CFTree.Factory(distance, absorption, threshold, branchingFactor, maxleaves);
+        return new CFTree.Factory(distance, absorption, threshold, branchingFactor, maxleaves, parallel);
       }
     }
   }
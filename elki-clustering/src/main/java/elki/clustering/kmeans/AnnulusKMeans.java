@@ -108,17 +108,17 @@ public class AnnulusKMeans<V extends NumberVector> extends HamerlyKMeans<V> {
     /**
      * Second nearest cluster.
      */
-    WritableIntegerDataStore second;
+    protected WritableIntegerDataStore second;
 
     /**
      * Cluster center distances.
      */
-    double[] cdist;
+    protected double[] cdist;
 
     /**
      * Sorted neighbors
      */
-    int[] cnum;
+    protected int[] cnum;
 
     public Instance(Relation<? extends NumberVector> relation, NumberVectorDistance<?> df, double[][] means) {
       super(relation, df, means);
@@ -0,0 +1,629 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2019
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package elki.clustering.kmeans;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import elki.clustering.kmeans.initialization.KMeansInitialization;
+import elki.clustering.kmeans.initialization.KMeansPlusPlus;
+import elki.data.Cluster;
+import elki.data.Clustering;
+import elki.data.DoubleVector;
+import elki.data.NumberVector;
+import elki.data.model.KMeansModel;
+import elki.data.type.SimpleTypeInformation;
+import elki.data.type.TypeInformation;
+import elki.database.datastore.DataStoreFactory;
+import elki.database.datastore.DataStoreUtil;
+import elki.database.datastore.WritableDataStore;
+import elki.database.ids.ArrayDBIDs;
+import elki.database.ids.DBIDArrayIter;
+import elki.database.ids.DBIDRange;
+import elki.database.ids.DBIDUtil;
+import elki.database.relation.MaterializedRelation;
+import elki.database.relation.ProxyView;
+import elki.database.relation.Relation;
+import elki.datasource.bundle.BundleMeta;
+import elki.datasource.bundle.BundleStreamSource;
+import elki.distance.NumberVectorDistance;
+import elki.logging.Logging;
+import elki.logging.progress.IndefiniteProgress;
+import elki.logging.statistics.DoubleStatistic;
+import elki.logging.statistics.Duration;
+import elki.logging.statistics.LongStatistic;
+import elki.result.Metadata;
+import elki.utilities.documentation.Reference;
+import elki.utilities.documentation.Title;
+import elki.utilities.exceptions.AbortException;
+import elki.utilities.optionhandling.OptionID;
+import elki.utilities.optionhandling.constraints.CommonConstraints;
+import elki.utilities.optionhandling.parameterization.Parameterization;
+import elki.utilities.optionhandling.parameters.DoubleParameter;
+import elki.utilities.optionhandling.parameters.IntParameter;
+import elki.utilities.optionhandling.parameters.ObjectParameter;
+import elki.utilities.optionhandling.parameters.RandomParameter;
+import elki.utilities.random.RandomFactory;
+
+/**
+ * Mini-batch k-means, which updates the means using small random samples of
+ * the data set only, using a per-center learning rate that decreases with the
+ * number of points assigned to each center so far.
+ * <p>
+ * On a relation, batches are sampled (with replacement) until the maximum
+ * center movement within a batch drops below the tolerance, or the maximum
+ * number of batches is reached; then a single full pass assigns all points.
+ * <p>
+ * With {@link #run(BundleStreamSource)}, the data is consumed in a single pass
+ * in the order of the stream. Only the means, the per-center counts, and one
+ * batch buffer are kept in memory; the initial means are chosen from a sample
+ * buffered at the beginning of the stream.
+ * <p>
+ * Reference:
+ * <p>
+ * D. Sculley<br>
+ * Web-scale k-means clustering<br>
+ * Proc. 19th Int. Conf. on World Wide Web (WWW 2010)
+ *
+ * @author Erich Schubert
+ * @since 0.8.0
+ *
+ * @navassoc - - - KMeansModel
+ *
+ * @param <V> vector type to use
+ */
+@Title("Mini-Batch k-Means")
+@Reference(authors = "D. Sculley", //
+    title = "Web-scale k-means clustering", //
+    booktitle = "Proc. 19th Int. Conf. on World Wide Web (WWW 2010)", //
+    url = "https://doi.org/10.1145/1772690.1772862", //
+    bibkey = "DBLP:conf/www/Sculley10")
+public class MiniBatchKMeans<V extends NumberVector> extends AbstractKMeans<V, KMeansModel> {
+  /**
+   * The logger for this class.
+   */
+  private static final Logging LOG = Logging.getLogger(MiniBatchKMeans.class);
+
+  /**
+   * Number of samples per batch.
+   */
+  protected int batchsize;
+
+  /**
+   * Convergence threshold on the center movement.
+   */
+  protected double tolerance;
+
+  /**
+   * Sample size used for initialization.
+   */
+  protected int samplesize;
+
+  /**
+   * Random generator for sampling.
+   */
+  protected RandomFactory rnd;
+
+  /**
+   * Constructor.
+   *
+   * @param distance distance function
+   * @param k k parameter
+   * @param maxiter Maximum number of batches
+   * @param initializer Initialization method
+   * @param batchsize Number of samples per batch
+   * @param tolerance Convergence threshold on the center movement
+   * @param samplesize Sample size used for initialization
+   * @param rnd Random generator for sampling
+   */
+  public MiniBatchKMeans(NumberVectorDistance<? super V> distance, int k, int maxiter, KMeansInitialization initializer, int batchsize, double tolerance, int samplesize, RandomFactory rnd) {
+    super(distance, k, maxiter, initializer);
+    this.batchsize = batchsize;
+    this.tolerance = tolerance;
+    this.samplesize = samplesize;
+    this.rnd = rnd;
+  }
+
+  @Override
+  public Clustering<KMeansModel> run(Relation<V> relation) {
+    // Initialize on a sample only, for large data sets
+    Relation<V> sample = relation.size() <= samplesize ? relation : //
+        new ProxyView<>(DBIDUtil.randomSample(relation.getDBIDs(), samplesize, rnd), relation);
+    Instance instance = new Instance(relation, distance, initialMeans(sample), batchsize, tolerance, rnd.getSingleThreadedRandom());
+    instance.run(maxiter);
+    // Final pass to assign all points
+    instance.assignToNearestCluster();
+    return instance.buildResult();
+  }
+
+  /**
+   * Run mini-batch k-means on a data stream, in a single pass.
+   * <p>
+   * As the objects are not retained, the resulting clusters carry the cluster
+   * models only; the variance sums are accumulated at assignment time.
+   *
+   * @param source Data source
+   * @return Clustering result
+   */
+  public Clustering<KMeansModel> run(BundleStreamSource source) {
+    final TypeInformation restriction = getInputTypeRestriction()[0];
+    int dcol = -1;
+    SimpleTypeInformation<V> type = null;
+    List<V> sample = new ArrayList<>(samplesize);
+    StreamInstance instance = null;
+    loop: while(true) {
+      switch(source.nextEvent()){
+      case END_OF_STREAM:
+        break loop;
+      case META_CHANGED:
+        BundleMeta meta = source.getMeta();
+        dcol = -1;
+        for(int i = 0; i < meta.size(); i++) {
+          if(restriction.isAssignableFromType(meta.get(i))) {
+            if(dcol >= 0) {
+              throw new AbortException("More than one vector column.");
+            }
+            dcol = i;
+            @SuppressWarnings("unchecked")
+            SimpleTypeInformation<V> vtype = (SimpleTypeInformation<V>) meta.get(i);
+            type = vtype;
+          }
+        }
+        break;
+      case NEXT_OBJECT:
+        if(dcol < 0) {
+          throw new AbortException("No vector column available.");
+        }
+        @SuppressWarnings("unchecked")
+        V vec = (V) source.data(dcol);
+        if(instance != null) {
+          instance.add(vec);
+          break;
+        }
+        sample.add(vec);
+        if(sample.size() >= samplesize) {
+          instance = initializeStream(sample, type);
+          sample = null;
+        }
+        break;
+      }
+    }
+    if(instance == null) {
+      if(sample.isEmpty()) {
+        throw new AbortException("The data stream did not contain any objects.");
+      }
+      instance = initializeStream(sample, type);
+    }
+    instance.flush();
+    return instance.buildResult();
+  }
+
+  /**
+   * Choose the initial means from the buffered sample, and process the sample.
+   *
+   * @param sample Sample buffered from the stream
+   * @param type Vector type
+   * @return Stream instance
+   */
+  private StreamInstance initializeStream(List<V> sample, SimpleTypeInformation<V> type) {
+    DBIDRange ids = DBIDUtil.generateStaticDBIDRange(sample.size());
+    WritableDataStore<V> store = DataStoreUtil.makeStorage(ids, DataStoreFactory.HINT_TEMP | DataStoreFactory.HINT_HOT, type.getRestrictionClass());
+    DBIDArrayIter it = ids.iter();
+    for(V vec : sample) {
+      store.put(it, vec);
+      it.advance();
+    }
+    StreamInstance instance = new StreamInstance(distance, initialMeans(new MaterializedRelation<>("k-means sample", type, ids, store)), batchsize);
+    for(V vec : sample) {
+      instance.add(vec);
+    }
+    return instance;
+  }
+
+  /**
+   * Update a mean with a single vector, using the learning rate 1/count.
+   *
+   * @param mean Mean to update
+   * @param vec Vector
+   * @param count Number of vectors assigned to this mean, including vec
+   */
+  protected static void updateMean(double[] mean, NumberVector vec, int count) {
+    final double eta = 1. / count;
+    for(int d = 0; d < mean.length; d++) {
+      mean[d] += eta * (vec.doubleValue(d) - mean[d]);
+    }
+  }
+
+  /**
+   * Inner instance, storing state for a single data set.
+   *
+   * @author Erich Schubert
+   */
+  protected static class Instance extends AbstractKMeans.Instance {
+    /**
+     * Iterator for random access to the data.
+     */
+    private DBIDArrayIter iter;
+
+    /**
+     * Number of objects to sample from.
+     */
+    private int size;
+
+    /**
+     * Random generator.
+     */
+    private Random random;
+
+    /**
+     * Convergence threshold on the center movement.
+     */
+    private double tolerance;
+
+    /**
+     * Number of points assigned to each center so far.
+     */
+    private int[] counts;
+
+    /**
+     * Means before the current batch.
+     */
+    private double[][] prevmeans;
+
+    /**
+     * Center movement in the last batch.
+     */
+    private double[] moved;
+
+    /**
+     * Current batch.
+     */
+    private NumberVector[] batch;
+
+    /**
+     * Assignment of the batch.
+     */
+    private int[] batchassign;
+
+    /**
+     * Maximum movement in the last batch.
+     */
+    private double maxmove;
+
+    /**
+     * Constructor.
+     *
+     * @param relation Relation
+     * @param df Distance function
+     * @param means Initial means
+     * @param batchsize Batch size
+     * @param tolerance Convergence threshold on the center movement
+     * @param random Random generator
+     */
+    public Instance(Relation<? extends NumberVector> relation, NumberVectorDistance<?> df, double[][] means, int batchsize, double tolerance, Random random) {
+      super(relation, df, means);
+      ArrayDBIDs ids = DBIDUtil.ensureArray(relation.getDBIDs());
+      this.iter = ids.iter();
+      this.size = ids.size();
+      this.random = random;
+      this.tolerance = tolerance;
+      this.counts = new int[k];
+      this.prevmeans = new double[k][];
+      for(int i = 0; i < k; i++) {
+        prevmeans[i] = means[i].clone();
+      }
+      this.moved = new double[k];
+      this.batch = new NumberVector[batchsize];
+      this.batchassign = new int[batchsize];
+    }
+
+    @Override
+    protected void run(int maxiter) {
+      final Logging log = getLogger();
+      IndefiniteProgress prog = log.isVerbose() ? new IndefiniteProgress("Batches") : null;
+      int iteration = 0;
+      while(iteration < maxiter) {
+        Duration duration = log.newDuration(key + "." + iteration + ".time").begin();
+        long prevdiststat = diststat;
+        log.incrementProcessed(prog);
+        int changed = iterate(++iteration);
+        if(log.isStatistics()) {
+          log.statistics(duration.end());
+          log.statistics(new LongStatistic(key + "." + iteration + ".reassignments", changed));
+          log.statistics(new LongStatistic(key + "." + iteration + ".distance-computations", diststat - prevdiststat));
+          log.statistics(new DoubleStatistic(key + "." + iteration + ".max-movement", maxmove));
+        }
+        if(maxmove <= tolerance) {
+          break;
+        }
+      }
+      log.setCompleted(prog);
+      log.statistics(new LongStatistic(key + ".iterations", iteration));
+    }
+
+    /**
+     * Process a single mini-batch.
+     *
+     * @param iteration Iteration number
+     * @return Number of sampled points that changed their assignment
+     */
+    @Override
+    protected int iterate(int iteration) {
+      int changed = 0;
+      // Assign the sample to the current means first
+      for(int j = 0; j < batch.length; j++) {
+        iter.seek(random.nextInt(size));
+        NumberVector fv = batch[j] = relation.get(iter);
+        double mindist = distance(fv, means[0]);
+        int minIndex = 0;
+        for(int i = 1; i < k; i++) {
+          double dist = distance(fv, means[i]);
+          if(dist < mindist) {
+            minIndex = i;
+            mindist = dist;
+          }
+        }
+        batchassign[j] = minIndex;
+        if(assignment.putInt(iter, minIndex) != minIndex) {
+          ++changed;
+        }
+      }
+      // Gradient steps with per-center learning rates
+      for(int j = 0; j < batch.length; j++) {
+        final int c = batchassign[j];
+        updateMean(means[c], batch[j], ++counts[c]);
+      }
+      maxmove = movedDistance(prevmeans, means, moved);
+      copyMeans(means, prevmeans);
+      return changed;
+    }
+
+    @Override
+    protected Logging getLogger() {
+      return LOG;
+    }
+  }
+
+  /**
+   * State for processing a data stream; this only keeps the means and a single
+   * batch in memory.
+   *
+   * @author Erich Schubert
+   */
+  private static class StreamInstance {
+    /**
+     * Distance function.
+     */
+    private NumberVectorDistance<?> df;
+
+    /**
+     * Current means.
+     */
+    private double[][] means;
+
+    /**
+     * Means, wrapped as vectors (sharing the arrays).
+     */
+    private NumberVector[] meanvecs;
+
+    /**
+     * Number of points assigned to each center so far.
+     */
+    private int[] counts;
+
+    /**
+     * Sum of squared deviations at assignment time.
+     */
+    private double[] varsum;
+
+    /**
+     * Current batch.
+     */
+    private NumberVector[] batch;
+
+    /**
+     * Assignment of the batch.
+     */
+    private int[] batchassign;
+
+    /**
+     * Fill of the current batch.
+     */
+    private int fill = 0;
+
+    /**
+     * Statistics.
+     */
+    private long diststat = 0, batches = 0, objects = 0;
+
+    /**
+     * Constructor.
+     *
+     * @param df Distance function
+     * @param means Initial means
+     * @param batchsize Batch size
+     */
+    public StreamInstance(NumberVectorDistance<?> df, double[][] means, int batchsize) {
+      this.df = df;
+      this.means = means;
+      final int k = means.length;
+      this.meanvecs = new NumberVector[k];
+      for(int i = 0; i < k; i++) {
+        meanvecs[i] = DoubleVector.wrap(means[i]);
+      }
+      this.counts = new int[k];
+      this.varsum = new double[k];
+      this.batch = new NumberVector[batchsize];
+      this.batchassign = new int[batchsize];
+    }
+
+    /**
+     * Add a vector to the current batch.
+     *
+     * @param vec Vector
+     */
+    public void add(NumberVector vec) {
+      batch[fill++] = vec;
+      if(fill == batch.length) {
+        flush();
+      }
+    }
+
+    /**
+     * Process the current batch.
+     */
+    public void flush() {
+      final int k = means.length;
+      for(int j = 0; j < fill; j++) {
+        NumberVector fv = batch[j];
+        double mindist = df.distance(fv, meanvecs[0]);
+        int minIndex = 0;
+        for(int i = 1; i < k; i++) {
+          double dist = df.distance(fv, meanvecs[i]);
+          if(dist < mindist) {
+            minIndex = i;
+            mindist = dist;
+          }
+        }
+        diststat += k;
+        varsum[minIndex] += df.isSquared() ? mindist : (mindist * mindist);
+        batchassign[j] = minIndex;
+      }
+      for(int j = 0; j < fill; j++) {
+        final int c = batchassign[j];
+        updateMean(means[c], batch[j], ++counts[c]);
+        batch[j] = null;
+      }
+      objects += fill;
+      batches += fill > 0 ? 1 : 0;
+      fill = 0;
+    }
+
+    /**
+     * Build the clustering result.
+     *
+     * @return Clustering
+     */
+    public Clustering<KMeansModel> buildResult() {
+      if(LOG.isStatistics()) {
+        final String key = MiniBatchKMeans.class.getName();
+        LOG.statistics(new LongStatistic(key + ".objects", objects));
+        LOG.statistics(new LongStatistic(key + ".batches", batches));
+        LOG.statistics(new LongStatistic(key + ".distance-computations", diststat));
+      }
+      Clustering<KMeansModel> result = new Clustering<>();
+      Metadata.of(result).setLongName("k-Means Clustering");
+      for(int i = 0; i < means.length; i++) {
+        if(counts[i] == 0) {
+          LOG.warning("K-Means produced an empty cluster - bad initialization?");
+        }
+        result.addToplevelCluster(new Cluster<>(DBIDUtil.EMPTYDBIDS, new KMeansModel(means[i], varsum[i])));
+      }
+      return result;
+    }
+  }
+
+  @Override
+  protected Logging getLogger() {
+    return LOG;
+  }
+
+  /**
+   * Parameterization class.
+   *
+   * @author Erich Schubert
+   */
+  public static class Par<V extends NumberVector> extends AbstractKMeans.Par<V> {
+    /**
+     * Number of samples per batch.
+     */
+    public static final OptionID BATCHSIZE_ID = new OptionID("kmeans.minibatch.size", "Number of samples per mini-batch.");
+
+    /**
+     * Convergence threshold on the center movement.
+     */
+    public static final OptionID TOLERANCE_ID = new OptionID("kmeans.minibatch.tolerance", "Stop when no center moves more than this distance within a mini-batch.");
+
+    /**
+     * Sample size used for initialization.
+     */
+    public static final OptionID SAMPLESIZE_ID = new OptionID("kmeans.minibatch.initsample", "Number of objects to choose the initial means from.");
+
+    /**
+     * Random generator seed for sampling.
+     */
+    public static final OptionID SEED_ID = new OptionID("kmeans.minibatch.seed", "Random generator seed for sampling the mini-batches.");
+
+    /**
+     * Number of samples per batch.
+     */
+    protected int batchsize;
+
+    /**
+     * Convergence threshold on the center movement.
+     */
+    protected double tolerance;
+
+    /**
+     * Sample size used for initialization.
+     */
+    protected int samplesize;
+
+    /**
+     * Random generator for sampling.
+     */
+    protected RandomFactory rnd;
+
+    @Override
+    public void configure(Parameterization config) {
+      super.configure(config);
+      new IntParameter(BATCHSIZE_ID, 1000) //
+          .addConstraint(CommonConstraints.GREATER_EQUAL_ONE_INT) //
+          .grab(config, x -> batchsize = x);
+      new DoubleParameter(TOLERANCE_ID, 1e-4) //
+          .addConstraint(CommonConstraints.GREATER_EQUAL_ZERO_DOUBLE) //
+          .grab(config, x -> tolerance = x);
+      new IntParameter(SAMPLESIZE_ID, 10000) //
+          .addConstraint(CommonConstraints.GREATER_EQUAL_ONE_INT) //
+          .grab(config, x -> samplesize = x);
+      new RandomParameter(SEED_ID).grab(config, x -> rnd = x);
+    }
+
+    @Override
+    protected void getParameterInitialization(Parameterization config) {
+      new ObjectParameter<KMeansInitialization>(INIT_ID, KMeansInitialization.class, KMeansPlusPlus.class) //
+          .grab(config, x -> initializer = x);
+    }
+
+    @Override
+    protected void getParameterMaxIter(Parameterization config) {
+      new IntParameter(MAXITER_ID, 100)//
+          .addConstraint(CommonConstraints.GREATER_EQUAL_ZERO_INT) //
+          .grab(config, x -> maxiter = x);
+    }
+
+    @Override
+    public MiniBatchKMeans<V> make() {
+      return new MiniBatchKMeans<>(distance, k, maxiter, initializer, batchsize, tolerance, samplesize, rnd);
+    }
+  }
+}
@@ -0,0 +1,352 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2019
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package elki.clustering.kmeans.parallel;
+
+import static elki.math.linearalgebra.VMath.plusEquals;
+
+import java.util.List;
+
+import elki.clustering.kmeans.AbstractKMeans;
+import elki.data.DoubleVector;
+import elki.data.NumberVector;
+import elki.database.datastore.WritableIntegerDataStore;
+import elki.database.ids.DBIDIter;
+import elki.database.ids.DBIDRef;
+import elki.database.ids.ModifiableDBIDs;
+import elki.database.relation.Relation;
+import elki.distance.NumberVectorDistance;
+import elki.parallel.Executor;
+import elki.parallel.ParallelExecutor;
+import elki.parallel.processor.Processor;
+
+import net.jafama.FastMath;
+
+/**
+ * Processor for the parallel k-means variants that use bounds to avoid
+ * distance computations (Elkan, Hamerly, Exponion, ...).
+ * <p>
+ * Each worker collects the changes to the cluster sums and sizes, the number
+ * of distance computations, and the number of reassignments locally; these are
+ * merged into the shared state after each block. The per-object bounds are
+ * stored by the caller, and only modified for the object currently processed.
+ * Cluster memberships are not maintained during the iterations, but rebuilt
+ * from the assignment in the end.
+ *
+ * @author Erich Schubert
+ * @since 0.8.0
+ *
+ * @has - - - Worker
+ */
+public abstract class KMeansBoundsProcessor implements Processor {
+  /**
+   * Minimum number of means to compute the center distances in parallel.
+   */
+  private static final int MIN_PARALLEL_MEANS = 16;
+
+  /**
+   * Data relation.
+   */
+  protected final Relation<? extends NumberVector> relation;
+
+  /**
+   * Distance function.
+   */
+  protected final NumberVectorDistance<?> df;
+
+  /**
+   * Whether the distance is squared.
+   */
+  protected final boolean isSquared;
+
+  /**
+   * Cluster assignment.
+   */
+  protected final WritableIntegerDataStore assignment;
+
+  /**
+   * Cluster sums, updated by merging the workers.
+   */
+  private final double[][] sums;
+
+  /**
+   * Cluster sizes, updated by merging the workers.
+   */
+  private final int[] sizes;
+
+  /**
+   * Current means, wrapped as vectors.
+   */
+  private NumberVector[] means;
+
+  /**
+   * Flag for the initial assignment.
+   */
+  protected boolean initial;
+
+  /**
+   * Number of distance computations in the current pass.
+   */
+  private long diststat;
+
+  /**
+   * Number of reassignments in the current pass.
+   */
+  private int changed;
+
+  /**
+   * Constructor.
+   *
+   * @param relation Data relation
+   * @param df Distance function
+   * @param assignment Cluster assignment
+   * @param sums Cluster sums (will be modified)
+   */
+  public KMeansBoundsProcessor(Relation<? extends NumberVector> relation, NumberVectorDistance<?> df, WritableIntegerDataStore assignment, double[][] sums) {
+    super();
+    this.relation = relation;
+    this.df = df;
+    this.isSquared = df.isSquared();
+    this.assignment = assignment;
+    this.sums = sums;
+    this.sizes = new int[sums.length];
+  }
+
+  /**
+   * Process all objects in parallel.
+   *
+   * @param means Current means
+   * @param initial Flag for the initial assignment
+   * @return Number of reassigned objects
+   */
+  public int run(double[][] means, boolean initial) {
+    this.means = new NumberVector[means.length];
+    for(int i = 0; i < means.length; i++) {
+      this.means[i] = DoubleVector.wrap(means[i]);
+    }
+    this.initial = initial;
+    this.diststat = 0;
+    this.changed = 0;
+    ParallelExecutor.run(relation.getDBIDs(), this);
+    return changed;
+  }
+
+  /**
+   * Get the number of distance computations of the last pass.
+   *
+   * @return Distance computations
+   */
+  public long getDistanceComputations() {
+    return diststat;
+  }
+
+  /**
+   * Compute the new means from the sums.
+   *
+   * @param dst Output means
+   */
+  public void meansFromSums(double[][] dst) {
+    for(int i = 0; i < sizes.length; i++) {
+      final double[] sum = sums[i], mean = dst[i];
+      final double f = 1. / sizes[i];
+      for(int d = 0; d < mean.length; d++) {
+        mean[d] = sum[d] * f;
+      }
+    }
+  }
+
+  /**
+   * Rebuild the cluster memberships from the assignment.
+   *
+   * @param clusters Clusters to fill
+   */
+  public void buildClusters(List<ModifiableDBIDs> clusters) {
+    for(ModifiableDBIDs cluster : clusters) {
+      cluster.clear();
+    }
+    for(DBIDIter it = relation.iterDBIDs(); it.valid(); it.advance()) {
+      clusters.get(assignment.intValue(it)).add(it);
+    }
+  }
+
+  @Override
+  public abstract Worker instantiate(Executor executor);
+
+  @Override
+  public synchronized void cleanup(Processor.Instance inst) {
+    Worker worker = (Worker) inst;
+    diststat += worker.diststat;
+    changed += worker.changed;
+    if(worker.sizes != null) {
+      for(int i = 0; i < sizes.length; i++) {
+        sizes[i] += worker.sizes[i];
+        plusEquals(sums[i], worker.sums[i]);
+      }
+    }
+  }
+
+  /**
+   * Compute all pairwise distances of the means, in parallel for large k.
+   *
+   * @param means Means
+   * @param df Distance function
+   * @param out Output matrix, k times k, symmetric
+   * @return Number of distance computations
+   */
+  public static long centerDistances(double[][] means, NumberVectorDistance<?> df, double[][] out) {
+    final int k = means.length;
+    NumberVector[] vecs = new NumberVector[k];
+    for(int i = 0; i < k; i++) {
+      vecs[i] = DoubleVector.wrap(means[i]);
+    }
+    if(k < MIN_PARALLEL_MEANS) {
+      for(int i = 1; i < k; i++) {
+        computeRow(vecs, df, out, i);
+      }
+    }
+    else {
+      ParallelExecutor.forEach(k - 1, i -> computeRow(vecs, df, out, i + 1));
+    }
+    return (k * (long) (k - 1)) >>> 1;
+  }
+
+  /**
+   * Convert the center distances to half distances in-place, as used with the
+   * triangle inequality, and compute the separation of each mean.
+   *
+   * @param cdist Center distances, as returned by
+   *        {@link #centerDistances(double[][], NumberVectorDistance, double[][])}
+   * @param isSquared Whether the distance is squared
+   * @param sep Output separation (half distance to the nearest other mean)
+   */
+  public static void halfDistances(double[][] cdist, boolean isSquared, double[] sep) {
+    final int k = cdist.length;
+    for(int i = 0; i < k; i++) {
+      final double[] row = cdist[i];
+      double s = Double.POSITIVE_INFINITY;
+      for(int j = 0; j < k; j++) {
+        if(j != i) {
+          final double d = row[j] = .5 * (isSquared ? FastMath.sqrt(row[j]) : row[j]);
+          s = d < s ? d : s;
+        }
+      }
+      sep[i] = s;
+    }
+  }
+
+  /**
+   * Compute one row of the center distance matrix.
+   *
+   * @param vecs Means
+   * @param df Distance function
+   * @param out Output matrix
+   * @param i Row
+   */
+  private static void computeRow(NumberVector[] vecs, NumberVectorDistance<?> df, double[][] out, int i) {
+    final NumberVector vi = vecs[i];
+    final double[] oi = out[i];
+    for(int j = 0; j < i; j++) {
+      oi[j] = out[j][i] = df.distance(vi, vecs[j]);
+    }
+  }
+
+  /**
+   * Worker processing a block of objects.
+   *
+   * @author Erich Schubert
+   */
+  public abstract class Worker implements Processor.Instance {
+    /**
+     * Number of distance computations.
+     */
+    private long diststat = 0;
+
+    /**
+     * Number of reassignments.
+     */
+    private int changed = 0;
+
+    /**
+     * Changes to the cluster sizes, allocated on demand.
+     */
+    private int[] sizes;
+
+    /**
+     * Changes to the cluster sums, allocated on demand.
+     */
+    private double[][] sums;
+
+    /**
+     * Compute the distance to a mean.
+     *
+     * @param fv Vector
+     * @param i Mean number
+     * @return Distance
+     */
+    protected double distance(NumberVector fv, int i) {
+      ++diststat;
+      return df.distance(fv, means[i]);
+    }
+
+    /**
+     * Initial assignment of an object.
+     *
+     * @param id Object
+     * @param fv Vector
+     * @param c Cluster number
+     */
+    protected void assign(DBIDRef id, NumberVector fv, int c) {
+      if(sizes == null) {
+        allocate();
+      }
+      assignment.putInt(id, c);
+      AbstractKMeans.plusEquals(sums[c], fv);
+      ++sizes[c];
+    }
+
+    /**
+     * Reassign an object to a different cluster.
+     *
+     * @param id Object
+     * @param fv Vector
+     * @param from Previous cluster
+     * @param to New cluster
+     */
+    protected void reassign(DBIDRef id, NumberVector fv, int from, int to) {
+      if(sizes == null) {
+        allocate();
+      }
+      assignment.putInt(id, to);
+      AbstractKMeans.plusMinusEquals(sums[to], sums[from], fv);
+      ++sizes[to];
+      --sizes[from];
+      ++changed;
+    }
+
+    /**
+     * Allocate the local change buffers.
+     */
+    private void allocate() {
+      final int k = KMeansBoundsProcessor.this.sizes.length;
+      sizes = new int[k];
+      sums = new double[k][KMeansBoundsProcessor.this.sums[0].length];
+    }
+  }
+}
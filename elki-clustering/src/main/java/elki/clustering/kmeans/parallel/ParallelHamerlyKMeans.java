@@ -0,0 +1,291 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2019
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package elki.clustering.kmeans.parallel;
+
+import elki.clustering.kmeans.HamerlyKMeans;
+import elki.clustering.kmeans.initialization.KMeansInitialization;
+import elki.data.Clustering;
+import elki.data.NumberVector;
+import elki.data.model.KMeansModel;
+import elki.database.datastore.WritableIntegerDataStore;
+import elki.database.ids.DBIDRef;
+import elki.database.relation.Relation;
+import elki.distance.NumberVectorDistance;
+import elki.logging.Logging;
+import elki.math.linearalgebra.VMath;
+import elki.parallel.Executor;
+
+import net.jafama.FastMath;
+
+/**
+ * Parallel version of Hamerly's fast k-means.
+ * <p>
+ * The bounds are updated in the same parallel pass as the assignment, and the
+ * distances of the cluster centers are computed in parallel.
+ *
+ * @author Erich Schubert
+ * @since 0.8.0
+ *
+ * @has - - - KMeansBoundsProcessor
+ *
+ * @param <V> vector datatype
+ */
+public class ParallelHamerlyKMeans<V extends NumberVector> extends HamerlyKMeans<V> {
+  /**
+   * The logger for this class.
+   */
+  private static final Logging LOG = Logging.getLogger(ParallelHamerlyKMeans.class);
+
+  /**
+   * Constructor.
+   *
+   * @param distance distance function
+   * @param k k parameter
+   * @param maxiter Maxiter parameter
+   * @param initializer Initialization method
+   * @param varstat Compute the variance statistic
+   */
+  public ParallelHamerlyKMeans(NumberVectorDistance<? super V> distance, int k, int maxiter, KMeansInitialization initializer, boolean varstat) {
+    super(distance, k, maxiter, initializer, varstat);
+  }
+
+  @Override
+  public Clustering<KMeansModel> run(Relation<V> relation) {
+    Instance instance = new Instance(relation, distance, initialMeans(relation));
+    instance.run(maxiter);
+    return instance.buildResult(varstat, relation);
+  }
+
+  /**
+   * Inner instance, storing state for a single data set.
+   *
+   * @author Erich Schubert
+   */
+  protected static class Instance extends HamerlyKMeans.Instance {
+    /**
+     * Distance function.
+     */
+    NumberVectorDistance<?> df;
+
+    /**
+     * Parallel processor.
+     */
+    Assigner assigner;
+
+    /**
+     * Distances of the cluster centers.
+     */
+    double[][] cdist;
+
+    /**
+     * Distance moved by each center.
+     */
+    double[] move;
+
+    /**
+     * Maximum distance moved.
+     */
+    double delta;
+
+    /**
+     * Constructor.
+     *
+     * @param relation Relation
+     * @param df Distance function
+     * @param means Initial means
+     */
+    public Instance(Relation<? extends NumberVector> relation, NumberVectorDistance<?> df, double[][] means) {
+      super(relation, df, means);
+      this.df = df;
+      this.assigner = new Assigner(relation, df, assignment, sums);
+      this.cdist = new double[k][k];
+      this.move = new double[k];
+    }
+
+    @Override
+    protected void run(int maxiter) {
+      super.run(maxiter); // Make accessible to the outer class
+    }
+
+    @Override
+    protected int iterate(int iteration) {
+      if(iteration == 1) {
+        diststat += KMeansBoundsProcessor.centerDistances(means, df, cdist);
+        for(double[] row : cdist) {
+          VMath.timesEquals(row, 0.25);
+        }
+        assigner.run(means, true);
+        diststat += assigner.getDistanceComputations();
+        return relation.size();
+      }
+      assigner.meansFromSums(newmeans);
+      delta = movedDistance(means, newmeans, move);
+      copyMeans(newmeans, means);
+      diststat += KMeansBoundsProcessor.centerDistances(means, df, cdist);
+      KMeansBoundsProcessor.halfDistances(cdist, isSquared, sep);
+      int changed = assigner.run(means, false);
+      diststat += assigner.getDistanceComputations();
+      return changed;
+    }
+
+    @Override
+    protected Clustering<KMeansModel> buildResult(boolean varstat, Relation<? extends NumberVector> relation) {
+      assigner.buildClusters(clusters);
+      return super.buildResult(varstat, relation);
+    }
+
+    @Override
+    protected Logging getLogger() {
+      return LOG;
+    }
+
+    /**
+     * Parallel assignment to the nearest cluster.
+     *
+     * @author Erich Schubert
+     */
+    private class Assigner extends KMeansBoundsProcessor {
+      /**
+       * Constructor.
+       *
+       * @param relation Data relation
+       * @param df Distance function
+       * @param assignment Cluster assignment
+       * @param sums Cluster sums
+       */
+      Assigner(Relation<? extends NumberVector> relation, NumberVectorDistance<?> df, WritableIntegerDataStore assignment, double[][] sums) {
+        super(relation, df, assignment, sums);
+      }
+
+      @Override
+      public Worker instantiate(Executor executor) {
+        return new HamerlyWorker();
+      }
+
+      /**
+       * Worker for Hamerly's algorithm.
+       *
+       * @author Erich Schubert
+       */
+      private class HamerlyWorker extends Worker {
+        @Override
+        public void map(DBIDRef it) {
+          if(initial) {
+            initialAssign(it);
+            return;
+          }
+          final int cur = assignment.intValue(it);
+          // Update and check the bounds:
+          final double z = lower.doubleValue(it) - delta;
+          final double sa = sep[cur];
+          double u = upper.doubleValue(it) + move[cur];
+          if(u <= z || u <= sa) {
+            upper.putDouble(it, u);
+            lower.putDouble(it, z);
+            return;
+          }
+          // Update the upper bound
+          NumberVector fv = relation.get(it);
+          double curd2 = distance(fv, cur);
+          u = isSquared ? FastMath.sqrt(curd2) : curd2;
+          upper.putDouble(it, u);
+          if(u <= z || u <= sa) {
+            lower.putDouble(it, z);
+            return;
+          }
+          // Find closest center, and distance to two closest centers
+          double min1 = curd2, min2 = Double.POSITIVE_INFINITY;
+          int minIndex = cur;
+          for(int i = 0; i < k; i++) {
+            if(i == cur) {
+              continue;
+            }
+            double dist = distance(fv, i);
+            if(dist < min1) {
+              minIndex = i;
+              min2 = min1;
+              min1 = dist;
+            }
+            else if(dist < min2) {
+              min2 = dist;
+            }
+          }
+          if(minIndex != cur) {
+            reassign(it, fv, cur, minIndex);
+            upper.putDouble(it, min1 == curd2 ? u : isSquared ? FastMath.sqrt(min1) : min1);
+          }
+          lower.putDouble(it, min2 == curd2 ? u : isSquared ? FastMath.sqrt(min2) : min2);
+        }
+
+        /**
+         * Initial assignment of an object.
+         *
+         * @param it Object
+         */
+        private void initialAssign(DBIDRef it) {
+          NumberVector fv = relation.get(it);
+          // Find closest center, and distance to two closest centers
+          double min1 = distance(fv, 0), min2 = distance(fv, 1);
+          int minIndex = 0;
+          if(min2 < min1) {
+            double tmp = min1;
+            min1 = min2;
+            min2 = tmp;
+            minIndex = 1;
+          }
+          for(int i = 2; i < k; i++) {
+            if(min2 > cdist[minIndex][i]) {
+              double dist = distance(fv, i);
+              if(dist < min1) {
+                minIndex = i;
+                min2 = min1;
+                min1 = dist;
+              }
+              else if(dist < min2) {
+                min2 = dist;
+              }
+            }
+          }
+          assign(it, fv, minIndex);
+          upper.putDouble(it, isSquared ? FastMath.sqrt(min1) : min1);
+          lower.putDouble(it, isSquared ? FastMath.sqrt(min2) : min2);
+        }
+      }
+    }
+  }
+
+  @Override
+  protected Logging getLogger() {
+    return LOG;
+  }
+
+  /**
+   * Parameterization class.
+   *
+   * @author Erich Schubert
+   */
+  public static class Par<V extends NumberVector> extends HamerlyKMeans.Par<V> {
+    @Override
+    public ParallelHamerlyKMeans<V> make() {
+      return new ParallelHamerlyKMeans<>(distance, k, maxiter, initializer, varstat);
+    }
+  }
+}
@@ -41,6 +41,8 @@ import elki.distance.Distance;
 import elki.logging.Logging;
 import elki.logging.progress.FiniteProgress;
 import elki.logging.statistics.DoubleStatistic;
+import elki.parallel.ParallelCore;
+import elki.parallel.ParallelExecutor;
 import elki.result.Metadata;
 import elki.utilities.documentation.Reference;
 import elki.utilities.optionhandling.OptionID;
@@ -57,6 +59,11 @@ import elki.utilities.random.RandomFactory;
  * improvements, to increase scalability in the number of clusters. This variant
  * will also default to twice the sample size, to improve quality.
  * <p>
+ * In parallel mode, rounds of samples (one per thread) are processed
+ * concurrently, each with its own distance cache. If the previous medoids are
+ * kept, each round uses the best medoids of the previous rounds. The swap phase
+ * of each sample is not parallelized, as the distance cache is not thread safe.
+ * <p>
  * TODO: use a triangular distance matrix, rather than a hash-map based cache,
  * for a bit better performance and less memory.
  * <p>
@@ -118,7 +125,25 @@ public class FastCLARA<V> extends FastPAM<V> {
    * @param random Random generator
    */
   public FastCLARA(Distance<? super V> distance, int k, int maxiter, KMedoidsInitialization<V> initializer, double fasttol, int numsamples, double sampling, boolean keepmed, RandomFactory random) {
-    super(distance, k, maxiter, initializer, fasttol);
+    this(distance, k, maxiter, initializer, fasttol, numsamples, sampling, keepmed, random, false);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param distance Distance function to use
+   * @param k Number of clusters to produce
+   * @param maxiter Maximum number of iterations
+   * @param initializer Initialization function
+   * @param fasttol Tolerance for fast swapping
+   * @param numsamples Number of samples (sampling iterations)
+   * @param sampling Sampling rate (absolute or relative)
+   * @param keepmed Keep the previous medoids in the next sample
+   * @param random Random generator
+   * @param parallel Process samples concurrently
+   */
+  public FastCLARA(Distance<? super V> distance, int k, int maxiter, KMedoidsInitialization<V> initializer, double fasttol, int numsamples, double sampling, boolean keepmed, RandomFactory random, boolean parallel) {
+    super(distance, k, maxiter, initializer, fasttol, parallel);
     this.numsamples = numsamples;
     this.sampling = sampling;
     this.random = random;
@@ -134,36 +159,56 @@ public class FastCLARA<V> extends FastPAM<V> {
       LOG.warning("The sampling size is set to a very small value, it should be much larger than k.");
     }
 
-    CLARA.CachedDistanceQuery<V> cachedQ = new CLARA.CachedDistanceQuery<V>(distQ, (samplesize * (samplesize - 1)) >> 1);
-
     double best = Double.POSITIVE_INFINITY;
     ArrayModifiableDBIDs bestmedoids = null;
     WritableIntegerDataStore bestclusters = null;
 
+    // In parallel mode, process rounds of samples concurrently:
+    final int round = parallel ? Math.max(1, Math.min(numsamples, ParallelCore.getCore().getParallelism())) : 1;
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    final CLARA.CachedDistanceQuery<V>[] cachedQ = new CLARA.CachedDistanceQuery[round];
+    final DBIDs[] rids = new DBIDs[round];
+    final ArrayModifiableDBIDs[] medoids = new ArrayModifiableDBIDs[round];
+    final WritableIntegerDataStore[] assignment = new WritableIntegerDataStore[round];
+    final double[] score = new double[round];
+
     Random rnd = random.getSingleThreadedRandom();
     FiniteProgress prog = LOG.isVerbose() ? new FiniteProgress("Processing random samples", numsamples, LOG) : null;
-    for(int j = 0; j < numsamples; j++) {
-      DBIDs rids = CLARA.randomSample(ids, samplesize, rnd, keepmed ? bestmedoids : null);
-      cachedQ.clear(); // TODO: an actual matrix would be better.
-
-      // Choose initial medoids
-      ArrayModifiableDBIDs medoids = DBIDUtil.newArray(initializer.chooseInitialMedoids(k, rids, cachedQ));
-      // Setup cluster assignment store
-      WritableIntegerDataStore assignment = DataStoreUtil.makeIntegerStorage(ids, DataStoreFactory.HINT_HOT | DataStoreFactory.HINT_TEMP, -1);
-      double score = new /* PAM */Instance(cachedQ, rids, assignment, fasttol).run(medoids, maxiter) //
-          + CLARA.assignRemainingToNearestCluster(medoids, ids, rids, assignment, distQ);
-      if(LOG.isStatistics()) {
-        LOG.statistics(new DoubleStatistic(getClass().getName() + ".sample-" + j + ".cost", score));
-      }
-      if(score < best) {
-        best = score;
-        bestmedoids = medoids;
-        bestclusters = assignment;
+    for(int j = 0; j < numsamples; j += round) {
+      final int r = Math.min(round, numsamples - j);
+      // Sampling and initialization are not thread safe, so do them serially:
+      for(int i = 0; i < r; i++) {
+        rids[i] = CLARA.randomSample(ids, samplesize, rnd, keepmed ? bestmedoids : null);
+        if(cachedQ[i] == null) {
+          cachedQ[i] = new CLARA.CachedDistanceQuery<V>(distQ, (samplesize * (samplesize - 1)) >> 1);
+        }
+        else {
+          cachedQ[i].clear(); // TODO: an actual matrix would be better.
+        }
+        // Choose initial medoids
+        medoids[i] = DBIDUtil.newArray(initializer.chooseInitialMedoids(k, rids[i], cachedQ[i]));
+        // Setup cluster assignment store
+        assignment[i] = DataStoreUtil.makeIntegerStorage(ids, DataStoreFactory.HINT_HOT | DataStoreFactory.HINT_TEMP, -1);
       }
-      if(cachedQ.hasUncachedQueries()) {
-        LOG.warning("Some distance queries were not cached; maybe the initialization is not optimized for k-medoids.");
+      // Each sample uses its own distance cache, so they are independent:
+      ParallelExecutor.forEach(r, i -> {
+        score[i] = new /* PAM */Instance(cachedQ[i], rids[i], assignment[i], fasttol).run(medoids[i], maxiter) //
+            + CLARA.assignRemainingToNearestCluster(medoids[i], ids, rids[i], assignment[i], distQ);
+      });
+      for(int i = 0; i < r; i++) {
+        if(LOG.isStatistics()) {
+          LOG.statistics(new DoubleStatistic(getClass().getName() + ".sample-" + (j + i) + ".cost", score[i]));
+        }
+        if(score[i] < best) {
+          best = score[i];
+          bestmedoids = medoids[i];
+          bestclusters = assignment[i];
+        }
+        if(cachedQ[i].hasUncachedQueries()) {
+          LOG.warning("Some distance queries were not cached; maybe the initialization is not optimized for k-medoids.");
+        }
+        LOG.incrementProcessed(prog);
       }
-      LOG.incrementProcessed(prog);
     }
     LOG.ensureCompleted(prog);
     if(LOG.isStatistics()) {
@@ -249,7 +294,7 @@ public class FastCLARA<V> extends FastPAM<V> {
 
     @Override
     public FastCLARA<V> make() {
-      return new FastCLARA<>(distance, k, maxiter, initializer, fasttol, numsamples, sampling, keepmed, random);
+      return new FastCLARA<>(distance, k, maxiter, initializer, fasttol, numsamples, sampling, keepmed, random, parallel);
     }
   }
 }
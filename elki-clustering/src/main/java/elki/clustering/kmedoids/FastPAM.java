@@ -32,6 +32,7 @@ import elki.logging.Logging;
 import elki.logging.progress.IndefiniteProgress;
 import elki.logging.statistics.DoubleStatistic;
 import elki.logging.statistics.LongStatistic;
+import elki.parallel.ParallelExecutor;
 import elki.utilities.Priority;
 import elki.utilities.documentation.Reference;
 import elki.utilities.optionhandling.OptionID;
@@ -115,13 +116,27 @@ public class FastPAM<V> extends FastPAM1<V> {
    * @param fasttol Tolerance for fast swapping
    */
   public FastPAM(Distance<? super V> distance, int k, int maxiter, KMedoidsInitialization<V> initializer, double fasttol) {
-    super(distance, k, maxiter, initializer);
+    this(distance, k, maxiter, initializer, fasttol, false);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param distance distance function
+   * @param k k parameter
+   * @param maxiter Maxiter parameter
+   * @param initializer Function to generate the initial means
+   * @param fasttol Tolerance for fast swapping
+   * @param parallel Evaluate the swap candidates in parallel
+   */
+  public FastPAM(Distance<? super V> distance, int k, int maxiter, KMedoidsInitialization<V> initializer, double fasttol, boolean parallel) {
+    super(distance, k, maxiter, initializer, parallel);
     this.fasttol = fasttol;
   }
 
   @Override
   protected void run(DistanceQuery<V> distQ, DBIDs ids, ArrayModifiableDBIDs medoids, WritableIntegerDataStore assignment) {
-    new Instance(distQ, ids, assignment, fasttol).run(medoids, maxiter);
+    new Instance(distQ, ids, assignment, fasttol, parallel).run(medoids, maxiter);
   }
 
   /**
@@ -144,7 +159,21 @@ public class FastPAM<V> extends FastPAM1<V> {
      * @param fasttol Tolerance for fast swapping
      */
     public Instance(DistanceQuery<?> distQ, DBIDs ids, WritableIntegerDataStore assignment, double fasttol) {
-      super(distQ, ids, assignment);
+      this(distQ, ids, assignment, fasttol, false);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param distQ Distance query
+     * @param ids IDs to process
+     * @param assignment Cluster assignment
+     * @param fasttol Tolerance for fast swapping
+     * @param parallel Evaluate the swap candidates in parallel; the distance
+     *        query must be thread safe then.
+     */
+    public Instance(DistanceQuery<?> distQ, DBIDs ids, WritableIntegerDataStore assignment, double fasttol, boolean parallel) {
+      super(distQ, ids, assignment, parallel);
       this.fastswap = 1 - fasttol;
     }
 
@@ -167,15 +196,32 @@ public class FastPAM<V> extends FastPAM1<V> {
       IndefiniteProgress prog = LOG.isVerbose() ? new IndefiniteProgress("PAM iteration", LOG) : null;
       int fastswaps = 0; // For statistics
       // Swap phase
+      final ArrayDBIDs aids = DBIDUtil.ensureArray(ids);
+      final int blocksize = blockSize(aids.size()), nblocks = ParallelExecutor.numBlocks(aids.size(), blocksize);
+      // Best swaps of each block of candidates:
+      final double[][] bbest = new double[nblocks][k];
+      final int[][] bbestids = new int[nblocks][k];
       DBIDArrayIter m = medoids.iter();
-      ArrayModifiableDBIDs bestids = DBIDUtil.newArray(k);
       DBIDVar bestid = DBIDUtil.newVar();
-      double[] best = new double[k], cost = new double[k];
+      int[] bestids = new int[k];
+      double[] best = new double[k];
       int iteration = 0;
       while(iteration < maxiter || maxiter <= 0) {
         ++iteration;
         LOG.incrementProcessed(prog);
-        findBestSwaps(m, bestids, best, cost);
+        ParallelExecutor.processBlocks(aids, blocksize, (b, h, start, end) -> //
+        findBestSwaps(medoids.iter(), h, start, end, bbestids[b], bbest[b], new double[k]));
+        // Reduce in block order, to break ties as in the sequential case:
+        Arrays.fill(best, Double.POSITIVE_INFINITY);
+        for(int b = 0; b < nblocks; b++) {
+          final double[] bb = bbest[b];
+          for(int i = 0; i < k; i++) {
+            if(bb[i] < best[i]) {
+              best[i] = bb[i];
+              bestids[i] = bbestids[b][i];
+            }
+          }
+        }
         // Convergence check
         int min = argmin(best);
         if(!(best[min] < -1e-12 * tc)) {
@@ -183,12 +229,12 @@ public class FastPAM<V> extends FastPAM1<V> {
         }
         // Update values for new medoid.
         while(min >= 0 && best[min] < -1e-12 * tc) {
-          updateAssignment(medoids, m, bestids.assignVar(min, bestid), min);
+          updateAssignment(medoids, m, aids.assignVar(bestids[min], bestid), min);
           tc += best[min];
           best[min] = Double.POSITIVE_INFINITY; // Deactivate
           // Find next candidate:
           while((min = argmin(best)) >= 0 && best[min] < -1e-12 * tc) {
-            bestids.assignVar(min, bestid);
+            aids.assignVar(bestids[min], bestid);
             // Compare object to its own medoid.
             if(DBIDUtil.equal(m.seek(assignment.intValue(bestid) & 0x7FFF), bestid)) {
               best[min] = Double.POSITIVE_INFINITY; // Deactivate
@@ -224,17 +270,20 @@ public class FastPAM<V> extends FastPAM1<V> {
     }
 
     /**
-     * Find the best swaps.
+     * Find the best swaps, for a range of swap candidates.
      *
      * @param m Medoids
-     * @param bestids Storage for best non-medois
+     * @param h Candidate iterator
+     * @param start First candidate offset
+     * @param end End candidate offset (exclusive)
+     * @param bestids Storage for the offsets of the best non-medoids
      * @param best Storage for best cost
      * @param cost Scratch space for cost
      */
-    protected void findBestSwaps(DBIDArrayIter m, ArrayModifiableDBIDs bestids, double[] best, double[] cost) {
+    protected void findBestSwaps(DBIDArrayIter m, DBIDArrayIter h, int start, int end, int[] bestids, double[] best, double[] cost) {
       Arrays.fill(best, Double.POSITIVE_INFINITY);
       // Iterate over all non-medoids:
-      for(DBIDIter h = ids.iter(); h.valid(); h.advance()) {
+      for(h.seek(start); h.getOffset() < end; h.advance()) {
         // Compare object to its own medoid.
         if(DBIDUtil.equal(m.seek(assignment.intValue(h) & 0x7FFF), h)) {
           continue; // This is a medoid.
@@ -248,7 +297,7 @@ public class FastPAM<V> extends FastPAM1<V> {
           final double costi = cost[i];
           if(costi < best[i]) {
             best[i] = costi;
-            bestids.set(i, h);
+            bestids[i] = h.getOffset();
           }
         }
       }
@@ -344,7 +393,7 @@ public class FastPAM<V> extends FastPAM1<V> {
 
     @Override
     public FastPAM<V> make() {
-      return new FastPAM<>(distance, k, maxiter, initializer, fasttol);
+      return new FastPAM<>(distance, k, maxiter, initializer, fasttol, parallel);
     }
   }
 }
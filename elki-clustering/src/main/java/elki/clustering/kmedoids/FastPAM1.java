@@ -31,9 +31,14 @@ import elki.logging.Logging;
 import elki.logging.progress.IndefiniteProgress;
 import elki.logging.statistics.DoubleStatistic;
 import elki.logging.statistics.LongStatistic;
+import elki.parallel.ParallelCore;
+import elki.parallel.ParallelExecutor;
 import elki.utilities.Priority;
 import elki.utilities.documentation.Reference;
 import elki.utilities.exceptions.AbortException;
+import elki.utilities.optionhandling.OptionID;
+import elki.utilities.optionhandling.parameterization.Parameterization;
+import elki.utilities.optionhandling.parameters.Flag;
 
 /**
  * FastPAM1: A version of PAM that is O(k) times faster, i.e., now in O((n-k)²).
@@ -46,6 +51,10 @@ import elki.utilities.exceptions.AbortException;
  * can affect the result, see also {@link FastPAM}, which is recommended
  * for usage in practice.
  * <p>
+ * Optionally, the swap candidates can be evaluated in parallel, in blocks that
+ * each use their own cost array. The best swaps of the blocks are then combined
+ * in block order, which gives the same result as the sequential evaluation.
+ * <p>
  * Reference:
  * <p>
  * Erich Schubert, Peter J. Rousseeuw<br>
@@ -75,6 +84,21 @@ public class FastPAM1<V> extends PAM<V> {
    */
   private static final String KEY = FastPAM1.class.getName();
 
+  /**
+   * Minimum number of swap candidates per block.
+   */
+  private static final int MIN_BLOCKSIZE = 64;
+
+  /**
+   * Number of blocks per thread, for load balancing.
+   */
+  private static final int BLOCKS_PER_THREAD = 16;
+
+  /**
+   * Evaluate the swap candidates in parallel.
+   */
+  protected boolean parallel;
+
   /**
    * Constructor.
    *
@@ -84,12 +108,26 @@ public class FastPAM1<V> extends PAM<V> {
    * @param initializer Function to generate the initial means
    */
   public FastPAM1(Distance<? super V> distance, int k, int maxiter, KMedoidsInitialization<V> initializer) {
+    this(distance, k, maxiter, initializer, false);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param distance distance function
+   * @param k k parameter
+   * @param maxiter Maxiter parameter
+   * @param initializer Function to generate the initial means
+   * @param parallel Evaluate the swap candidates in parallel
+   */
+  public FastPAM1(Distance<? super V> distance, int k, int maxiter, KMedoidsInitialization<V> initializer, boolean parallel) {
     super(distance, k, maxiter, initializer);
+    this.parallel = parallel;
   }
 
   @Override
   protected void run(DistanceQuery<V> distQ, DBIDs ids, ArrayModifiableDBIDs medoids, WritableIntegerDataStore assignment) {
-    new Instance(distQ, ids, assignment).run(medoids, maxiter);
+    new Instance(distQ, ids, assignment, parallel).run(medoids, maxiter);
   }
 
   /**
@@ -98,6 +136,11 @@ public class FastPAM1<V> extends PAM<V> {
    * @author Erich Schubert
    */
   protected static class Instance extends PAM.Instance {
+    /**
+     * Evaluate the swap candidates in parallel.
+     */
+    protected boolean parallel;
+
     /**
      * Constructor.
      *
@@ -106,7 +149,21 @@ public class FastPAM1<V> extends PAM<V> {
      * @param assignment Cluster assignment
      */
     public Instance(DistanceQuery<?> distQ, DBIDs ids, WritableIntegerDataStore assignment) {
+      this(distQ, ids, assignment, false);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param distQ Distance query
+     * @param ids IDs to process
+     * @param assignment Cluster assignment
+     * @param parallel Evaluate the swap candidates in parallel; the distance
+     *        query must be thread safe then.
+     */
+    public Instance(DistanceQuery<?> distQ, DBIDs ids, WritableIntegerDataStore assignment, boolean parallel) {
       super(distQ, ids, assignment);
+      this.parallel = parallel;
     }
 
     /**
@@ -127,34 +184,55 @@ public class FastPAM1<V> extends PAM<V> {
 
       IndefiniteProgress prog = LOG.isVerbose() ? new IndefiniteProgress("PAM iteration", LOG) : null;
       // Swap phase
+      final ArrayDBIDs aids = DBIDUtil.ensureArray(ids);
+      final int blocksize = blockSize(aids.size()), nblocks = ParallelExecutor.numBlocks(aids.size(), blocksize);
+      // Best swap of each block of candidates:
+      final double[] bbest = new double[nblocks];
+      final int[] bbestid = new int[nblocks], bbestcluster = new int[nblocks];
       DBIDVar bestid = DBIDUtil.newVar();
       DBIDArrayIter m = medoids.iter();
-      double[] cost = new double[k];
       int iteration = 0;
       while(iteration < maxiter || maxiter <= 0) {
         ++iteration;
         LOG.incrementProcessed(prog);
-        double best = Double.POSITIVE_INFINITY;
-        int bestcluster = -1;
-        // Iterate over all non-medoids:
-        for(DBIDIter h = ids.iter(); h.valid(); h.advance()) {
-          // Compare object to its own medoid.
-          if(DBIDUtil.equal(m.seek(assignment.intValue(h) & 0x7FFF), h)) {
-            continue; // This is a medoid.
-          }
-          // The cost we get back by making the non-medoid h medoid.
-          Arrays.fill(cost, -nearest.doubleValue(h));
-          computeReassignmentCost(h, cost);
+        ParallelExecutor.processBlocks(aids, blocksize, (b, h, start, end) -> {
+          DBIDArrayIter bm = medoids.iter();
+          double[] cost = new double[k];
+          double best = Double.POSITIVE_INFINITY;
+          int bestoff = -1, bestcluster = -1;
+          // Iterate over all non-medoids:
+          for(h.seek(start); h.getOffset() < end; h.advance()) {
+            // Compare object to its own medoid.
+            if(DBIDUtil.equal(bm.seek(assignment.intValue(h) & 0x7FFF), h)) {
+              continue; // This is a medoid.
+            }
+            // The cost we get back by making the non-medoid h medoid.
+            Arrays.fill(cost, -nearest.doubleValue(h));
+            computeReassignmentCost(h, cost);
 
-          // Find the best possible swap for h:
-          for(int i = 0; i < k; i++) {
-            final double costi = cost[i];
-            if(costi < best) {
-              best = costi;
-              bestid.set(h);
-              bestcluster = i;
+            // Find the best possible swap for h:
+            for(int i = 0; i < k; i++) {
+              final double costi = cost[i];
+              if(costi < best) {
+                best = costi;
+                bestoff = h.getOffset();
+                bestcluster = i;
+              }
             }
           }
+          bbest[b] = best;
+          bbestid[b] = bestoff;
+          bbestcluster[b] = bestcluster;
+        });
+        // Reduce in block order, to break ties as in the sequential case:
+        double best = Double.POSITIVE_INFINITY;
+        int bestcluster = -1;
+        for(int b = 0; b < nblocks; b++) {
+          if(bbest[b] < best) {
+            best = bbest[b];
+            aids.assignVar(bbestid[b], bestid);
+            bestcluster = bbestcluster[b];
+          }
         }
         if(!(best < -1e-12 * tc)) {
           break; // Converged
@@ -179,6 +257,17 @@ public class FastPAM1<V> extends PAM<V> {
       return tc;
     }
 
+    /**
+     * Choose the block size for evaluating the swap candidates.
+     *
+     * @param size Number of candidates
+     * @return Block size
+     */
+    protected int blockSize(int size) {
+      final int parallelism = parallel ? ParallelCore.getCore().getParallelism() : 1;
+      return parallelism <= 1 ? Math.max(1, size) : Math.max(MIN_BLOCKSIZE, size / (parallelism * BLOCKS_PER_THREAD));
+    }
+
     /**
      * Returns a list of clusters. The k<sup>th</sup> cluster contains the ids
      * of those objects, that are nearest to the k<sup>th</sup> mean.
@@ -357,9 +446,25 @@ public class FastPAM1<V> extends PAM<V> {
    * @author Erich Schubert
    */
   public static class Par<V> extends PAM.Par<V> {
+    /**
+     * Flag to evaluate the swap candidates in parallel.
+     */
+    public static final OptionID PARALLEL_ID = new OptionID("pam.parallel", "Use multiple threads, to evaluate the swap candidates, or to process the samples of CLARA concurrently. The distance function must be thread safe.");
+
+    /**
+     * Evaluate the swap candidates in parallel.
+     */
+    protected boolean parallel;
+
+    @Override
+    public void configure(Parameterization config) {
+      super.configure(config);
+      new Flag(PARALLEL_ID).grab(config, x -> parallel = x);
+    }
+
     @Override
     public FastPAM1<V> make() {
-      return new FastPAM1<>(distance, k, maxiter, initializer);
+      return new FastPAM1<>(distance, k, maxiter, initializer, parallel);
     }
   }
 }
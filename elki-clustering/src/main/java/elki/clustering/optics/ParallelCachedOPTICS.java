@@ -0,0 +1,571 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2019
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package elki.clustering.optics;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+import elki.data.NumberVector;
+import elki.database.datastore.DataStoreFactory;
+import elki.database.datastore.DataStoreUtil;
+import elki.database.datastore.WritableIntegerDataStore;
+import elki.database.ids.ArrayDBIDs;
+import elki.database.ids.DBIDArrayIter;
+import elki.database.ids.DBIDRef;
+import elki.database.ids.DBIDUtil;
+import elki.database.ids.DoubleDBIDListIter;
+import elki.database.ids.ModifiableDoubleDBIDList;
+import elki.database.query.QueryBuilder;
+import elki.database.query.range.RangeSearcher;
+import elki.database.relation.Relation;
+import elki.distance.Distance;
+import elki.logging.Logging;
+import elki.logging.progress.FiniteProgress;
+import elki.math.MathUtil;
+import elki.parallel.ParallelCore;
+import elki.parallel.ParallelExecutor;
+import elki.result.Metadata;
+import elki.utilities.datastructures.arraylike.DoubleArray;
+import elki.utilities.datastructures.arraylike.IntegerArray;
+import elki.utilities.datastructures.heap.UpdatableHeap;
+import elki.utilities.documentation.Title;
+import elki.utilities.exceptions.AbortException;
+import elki.utilities.io.ByteArrayUtil;
+import elki.utilities.optionhandling.OptionID;
+import elki.utilities.optionhandling.parameterization.Parameterization;
+import elki.utilities.optionhandling.parameters.FileParameter;
+
+/**
+ * The OPTICS algorithm for density-based hierarchical clustering, using a
+ * precomputed neighborhood cache.
+ * <p>
+ * All ε-neighborhoods are first computed in parallel, and stored in a compact
+ * (CSR-style) cache of neighbor offsets and distances, sorted by distance. The
+ * cluster order is then expanded (as in {@link OPTICSHeap}) using only this
+ * cache.
+ * <p>
+ * Optionally, the cache is stored in a binary file, and loaded from this file
+ * if it exists. The file can then be shared by multiple runs, e.g., of
+ * {@link OPTICSXi} with different ξ, or with a different minPts or a smaller
+ * ε. The file stores a fingerprint of the data and a description of the
+ * distance function including its parameters, and is recomputed if these do
+ * not match the current run.
+ *
+ * @author Erich Schubert
+ * @since 0.8.0
+ *
+ * @navassoc - produces - ClusterOrder
+ * @has - - - OPTICSHeapEntry
+ *
+ * @param <O> the type of objects handled by the algorithm
+ */
+@Title("OPTICS: Density-Based Hierarchical Clustering (with a parallel neighborhood cache)")
+public class ParallelCachedOPTICS<O> extends AbstractOPTICS<O> {
+  /**
+   * The logger for this class.
+   */
+  private static final Logging LOG = Logging.getLogger(ParallelCachedOPTICS.class);
+
+  /**
+   * Magic number of the neighborhood cache files.
+   */
+  private static final int NEIGHBORHOOD_CACHE_MAGIC = 0xCAC40C5B;
+
+  /**
+   * Number of blocks per thread for parallel processing.
+   */
+  private static final int BLOCKS_PER_THREAD = 16;
+
+  /**
+   * Minimum block size.
+   */
+  private static final int MIN_BLOCKSIZE = 64;
+
+  /**
+   * File to load the neighborhoods from, or store them in; may be
+   * {@code null}.
+   */
+  protected Path file;
+
+  /**
+   * Constructor.
+   *
+   * @param distance Distance function
+   * @param epsilon Epsilon value
+   * @param minpts Minpts value
+   * @param file File to load and store the neighborhoods, may be {@code null}
+   */
+  public ParallelCachedOPTICS(Distance<? super O> distance, double epsilon, int minpts, Path file) {
+    super(distance, epsilon, minpts);
+    this.file = file;
+  }
+
+  @Override
+  public ClusterOrder run(Relation<O> relation) {
+    final ArrayDBIDs ids = DBIDUtil.ensureArray(relation.getDBIDs());
+    final WritableIntegerDataStore offsets = DataStoreUtil.makeIntegerStorage(ids, DataStoreFactory.HINT_HOT | DataStoreFactory.HINT_TEMP);
+    for(DBIDArrayIter it = ids.iter(); it.valid(); it.advance()) {
+      offsets.putInt(it, it.getOffset());
+    }
+    NeighborhoodCache cache = null;
+    final long fingerprint = file != null ? fingerprint(relation, ids) : 0L;
+    if(file != null && Files.exists(file)) {
+      try {
+        cache = NeighborhoodCache.load(file, ids.size(), epsilon, distance, fingerprint);
+      }
+      catch(IOException e) {
+        throw new AbortException("I/O error in loading neighborhood cache: " + e.getMessage(), e);
+      }
+      if(cache == null) {
+        LOG.warning("Neighborhood cache " + file + " is not a neighborhood cache of this version, or does not match the data set, distance, or epsilon, and will be recomputed.");
+      }
+    }
+    if(cache == null) {
+      cache = computeNeighborhoods(relation, ids, offsets);
+      if(file != null) {
+        try {
+          cache.save(file, distance, fingerprint);
+        }
+        catch(IOException e) {
+          LOG.warning("Could not write neighborhood cache " + file + ": " + e.getMessage(), e);
+        }
+      }
+    }
+    ClusterOrder order = new Instance(ids, offsets, cache).run();
+    offsets.destroy();
+    return order;
+  }
+
+  /**
+   * Compute a fingerprint of the data, to detect cache files computed on a
+   * different data set of the same size.
+   * <p>
+   * For number vectors, the exact values are used; other objects contribute
+   * their hash code.
+   *
+   * @param relation Data relation
+   * @param ids Object ids, in the order of the cache
+   * @return Fingerprint
+   */
+  protected static long fingerprint(Relation<?> relation, ArrayDBIDs ids) {
+    long h = ids.size();
+    for(DBIDArrayIter it = ids.iter(); it.valid(); it.advance()) {
+      final Object o = relation.get(it);
+      if(o instanceof NumberVector) {
+        final NumberVector v = (NumberVector) o;
+        final int dim = v.getDimensionality();
+        h = mix(h, dim);
+        for(int d = 0; d < dim; d++) {
+          h = mix(h, Double.doubleToLongBits(v.doubleValue(d)));
+        }
+      }
+      else {
+        h = mix(h, o != null ? o.hashCode() : 0);
+      }
+    }
+    return h;
+  }
+
+  /**
+   * Mix a value into a 64 bit hash.
+   *
+   * @param h Previous hash
+   * @param v Value
+   * @return New hash
+   */
+  private static long mix(long h, long v) {
+    h = (h ^ v) * 0x9E3779B97F4A7C15L;
+    return h ^ (h >>> 29);
+  }
+
+  /**
+   * Compute all ε-neighborhoods in parallel.
+   *
+   * @param relation Data relation
+   * @param ids Object ids
+   * @param offsets Map from object ids to offsets
+   * @return Neighborhood cache
+   */
+  protected NeighborhoodCache computeNeighborhoods(Relation<O> relation, ArrayDBIDs ids, WritableIntegerDataStore offsets) {
+    final int size = ids.size();
+    final int parallelism = ParallelCore.getCore().getParallelism();
+    final int blocksize = parallelism <= 1 ? size : Math.max(MIN_BLOCKSIZE, size / (parallelism * BLOCKS_PER_THREAD));
+    final int nblocks = ParallelExecutor.numBlocks(size, blocksize);
+    final QueryBuilder<O> qb = new QueryBuilder<>(relation, distance);
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    final RangeSearcher<DBIDRef>[] rangeqs = new RangeSearcher[nblocks];
+    for(int b = 0; b < nblocks; b++) {
+      // Searchers are not thread safe, and neither is the query builder.
+      rangeqs[b] = qb.rangeByDBID(epsilon);
+    }
+    final int[] counts = new int[size];
+    final IntegerArray[] bneighbors = new IntegerArray[nblocks];
+    final DoubleArray[] bdistances = new DoubleArray[nblocks];
+    FiniteProgress prog = LOG.isVerbose() ? new FiniteProgress("Computing neighborhoods", size, LOG) : null;
+    ParallelExecutor.processBlocks(ids, blocksize, (b, it, start, end) -> {
+      IntegerArray bn = new IntegerArray();
+      DoubleArray bd = new DoubleArray();
+      ModifiableDoubleDBIDList neighbors = DBIDUtil.newDistanceDBIDList();
+      for(int i = start; i < end; i++) {
+        rangeqs[b].getRange(it.seek(i), epsilon, neighbors.clear()).sort();
+        counts[i] = neighbors.size();
+        for(DoubleDBIDListIter neighbor = neighbors.iter(); neighbor.valid(); neighbor.advance()) {
+          bn.add(offsets.intValue(neighbor));
+          bd.add(neighbor.doubleValue());
+        }
+        LOG.incrementProcessed(prog);
+      }
+      bneighbors[b] = bn;
+      bdistances[b] = bd;
+    });
+    LOG.ensureCompleted(prog);
+    // Concatenate the blocks, in CSR format:
+    final int[] start = new int[size + 1];
+    long total = 0;
+    for(int i = 0; i < size; i++) {
+      start[i] = (int) total;
+      total += counts[i];
+      if(total > Integer.MAX_VALUE - 8) {
+        throw new AbortException("Too many neighbors to cache. Use a smaller epsilon.");
+      }
+    }
+    start[size] = (int) total;
+    final int[] neighbors = new int[(int) total];
+    final double[] distances = new double[(int) total];
+    for(int b = 0; b < nblocks; b++) {
+      final int pos = start[b * blocksize];
+      System.arraycopy(bneighbors[b].data, 0, neighbors, pos, bneighbors[b].size);
+      System.arraycopy(bdistances[b].data, 0, distances, pos, bdistances[b].size);
+    }
+    return new NeighborhoodCache(epsilon, start, neighbors, distances);
+  }
+
+  /**
+   * Instance for processing a single data set.
+   *
+   * @author Erich Schubert
+   */
+  private class Instance {
+    /**
+     * Object ids.
+     */
+    ArrayDBIDs ids;
+
+    /**
+     * Map from object ids to offsets.
+     */
+    WritableIntegerDataStore offsets;
+
+    /**
+     * Neighborhood cache.
+     */
+    NeighborhoodCache cache;
+
+    /**
+     * Processed objects, by offset.
+     */
+    boolean[] processed;
+
+    /**
+     * Heap of candidates.
+     */
+    UpdatableHeap<OPTICSHeapEntry> heap;
+
+    /**
+     * Output cluster order.
+     */
+    ClusterOrder clusterOrder;
+
+    /**
+     * Progress for logging.
+     */
+    FiniteProgress progress;
+
+    /**
+     * Constructor for a single data set.
+     *
+     * @param ids Object ids
+     * @param offsets Map from object ids to offsets
+     * @param cache Neighborhood cache
+     */
+    public Instance(ArrayDBIDs ids, WritableIntegerDataStore offsets, NeighborhoodCache cache) {
+      this.ids = ids;
+      this.offsets = offsets;
+      this.cache = cache;
+      processed = new boolean[ids.size()];
+      clusterOrder = new ClusterOrder(ids);
+      Metadata.of(clusterOrder).setLongName("OPTICS Clusterorder");
+      progress = LOG.isVerbose() ? new FiniteProgress("OPTICS", ids.size(), LOG) : null;
+      heap = new UpdatableHeap<>();
+    }
+
+    /**
+     * Process the data set.
+     *
+     * @return Cluster order result.
+     */
+    public ClusterOrder run() {
+      for(DBIDArrayIter iditer = ids.iter(); iditer.valid(); iditer.advance()) {
+        if(!processed[iditer.getOffset()]) {
+          assert (heap.isEmpty());
+          expandClusterOrder(iditer);
+        }
+      }
+      LOG.ensureCompleted(progress);
+      return clusterOrder;
+    }
+
+    /**
+     * OPTICS-function expandClusterOrder.
+     *
+     * @param objectID the currently processed object
+     */
+    protected void expandClusterOrder(DBIDRef objectID) {
+      final int[] neighbors = cache.neighbors;
+      final double[] distances = cache.distances;
+      DBIDArrayIter neighbor = ids.iter();
+      heap.add(new OPTICSHeapEntry(DBIDUtil.deref(objectID), null, Double.POSITIVE_INFINITY));
+
+      while(!heap.isEmpty()) {
+        final OPTICSHeapEntry current = heap.poll();
+        clusterOrder.add(current.objectID, current.reachability, current.predecessorID);
+        final int cur = offsets.intValue(current.objectID);
+        processed[cur] = true;
+
+        final int start = cache.start[cur], end = cache.end(cur, epsilon);
+        if(end - start >= minpts) {
+          final double coreDistance = distances[start + minpts - 1];
+          for(int i = start; i < end; i++) {
+            final int n = neighbors[i];
+            if(processed[n]) {
+              continue;
+            }
+            double reachability = MathUtil.max(distances[i], coreDistance);
+            heap.add(new OPTICSHeapEntry(DBIDUtil.deref(neighbor.seek(n)), current.objectID, reachability));
+          }
+        }
+        LOG.incrementProcessed(progress);
+      }
+    }
+  }
+
+  /**
+   * Compact storage of the ε-neighborhoods of all objects: for every object,
+   * the offsets and distances of its neighbors, sorted by distance.
+   *
+   * @author Erich Schubert
+   */
+  public static class NeighborhoodCache {
+    /**
+     * Radius the neighborhoods were computed with.
+     */
+    final double epsilon;
+
+    /**
+     * Start of the neighborhood of each object; of length n+1.
+     */
+    final int[] start;
+
+    /**
+     * Offsets of the neighbors.
+     */
+    final int[] neighbors;
+
+    /**
+     * Distances of the neighbors.
+     */
+    final double[] distances;
+
+    /**
+     * Constructor.
+     *
+     * @param epsilon Radius the neighborhoods were computed with
+     * @param start Start of the neighborhood of each object, of length n+1
+     * @param neighbors Offsets of the neighbors
+     * @param distances Distances of the neighbors
+     */
+    public NeighborhoodCache(double epsilon, int[] start, int[] neighbors, double[] distances) {
+      this.epsilon = epsilon;
+      this.start = start;
+      this.neighbors = neighbors;
+      this.distances = distances;
+    }
+
+    /**
+     * End of the neighborhood of an object, for a radius of at most the
+     * radius of the cache.
+     *
+     * @param i Object offset
+     * @param eps Query radius
+     * @return End position (exclusive)
+     */
+    public int end(int i, double eps) {
+      int end = start[i + 1];
+      if(eps < epsilon) {
+        while(end > start[i] && distances[end - 1] > eps) {
+          --end;
+        }
+      }
+      return end;
+    }
+
+    /**
+     * Describe the distance function, including its parameters, to detect
+     * cache files computed with a different distance. This relies on the
+     * {@code toString()} of the distance; distances that do not override it
+     * will never match a previous run, and the cache is then recomputed.
+     *
+     * @param distance Distance function
+     * @return Description
+     */
+    private static String describe(Distance<?> distance) {
+      return distance.getClass().getName() + ":" + distance.toString();
+    }
+
+    /**
+     * Load the neighborhoods from a file.
+     *
+     * @param file File to read
+     * @param size Data set size
+     * @param epsilon Required radius
+     * @param distance Distance function
+     * @param fingerprint Fingerprint of the data
+     * @return Cache, or {@code null} if the file does not match
+     * @throws IOException on read errors
+     */
+    public static NeighborhoodCache load(Path file, int size, double epsilon, Distance<?> distance, long fingerprint) throws IOException {
+      try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+        MappedByteBuffer buffer = channel.map(MapMode.READ_ONLY, 0, channel.size());
+        // check magic header
+        if(buffer.remaining() < 4 || buffer.getInt() != NEIGHBORHOOD_CACHE_MAGIC) {
+          return null;
+        }
+        final double ceps = buffer.getDouble();
+        if(ByteArrayUtil.readUnsignedVarint(buffer) != size || ceps < epsilon //
+            || buffer.getLong() != fingerprint //
+            || !describe(distance).equals(ByteArrayUtil.readString(buffer))) {
+          return null;
+        }
+        final int total = ByteArrayUtil.readUnsignedVarint(buffer);
+        final int[] start = new int[size + 1];
+        final int[] neighbors = new int[total];
+        final double[] distances = new double[total];
+        for(int i = 0, pos = 0; i < size; i++) {
+          start[i] = pos;
+          final int end = pos + ByteArrayUtil.readUnsignedVarint(buffer);
+          if(end > total) {
+            throw new AbortException("Neighborhood cache is corrupt.");
+          }
+          for(; pos < end; pos++) {
+            neighbors[pos] = ByteArrayUtil.readUnsignedVarint(buffer);
+            distances[pos] = buffer.getDouble();
+          }
+        }
+        start[size] = total;
+        return new NeighborhoodCache(ceps, start, neighbors, distances);
+      }
+    }
+
+    /**
+     * Save the neighborhoods to a binary file.
+     *
+     * @param file Output file
+     * @param distance Distance function used
+     * @param fingerprint Fingerprint of the data
+     * @throws IOException on write errors
+     */
+    public void save(Path file, Distance<?> distance, long fingerprint) throws IOException {
+      final int size = start.length - 1;
+      final String dname = describe(distance);
+      try (FileChannel channel = FileChannel.open(file, //
+          StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+        int bufsize = Math.max(100 * 14 + 10, 4 + 8 + 5 + 8 + ByteArrayUtil.getStringSize(dname) + 5);
+        ByteBuffer buffer = ByteBuffer.allocateDirect(bufsize);
+        buffer.putInt(NEIGHBORHOOD_CACHE_MAGIC).putDouble(epsilon);
+        ByteArrayUtil.writeUnsignedVarint(buffer, size);
+        buffer.putLong(fingerprint);
+        ByteArrayUtil.writeString(buffer, dname);
+        ByteArrayUtil.writeUnsignedVarint(buffer, start[size]);
+        buffer.flip();
+        while(buffer.hasRemaining()) {
+          channel.write(buffer);
+        }
+        for(int i = 0; i < size; i++) {
+          final int nnsize = start[i + 1] - start[i];
+          // Grow the buffer when needed:
+          if(nnsize * 13 + 5 > bufsize) {
+            while(nnsize * 13 + 5 > bufsize) {
+              bufsize <<= 1;
+            }
+            buffer = ByteBuffer.allocateDirect(bufsize);
+          }
+          buffer.clear();
+          ByteArrayUtil.writeUnsignedVarint(buffer, nnsize);
+          for(int j = start[i]; j < start[i + 1]; j++) {
+            ByteArrayUtil.writeUnsignedVarint(buffer, neighbors[j]);
+            buffer.putDouble(distances[j]);
+          }
+          buffer.flip();
+          while(buffer.hasRemaining()) {
+            channel.write(buffer);
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Parameterization class.
+   *
+   * @author Erich Schubert
+   */
+  public static class Par<O> extends AbstractOPTICS.Par<O> {
+    /**
+     * Option for the file to load and store the neighborhoods.
+     */
+    public static final OptionID FILE_ID = new OptionID("optics.cache", "File to load the neighborhoods from if it exists, or to store them in otherwise.");
+
+    /**
+     * File to load and store the neighborhoods.
+     */
+    protected Path file;
+
+    @Override
+    public void configure(Parameterization config) {
+      super.configure(config);
+      new FileParameter(FILE_ID, FileParameter.FileType.OUTPUT_FILE) //
+          .setOptional(true) //
+          .grab(config, x -> file = Paths.get(x));
+    }
+
+    @Override
+    public ParallelCachedOPTICS<O> make() {
+      return new ParallelCachedOPTICS<>(distance, epsilon, minpts, file);
+    }
+  }
+}
@@ -0,0 +1,70 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2019
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package elki.clustering.affinitypropagation;
+
+import org.junit.Test;
+
+import elki.clustering.AbstractClusterAlgorithmTest;
+import elki.data.Clustering;
+import elki.data.DoubleVector;
+import elki.data.model.MedoidModel;
+import elki.database.Database;
+import elki.utilities.ELKIBuilder;
+
+/**
+ * Test sparse Affinity Propagation
+ *
+ * @author Erich Schubert
+ * @since 0.8.0
+ */
+public class SparseAffinityPropagationTest extends AbstractClusterAlgorithmTest {
+  @Test
+  public void testSparseAffinityPropagation() {
+    Database db = makeSimpleDatabase(UNITTEST + "3clusters-and-noise-2d.csv", 330);
+    Clustering<MedoidModel> result = new ELKIBuilder<SparseAffinityPropagation<DoubleVector>>(SparseAffinityPropagation.class)//
+        .with(SparseAffinityPropagation.Par.K_ID, 50) //
+        .build().autorun(db);
+    assertFMeasure(db, result, 0.708709744);
+    assertClusterSizes(result, new int[] { 3, 7, 8, 43, 44, 55, 66, 104 });
+  }
+
+  @Test
+  public void testParallel() {
+    Database db = makeSimpleDatabase(UNITTEST + "3clusters-and-noise-2d.csv", 330);
+    withParallelism(4, () -> {
+      Clustering<MedoidModel> result = new ELKIBuilder<SparseAffinityPropagation<DoubleVector>>(SparseAffinityPropagation.class)//
+          .with(SparseAffinityPropagation.Par.K_ID, 50) //
+          .build().autorun(db);
+      assertFMeasure(db, result, 0.708709744);
+      assertClusterSizes(result, new int[] { 3, 7, 8, 43, 44, 55, 66, 104 });
+    });
+  }
+
+  @Test
+  public void testSparseAffinityPropagationEpsilon() {
+    Database db = makeSimpleDatabase(UNITTEST + "3clusters-and-noise-2d.csv", 330);
+    Clustering<MedoidModel> result = new ELKIBuilder<SparseAffinityPropagation<DoubleVector>>(SparseAffinityPropagation.class)//
+        .with(SparseAffinityPropagation.Par.EPSILON_ID, 0.02) //
+        .build().autorun(db);
+    assertFMeasure(db, result, 0.605626162);
+    assertClusterSizes(result, new int[] { 2, 3, 3, 3, 3, 3, 4, 8, 34, 44, 50, 55, 57, 61 });
+  }
+}
@@ -47,6 +47,20 @@ public class DiagonalGaussianModelTest extends AbstractClusterAlgorithmTest {
     assertClusterSizes(result, new int[] { 7, 91, 99, 200, 313 });
   }
 
+  @Test
+  public void testParallelMLE() {
+    Database db = makeSimpleDatabase(UNITTEST + "hierarchical-2d.ascii", 710);
+    withParallelism(4, () -> {
+      Clustering<?> result = new ELKIBuilder<EM<DoubleVector, ?>>(EM.class) //
+          .with(KMeans.SEED_ID, 3) //
+          .with(EM.Par.K_ID, 5) //
+          .with(EM.Par.INIT_ID, DiagonalGaussianModelFactory.class) //
+          .build().autorun(db);
+      assertFMeasure(db, result, 0.9681384);
+      assertClusterSizes(result, new int[] { 7, 91, 99, 200, 313 });
+    });
+  }
+
   @Test
   public void testHierarchicalMAP() {
     Database db = makeSimpleDatabase(UNITTEST + "hierarchical-2d.ascii", 710);
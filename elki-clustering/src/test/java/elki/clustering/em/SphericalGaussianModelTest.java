@@ -28,6 +28,7 @@ import elki.data.Clustering;
 import elki.data.DoubleVector;
 import elki.database.Database;
 import elki.utilities.ELKIBuilder;
+import elki.utilities.exceptions.AbortException;
 
 /**
  * Test the simple spherical gaussian model.
@@ -47,6 +48,31 @@ public class SphericalGaussianModelTest extends AbstractClusterAlgorithmTest {
     assertClusterSizes(result, new int[] { 8, 95, 198, 409 });
   }
 
+  @Test
+  public void testParallelMLE() {
+    Database db = makeSimpleDatabase(UNITTEST + "hierarchical-2d.ascii", 710);
+    withParallelism(4, () -> {
+      Clustering<?> result = new ELKIBuilder<EM<DoubleVector, ?>>(EM.class) //
+          .with(KMeans.SEED_ID, 1) //
+          .with(EM.Par.K_ID, 4) //
+          .with(EM.Par.INIT_ID, SphericalGaussianModelFactory.class) //
+          .build().autorun(db);
+      assertFMeasure(db, result, 0.811247176);
+      assertClusterSizes(result, new int[] { 8, 95, 198, 409 });
+    });
+  }
+
+  @Test(expected = AbortException.class)
+  public void testTooLarge() {
+    Database db = makeSimpleDatabase(UNITTEST + "hierarchical-2d.ascii", 710);
+    // 710 * k exceeds the maximum array size:
+    new ELKIBuilder<EM<DoubleVector, ?>>(EM.class) //
+        .with(KMeans.SEED_ID, 1) //
+        .with(EM.Par.K_ID, Integer.MAX_VALUE / 500) //
+        .with(EM.Par.INIT_ID, SphericalGaussianModelFactory.class) //
+        .build().autorun(db);
+  }
+
   @Test
   public void testHierarchicalMAP() {
     Database db = makeSimpleDatabase(UNITTEST + "hierarchical-2d.ascii", 710);
@@ -47,6 +47,20 @@ public class TwoPassMultivariateGaussianModelTest extends AbstractClusterAlgorit
     assertClusterSizes(result, new int[] { 3, 5, 91, 98, 200, 313 });
   }
 
+  @Test
+  public void testParallelMLE() {
+    Database db = makeSimpleDatabase(UNITTEST + "hierarchical-2d.ascii", 710);
+    withParallelism(4, () -> {
+      Clustering<?> result = new ELKIBuilder<EM<DoubleVector, ?>>(EM.class) //
+          .with(KMeans.SEED_ID, 0) //
+          .with(EM.Par.K_ID, 6) //
+          .with(EM.Par.INIT_ID, TwoPassMultivariateGaussianModelFactory.class) //
+          .build().autorun(db);
+      assertFMeasure(db, result, 0.967410486);
+      assertClusterSizes(result, new int[] { 3, 5, 91, 98, 200, 313 });
+    });
+  }
+
   @Test
   public void testHierarchicalMAP() {
     Database db = makeSimpleDatabase(UNITTEST + "hierarchical-2d.ascii", 710);
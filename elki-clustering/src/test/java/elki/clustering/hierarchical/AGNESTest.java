@@ -20,6 +20,11 @@
  */
 package elki.clustering.hierarchical;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
 import org.junit.Test;
 
 import elki.Algorithm;
@@ -28,6 +33,9 @@ import elki.clustering.hierarchical.extraction.CutDendrogramByNumberOfClusters;
 import elki.clustering.hierarchical.linkage.*;
 import elki.data.Clustering;
 import elki.database.Database;
+import elki.database.ids.DBIDUtil;
+import elki.database.ids.DBIDs;
+import elki.distance.minkowski.EuclideanDistance;
 import elki.utilities.ELKIBuilder;
 
 /**
@@ -183,4 +191,71 @@ public class AGNESTest extends AbstractClusterAlgorithmTest {
     assertFMeasure(db, clustering, 0.9277466);
     assertClusterSizes(clustering, new int[] { 196, 200, 242 });
   }
+
+  /**
+   * Run agglomerative hierarchical clustering with single precision storage,
+   * in parallel, and compare the result to a golden standard.
+   */
+  @Test
+  public void testWardFloatParallel() {
+    Database db = makeSimpleDatabase(UNITTEST + "single-link-effect.ascii", 638);
+    withParallelism(4, () -> {
+      Clustering<?> clustering = new ELKIBuilder<>(CutDendrogramByNumberOfClusters.class) //
+          .with(CutDendrogramByNumberOfClusters.Par.MINCLUSTERS_ID, 3) //
+          .with(Algorithm.Utils.ALGORITHM_ID, AGNES.class) //
+          .with(AGNES.Par.LINKAGE_ID, WardLinkage.class) //
+          .with(AGNES.Par.MATRIX_ID, MatrixParadigm.Storage.FLOAT) //
+          .build().autorun(db);
+      assertFMeasure(db, clustering, 0.93866265);
+      assertClusterSizes(clustering, new int[] { 200, 211, 227 });
+    });
+  }
+
+  /**
+   * Compare the parallel update of the distance matrix to the sequential one,
+   * on a synthetic matrix large enough to be split into multiple tasks.
+   */
+  @Test
+  public void testParallelUpdate() {
+    final int n = 8500;
+    AGNES<?> agnes = new AGNES<>(EuclideanDistance.STATIC, WardLinkage.STATIC);
+    MatrixParadigm seq = withParallelism(1, () -> mergeSynthetic(agnes, n));
+    MatrixParadigm par = withParallelism(4, () -> {
+      // Verify that the update is really split into multiple blocks:
+      AtomicInteger blocks = new AtomicInteger();
+      MatrixParadigm mat = mergeSynthetic(agnes, n);
+      mat.processRange(n, (it, start, end) -> blocks.incrementAndGet());
+      assertTrue("Update was not processed in parallel.", blocks.get() > 1);
+      return mat;
+    });
+    for(int x = 0; x < n; x++) {
+      for(int y = 0; y < x; y++) {
+        assertEquals("Matrix differs.", seq.get(x, y), par.get(x, y), 0.);
+      }
+    }
+  }
+
+  /**
+   * Fill a matrix with synthetic distances, and perform some merges.
+   *
+   * @param agnes Algorithm
+   * @param n Number of objects
+   * @return Matrix after merging
+   */
+  private static MatrixParadigm mergeSynthetic(AGNES<?> agnes, int n) {
+    DBIDs ids = DBIDUtil.generateStaticDBIDRange(n);
+    MatrixParadigm mat = new MatrixParadigm(ids, MatrixParadigm.Storage.FLOAT_MAPPED);
+    for(int x = 0, pos = 0; x < n; x++) {
+      for(int y = 0; y < x; y++, pos++) {
+        mat.set(pos, 1 + (x * 31 + y * 17) % 1000);
+      }
+    }
+    PointerHierarchyRepresentationBuilder builder = new PointerHierarchyRepresentationBuilder(ids, false);
+    // Merge pairs of distinct objects, each followed by the matrix update:
+    for(int i = 0; i < 10; i++) {
+      final int x = n - 1 - i, y = 2 * i;
+      agnes.merge(n, mat, builder, mat.get(x, y), x, y);
+    }
+    return mat;
+  }
 }
@@ -182,4 +182,23 @@ public class AnderbergTest extends AbstractClusterAlgorithmTest {
     assertFMeasure(db, clustering, 0.9277466);
     assertClusterSizes(clustering, new int[] { 196, 200, 242 });
   }
+
+  /**
+   * Run agglomerative hierarchical clustering with single precision storage,
+   * in parallel, and compare the result to a golden standard.
+   */
+  @Test
+  public void testWardFloatParallel() {
+    Database db = makeSimpleDatabase(UNITTEST + "single-link-effect.ascii", 638);
+    withParallelism(4, () -> {
+      Clustering<?> clustering = new ELKIBuilder<>(CutDendrogramByNumberOfClusters.class) //
+          .with(CutDendrogramByNumberOfClusters.Par.MINCLUSTERS_ID, 3) //
+          .with(Algorithm.Utils.ALGORITHM_ID, Anderberg.class) //
+          .with(AGNES.Par.LINKAGE_ID, WardLinkage.class) //
+          .with(AGNES.Par.MATRIX_ID, MatrixParadigm.Storage.FLOAT) //
+          .build().autorun(db);
+      assertFMeasure(db, clustering, 0.93866265);
+      assertClusterSizes(clustering, new int[] { 200, 211, 227 });
+    });
+  }
 }
@@ -0,0 +1,102 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2019
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package elki.clustering.hierarchical;
+
+import static elki.algorithm.AbstractSimpleAlgorithmTest.withParallelism;
+import static org.junit.Assert.assertEquals;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import org.junit.Test;
+
+import elki.database.ids.DBIDUtil;
+import elki.database.ids.DBIDs;
+
+/**
+ * Unit test for the matrix storage backends and the parallel processing.
+ *
+ * @author Erich Schubert
+ * @since 0.8.0
+ */
+public class MatrixParadigmTest {
+  /**
+   * Test that all storage types store the matrix values.
+   */
+  @Test
+  public void testStorage() {
+    DBIDs ids = DBIDUtil.generateStaticDBIDRange(100);
+    for(MatrixParadigm.Storage storage : MatrixParadigm.Storage.values()) {
+      MatrixParadigm mat = new MatrixParadigm(ids, storage);
+      for(int x = 0; x < mat.size; x++) {
+        for(int y = 0; y < x; y++) {
+          mat.set(MatrixParadigm.triangleSizeLong(x) + y, x * 1000 + y);
+        }
+      }
+      for(int x = 0; x < mat.size; x++) {
+        assertEquals(storage.name(), 0., mat.get(x, x), 0.);
+        for(int y = 0; y < x; y++) {
+          assertEquals(storage.name(), x * 1000 + y, mat.get(x, y), 0.);
+          assertEquals(storage.name(), x * 1000 + y, mat.get(y, x), 0.);
+        }
+      }
+    }
+  }
+
+  /**
+   * Test that parallel processing visits every row exactly once.
+   */
+  @Test
+  public void testParallel() {
+    withParallelism(4, () -> {
+      MatrixParadigm mat = new MatrixParadigm(DBIDUtil.generateStaticDBIDRange(1000), MatrixParadigm.Storage.FLOAT);
+      AtomicIntegerArray rows = new AtomicIntegerArray(mat.size);
+      mat.processRows(mat.size, (it, start, end) -> {
+        for(int x = start; x < end; x++) {
+          assertEquals(x, it.seek(x).getOffset());
+          rows.incrementAndGet(x);
+          for(int y = 0; y < x; y++) {
+            mat.set(MatrixParadigm.triangleSizeLong(x) + y, x * 1000 + y);
+          }
+        }
+      });
+      for(int x = 0; x < mat.size; x++) {
+        assertEquals(1, rows.get(x));
+        for(int y = 0; y < x; y++) {
+          assertEquals(x * 1000 + y, mat.get(x, y), 0.);
+        }
+      }
+      // Memory-mapped, so the untouched pages do not need memory:
+      MatrixParadigm mat2 = new MatrixParadigm(DBIDUtil.generateStaticDBIDRange(10000), MatrixParadigm.Storage.FLOAT_MAPPED);
+      AtomicIntegerArray objs = new AtomicIntegerArray(mat2.size);
+      mat2.processRange(mat2.size, (it, start, end) -> {
+        for(int j = start; j < end; j++) {
+          if(objs.incrementAndGet(j) == 1 && j > 0) {
+            mat2.set(MatrixParadigm.triangleSizeLong(j) + (j >> 1), j);
+          }
+        }
+      });
+      for(int j = 0; j < mat2.size; j++) {
+        assertEquals(1, objs.get(j));
+        assertEquals(j, mat2.get(j, j >> 1), 0.);
+      }
+    });
+  }
+}
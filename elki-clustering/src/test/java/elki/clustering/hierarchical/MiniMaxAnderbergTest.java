@@ -65,4 +65,22 @@ public class MiniMaxAnderbergTest extends AbstractClusterAlgorithmTest {
     assertFMeasure(db, clustering, 0.914592130);
     assertClusterSizes(clustering, new int[] { 59, 112, 159 });
   }
+
+  /**
+   * Run agglomerative hierarchical clustering with single precision storage,
+   * in parallel, and compare the result to a golden standard.
+   */
+  @Test
+  public void testMiniMaxFloat() {
+    Database db = makeSimpleDatabase(UNITTEST + "single-link-effect.ascii", 638);
+    withParallelism(4, () -> {
+      Clustering<?> clustering = new ELKIBuilder<>(CutDendrogramByNumberOfClusters.class) //
+          .with(CutDendrogramByNumberOfClusters.Par.MINCLUSTERS_ID, 3) //
+          .with(Algorithm.Utils.ALGORITHM_ID, MiniMaxAnderberg.class) //
+          .with(AGNES.Par.MATRIX_ID, MatrixParadigm.Storage.FLOAT) //
+          .build().autorun(db);
+      assertFMeasure(db, clustering, 0.938662648);
+      assertClusterSizes(clustering, new int[] { 200, 211, 227 });
+    });
+  }
 }
@@ -20,11 +20,26 @@
  */
 package elki.clustering.hierarchical.birch;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
 import org.junit.Test;
 
 import elki.clustering.AbstractClusterAlgorithmTest;
+import elki.data.Cluster;
 import elki.data.Clustering;
+import elki.data.NumberVector;
+import elki.data.model.MeanModel;
+import elki.data.type.TypeUtil;
 import elki.database.Database;
+import elki.database.ids.DBIDIter;
+import elki.database.relation.Relation;
+import elki.datasource.bundle.MultipleObjectsBundle;
+import elki.datasource.bundle.StreamFromBundle;
 import elki.utilities.ELKIBuilder;
 
 /**
@@ -126,4 +141,45 @@ public class BIRCHLeafClusteringTest extends AbstractClusterAlgorithmTest {
     assertFMeasure(db, clustering, 0.89558);
     assertClusterSizes(clustering, new int[] { 65, 156, 198, 219 });
   }
+
+  @Test
+  public void testParallel() {
+    Database db = makeSimpleDatabase(UNITTEST + "single-link-effect.ascii", 638);
+    withParallelism(4, () -> {
+      Clustering<?> clustering = new ELKIBuilder<>(BIRCHLeafClustering.class) //
+          .with(CFTree.Factory.Par.ABSORPTION_ID, DiameterCriterion.class) //
+          .with(CFTree.Factory.Par.MAXLEAVES_ID, 4) //
+          .with(CFTree.Factory.Par.PARALLEL_ID) //
+          .build().autorun(db);
+      assertFMeasure(db, clustering, 0.93607);
+      assertClusterSizes(clustering, new int[] { 201, 209, 228 });
+    });
+  }
+
+  @Test
+  public void testStream() {
+    Database db = makeSimpleDatabase(UNITTEST + "single-link-effect.ascii", 638);
+    Relation<NumberVector> rel = db.getRelation(TypeUtil.NUMBER_VECTOR_FIELD);
+    BIRCHLeafClustering birch = new ELKIBuilder<>(BIRCHLeafClustering.class) //
+        .with(CFTree.Factory.Par.ABSORPTION_ID, DiameterCriterion.class) //
+        .with(CFTree.Factory.Par.MAXLEAVES_ID, 4) //
+        .build();
+    Clustering<MeanModel> reference = birch.run(rel);
+    List<NumberVector> data = new ArrayList<>(rel.size());
+    for(DBIDIter it = rel.iterDBIDs(); it.valid(); it.advance()) {
+      data.add(rel.get(it));
+    }
+    MultipleObjectsBundle bundle = MultipleObjectsBundle.makeSimple(rel.getDataTypeInformation(), data);
+    Clustering<MeanModel> result = birch.run(new StreamFromBundle(bundle));
+    // The same tree is built, but all leaves are reported:
+    assertTrue(result.getAllClusters().size() >= reference.getAllClusters().size());
+    for(Cluster<MeanModel> c : reference.getAllClusters()) {
+      boolean found = false;
+      for(Cluster<MeanModel> d : result.getAllClusters()) {
+        assertEquals("Objects are not retained.", 0, d.size());
+        found |= Arrays.equals(c.getModel().getMean(), d.getModel().getMean());
+      }
+      assertTrue("Leaf not found in stream result.", found);
+    }
+  }
 }
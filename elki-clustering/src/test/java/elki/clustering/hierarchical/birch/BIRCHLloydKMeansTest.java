@@ -20,12 +20,26 @@
  */
 package elki.clustering.hierarchical.birch;
 
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+
 import org.junit.Test;
 
 import elki.clustering.AbstractClusterAlgorithmTest;
 import elki.clustering.kmeans.AbstractKMeans;
+import elki.data.Cluster;
 import elki.data.Clustering;
+import elki.data.NumberVector;
+import elki.data.model.KMeansModel;
+import elki.data.type.TypeUtil;
 import elki.database.Database;
+import elki.database.ids.DBIDIter;
+import elki.database.relation.Relation;
+import elki.datasource.bundle.MultipleObjectsBundle;
+import elki.datasource.bundle.StreamFromBundle;
 import elki.utilities.ELKIBuilder;
 
 /**
@@ -46,4 +60,54 @@ public class BIRCHLloydKMeansTest extends AbstractClusterAlgorithmTest {
     assertFMeasure(db, clustering, 0.84944);
     assertClusterSizes(clustering, new int[] { 96, 104, 211, 227 });
   }
+
+  @Test
+  public void testParallel() {
+    Database db = makeSimpleDatabase(UNITTEST + "single-link-effect.ascii", 638);
+    withParallelism(4, () -> {
+      Clustering<?> clustering = new ELKIBuilder<>(BIRCHLloydKMeans.class) //
+          .with(CFTree.Factory.Par.ABSORPTION_ID, EuclideanDistanceCriterion.class) //
+          .with(CFTree.Factory.Par.MAXLEAVES_ID, 50) //
+          .with(CFTree.Factory.Par.PARALLEL_ID) //
+          .with(AbstractKMeans.K_ID, 4) //
+          .with(AbstractKMeans.SEED_ID, 0) //
+          .build().autorun(db);
+      assertFMeasure(db, clustering, 0.84929);
+      assertClusterSizes(clustering, new int[] { 96, 104, 212, 226 });
+    });
+  }
+
+  @Test
+  public void testStream() {
+    Database db = makeSimpleDatabase(UNITTEST + "single-link-effect.ascii", 638);
+    Relation<NumberVector> rel = db.getRelation(TypeUtil.NUMBER_VECTOR_FIELD);
+    Clustering<KMeansModel> reference = makeStreamTestInstance().run(rel);
+    List<NumberVector> data = new ArrayList<>(rel.size());
+    for(DBIDIter it = rel.iterDBIDs(); it.valid(); it.advance()) {
+      data.add(rel.get(it));
+    }
+    MultipleObjectsBundle bundle = MultipleObjectsBundle.makeSimple(rel.getDataTypeInformation(), data);
+    // New instance, to use the same random seed:
+    Clustering<KMeansModel> result = makeStreamTestInstance().run(new StreamFromBundle(bundle));
+    List<Cluster<KMeansModel>> rc = reference.getAllClusters(), sc = result.getAllClusters();
+    assertEquals("Wrong number of clusters", rc.size(), sc.size());
+    for(int i = 0; i < rc.size(); i++) {
+      assertEquals("Objects are not retained.", 0, sc.get(i).size());
+      assertArrayEquals("Means differ.", rc.get(i).getModel().getMean(), sc.get(i).getModel().getMean(), 1e-10);
+    }
+  }
+
+  /**
+   * Make a new instance for the stream test.
+   *
+   * @return BIRCH instance
+   */
+  private static BIRCHLloydKMeans makeStreamTestInstance() {
+    return new ELKIBuilder<>(BIRCHLloydKMeans.class) //
+        .with(CFTree.Factory.Par.ABSORPTION_ID, EuclideanDistanceCriterion.class) //
+        .with(CFTree.Factory.Par.MAXLEAVES_ID, 50) //
+        .with(AbstractKMeans.K_ID, 4) //
+        .with(AbstractKMeans.SEED_ID, 0) //
+        .build();
+  }
 }
@@ -20,14 +20,20 @@
  */
 package elki.clustering.kmedoids;
 
+import static org.junit.Assert.assertEquals;
+
+import java.util.List;
+
 import org.junit.Test;
 
 import elki.clustering.AbstractClusterAlgorithmTest;
 import elki.clustering.kmeans.KMeans;
+import elki.data.Cluster;
 import elki.data.Clustering;
 import elki.data.DoubleVector;
 import elki.data.model.MedoidModel;
 import elki.database.Database;
+import elki.database.ids.DBIDUtil;
 import elki.utilities.ELKIBuilder;
 
 /**
@@ -50,4 +56,27 @@ public class FastPAMTest extends AbstractClusterAlgorithmTest {
     assertFMeasure(db, result, 0.998005);
     assertClusterSizes(result, new int[] { 199, 200, 200, 200, 201 });
   }
+
+  @Test
+  public void testKMedoidsPAMParallel() {
+    Database db = makeSimpleDatabase(UNITTEST + "different-densities-2d-no-noise.ascii", 1000);
+    Clustering<MedoidModel> reference = new ELKIBuilder<FastPAM<DoubleVector>>(FastPAM.class) //
+        .with(KMeans.K_ID, 5) //
+        .with(KMeans.SEED_ID, 0) //
+        .build().autorun(db);
+    withParallelism(4, () -> {
+      Clustering<MedoidModel> result = new ELKIBuilder<FastPAM<DoubleVector>>(FastPAM.class) //
+          .with(KMeans.K_ID, 5) //
+          .with(KMeans.SEED_ID, 0) //
+          .with(FastPAM1.Par.PARALLEL_ID) //
+          .build().autorun(db);
+      assertFMeasure(db, result, 0.998005);
+      assertClusterSizes(result, new int[] { 199, 200, 200, 200, 201 });
+      // The parallel swap evaluation must give the same medoids:
+      List<Cluster<MedoidModel>> rc = reference.getAllClusters(), pc = result.getAllClusters();
+      for(int i = 0; i < rc.size(); i++) {
+        assertEquals("Medoids differ.", 0, DBIDUtil.compare(rc.get(i).getModel().getMedoid(), pc.get(i).getModel().getMedoid()));
+      }
+    });
+  }
 }
@@ -0,0 +1,123 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2019
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package elki.clustering.optics;
+
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import org.junit.Test;
+
+import elki.clustering.AbstractClusterAlgorithmTest;
+import elki.data.Clustering;
+import elki.data.NumberVector;
+import elki.data.type.TypeUtil;
+import elki.database.Database;
+import elki.database.ids.ArrayDBIDs;
+import elki.database.ids.DBIDUtil;
+import elki.database.relation.Relation;
+import elki.distance.minkowski.LPNormDistance;
+import elki.utilities.ELKIBuilder;
+
+/**
+ * Performs a full OPTICS run with the neighborhood cache, and compares the
+ * result with a clustering derived from the data set labels.
+ *
+ * @author Erich Schubert
+ * @since 0.8.0
+ */
+public class ParallelCachedOPTICSTest extends AbstractClusterAlgorithmTest {
+  @Test
+  public void testOPTICS() {
+    Database db = makeSimpleDatabase(UNITTEST + "hierarchical-2d.ascii", 710);
+    Clustering<?> clustering = new ELKIBuilder<>(OPTICSXi.class) //
+        .with(OPTICSHeap.Par.MINPTS_ID, 20) //
+        .with(OPTICSHeap.Par.EPSILON_ID, 0.15) //
+        .with(OPTICSXi.Par.XI_ID, 0.05) //
+        .with(OPTICSXi.Par.XIALG_ID, ParallelCachedOPTICS.class) //
+        .build().autorun(db);
+    assertFMeasure(db, clustering, 0.893865);
+    assertClusterSizes(clustering, new int[] { 8, 35, 72, 115, 209, 271 });
+  }
+
+  @Test
+  public void testParallelWithCacheFile() throws IOException {
+    Database db = makeSimpleDatabase(UNITTEST + "hierarchical-2d.ascii", 710);
+    File file = File.createTempFile("elki-optics", ".bin");
+    try {
+      assertTrue(file.delete());
+      withParallelism(4, () -> {
+        // First run computes the cache, with a larger radius:
+        Clustering<?> clustering = new ELKIBuilder<>(OPTICSXi.class) //
+            .with(OPTICSHeap.Par.MINPTS_ID, 20) //
+            .with(OPTICSHeap.Par.EPSILON_ID, 0.2) //
+            .with(OPTICSXi.Par.XI_ID, 0.1) //
+            .with(OPTICSXi.Par.XIALG_ID, ParallelCachedOPTICS.class) //
+            .with(ParallelCachedOPTICS.Par.FILE_ID, file) //
+            .build().autorun(db);
+        assertTrue(file.exists());
+        assertFMeasure(db, clustering, 0.80664836);
+        assertClusterSizes(clustering, new int[] { 7, 100, 209, 394 });
+        // Second run uses the cache:
+        clustering = new ELKIBuilder<>(OPTICSXi.class) //
+            .with(OPTICSHeap.Par.MINPTS_ID, 20) //
+            .with(OPTICSHeap.Par.EPSILON_ID, 0.15) //
+            .with(OPTICSXi.Par.XI_ID, 0.05) //
+            .with(OPTICSXi.Par.XIALG_ID, ParallelCachedOPTICS.class) //
+            .with(ParallelCachedOPTICS.Par.FILE_ID, file) //
+            .build().autorun(db);
+        assertFMeasure(db, clustering, 0.893865);
+        assertClusterSizes(clustering, new int[] { 8, 35, 72, 115, 209, 271 });
+      });
+    }
+    finally {
+      file.delete();
+    }
+  }
+
+  @Test
+  public void testCacheValidation() throws IOException {
+    Database db = makeSimpleDatabase(UNITTEST + "hierarchical-2d.ascii", 710);
+    Relation<NumberVector> rel = db.getRelation(TypeUtil.NUMBER_VECTOR_FIELD);
+    ArrayDBIDs ids = DBIDUtil.ensureArray(rel.getDBIDs());
+    final long fingerprint = ParallelCachedOPTICS.fingerprint(rel, ids);
+    ParallelCachedOPTICS.NeighborhoodCache cache = new ParallelCachedOPTICS.NeighborhoodCache(0.1, new int[ids.size() + 1], new int[0], new double[0]);
+    File file = File.createTempFile("elki-optics", ".bin");
+    try {
+      cache.save(file.toPath(), new LPNormDistance(2.), fingerprint);
+      assertNotNull(ParallelCachedOPTICS.NeighborhoodCache.load(file.toPath(), ids.size(), 0.1, new LPNormDistance(2.), fingerprint));
+      // Different distance parameter, different data, or larger radius:
+      assertNull(ParallelCachedOPTICS.NeighborhoodCache.load(file.toPath(), ids.size(), 0.1, new LPNormDistance(1.5), fingerprint));
+      assertNull(ParallelCachedOPTICS.NeighborhoodCache.load(file.toPath(), ids.size(), 0.1, new LPNormDistance(2.), fingerprint + 1));
+      assertNull(ParallelCachedOPTICS.NeighborhoodCache.load(file.toPath(), ids.size(), 0.2, new LPNormDistance(2.), fingerprint));
+      // Not a cache file:
+      Files.write(file.toPath(), new byte[] { 1, 2, 3, 4, 5, 6, 7, 8 });
+      assertNull(ParallelCachedOPTICS.NeighborhoodCache.load(file.toPath(), ids.size(), 0.1, new LPNormDistance(2.), fingerprint));
+    }
+    finally {
+      file.delete();
+    }
+  }
+}
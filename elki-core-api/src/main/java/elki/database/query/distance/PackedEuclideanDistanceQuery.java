@@ -0,0 +1,70 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2019
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package elki.database.query.distance;
+
+import elki.data.NumberVector;
+import elki.database.ids.DBIDRef;
+import elki.database.relation.PackedNumberVectorRelation;
+import elki.distance.SpatialPrimitiveDistance;
+
+import net.jafama.FastMath;
+
+/**
+ * (Squared) Euclidean distance query on a packed vector relation, which
+ * computes distances directly on the packed array.
+ *
+ * @author Erich Schubert
+ * @since 0.8.0
+ *
+ * @assoc - - - PackedNumberVectorRelation
+ *
+ * @param <V> Vector type to use
+ */
+public class PackedEuclideanDistanceQuery<V extends NumberVector> extends SpatialPrimitiveDistanceQuery<V> {
+  /**
+   * Packed relation.
+   */
+  private final PackedNumberVectorRelation<? extends V> packed;
+
+  /**
+   * Return squared distances.
+   */
+  private final boolean squared;
+
+  /**
+   * Constructor.
+   *
+   * @param relation Representation to use
+   * @param distanceFunction Distance function to use
+   * @param squared Return squared Euclidean distances
+   */
+  public PackedEuclideanDistanceQuery(PackedNumberVectorRelation<? extends V> relation, SpatialPrimitiveDistance<? super V> distanceFunction, boolean squared) {
+    super(relation, distanceFunction);
+    this.packed = relation;
+    this.squared = squared;
+  }
+
+  @Override
+  public double distance(DBIDRef id1, DBIDRef id2) {
+    final double d2 = packed.squaredEuclidean(packed.getOffset(id1), packed.getOffset(id2));
+    return squared ? d2 : FastMath.sqrt(d2);
+  }
+}
@@ -59,7 +59,7 @@ public class PrimitiveDistanceQuery<O> implements DistanceQuery<O> {
   }
 
   @Override
-  public final double distance(DBIDRef id1, DBIDRef id2) {
+  public double distance(DBIDRef id1, DBIDRef id2) {
     return distance(relation.get(id1), relation.get(id2));
   }
 
@@ -20,7 +20,11 @@
  */
 package elki.database.relation;
 
+import java.util.List;
+
+import elki.database.ids.DBIDIter;
 import elki.database.ids.DBIDRef;
+import elki.database.ids.DBIDs;
 
 /**
  * Relations that allow modification.
@@ -48,4 +52,34 @@ public interface ModifiableRelation<O> extends Relation<O> {
    * @param id ID to delete
    */
   void delete(DBIDRef id);
+
+  /**
+   * Set (or insert) the representations of multiple objects at once.
+   * <p>
+   * Relations with indexes should override this, to allow the indexes to
+   * process the whole batch at once.
+   *
+   * @param ids Object IDs
+   * @param vals Values, in the iteration order of the IDs
+   */
+  default void insertAll(DBIDs ids, List<? extends O> vals) {
+    int i = 0;
+    for(DBIDIter iter = ids.iter(); iter.valid(); iter.advance(), i++) {
+      insert(iter, vals.get(i));
+    }
+  }
+
+  /**
+   * Delete the values of multiple objects at once.
+   * <p>
+   * Relations with indexes should override this, to allow the indexes to
+   * process the whole batch at once.
+   *
+   * @param ids IDs to delete
+   */
+  default void deleteAll(DBIDs ids) {
+    for(DBIDIter iter = ids.iter(); iter.valid(); iter.advance()) {
+      delete(iter);
+    }
+  }
 }
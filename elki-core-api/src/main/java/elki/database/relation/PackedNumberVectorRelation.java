@@ -0,0 +1,90 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2019
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package elki.database.relation;
+
+import elki.data.NumberVector;
+import elki.database.ids.DBIDArrayIter;
+import elki.database.ids.DBIDRange;
+import elki.database.ids.DBIDRef;
+
+/**
+ * Relation of dense vectors of a fixed dimensionality, stored row-major in a
+ * single contiguous primitive array.
+ * <p>
+ * The objects returned by {@link #get} are temporary, and should not be kept.
+ * Performance critical code can access the data by row offset (the offset of
+ * the object in {@link #getDBIDs()}) instead, avoiding object creation and
+ * pointer chasing.
+ *
+ * @author Erich Schubert
+ * @since 0.8.0
+ *
+ * @param <V> Vector type
+ */
+public interface PackedNumberVectorRelation<V extends NumberVector> extends Relation<V> {
+  @Override
+  DBIDRange getDBIDs();
+
+  @Override
+  DBIDArrayIter iterDBIDs();
+
+  /**
+   * Get the dimensionality of the stored vectors.
+   *
+   * @return Dimensionality
+   */
+  int getDimensionality();
+
+  /**
+   * Get the row offset of an object.
+   *
+   * @param id Object
+   * @return Row offset
+   */
+  int getOffset(DBIDRef id);
+
+  /**
+   * Get a single value.
+   *
+   * @param row Row offset
+   * @param d Dimension
+   * @return Value
+   */
+  double doubleValue(int row, int d);
+
+  /**
+   * Squared Euclidean distance of two rows.
+   *
+   * @param row1 First row offset
+   * @param row2 Second row offset
+   * @return Squared Euclidean distance
+   */
+  double squaredEuclidean(int row1, int row2);
+
+  /**
+   * Squared Euclidean distance of a vector to a row.
+   *
+   * @param vec Vector, of the same dimensionality
+   * @param row Row offset
+   * @return Squared Euclidean distance
+   */
+  double squaredEuclidean(double[] vec, int row);
+}
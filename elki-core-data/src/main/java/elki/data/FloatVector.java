@@ -128,6 +128,19 @@ public class FloatVector implements NumberVector {
     return featureLine.toString();
   }
 
+  /**
+   * Wrap a float array as vector (without copying).
+   * 
+   * Note: modifying the array afterwards can lead to problems if the data has
+   * e.g. been added to an index, which relies on them being immutable!
+   * 
+   * @param vals Values
+   * @return Wrapped vector
+   */
+  public static FloatVector wrap(float[] vals) {
+    return new FloatVector(vals, true);
+  }
+
   /**
    * Factory for float vectors.
    * 
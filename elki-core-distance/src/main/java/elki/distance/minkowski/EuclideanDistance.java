@@ -22,6 +22,10 @@ package elki.distance.minkowski;
 
 import elki.data.NumberVector;
 import elki.data.spatial.SpatialComparable;
+import elki.database.query.distance.PackedEuclideanDistanceQuery;
+import elki.database.query.distance.SpatialPrimitiveDistanceQuery;
+import elki.database.relation.PackedNumberVectorRelation;
+import elki.database.relation.Relation;
 import elki.utilities.Alias;
 import elki.utilities.Priority;
 import elki.utilities.optionhandling.Parameterizer;
@@ -190,6 +194,14 @@ public class EuclideanDistance extends LPIntegerNormDistance {
     return "EuclideanDistance";
   }
 
+  @SuppressWarnings("unchecked")
+  @Override
+  public <T extends NumberVector> SpatialPrimitiveDistanceQuery<T> instantiate(Relation<T> relation) {
+    return relation instanceof PackedNumberVectorRelation ? //
+        new PackedEuclideanDistanceQuery<>((PackedNumberVectorRelation<? extends T>) relation, this, false) : //
+        new SpatialPrimitiveDistanceQuery<>(relation, this);
+  }
+
   @Override
   public boolean equals(Object obj) {
     return obj == this || (obj != null && this.getClass().equals(obj.getClass()));
@@ -23,6 +23,10 @@ package elki.distance.minkowski;
 import elki.data.NumberVector;
 import elki.data.SparseNumberVector;
 import elki.data.spatial.SpatialComparable;
+import elki.database.query.distance.PackedEuclideanDistanceQuery;
+import elki.database.query.distance.SpatialPrimitiveDistanceQuery;
+import elki.database.relation.PackedNumberVectorRelation;
+import elki.database.relation.Relation;
 import elki.data.type.SimpleTypeInformation;
 import elki.distance.*;
 import elki.utilities.Alias;
@@ -191,6 +195,14 @@ public class SquaredEuclideanDistance extends AbstractNumberVectorDistance imple
     return true;
   }
 
+  @SuppressWarnings("unchecked")
+  @Override
+  public <T extends NumberVector> SpatialPrimitiveDistanceQuery<T> instantiate(Relation<T> relation) {
+    return relation instanceof PackedNumberVectorRelation ? //
+        new PackedEuclideanDistanceQuery<>((PackedNumberVectorRelation<? extends T>) relation, this, true) : //
+        new SpatialPrimitiveDistanceQuery<>(relation, this);
+  }
+
   @Override
   public String toString() {
     return "SquaredEuclideanDistance";
@@ -23,9 +23,12 @@ package elki.parallel;
 import java.util.concurrent.*;
 
 /**
- * Core for parallel processing in ELKI, based on {@link ThreadPoolExecutor}.
+ * Core for parallel processing in ELKI, based on a work-stealing
+ * {@link ForkJoinPool}.
  * <p>
- * TODO: make configurable how many threads are used.
+ * The number of threads defaults to the number of available processors, but
+ * can be changed with {@link #setParallelism(int)}. The pool is (re-)created
+ * lazily when the first submitter connects.
  * 
  * @author Erich Schubert
  * @since 0.7.0
@@ -42,9 +45,9 @@ public class ParallelCore {
   private static final ParallelCore STATIC = new ParallelCore(ALL_PROCESSORS);
 
   /**
-   * Executor service.
+   * Work-stealing executor pool.
    */
-  private volatile ThreadPoolExecutor executor;
+  private volatile ForkJoinPool pool;
 
   /**
    * Number of connected submitters.
@@ -54,7 +57,7 @@ public class ParallelCore {
   /**
    * Maximum number of processors to use.
    */
-  private int processors;
+  private volatile int processors;
 
   /**
    * Constructor.
@@ -79,7 +82,22 @@ public class ParallelCore {
    * @return Number of threads to run in parallel
    */
   public int getParallelism() {
-    return executor != null ? executor.getMaximumPoolSize() : processors;
+    return processors;
+  }
+
+  /**
+   * Set the desired level of parallelism.
+   * <p>
+   * If the pool is currently in use, the new value takes effect once all
+   * submitters have disconnected.
+   *
+   * @param processors Number of threads to run in parallel
+   */
+  public synchronized void setParallelism(int processors) {
+    if(processors < 1) {
+      throw new IllegalArgumentException("Parallelism must be at least 1.");
+    }
+    this.processors = processors;
   }
 
   /**
@@ -90,30 +108,43 @@ public class ParallelCore {
    * @return Future to observe completion
    */
   public <T> Future<T> submit(Callable<T> task) {
-    return executor.submit(task);
+    return pool.submit(task);
+  }
+
+  /**
+   * Run a fork-join task on the executor core, and wait for its completion.
+   * <p>
+   * If called from within a worker thread of this core, the task is run
+   * directly in the current thread (and may be stolen from by other workers).
+   *
+   * @param task Task to run
+   * @param <T> Result type
+   * @return Task result
+   */
+  public <T> T invoke(ForkJoinTask<T> task) {
+    return pool.invoke(task);
   }
 
   /**
    * Connect to the executor.
    */
   public synchronized void connect() {
-    if(executor == null) {
-      executor = new ThreadPoolExecutor(0, processors, 10L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>());
-      executor.allowCoreThreadTimeOut(true);
-    }
-    if(++connected == 1) {
-      executor.allowCoreThreadTimeOut(false);
-      executor.setCorePoolSize(executor.getMaximumPoolSize());
+    if(pool == null || (connected == 0 && pool.getParallelism() != processors)) {
+      if(pool != null) {
+        pool.shutdown();
+      }
+      pool = new ForkJoinPool(processors);
     }
+    ++connected;
   }
 
   /**
    * Disconnect to the executor.
+   * <p>
+   * Idle worker threads of the pool terminate on their own, so we do not need
+   * to shut down the pool here.
    */
   public synchronized void disconnect() {
-    if(--connected == 0) {
-      executor.allowCoreThreadTimeOut(true);
-      executor.setCorePoolSize(0);
-    }
+    --connected;
   }
 }
@@ -20,33 +20,49 @@
  */
 package elki.parallel;
 
-import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.List;
 import java.util.concurrent.Callable;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.IntConsumer;
 
 import elki.database.ids.ArrayDBIDs;
 import elki.database.ids.DBIDArrayIter;
 import elki.database.ids.DBIDUtil;
 import elki.database.ids.DBIDs;
+import elki.logging.Logging;
+import elki.logging.progress.AbstractProgress;
 import elki.parallel.processor.Processor;
 import elki.parallel.variables.SharedVariable;
 import elki.parallel.variables.SharedVariable.Instance;
 
 /**
  * Class to run processors in parallel, on all available cores.
- *
- * TODO: add progress
+ * <p>
+ * The work is split recursively into blocks and scheduled on a work-stealing
+ * {@link java.util.concurrent.ForkJoinPool}, such that threads that finish
+ * early can take over pending blocks of slower threads (e.g., when query costs
+ * are skewed).
  *
  * @author Erich Schubert
  * @since 0.7.0
  *
  * @has - - - BlockArrayRunner
+ * @has - - - BlockTask
+ * @has - - - RangeTask
  * @assoc - - - ParallelCore
  */
 public final class ParallelExecutor {
+  /**
+   * Number of blocks per thread to split the work into, to allow balancing
+   * the load by work stealing.
+   */
+  private static final int BLOCKS_PER_THREAD = 16;
+
+  /**
+   * Minimum block size, to limit the overhead of processor instantiation.
+   */
+  private static final int MIN_BLOCKSIZE = 16;
+
   /**
    * Private constructor. Static methods only.
    */
@@ -61,40 +77,259 @@ public final class ParallelExecutor {
    * @param procs Processors to run
    */
   public static void run(DBIDs ids, Processor... procs) {
+    run(ids, null, null, procs);
+  }
+
+  /**
+   * Run a task on all available CPUs, with progress reporting.
+   *
+   * @param ids IDs to process
+   * @param prog Progress to increment as blocks complete (may be {@code null})
+   * @param log Logger to report progress to
+   * @param procs Processors to run
+   */
+  public static void run(DBIDs ids, AbstractProgress prog, Logging log, Processor... procs) {
     ParallelCore core = ParallelCore.getCore();
     core.connect();
     try {
-      // TODO: try different strategies anyway!
       ArrayDBIDs aids = DBIDUtil.ensureArray(ids);
       final int size = aids.size();
-      int numparts = core.getParallelism();
-      // TODO: are there better heuristics for choosing this?
-      numparts = (size > numparts * numparts * 16) ? numparts * Math.max(1, numparts - 1) : numparts;
-
-      final int blocksize = (size + (numparts - 1)) / numparts;
-      List<Future<ArrayDBIDs>> parts = new ArrayList<>(numparts);
-      for(int i = 0; i < numparts; i++) {
-        final int start = i * blocksize;
-        final int end = Math.min(start + blocksize, size);
-        Callable<ArrayDBIDs> run = new BlockArrayRunner(aids, start, end, procs);
-        parts.add(core.submit(run));
-      }
+      final int blocksize = Math.max(MIN_BLOCKSIZE, size / (core.getParallelism() * BLOCKS_PER_THREAD));
+      core.invoke(new BlockTask(aids, 0, size, blocksize, procs, prog, log));
+    }
+    finally {
+      core.disconnect();
+    }
+  }
 
-      for(Future<ArrayDBIDs> fut : parts) {
-        fut.get();
+  /**
+   * Perform an operation for each index in [0:n), in parallel. Each index is
+   * scheduled as a separate task, so this is meant for a small number of
+   * expensive operations.
+   *
+   * @param n Number of indexes
+   * @param op Operation to perform
+   */
+  public static void forEach(int n, IntConsumer op) {
+    forEach(n, 1, op);
+  }
+
+  /**
+   * Perform an operation for each index in [0:n), in parallel, in blocks of
+   * at most the given size.
+   * <p>
+   * If there is only a single block, or only a single thread, the operation is
+   * run in the current thread.
+   *
+   * @param n Number of indexes
+   * @param blocksize Block size, at which to stop splitting the range
+   * @param op Operation to perform
+   */
+  public static void forEach(int n, int blocksize, IntConsumer op) {
+    ParallelCore core = ParallelCore.getCore();
+    if(n <= blocksize || core.getParallelism() <= 1) {
+      for(int i = 0; i < n; i++) {
+        op.accept(i);
       }
+      return;
     }
-    catch(ExecutionException e) {
-      throw new RuntimeException("Processor execution failed.", e);
-    }
-    catch(InterruptedException e) {
-      throw new RuntimeException("Parallel execution interrupted.");
+    core.connect();
+    try {
+      core.invoke(new RangeTask(0, n, Math.max(1, blocksize), op));
     }
     finally {
       core.disconnect();
     }
   }
 
+  /**
+   * Process an array of DBIDs in blocks of a fixed size, in parallel.
+   * <p>
+   * Block b covers the offsets [b*blocksize:(b+1)*blocksize), and the blocks
+   * are numbered consecutively, such that the operation can, e.g., use
+   * per-block data structures.
+   *
+   * @param ids IDs to process
+   * @param blocksize Block size
+   * @param op Operation to perform on each block
+   */
+  public static void processBlocks(ArrayDBIDs ids, int blocksize, BlockOperation op) {
+    final int size = ids.size();
+    forEach(numBlocks(size, blocksize), b -> op.process(b, ids.iter(), b * blocksize, Math.min(size, (b + 1) * blocksize)));
+  }
+
+  /**
+   * Number of blocks of the given size needed to cover the data (at least
+   * one).
+   *
+   * @param size Data size
+   * @param blocksize Block size
+   * @return Number of blocks
+   */
+  public static int numBlocks(int size, int blocksize) {
+    return Math.max(1, (size + blocksize - 1) / blocksize);
+  }
+
+  /**
+   * Operation on a block of an array of DBIDs.
+   *
+   * @author Erich Schubert
+   */
+  @FunctionalInterface
+  public interface BlockOperation {
+    /**
+     * Process a block of objects.
+     *
+     * @param b Block number
+     * @param it Iterator for this block, to seek to the offsets
+     * @param start First offset
+     * @param end End offset (exclusive)
+     */
+    void process(int b, DBIDArrayIter it, int start, int end);
+  }
+
+  /**
+   * Fork-join task that recursively splits a range of indexes, until the
+   * block size is reached.
+   *
+   * @author Erich Schubert
+   */
+  protected static class RangeTask extends RecursiveAction {
+    /**
+     * Serialization version.
+     */
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Range to process.
+     */
+    private int start, end;
+
+    /**
+     * Block size, at which to stop splitting.
+     */
+    private int blocksize;
+
+    /**
+     * Operation to perform.
+     */
+    private IntConsumer op;
+
+    /**
+     * Constructor.
+     *
+     * @param start First index
+     * @param end End index (exclusive)
+     * @param blocksize Block size to stop splitting at
+     * @param op Operation to perform
+     */
+    protected RangeTask(int start, int end, int blocksize, IntConsumer op) {
+      super();
+      this.start = start;
+      this.end = end;
+      this.blocksize = blocksize;
+      this.op = op;
+    }
+
+    @Override
+    protected void compute() {
+      if(end - start > blocksize) {
+        final int mid = (start + end) >>> 1;
+        invokeAll(new RangeTask(start, mid, blocksize, op), new RangeTask(mid, end, blocksize, op));
+        return;
+      }
+      for(int i = start; i < end; i++) {
+        op.accept(i);
+      }
+    }
+  }
+
+  /**
+   * Fork-join task that recursively splits the range to process, until the
+   * block size is reached.
+   *
+   * @author Erich Schubert
+   *
+   * @has - - - BlockArrayRunner
+   */
+  protected static class BlockTask extends RecursiveAction {
+    /**
+     * Serialization version.
+     */
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Array IDs to process
+     */
+    private ArrayDBIDs ids;
+
+    /**
+     * Start position
+     */
+    private int start;
+
+    /**
+     * End position
+     */
+    private int end;
+
+    /**
+     * Block size, at which to stop splitting.
+     */
+    private int blocksize;
+
+    /**
+     * The processor masters that own the instances.
+     */
+    private Processor[] procs;
+
+    /**
+     * Progress, may be {@code null}.
+     */
+    private AbstractProgress prog;
+
+    /**
+     * Logger for reporting progress.
+     */
+    private Logging log;
+
+    /**
+     * Constructor.
+     *
+     * @param ids IDs to process
+     * @param start Starting position
+     * @param end End position
+     * @param blocksize Block size to stop splitting at
+     * @param procs Processors to run
+     * @param prog Progress, may be {@code null}
+     * @param log Logger for progress reporting
+     */
+    protected BlockTask(ArrayDBIDs ids, int start, int end, int blocksize, Processor[] procs, AbstractProgress prog, Logging log) {
+      super();
+      this.ids = ids;
+      this.start = start;
+      this.end = end;
+      this.blocksize = blocksize;
+      this.procs = procs;
+      this.prog = prog;
+      this.log = log;
+    }
+
+    @Override
+    protected void compute() {
+      if(end - start > blocksize) {
+        final int mid = (start + end) >>> 1;
+        invokeAll(new BlockTask(ids, start, mid, blocksize, procs, prog, log), //
+            new BlockTask(ids, mid, end, blocksize, procs, prog, log));
+        return;
+      }
+      new BlockArrayRunner(ids, start, end, procs).call();
+      if(prog != null) {
+        prog.incrementProcessed(end - start, log);
+      }
+    }
+  }
+
   /**
    * Run for an array part, without step size.
    *
@@ -134,20 +134,26 @@ public class HashmapDatabase extends AbstractDatabase implements UpdatableDataba
       if(!objpackages.assignDBID(j, var)) {
         var.set(DBIDUtil.generateSingleDBID());
       }
-      if(ids.contains(var)) {
+      if(!ids.add(var)) {
+        // Roll back the IDs added so far.
+        ids.removeDBIDs(newids);
         throw new AbortException("Duplicate DBID conflict.");
       }
-      ids.add(var);
-      for(int i = 0; i < targets.length; i++) {
-        if(!(targets[i] instanceof ModifiableRelation)) {
-          throw new AbortException("Non-modifiable relations have been added to the database.");
-        }
-        @SuppressWarnings("unchecked")
-        final ModifiableRelation<Object> relation = (ModifiableRelation<Object>) targets[i];
-        relation.insert(var, objpackages.data(j, i));
-      }
       newids.add(var);
     }
+    // Insert each column as one batch, so indexes can process it at once.
+    for(int i = 0; i < targets.length; i++) {
+      if(!(targets[i] instanceof ModifiableRelation)) {
+        throw new AbortException("Non-modifiable relations have been added to the database.");
+      }
+      ArrayList<Object> column = new ArrayList<>(newids.size());
+      for(int j = 0; j < objpackages.dataLength(); j++) {
+        column.add(objpackages.data(j, i));
+      }
+      @SuppressWarnings("unchecked")
+      final ModifiableRelation<Object> relation = (ModifiableRelation<Object>) targets[i];
+      relation.insertAll(newids, column);
+    }
 
     // fire insertion event
     eventManager.fireObjectsInserted(newids);
@@ -210,9 +216,8 @@ public class HashmapDatabase extends AbstractDatabase implements UpdatableDataba
   }
 
   /**
-   * Removes the objects from the database (by calling
-   * {@link #doDelete(DBIDRef)} for each object) and indexes and fires a
-   * deletion event.
+   * Removes the objects from the database and indexes (as one batch per
+   * relation) and fires a deletion event.
    *
    * {@inheritDoc}
    */
@@ -228,8 +233,16 @@ public class HashmapDatabase extends AbstractDatabase implements UpdatableDataba
       bundle.appendColumn(relation.getDataTypeInformation(), data);
     }
     // remove from db
-    for(DBIDIter iter = ids.iter(); iter.valid(); iter.advance()) {
-      doDelete(iter);
+    this.ids.removeDBIDs(ids);
+    for(Relation<?> relation : relations) {
+      // ID has already been removed, and this would loop...
+      if(relation == idrep) {
+        continue;
+      }
+      if(!(relation instanceof ModifiableRelation)) {
+        throw new AbortException("Non-modifiable relations have been added to the database.");
+      }
+      ((ModifiableRelation<?>) relation).deleteAll(ids);
     }
     // fire deletion event
     eventManager.fireObjectsRemoved(ids);
@@ -22,16 +22,23 @@ package elki.database;
 
 import java.util.Collection;
 
+import elki.data.DoubleVector;
+import elki.data.FloatVector;
+import elki.data.NumberVector;
 import elki.data.type.SimpleTypeInformation;
+import elki.data.type.VectorFieldTypeInformation;
 import elki.database.datastore.DataStoreFactory;
 import elki.database.datastore.DataStoreUtil;
 import elki.database.datastore.WritableDataStore;
 import elki.database.ids.ArrayStaticDBIDs;
 import elki.database.ids.DBIDArrayIter;
+import elki.database.ids.DBIDRange;
 import elki.database.ids.DBIDUtil;
 import elki.database.ids.DBIDs;
 import elki.database.relation.DBIDView;
 import elki.database.relation.MaterializedRelation;
+import elki.database.relation.PackedDoubleVectorRelation;
+import elki.database.relation.PackedFloatVectorRelation;
 import elki.database.relation.Relation;
 import elki.datasource.DatabaseConnection;
 import elki.datasource.FileBasedDatabaseConnection;
@@ -42,7 +49,9 @@ import elki.logging.Logging;
 import elki.logging.statistics.Duration;
 import elki.result.Metadata;
 import elki.utilities.documentation.Description;
+import elki.utilities.optionhandling.OptionID;
 import elki.utilities.optionhandling.parameterization.Parameterization;
+import elki.utilities.optionhandling.parameters.Flag;
 import elki.utilities.optionhandling.parameters.ObjectListParameter;
 import elki.utilities.optionhandling.parameters.ObjectParameter;
 
@@ -50,6 +59,12 @@ import elki.utilities.optionhandling.parameters.ObjectParameter;
  * This database class uses array-based storage and thus does not allow for
  * dynamic insert, delete and update operations. However, array access is
  * expected to be faster and use less memory.
+ * <p>
+ * Optionally, dense double and float vectors of a fixed dimensionality can be
+ * stored in a single packed array each (see
+ * {@link PackedDoubleVectorRelation}). This saves memory, and accelerates
+ * Euclidean distance computations, but each access to a vector object then
+ * has to copy the vector.
  *
  * @author Arthur Zimek
  * @author Erich Schubert
@@ -81,6 +96,11 @@ public class StaticArrayDatabase extends AbstractDatabase {
    */
   protected DatabaseConnection databaseConnection;
 
+  /**
+   * Store dense vectors in packed arrays.
+   */
+  protected boolean packed;
+
   /**
    * Constructor.
    *
@@ -88,8 +108,20 @@ public class StaticArrayDatabase extends AbstractDatabase {
    * @param indexFactories Indexes to add
    */
   public StaticArrayDatabase(DatabaseConnection databaseConnection, Collection<? extends IndexFactory<?>> indexFactories) {
+    this(databaseConnection, indexFactories, false);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param databaseConnection Database connection to get the initial data from.
+   * @param indexFactories Indexes to add
+   * @param packed Store dense vectors in packed arrays
+   */
+  public StaticArrayDatabase(DatabaseConnection databaseConnection, Collection<? extends IndexFactory<?>> indexFactories, boolean packed) {
     super();
     this.databaseConnection = databaseConnection;
+    this.packed = packed;
     this.ids = null;
     this.idrep = null;
 
@@ -150,11 +182,14 @@ public class StaticArrayDatabase extends AbstractDatabase {
       SimpleTypeInformation<?> meta = bundle.meta(i);
       @SuppressWarnings("unchecked")
       SimpleTypeInformation<Object> ometa = (SimpleTypeInformation<Object>) meta;
-      WritableDataStore<Object> store = DataStoreUtil.makeStorage(ids, DataStoreFactory.HINT_DB, ometa.getRestrictionClass());
-      for(it.seek(0); it.valid(); it.advance()) {
-        store.put(it, bundle.data(it.getOffset(), i));
+      Relation<?> relation = packed ? makePackedRelation(bundle, i) : null;
+      if(relation == null) {
+        WritableDataStore<Object> store = DataStoreUtil.makeStorage(ids, DataStoreFactory.HINT_DB, ometa.getRestrictionClass());
+        for(it.seek(0); it.valid(); it.advance()) {
+          store.put(it, bundle.data(it.getOffset(), i));
+        }
+        relation = new MaterializedRelation<>(null, ometa, ids, store);
       }
-      Relation<?> relation = new MaterializedRelation<>(null, ometa, ids, store);
       relations.add(relation);
       Metadata.hierarchyOf(this).addChild(relation);
 
@@ -180,6 +215,49 @@ public class StaticArrayDatabase extends AbstractDatabase {
     eventManager.fireObjectsInserted(ids);
   }
 
+  /**
+   * Store a column of dense vectors of fixed dimensionality in a packed array,
+   * if possible.
+   *
+   * @param bundle Bundle
+   * @param col Column
+   * @return Packed relation, or {@code null}
+   */
+  @SuppressWarnings("unchecked")
+  private Relation<?> makePackedRelation(MultipleObjectsBundle bundle, int col) {
+    SimpleTypeInformation<?> meta = bundle.meta(col);
+    if(!(ids instanceof DBIDRange) || !(meta instanceof VectorFieldTypeInformation)) {
+      return null;
+    }
+    VectorFieldTypeInformation<?> vmeta = (VectorFieldTypeInformation<?>) meta;
+    final Class<?> cls = vmeta.getRestrictionClass();
+    if(vmeta.mindim() != vmeta.maxdim() || (cls != DoubleVector.class && cls != FloatVector.class)) {
+      return null;
+    }
+    final int dim = vmeta.getDimensionality(), size = ids.size();
+    if(dim <= 0 || (long) dim * size > Integer.MAX_VALUE - 8) {
+      return null;
+    }
+    if(cls == DoubleVector.class) {
+      double[] data = new double[dim * size];
+      for(int j = 0, p = 0; j < size; j++) {
+        NumberVector v = (NumberVector) bundle.data(j, col);
+        for(int d = 0; d < dim; d++) {
+          data[p++] = v.doubleValue(d);
+        }
+      }
+      return new PackedDoubleVectorRelation(null, (SimpleTypeInformation<DoubleVector>) meta, (DBIDRange) ids, dim, data);
+    }
+    float[] data = new float[dim * size];
+    for(int j = 0, p = 0; j < size; j++) {
+      FloatVector v = (FloatVector) bundle.data(j, col);
+      for(int d = 0; d < dim; d++) {
+        data[p++] = v.floatValue(d);
+      }
+    }
+    return new PackedFloatVectorRelation(null, (SimpleTypeInformation<FloatVector>) meta, (DBIDRange) ids, dim, data);
+  }
+
   @Override
   protected Logging getLogger() {
     return LOG;
@@ -191,6 +269,11 @@ public class StaticArrayDatabase extends AbstractDatabase {
    * @author Erich Schubert
    */
   public static class Par extends AbstractDatabase.Par {
+    /**
+     * Flag to store dense vectors in packed arrays.
+     */
+    public static final OptionID PACKED_ID = new OptionID("db.packed", "Store dense vectors of fixed dimensionality in a single packed array.");
+
     /**
      * Holds the database connection to get the initial data from.
      */
@@ -201,6 +284,11 @@ public class StaticArrayDatabase extends AbstractDatabase {
      */
     private Collection<? extends IndexFactory<?>> indexFactories;
 
+    /**
+     * Store dense vectors in packed arrays.
+     */
+    protected boolean packed;
+
     @Override
     public void configure(Parameterization config) {
       super.configure(config);
@@ -211,11 +299,12 @@ public class StaticArrayDatabase extends AbstractDatabase {
       new ObjectListParameter<IndexFactory<?>>(INDEX_ID, IndexFactory.class) //
           .setOptional(true) //
           .grab(config, x -> indexFactories = x);
+      new Flag(PACKED_ID).grab(config, x -> packed = x);
     }
 
     @Override
     public StaticArrayDatabase make() {
-      return new StaticArrayDatabase(databaseConnection, indexFactories);
+      return new StaticArrayDatabase(databaseConnection, indexFactories, packed);
     }
   }
 }
@@ -23,16 +23,20 @@ package elki.database.query;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
 
+import elki.data.NumberVector;
 import elki.data.type.FieldTypeInformation;
 import elki.data.type.TypeInformation;
 import elki.data.type.TypeUtil;
 import elki.database.ids.DBIDRange;
 import elki.database.ids.DBIDRef;
 import elki.database.query.distance.DistanceQuery;
+import elki.database.query.distance.PrimitiveDistanceQuery;
 import elki.database.query.knn.KNNSearcher;
+import elki.database.query.knn.LinearScanEuclideanBatchKNNByDBID;
 import elki.database.query.range.RangeSearcher;
 import elki.database.relation.Relation;
 import elki.distance.Distance;
+import elki.distance.minkowski.EuclideanDistance;
 import elki.distance.minkowski.LPNormDistance;
 import elki.distance.minkowski.SquaredEuclideanDistance;
 import elki.index.*;
@@ -57,6 +61,11 @@ public class EmpiricalQueryOptimizer implements QueryOptimizer {
    */
   private static final long MEGA = 1024 * 1024;
 
+  /**
+   * Maximum dimensionality where we expect tree indexes to be beneficial.
+   */
+  private static final int MAX_INDEX_DIM = 20;
+
   /**
    * Distance matrix index class.
    */
@@ -195,6 +204,12 @@ public class EmpiricalQueryOptimizer implements QueryOptimizer {
   @Override
   @SuppressWarnings("unchecked")
   public <O> KNNSearcher<DBIDRef> kNNByDBID(Relation<? extends O> relation, DistanceQuery<O> distanceQuery, int maxk, int flags) {
+    if((flags & QueryBuilder.FLAG_PRECOMPUTE) != 0) {
+      KNNSearcher<DBIDRef> q = makeBatchKNN(relation, distanceQuery, maxk);
+      if(q != null) {
+        return q;
+      }
+    }
     KNNIndex<O> idx = makeCoverTree(relation, distanceQuery.getDistance());
     if(idx == null) { // Try k-d-tree for squared Euclidean mostly
       idx = makeKDTree(relation, distanceQuery.getDistance());
@@ -213,7 +228,7 @@ public class EmpiricalQueryOptimizer implements QueryOptimizer {
     }
     // Next try adding a preprocessor:
     if(knnIndex == null || (flags & QueryBuilder.FLAG_PRECOMPUTE) != 0 || maxk <= relation.size()) {
-      return null;
+      return idx != null ? idx.kNNByDBID(distanceQuery, maxk, flags) : null;
     }
     long freeMemory = getFreeMemory();
     final long msize = maxk * 12L * relation.size();
@@ -303,8 +318,44 @@ public class EmpiricalQueryOptimizer implements QueryOptimizer {
     return idx.priorityByDBID(distanceQuery, maxrange, flags);
   }
 
+  /**
+   * Make a batched linear scan for (squared) Euclidean all-kNN queries, if
+   * this is expected to outperform index structures.
+   *
+   * @param relation Data relation
+   * @param distanceQuery Distance query
+   * @param maxk Maximum k
+   * @return kNN searcher, or {@code null}
+   */
+  @SuppressWarnings("unchecked")
+  private <O> KNNSearcher<DBIDRef> makeBatchKNN(Relation<? extends O> relation, DistanceQuery<O> distanceQuery, int maxk) {
+    TypeInformation type = relation.getDataTypeInformation();
+    Distance<? super O> distance = distanceQuery.getDistance();
+    if(!(distanceQuery instanceof PrimitiveDistanceQuery) //
+        || !TypeUtil.NUMBER_VECTOR_FIELD.isAssignableFromType(type) //
+        || !(EuclideanDistance.STATIC.equals(distance) || SquaredEuclideanDistance.STATIC.equals(distance)) //
+        || maxk >= relation.size()) {
+      return null;
+    }
+    final int dim = ((FieldTypeInformation) type).getDimensionality();
+    if(dim <= MAX_INDEX_DIM && (coverIndex != null || kdIndex != null)) {
+      return null; // Prefer the index structures.
+    }
+    if(dim * (long) relation.size() >= Integer.MAX_VALUE) {
+      return null;
+    }
+    long freeMemory = getFreeMemory();
+    final long msize = (dim * 8L + maxk * 12L) * relation.size();
+    if(msize > 0.8 * freeMemory) {
+      LOG.warning("A batched kNN scan would need about " + formatMemory(msize) + " memory, only " + formatMemory(freeMemory) + " are available.");
+      return null;
+    }
+    LOG.verbose("Optimizer: using a batched linear scan for all kNN.");
+    return new LinearScanEuclideanBatchKNNByDBID<>((PrimitiveDistanceQuery<NumberVector>) distanceQuery, maxk);
+  }
+
   private <O> DistancePriorityIndex<O> makeMatrixIndex(Relation<? extends O> relation, Distance<? super O> distance) {
-    if(matrixIndex == null || relation.size() > 65536) {
+    if(matrixIndex == null) {
       return null;
     }
     long freeMemory = getFreeMemory();
@@ -356,7 +407,7 @@ public class EmpiricalQueryOptimizer implements QueryOptimizer {
     if(kdIndex == null // not available
         || !TypeUtil.NUMBER_VECTOR_FIELD.isAssignableFromType(type) //
         || !(distance instanceof LPNormDistance || distance instanceof SquaredEuclideanDistance) //
-        || ((FieldTypeInformation) type).getDimensionality() > 20) {
+        || ((FieldTypeInformation) type).getDimensionality() > MAX_INDEX_DIM) {
       return null;
     }
     try {
@@ -0,0 +1,374 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2019
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package elki.database.query.knn;
+
+import elki.data.NumberVector;
+import elki.data.type.FieldTypeInformation;
+import elki.database.datastore.DataStoreFactory;
+import elki.database.datastore.DataStoreUtil;
+import elki.database.datastore.WritableDataStore;
+import elki.database.ids.*;
+import elki.database.query.LinearScanQuery;
+import elki.database.query.distance.PrimitiveDistanceQuery;
+import elki.database.relation.Relation;
+import elki.distance.minkowski.EuclideanDistance;
+import elki.distance.minkowski.SquaredEuclideanDistance;
+import elki.logging.Logging;
+import elki.logging.progress.FiniteProgress;
+import elki.logging.statistics.Duration;
+
+/**
+ * Batched linear scan for computing the k nearest neighbors of <em>all</em>
+ * objects, for (squared) Euclidean distance.
+ * <p>
+ * Instead of scanning the data once per query, blocks of queries are processed
+ * against cache-sized tiles of the data, and the squared distances are
+ * obtained via the dot product expansion
+ * \(||x-y||^2 = ||x||^2 + ||y||^2 - 2 x\cdot y\) on a flat copy of the
+ * (centered) data with precomputed norms. Because this expansion is prone to
+ * cancellation, it is only used to reject candidates; candidates that may
+ * enter the heap are verified with the exact distance, so the results are
+ * identical to a regular linear scan.
+ * <p>
+ * The neighbors of all objects are computed on the first request, and kept
+ * for subsequent requests. This is used by the query optimizer when the kNN
+ * of almost all objects are requested.
+ *
+ * @author Erich Schubert
+ * @since 0.8.0
+ *
+ * @assoc - - - PrimitiveDistanceQuery
+ * @assoc - - - EuclideanDistance
+ * @assoc - - - SquaredEuclideanDistance
+ *
+ * @param <O> relation object type
+ */
+public class LinearScanEuclideanBatchKNNByDBID<O extends NumberVector> implements KNNSearcher<DBIDRef>, LinearScanQuery {
+  /**
+   * Class logger.
+   */
+  private static final Logging LOG = Logging.getLogger(LinearScanEuclideanBatchKNNByDBID.class);
+
+  /**
+   * Number of queries processed together.
+   */
+  private static final int QUERY_BLOCK = 64;
+
+  /**
+   * Number of doubles in a data tile (128 KB).
+   */
+  private static final int TILE_SIZE = 1 << 14;
+
+  /**
+   * Distance query.
+   */
+  protected final PrimitiveDistanceQuery<O> distanceQuery;
+
+  /**
+   * Relation to query.
+   */
+  protected final Relation<? extends O> relation;
+
+  /**
+   * Maximum k to precompute.
+   */
+  protected final int maxk;
+
+  /**
+   * Distance is the squared Euclidean distance.
+   */
+  private final boolean squared;
+
+  /**
+   * Precomputed neighbors. Volatile, as searchers may be shared by threads.
+   */
+  private volatile WritableDataStore<KNNList> knns;
+
+  /**
+   * Constructor.
+   *
+   * @param distanceQuery Distance query, Euclidean or squared Euclidean
+   * @param maxk Maximum k to precompute
+   */
+  public LinearScanEuclideanBatchKNNByDBID(PrimitiveDistanceQuery<O> distanceQuery, int maxk) {
+    super();
+    this.distanceQuery = distanceQuery;
+    this.relation = distanceQuery.getRelation();
+    this.maxk = maxk;
+    this.squared = SquaredEuclideanDistance.STATIC.equals(distanceQuery.getDistance());
+    assert squared || EuclideanDistance.STATIC.equals(distanceQuery.getDistance());
+  }
+
+  @Override
+  public KNNList getKNN(DBIDRef id, int k) {
+    if(k <= maxk) {
+      KNNList list = getAll().get(id);
+      if(list != null) {
+        return list.subList(k);
+      }
+    }
+    // Object not known or k too large.
+    return new LinearScanPrimitiveKNNByObject<>(distanceQuery).getKNN(relation.get(id), k);
+  }
+
+  /**
+   * Get the k nearest neighbors of all objects, computing them on the first
+   * call. Concurrent first calls wait for a single computation.
+   *
+   * @return Storage of kNN lists
+   */
+  private WritableDataStore<KNNList> getAll() {
+    WritableDataStore<KNNList> knns = this.knns;
+    if(knns == null) {
+      synchronized(this) {
+        knns = this.knns;
+        if(knns == null) {
+          this.knns = knns = computeAll();
+        }
+      }
+    }
+    return knns;
+  }
+
+  /**
+   * Compute the k nearest neighbors of all objects.
+   *
+   * @return Storage of kNN lists
+   */
+  protected WritableDataStore<KNNList> computeAll() {
+    final ArrayDBIDs ids = DBIDUtil.ensureArray(relation.getDBIDs());
+    final int n = ids.size();
+    final int dim = ((FieldTypeInformation) relation.getDataTypeInformation()).getDimensionality();
+    Duration duration = LOG.isStatistics() ? LOG.newDuration(getClass().getName() + ".runtime").begin() : null;
+    // Flat, centered copy of the data, and the squared norms.
+    final double[] data = new double[n * dim], norms = new double[n];
+    final double[] mean = new double[dim];
+    int off = 0;
+    for(DBIDIter it = ids.iter(); it.valid(); it.advance(), off += dim) {
+      final O vec = relation.get(it);
+      for(int d = 0; d < dim; d++) {
+        mean[d] += (data[off + d] = vec.doubleValue(d));
+      }
+    }
+    for(int d = 0; d < dim; d++) {
+      mean[d] /= n;
+    }
+    off = 0;
+    for(int i = 0; i < n; i++) {
+      double norm = 0.;
+      for(int d = 0; d < dim; d++, off++) {
+        final double v = data[off] -= mean[d];
+        norm += v * v;
+      }
+      norms[i] = norm;
+    }
+    WritableDataStore<KNNList> knns = DataStoreUtil.makeStorage(ids, DataStoreFactory.HINT_HOT | DataStoreFactory.HINT_TEMP, KNNList.class);
+    FiniteProgress prog = LOG.isVerbose() ? new FiniteProgress("Batched kNN linear scan (k=" + maxk + ")", n, LOG) : null;
+    BlockScanner scanner = new BlockScanner(ids, dim, data, norms);
+    for(int qs = 0; qs < n; qs += QUERY_BLOCK) {
+      final int qe = Math.min(n, qs + QUERY_BLOCK);
+      scanner.process(qs, qe, knns);
+      if(prog != null) {
+        prog.incrementProcessed(qe - qs, LOG);
+      }
+    }
+    LOG.ensureCompleted(prog);
+    if(duration != null) {
+      LOG.statistics(duration.end());
+    }
+    return knns;
+  }
+
+  /**
+   * Scan blocks of queries against tiles of the data.
+   * <p>
+   * The inner kernel computes the dot products of four queries with two data
+   * points at a time, to reuse loaded values and to have independent
+   * accumulators.
+   *
+   * @author Erich Schubert
+   */
+  private class BlockScanner {
+    /**
+     * Dimensionality.
+     */
+    private final int dim;
+
+    /**
+     * Centered data, row-major.
+     */
+    private final double[] data;
+
+    /**
+     * Squared norms of the centered data.
+     */
+    private final double[] norms;
+
+    /**
+     * Conservative bound on the relative rounding error of the expansion.
+     */
+    private final double eps;
+
+    /**
+     * Number of data points in a tile.
+     */
+    private final int tile;
+
+    /**
+     * Heaps of the current queries.
+     */
+    private final KNNHeap[] heaps = new KNNHeap[QUERY_BLOCK];
+
+    /**
+     * Current kNN distances, and their squares.
+     */
+    private final double[] max = new double[QUERY_BLOCK],
+        maxsq = new double[QUERY_BLOCK];
+
+    /**
+     * Iterators for queries and data.
+     */
+    private final DBIDArrayIter qit, dit;
+
+    /**
+     * First query of the current block.
+     */
+    private int qs;
+
+    /**
+     * Constructor.
+     *
+     * @param ids Object ids
+     * @param dim Dimensionality
+     * @param data Centered data
+     * @param norms Squared norms
+     */
+    BlockScanner(ArrayDBIDs ids, int dim, double[] data, double[] norms) {
+      this.dim = dim;
+      this.data = data;
+      this.norms = norms;
+      this.eps = (dim + 4) * 0x1p-51;
+      this.tile = Math.max(16, TILE_SIZE / Math.max(dim, 1)) & ~1;
+      this.qit = ids.iter();
+      this.dit = ids.iter();
+    }
+
+    /**
+     * Process a block of queries.
+     *
+     * @param qs First query
+     * @param qe Query end (exclusive)
+     * @param knns Output storage
+     */
+    void process(int qs, int qe, WritableDataStore<KNNList> knns) {
+      this.qs = qs;
+      for(int i = 0; i < qe - qs; i++) {
+        heaps[i] = DBIDUtil.newHeap(maxk);
+        max[i] = maxsq[i] = Double.POSITIVE_INFINITY;
+      }
+      final int n = norms.length, dim = this.dim;
+      final double[] data = this.data;
+      for(int ds = 0; ds < n; ds += tile) {
+        final int de = Math.min(n, ds + tile);
+        int q = qs;
+        for(; q + 4 <= qe; q += 4) {
+          final int q0 = q * dim, q1 = q0 + dim, q2 = q1 + dim, q3 = q2 + dim;
+          int j = ds;
+          for(; j + 2 <= de; j += 2) {
+            final int j0 = j * dim, j1 = j0 + dim;
+            double d00 = 0., d01 = 0., d10 = 0., d11 = 0.;
+            double d20 = 0., d21 = 0., d30 = 0., d31 = 0.;
+            for(int d = 0; d < dim; d++) {
+              final double y0 = data[j0 + d], y1 = data[j1 + d];
+              final double x0 = data[q0 + d], x1 = data[q1 + d];
+              final double x2 = data[q2 + d], x3 = data[q3 + d];
+              d00 += x0 * y0;
+              d01 += x0 * y1;
+              d10 += x1 * y0;
+              d11 += x1 * y1;
+              d20 += x2 * y0;
+              d21 += x2 * y1;
+              d30 += x3 * y0;
+              d31 += x3 * y1;
+            }
+            candidate(q, j, d00);
+            candidate(q, j + 1, d01);
+            candidate(q + 1, j, d10);
+            candidate(q + 1, j + 1, d11);
+            candidate(q + 2, j, d20);
+            candidate(q + 2, j + 1, d21);
+            candidate(q + 3, j, d30);
+            candidate(q + 3, j + 1, d31);
+          }
+          for(; j < de; j++) {
+            final int j0 = j * dim;
+            double d0 = 0., d1 = 0., d2 = 0., d3 = 0.;
+            for(int d = 0; d < dim; d++) {
+              final double y = data[j0 + d];
+              d0 += data[q0 + d] * y;
+              d1 += data[q1 + d] * y;
+              d2 += data[q2 + d] * y;
+              d3 += data[q3 + d] * y;
+            }
+            candidate(q, j, d0);
+            candidate(q + 1, j, d1);
+            candidate(q + 2, j, d2);
+            candidate(q + 3, j, d3);
+          }
+        }
+        for(; q < qe; q++) {
+          final int q0 = q * dim;
+          for(int j = ds, j0 = ds * dim; j < de; j++, j0 += dim) {
+            double dot = 0.;
+            for(int d = 0; d < dim; d++) {
+              dot += data[q0 + d] * data[j0 + d];
+            }
+            candidate(q, j, dot);
+          }
+        }
+      }
+      for(int q = qs; q < qe; q++) {
+        knns.put(qit.seek(q), heaps[q - qs].toKNNList());
+        heaps[q - qs] = null;
+      }
+    }
+
+    /**
+     * Test a candidate pair, and verify it with the exact distance if it may
+     * enter the heap.
+     *
+     * @param q Query offset
+     * @param j Data offset
+     * @param dot Dot product of the centered vectors
+     */
+    private void candidate(int q, int j, double dot) {
+      final int i = q - qs;
+      final double nsum = norms[q] + norms[j];
+      if(nsum - 2 * dot <= maxsq[i] + eps * nsum) {
+        final double dist = distanceQuery.distance(qit.seek(q), dit.seek(j));
+        if(dist <= max[i]) {
+          final double m = max[i] = heaps[i].insert(dist, dit);
+          maxsq[i] = squared ? m : m * m;
+        }
+      }
+    }
+  }
+}
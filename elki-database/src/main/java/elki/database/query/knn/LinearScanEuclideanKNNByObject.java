@@ -23,6 +23,7 @@ package elki.database.query.knn;
 import elki.data.NumberVector;
 import elki.database.ids.*;
 import elki.database.query.distance.PrimitiveDistanceQuery;
+import elki.database.relation.PackedNumberVectorRelation;
 import elki.database.relation.Relation;
 import elki.distance.minkowski.EuclideanDistance;
 import elki.distance.minkowski.SquaredEuclideanDistance;
@@ -34,6 +35,9 @@ import elki.distance.minkowski.SquaredEuclideanDistance;
  * retrieve the query object from the relation only once, and to first find the
  * nearest neighbors with squared Euclidean distances, then only compute the
  * square root for the results.
+ * <p>
+ * On a {@link PackedNumberVectorRelation}, the distances are computed directly
+ * on the packed array, without materializing the vectors.
  *
  * @author Erich Schubert
  * @since 0.7.0
@@ -57,6 +61,9 @@ public class LinearScanEuclideanKNNByObject<O extends NumberVector> extends Line
 
   @Override
   public KNNList getKNN(O obj, int k) {
+    if(relation instanceof PackedNumberVectorRelation && obj.getDimensionality() == ((PackedNumberVectorRelation<?>) relation).getDimensionality()) {
+      return getKNNPacked((PackedNumberVectorRelation<?>) relation, obj.toArray(), k);
+    }
     final SquaredEuclideanDistance squared = SquaredEuclideanDistance.STATIC;
     final Relation<? extends O> relation = this.relation;
     final KNNHeap heap = DBIDUtil.newHeap(k);
@@ -67,4 +74,22 @@ public class LinearScanEuclideanKNNByObject<O extends NumberVector> extends Line
     }
     return heap.toKNNListSqrt();
   }
+
+  /**
+   * Linear scan directly on the packed data array.
+   *
+   * @param relation Packed relation
+   * @param vec Query vector
+   * @param k Number of neighbors
+   * @return kNN list
+   */
+  private static KNNList getKNNPacked(PackedNumberVectorRelation<?> relation, double[] vec, int k) {
+    final KNNHeap heap = DBIDUtil.newHeap(k);
+    double max = Double.POSITIVE_INFINITY;
+    for(DBIDArrayIter iter = relation.iterDBIDs(); iter.valid(); iter.advance()) {
+      final double dist = relation.squaredEuclidean(vec, iter.getOffset());
+      max = dist <= max ? heap.insert(dist, iter) : max;
+    }
+    return heap.toKNNListSqrt();
+  }
 }
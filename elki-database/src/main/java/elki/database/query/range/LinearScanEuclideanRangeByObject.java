@@ -21,10 +21,12 @@
 package elki.database.query.range;
 
 import elki.data.NumberVector;
+import elki.database.ids.DBIDArrayIter;
 import elki.database.ids.DBIDIter;
 import elki.database.ids.ModifiableDoubleDBIDList;
 import elki.database.query.LinearScanQuery;
 import elki.database.query.distance.DistanceQuery;
+import elki.database.relation.PackedNumberVectorRelation;
 import elki.database.relation.Relation;
 import elki.distance.minkowski.SquaredEuclideanDistance;
 
@@ -62,6 +64,17 @@ public class LinearScanEuclideanRangeByObject<O extends NumberVector> implements
     final SquaredEuclideanDistance squared = SquaredEuclideanDistance.STATIC;
     float frange = Math.nextUp((float) range);
     final double sqrange = frange * frange;
+    if(relation instanceof PackedNumberVectorRelation && obj.getDimensionality() == ((PackedNumberVectorRelation<?>) relation).getDimensionality()) {
+      final PackedNumberVectorRelation<?> packed = (PackedNumberVectorRelation<?>) relation;
+      final double[] vec = obj.toArray();
+      for(DBIDArrayIter iter = packed.iterDBIDs(); iter.valid(); iter.advance()) {
+        final double sqdistance = packed.squaredEuclidean(vec, iter.getOffset());
+        if(sqdistance <= sqrange) {
+          result.add(FastMath.sqrt(sqdistance), iter);
+        }
+      }
+      return result;
+    }
     for(DBIDIter iter = relation.iterDBIDs(); iter.valid(); iter.advance()) {
       final double sqdistance = squared.distance(obj, relation.get(iter));
       if(sqdistance <= sqrange) {
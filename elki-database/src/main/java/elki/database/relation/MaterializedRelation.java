@@ -20,6 +20,8 @@
  */
 package elki.database.relation;
 
+import java.util.List;
+
 import elki.data.type.SimpleTypeInformation;
 import elki.database.datastore.DataStore;
 import elki.database.datastore.DataStoreFactory;
@@ -149,6 +151,55 @@ public class MaterializedRelation<O> implements ModifiableRelation<O> {
     ((WritableDataStore<O>) content).delete(id);
   }
 
+  /**
+   * Insert multiple objects at once. All values are stored first, then the
+   * indexes are notified of the whole batch, so that they can use bulk
+   * operations.
+   *
+   * @param ids IDs to insert
+   * @param vals Values, in the iteration order of the IDs
+   */
+  @Override
+  public void insertAll(DBIDs ids, List<? extends O> vals) {
+    if(!(content instanceof WritableDataStore)) {
+      throw new AbortException("Data is stored in a non-writable data store. Modifications are not possible.");
+    }
+    int i = 0;
+    for(DBIDIter iter = ids.iter(); iter.valid(); iter.advance(), i++) {
+      assert (this.ids.contains(iter)) : "Object not yet in DBIDs.";
+      ((WritableDataStore<O>) content).put(iter, vals.get(i));
+    }
+    for(It<Index> it = Metadata.hierarchyOf(this).iterDescendants().filter(Index.class); it.valid(); it.advance()) {
+      if(!(it.get() instanceof DynamicIndex)) {
+        throw new AbortException("A non-dynamic index was added to this database. Modifications are not allowed, unless this index is removed.");
+      }
+      ((DynamicIndex) it.get()).insertAll(ids);
+    }
+  }
+
+  /**
+   * Delete multiple objects at once. The indexes are notified of the whole
+   * batch first, then the values are removed.
+   *
+   * @param ids IDs to delete
+   */
+  @Override
+  public void deleteAll(DBIDs ids) {
+    if(!(content instanceof WritableDataStore)) {
+      throw new AbortException("Data is stored in a non-writable data store. Modifications are not possible.");
+    }
+    for(It<Index> it = Metadata.hierarchyOf(this).iterDescendants().filter(Index.class); it.valid(); it.advance()) {
+      if(!(it.get() instanceof DynamicIndex)) {
+        throw new AbortException("A non-dynamic index was added to this database. Modifications are not allowed, unless this index is removed.");
+      }
+      ((DynamicIndex) it.get()).deleteAll(ids);
+    }
+    for(DBIDIter iter = ids.iter(); iter.valid(); iter.advance()) {
+      assert (!this.ids.contains(iter)) : "Object still in DBIDs.";
+      ((WritableDataStore<O>) content).delete(iter);
+    }
+  }
+
   @Override
   public StaticDBIDs getDBIDs() {
     return ids;
@@ -0,0 +1,154 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2019
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package elki.database.relation;
+
+import java.util.Arrays;
+
+import elki.data.FloatVector;
+import elki.data.type.SimpleTypeInformation;
+import elki.database.ids.DBIDArrayIter;
+import elki.database.ids.DBIDRange;
+import elki.database.ids.DBIDRef;
+
+/**
+ * Relation storing float vectors of a fixed dimensionality in a single
+ * row-major array, instead of one object per vector.
+ * <p>
+ * This reduces the memory overhead of object headers and references, and
+ * improves cache locality of linear scans. Vectors returned by {@link #get}
+ * are temporary copies.
+ *
+ * @author Erich Schubert
+ * @since 0.8.0
+ */
+public class PackedFloatVectorRelation implements PackedNumberVectorRelation<FloatVector> {
+  /**
+   * Type information.
+   */
+  private final SimpleTypeInformation<FloatVector> type;
+
+  /**
+   * DBIDs of the objects.
+   */
+  private final DBIDRange ids;
+
+  /**
+   * Dimensionality.
+   */
+  private final int dim;
+
+  /**
+   * Data, row-major.
+   */
+  private final float[] data;
+
+  /**
+   * The relation name.
+   */
+  private String name;
+
+  /**
+   * Constructor.
+   *
+   * @param name Relation name
+   * @param type Type information
+   * @param ids DBIDs
+   * @param dim Dimensionality
+   * @param data Data, row-major with ids.size() * dim values
+   */
+  public PackedFloatVectorRelation(String name, SimpleTypeInformation<FloatVector> type, DBIDRange ids, int dim, float[] data) {
+    super();
+    assert (data.length == ids.size() * (long) dim);
+    this.type = type;
+    this.ids = ids;
+    this.dim = dim;
+    this.data = data;
+    this.name = name;
+  }
+
+  @Override
+  public FloatVector get(DBIDRef id) {
+    final int off = ids.getOffset(id) * dim;
+    return FloatVector.wrap(Arrays.copyOfRange(data, off, off + dim));
+  }
+
+  @Override
+  public SimpleTypeInformation<FloatVector> getDataTypeInformation() {
+    return type;
+  }
+
+  @Override
+  public DBIDRange getDBIDs() {
+    return ids;
+  }
+
+  @Override
+  public DBIDArrayIter iterDBIDs() {
+    return ids.iter();
+  }
+
+  @Override
+  public int size() {
+    return ids.size();
+  }
+
+  @Override
+  public String getLongName() {
+    return name != null ? name : type.toString();
+  }
+
+  @Override
+  public int getDimensionality() {
+    return dim;
+  }
+
+  @Override
+  public int getOffset(DBIDRef id) {
+    return ids.getOffset(id);
+  }
+
+  @Override
+  public double doubleValue(int row, int d) {
+    return data[row * dim + d];
+  }
+
+  @Override
+  public double squaredEuclidean(int row1, int row2) {
+    final float[] data = this.data;
+    double agg = 0.;
+    for(int i = row1 * dim, j = row2 * dim, end = i + dim; i < end; i++, j++) {
+      final double delta = data[i] - data[j];
+      agg += delta * delta;
+    }
+    return agg;
+  }
+
+  @Override
+  public double squaredEuclidean(double[] vec, int row) {
+    final float[] data = this.data;
+    double agg = 0.;
+    for(int d = 0, j = row * dim; d < dim; d++, j++) {
+      final double delta = vec[d] - data[j];
+      agg += delta * delta;
+    }
+    return agg;
+  }
+}
@@ -0,0 +1,107 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2019
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package elki.database.query.knn;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import elki.data.DoubleVector;
+import elki.data.type.TypeUtil;
+import elki.database.Database;
+import elki.database.StaticArrayDatabase;
+import elki.database.ids.DBIDIter;
+import elki.database.ids.DBIDRef;
+import elki.database.ids.DBIDUtil;
+import elki.database.ids.DoubleDBIDListIter;
+import elki.database.ids.KNNList;
+import elki.database.query.distance.PrimitiveDistanceQuery;
+import elki.database.relation.Relation;
+import elki.datasource.ArrayAdapterDatabaseConnection;
+import elki.distance.minkowski.EuclideanDistance;
+import elki.distance.minkowski.SquaredEuclideanDistance;
+
+/**
+ * Unit test for the batched all-kNN linear scan.
+ *
+ * @author Erich Schubert
+ * @since 0.8.0
+ */
+public class LinearScanEuclideanBatchKNNByDBIDTest {
+  @Test
+  public void testEuclidean() {
+    Relation<DoubleVector> rel = makeData();
+    PrimitiveDistanceQuery<DoubleVector> dq = (PrimitiveDistanceQuery<DoubleVector>) EuclideanDistance.STATIC.instantiate(rel);
+    compare(rel, new LinearScanEuclideanBatchKNNByDBID<>(dq, 12), new LinearScanKNNByDBID<>(dq));
+  }
+
+  @Test
+  public void testSquaredEuclidean() {
+    Relation<DoubleVector> rel = makeData();
+    PrimitiveDistanceQuery<DoubleVector> dq = (PrimitiveDistanceQuery<DoubleVector>) SquaredEuclideanDistance.STATIC.instantiate(rel);
+    compare(rel, new LinearScanEuclideanBatchKNNByDBID<>(dq, 12), new LinearScanKNNByDBID<>(dq));
+  }
+
+  /**
+   * Generate data far from the origin, with duplicates.
+   *
+   * @return Relation
+   */
+  private static Relation<DoubleVector> makeData() {
+    Random rnd = new Random(0L);
+    double[][] data = new double[700][30];
+    for(int i = 0; i < data.length; i++) {
+      if(i % 10 == 9) {
+        data[i] = data[i - 1].clone();
+        continue;
+      }
+      for(int d = 0; d < data[i].length; d++) {
+        data[i][d] = 1e4 + rnd.nextDouble();
+      }
+    }
+    Database db = new StaticArrayDatabase(new ArrayAdapterDatabaseConnection(data));
+    db.initialize();
+    return db.getRelation(TypeUtil.DOUBLE_VECTOR_FIELD);
+  }
+
+  /**
+   * Compare against a regular linear scan.
+   *
+   * @param rel Relation
+   * @param batch Batch searcher
+   * @param ref Reference searcher
+   */
+  private static void compare(Relation<DoubleVector> rel, KNNSearcher<DBIDRef> batch, KNNSearcher<DBIDRef> ref) {
+    for(DBIDIter it = rel.iterDBIDs(); it.valid(); it.advance()) {
+      for(int k : new int[] { 1, 5, 12 }) {
+        KNNList l1 = batch.getKNN(it, k), l2 = ref.getKNN(it, k);
+        assertEquals("kNN size differs.", l2.size(), l1.size());
+        for(DoubleDBIDListIter i1 = l1.iter(), i2 = l2.iter(); i1.valid(); i1.advance(), i2.advance()) {
+          assertEquals("kNN distance differs.", i2.doubleValue(), i1.doubleValue(), 0.);
+        }
+        assertTrue("kNN sets differ.", DBIDUtil.intersectionSize(l1, l2) == l1.size());
+      }
+    }
+  }
+}
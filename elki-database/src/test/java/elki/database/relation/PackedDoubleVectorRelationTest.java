@@ -0,0 +1,93 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2019
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package elki.database.relation;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import elki.data.DoubleVector;
+import elki.data.NumberVector;
+import elki.data.type.TypeUtil;
+import elki.database.Database;
+import elki.database.StaticArrayDatabase;
+import elki.database.ids.DBIDArrayIter;
+import elki.database.ids.DBIDRef;
+import elki.database.ids.KNNList;
+import elki.database.query.QueryBuilder;
+import elki.database.query.distance.DistanceQuery;
+import elki.database.query.knn.KNNSearcher;
+import elki.datasource.ArrayAdapterDatabaseConnection;
+import elki.distance.minkowski.EuclideanDistance;
+import elki.distance.minkowski.LPNormDistance;
+import elki.distance.minkowski.SquaredEuclideanDistance;
+
+/**
+ * Unit test for the packed vector relation.
+ *
+ * @author Erich Schubert
+ * @since 0.8.0
+ */
+public class PackedDoubleVectorRelationTest {
+  @Test
+  public void testPacked() {
+    Random rnd = new Random(0L);
+    double[][] data = new double[500][5];
+    for(double[] row : data) {
+      for(int d = 0; d < row.length; d++) {
+        row[d] = rnd.nextDouble();
+      }
+    }
+    Database plain = new StaticArrayDatabase(new ArrayAdapterDatabaseConnection(data));
+    plain.initialize();
+    Relation<DoubleVector> prel = plain.getRelation(TypeUtil.DOUBLE_VECTOR_FIELD);
+    assertFalse("Relation packed by default.", prel instanceof PackedDoubleVectorRelation);
+    Database db = new StaticArrayDatabase(new ArrayAdapterDatabaseConnection(data), null, true);
+    db.initialize();
+    Relation<DoubleVector> rel = db.getRelation(TypeUtil.DOUBLE_VECTOR_FIELD);
+    assertTrue("Relation was not packed.", rel instanceof PackedDoubleVectorRelation);
+    PackedDoubleVectorRelation packed = (PackedDoubleVectorRelation) rel;
+    assertEquals("Dimensionality", 5, packed.getDimensionality());
+
+    DistanceQuery<DoubleVector> dq = new QueryBuilder<>(rel, SquaredEuclideanDistance.STATIC).distanceQuery();
+    DBIDArrayIter it = packed.iterDBIDs(), it2 = packed.iterDBIDs();
+    for(; it.valid(); it.advance()) {
+      NumberVector v = rel.get(it);
+      for(int d = 0; d < 5; d++) {
+        assertEquals("Value differs.", data[it.getOffset()][d], v.doubleValue(d), 0.);
+      }
+      it2.seek((it.getOffset() * 7) % data.length);
+      assertEquals("Distance differs.", SquaredEuclideanDistance.STATIC.distance(v, rel.get(it2)), dq.distance(it, it2), 1e-15);
+    }
+
+    KNNSearcher<DoubleVector> knnq = new QueryBuilder<>(rel, EuclideanDistance.STATIC).linearOnly().kNNByObject(10);
+    // Reference: generic linear scan, not using the packed fast path
+    KNNSearcher<DBIDRef> ref = new QueryBuilder<>(rel, new LPNormDistance(2.)).linearOnly().kNNByDBID(10);
+    for(it.seek(0); it.valid(); it.advance()) {
+      KNNList l1 = knnq.getKNN(rel.get(it), 10), l2 = ref.getKNN(it, 10);
+      assertEquals("kNN distance differs.", l2.getKNNDistance(), l1.getKNNDistance(), 1e-12);
+    }
+  }
+}
@@ -21,6 +21,8 @@
 package elki.index.distancematrix;
 
 import java.lang.ref.WeakReference;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 
 import elki.data.type.TypeInformation;
 import elki.database.ids.*;
@@ -36,12 +38,17 @@ import elki.logging.Logging;
 import elki.logging.progress.FiniteProgress;
 import elki.logging.statistics.Duration;
 import elki.logging.statistics.LongStatistic;
+import elki.parallel.Executor;
+import elki.parallel.ParallelExecutor;
+import elki.parallel.processor.Processor;
 import elki.utilities.datastructures.QuickSelect;
 import elki.utilities.datastructures.arrays.DoubleIntegerArrayQuickSort;
 import elki.utilities.exceptions.AbortException;
 import elki.utilities.optionhandling.OptionID;
 import elki.utilities.optionhandling.Parameterizer;
 import elki.utilities.optionhandling.parameterization.Parameterization;
+import elki.utilities.optionhandling.parameters.FileParameter;
+import elki.utilities.optionhandling.parameters.Flag;
 import elki.utilities.optionhandling.parameters.ObjectParameter;
 
 /**
@@ -49,10 +56,13 @@ import elki.utilities.optionhandling.parameters.ObjectParameter;
  * <p>
  * This class uses a linear memory layout (not a ragged array), and assumes
  * symmetry as well as strictness. This way, it only stores the upper triangle
- * matrix with double precision. It has to store (n-1) * (n-2) distance values
- * in memory, requiring 8 * (n-1) * (n-2) bytes. Since Java has a size limit of
- * arrays of 31 bits (signed integer), we can store at most \(2^16\) objects
- * (precisely, 65536 objects) in a single array, which needs about 16 GB of RAM.
+ * matrix. It has to store (n-1) * (n-2) / 2 distance values, requiring
+ * 4 * (n-1) * (n-2) bytes with double precision, or half of that with single
+ * precision. Because Java arrays are limited to 31 bits, the values are stored
+ * in chunks (see {@link TriangleStorage}), either on the heap or in a
+ * memory-mapped file, so the matrix can be larger than 65536 objects.
+ * <p>
+ * The matrix is computed in parallel, one row per task.
  *
  * @author Erich Schubert
  * @since 0.7.0
@@ -60,6 +70,7 @@ import elki.utilities.optionhandling.parameters.ObjectParameter;
  * @has - - - PrecomputedDistanceQuery
  * @has - - - PrecomputedKNNQuery
  * @has - - - PrecomputedRangeQuery
+ * @composed - - - TriangleStorage
  *
  * @param <O> Object type
  */
@@ -82,7 +93,17 @@ public class PrecomputedDistanceMatrix<O> implements DistanceIndex<O>, RangeInde
   /**
    * Distance matrix.
    */
-  private double[] matrix = null;
+  private TriangleStorage matrix = null;
+
+  /**
+   * Use single precision only.
+   */
+  private boolean single;
+
+  /**
+   * File to memory-map, may be {@code null}.
+   */
+  private Path file;
 
   /**
    * DBID range.
@@ -97,10 +118,25 @@ public class PrecomputedDistanceMatrix<O> implements DistanceIndex<O>, RangeInde
    * @param distance Distance function
    */
   public PrecomputedDistanceMatrix(Relation<O> relation, DBIDRange range, Distance<? super O> distance) {
+    this(relation, range, distance, false, null);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param relation Data relation
+   * @param range DBID range
+   * @param distance Distance function
+   * @param single Use single precision only
+   * @param file File to memory-map, may be {@code null} for heap storage
+   */
+  public PrecomputedDistanceMatrix(Relation<O> relation, DBIDRange range, Distance<? super O> distance, boolean single, Path file) {
     super();
     this.refrelation = new WeakReference<>(relation);
     this.ids = range;
     this.distance = distance;
+    this.single = single;
+    this.file = file;
 
     if(!distance.isSymmetric()) {
       throw new AbortException("Distance matrixes currently only support symmetric distance functions (Patches welcome).");
@@ -109,28 +145,11 @@ public class PrecomputedDistanceMatrix<O> implements DistanceIndex<O>, RangeInde
 
   @Override
   public void initialize() {
-    if(ids.size() > 65536) {
-      throw new AbortException("Distance matrixes currently have a limit of 65536 objects (~16 GB). After this, the array size exceeds the Java integer range, and a different data structure needs to be used.");
-    }
-    DistanceQuery<O> distanceQuery = distance.instantiate(refrelation.get());
-
-    final int msize = triangleSize(ids.size());
-    matrix = new double[msize];
-    DBIDArrayIter ix = ids.iter(), iy = ids.iter();
+    matrix = TriangleStorage.make(triangleSize(ids.size()), single, file);
 
     Duration timer = LOG.newDuration(getClass().getName() + ".precomputation-time").begin();
-    FiniteProgress prog = LOG.isVerbose() ? new FiniteProgress("Precomputing distance matrix", msize, LOG) : null;
-    int pos = 0;
-    for(ix.seek(0); ix.valid(); ix.advance()) {
-      // y < x -- must match {@link #getOffset}!
-      for(iy.seek(0); iy.getOffset() < ix.getOffset(); iy.advance()) {
-        matrix[pos] = distanceQuery.distance(ix, iy);
-        pos++;
-      }
-      if(prog != null) {
-        prog.setProcessed(prog.getProcessed() + ix.getOffset(), LOG);
-      }
-    }
+    FiniteProgress prog = LOG.isVerbose() ? new FiniteProgress("Precomputing distance matrix", ids.size(), LOG) : null;
+    ParallelExecutor.run(ids, prog, LOG, new RowProcessor());
     LOG.ensureCompleted(prog);
     LOG.statistics(timer.end());
   }
@@ -141,8 +160,8 @@ public class PrecomputedDistanceMatrix<O> implements DistanceIndex<O>, RangeInde
    * @param x Offset
    * @return Size of complete triangle
    */
-  protected static int triangleSize(int x) {
-    return (x * (x - 1)) >>> 1;
+  protected static long triangleSize(int x) {
+    return (x * (long) (x - 1)) >>> 1;
   }
 
   /**
@@ -152,14 +171,15 @@ public class PrecomputedDistanceMatrix<O> implements DistanceIndex<O>, RangeInde
    * @param y Y parameter
    * @return Array offset
    */
-  private int getOffset(int x, int y) {
+  private long getOffset(int x, int y) {
     return (y < x) ? (triangleSize(x) + y) : (triangleSize(y) + x);
   }
 
   @Override
   public void logStatistics() {
     if(matrix != null) {
-      LOG.statistics(new LongStatistic(this.getClass().getName() + ".matrix-size", matrix.length));
+      LOG.statistics(new LongStatistic(this.getClass().getName() + ".matrix-size", matrix.size()));
+      LOG.statistics(new LongStatistic(this.getClass().getName() + ".matrix-bytes", matrix.byteSize()));
     }
   }
 
@@ -198,6 +218,61 @@ public class PrecomputedDistanceMatrix<O> implements DistanceIndex<O>, RangeInde
     return this.distance.equals(distanceQuery.getDistance()) ? new PrecomputedDistancePrioritySearcher() : null;
   }
 
+  /**
+   * Processor to compute one row (the distances to all objects with a smaller
+   * offset) of the matrix.
+   *
+   * @author Erich Schubert
+   */
+  private class RowProcessor implements Processor {
+    @Override
+    public Instance instantiate(Executor executor) {
+      return new Instance(distance.instantiate(refrelation.get()));
+    }
+
+    @Override
+    public void cleanup(Processor.Instance inst) {
+      // Nothing to do.
+    }
+
+    /**
+     * Instance for a single thread.
+     *
+     * @author Erich Schubert
+     */
+    private class Instance implements Processor.Instance {
+      /**
+       * Distance query.
+       */
+      private DistanceQuery<O> distanceQuery;
+
+      /**
+       * Iterator for the other objects.
+       */
+      private DBIDArrayIter iy = ids.iter();
+
+      /**
+       * Constructor.
+       *
+       * @param distanceQuery Distance query
+       */
+      protected Instance(DistanceQuery<O> distanceQuery) {
+        super();
+        this.distanceQuery = distanceQuery;
+      }
+
+      @Override
+      public void map(DBIDRef id) {
+        final int x = ids.getOffset(id);
+        // y < x -- must match {@link #getOffset}!
+        long pos = triangleSize(x);
+        for(iy.seek(0); iy.getOffset() < x; iy.advance(), pos++) {
+          matrix.set(pos, distanceQuery.distance(id, iy));
+        }
+      }
+    }
+  }
+
   /**
    * Distance query using the precomputed matrix.
    *
@@ -207,7 +282,7 @@ public class PrecomputedDistanceMatrix<O> implements DistanceIndex<O>, RangeInde
     @Override
     public double distance(DBIDRef id1, DBIDRef id2) {
       final int x = ids.getOffset(id1), y = ids.getOffset(id2);
-      return (x != y) ? matrix[getOffset(x, y)] : 0.;
+      return (x != y) ? matrix.get(getOffset(x, y)) : 0.;
     }
 
     @Override
@@ -237,9 +312,9 @@ public class PrecomputedDistanceMatrix<O> implements DistanceIndex<O>, RangeInde
       result.add(0., id);
       final int x = ids.getOffset(id);
       // Case y < x: triangleSize(x) + y
-      int pos = triangleSize(x);
+      long pos = triangleSize(x);
       for(int y = 0; y < x; y++, pos++) {
-        final double dist = matrix[pos];
+        final double dist = matrix.get(pos);
         if(dist <= range) {
           result.add(dist, it.seek(y));
         }
@@ -248,7 +323,7 @@ public class PrecomputedDistanceMatrix<O> implements DistanceIndex<O>, RangeInde
       // Case y > x: triangleSize(y) + x
       pos = triangleSize(x + 1) + x;
       for(int y = x + 1, size = ids.size(); y < size; pos += y++) {
-        final double dist = matrix[pos];
+        final double dist = matrix.get(pos);
         if(dist <= range) {
           result.add(dist, it.seek(y));
         }
@@ -275,16 +350,16 @@ public class PrecomputedDistanceMatrix<O> implements DistanceIndex<O>, RangeInde
       double max = Double.POSITIVE_INFINITY;
       final int x = ids.getOffset(id);
       // Case y < x: triangleSize(x) + y
-      int pos = triangleSize(x);
+      long pos = triangleSize(x);
       for(int y = 0; y < x; y++, pos++) {
-        final double dist = matrix[pos];
+        final double dist = matrix.get(pos);
         max = dist <= max ? heap.insert(dist, it.seek(y)) : max;
       }
       assert (pos == triangleSize(x + 1));
       // Case y > x: triangleSize(y) + x
       pos = triangleSize(x + 1) + x;
       for(int y = x + 1, size = ids.size(); y < size; pos += y++) {
-        final double dist = matrix[pos];
+        final double dist = matrix.get(pos);
         max = dist <= max ? heap.insert(dist, it.seek(y)) : max;
       }
       return heap.toKNNList();
@@ -337,7 +412,7 @@ public class PrecomputedDistanceMatrix<O> implements DistanceIndex<O>, RangeInde
       off = 0;
       threshold = Double.POSITIVE_INFINITY;
       int x = ids.getOffset(query);
-      int pos = triangleSize(x);
+      long pos = triangleSize(x);
       // Initialize ids:
       idx[0] = x;
       for(int y = 0; y < x; y++) {
@@ -348,10 +423,12 @@ public class PrecomputedDistanceMatrix<O> implements DistanceIndex<O>, RangeInde
       }
       // Initialize distances:
       dists[0] = 0;
-      System.arraycopy(matrix, pos, dists, 1, x);
+      for(int y = 0; y < x; y++, pos++) {
+        dists[y + 1] = matrix.get(pos);
+      }
       pos = triangleSize(x + 1) + x;
       for(int y = x + 1, size = dists.length; y < size; pos += y++) {
-        dists[y] = matrix[pos];
+        dists[y] = matrix.get(pos);
       }
       sorted = 1;
       return this;
@@ -471,14 +548,37 @@ public class PrecomputedDistanceMatrix<O> implements DistanceIndex<O>, RangeInde
      */
     protected final Distance<? super O> distance;
 
+    /**
+     * Use single precision only.
+     */
+    protected final boolean single;
+
+    /**
+     * File to memory-map, may be {@code null}.
+     */
+    protected final Path file;
+
     /**
      * Constructor.
      *
      * @param distance Distance function
      */
     public Factory(Distance<? super O> distance) {
+      this(distance, false, null);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param distance Distance function
+     * @param single Use single precision only
+     * @param file File to memory-map, may be {@code null} for heap storage
+     */
+    public Factory(Distance<? super O> distance, boolean single, Path file) {
       super();
       this.distance = distance;
+      this.single = single;
+      this.file = file;
     }
 
     @Override
@@ -487,7 +587,7 @@ public class PrecomputedDistanceMatrix<O> implements DistanceIndex<O>, RangeInde
       if(!(rids instanceof DBIDRange)) {
         throw new AbortException("Distance matrixes are currently only supported for DBID ranges (as used by static databases; not on modifiable databases) for performance reasons (Patches welcome).");
       }
-      return new PrecomputedDistanceMatrix<>(relation, (DBIDRange) rids, distance);
+      return new PrecomputedDistanceMatrix<>(relation, (DBIDRange) rids, distance, single, file);
     }
 
     @Override
@@ -510,20 +610,44 @@ public class PrecomputedDistanceMatrix<O> implements DistanceIndex<O>, RangeInde
        */
       public static final OptionID DISTANCE_ID = new OptionID("matrix.distance", "Distance function for the precomputed distance matrix.");
 
+      /**
+       * Flag to store single precision values only.
+       */
+      public static final OptionID FLOAT_ID = new OptionID("matrix.float", "Store distances with single precision only, to halve the memory requirements.");
+
+      /**
+       * Option for the file to memory-map.
+       */
+      public static final OptionID FILE_ID = new OptionID("matrix.file", "File to store the distance matrix in (memory-mapped), instead of the Java heap.");
+
       /**
        * Nested distance function.
        */
       protected Distance<? super O> distanceFunction;
 
+      /**
+       * Use single precision only.
+       */
+      protected boolean single = false;
+
+      /**
+       * File to memory-map.
+       */
+      protected Path file = null;
+
       @Override
       public void configure(Parameterization config) {
         new ObjectParameter<Distance<? super O>>(DISTANCE_ID, Distance.class) //
             .grab(config, x -> distanceFunction = x);
+        new Flag(FLOAT_ID).grab(config, x -> single = x);
+        new FileParameter(FILE_ID, FileParameter.FileType.OUTPUT_FILE) //
+            .setOptional(true) //
+            .grab(config, x -> file = Paths.get(x));
       }
 
       @Override
       public Factory<O> make() {
-        return new Factory<>(distanceFunction);
+        return new Factory<>(distanceFunction, single, file);
       }
     }
   }
@@ -0,0 +1,382 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2019
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package elki.index.distancematrix;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+
+import elki.utilities.exceptions.AbortException;
+
+/**
+ * Storage for the (strict) triangle of a distance matrix, addressed with long
+ * offsets.
+ * <p>
+ * Java arrays are limited to 2^31 entries, so the values are split into chunks
+ * of {@link #CHUNK_SIZE} values each. This allows storing distance matrixes of
+ * more than 65536 objects, either on the heap or in a memory-mapped file, and
+ * optionally with single precision only.
+ *
+ * @author Erich Schubert
+ * @since 0.8.0
+ */
+public interface TriangleStorage {
+  /**
+   * Number of bits used for addressing within a chunk.
+   */
+  int CHUNK_BITS = 27;
+
+  /**
+   * Number of values per chunk.
+   */
+  int CHUNK_SIZE = 1 << CHUNK_BITS;
+
+  /**
+   * Mask to get the position within a chunk.
+   */
+  long CHUNK_MASK = CHUNK_SIZE - 1;
+
+  /**
+   * Get the value at the given position.
+   *
+   * @param pos Position
+   * @return Value
+   */
+  double get(long pos);
+
+  /**
+   * Set the value at the given position.
+   * <p>
+   * Different positions may be written concurrently by different threads.
+   *
+   * @param pos Position
+   * @param val Value
+   */
+  void set(long pos, double val);
+
+  /**
+   * Set a contiguous range of values.
+   * <p>
+   * Different ranges may be written concurrently by different threads.
+   *
+   * @param pos First position
+   * @param buf Values
+   * @param len Number of values
+   */
+  default void setRange(long pos, double[] buf, int len) {
+    for(int i = 0; i < len; i++) {
+      set(pos + i, buf[i]);
+    }
+  }
+
+  /**
+   * Number of values stored.
+   *
+   * @return Size
+   */
+  long size();
+
+  /**
+   * Number of bytes used.
+   *
+   * @return Memory size in bytes
+   */
+  long byteSize();
+
+  /**
+   * Allocate a new storage.
+   *
+   * @param size Number of values to store
+   * @param single Use single precision (float) only
+   * @param file File to memory-map, may be {@code null} for heap storage
+   * @return Storage
+   */
+  static TriangleStorage make(long size, boolean single, Path file) {
+    if(file == null) {
+      return single ? new FloatChunks(size) : new DoubleChunks(size);
+    }
+    return single ? new MappedFloat(size, file) : new MappedDouble(size, file);
+  }
+
+  /**
+   * Number of chunks needed for the given size.
+   *
+   * @param size Size
+   * @return Number of chunks
+   */
+  static int numChunks(long size) {
+    return (int) ((size + CHUNK_MASK) >>> CHUNK_BITS);
+  }
+
+  /**
+   * Size of the i-th chunk.
+   *
+   * @param size Total size
+   * @param i Chunk number
+   * @return Size of the chunk
+   */
+  static int chunkSize(long size, int i) {
+    return (int) Math.min(CHUNK_SIZE, size - (((long) i) << CHUNK_BITS));
+  }
+
+  /**
+   * Map a file into memory in chunks.
+   *
+   * @param file File name
+   * @param size Number of values
+   * @param bytes Number of bytes per value
+   * @return Memory-mapped buffers
+   */
+  static MappedByteBuffer[] map(Path file, long size, int bytes) {
+    MappedByteBuffer[] buffers = new MappedByteBuffer[numChunks(size)];
+    try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+      raf.setLength(size * bytes);
+      FileChannel channel = raf.getChannel();
+      for(int i = 0; i < buffers.length; i++) {
+        buffers[i] = channel.map(FileChannel.MapMode.READ_WRITE, (((long) i) << CHUNK_BITS) * bytes, chunkSize(size, i) * (long) bytes);
+        buffers[i].order(ByteOrder.nativeOrder());
+      }
+    }
+    catch(IOException e) {
+      throw new AbortException("Could not map distance matrix file " + file + ": " + e.getMessage(), e);
+    }
+    return buffers;
+  }
+
+  /**
+   * Double precision storage on the heap.
+   *
+   * @author Erich Schubert
+   */
+  class DoubleChunks implements TriangleStorage {
+    /**
+     * Data chunks.
+     */
+    private final double[][] chunks;
+
+    /**
+     * Total size.
+     */
+    private final long size;
+
+    /**
+     * Constructor.
+     *
+     * @param size Number of values
+     */
+    public DoubleChunks(long size) {
+      this.size = size;
+      this.chunks = new double[numChunks(size)][];
+      for(int i = 0; i < chunks.length; i++) {
+        chunks[i] = new double[chunkSize(size, i)];
+      }
+    }
+
+    @Override
+    public double get(long pos) {
+      return chunks[(int) (pos >>> CHUNK_BITS)][(int) (pos & CHUNK_MASK)];
+    }
+
+    @Override
+    public void set(long pos, double val) {
+      chunks[(int) (pos >>> CHUNK_BITS)][(int) (pos & CHUNK_MASK)] = val;
+    }
+
+    @Override
+    public void setRange(long pos, double[] buf, int len) {
+      for(int i = 0; i < len;) {
+        final long p = pos + i;
+        final int off = (int) (p & CHUNK_MASK), n = Math.min(len - i, CHUNK_SIZE - off);
+        System.arraycopy(buf, i, chunks[(int) (p >>> CHUNK_BITS)], off, n);
+        i += n;
+      }
+    }
+
+    @Override
+    public long size() {
+      return size;
+    }
+
+    @Override
+    public long byteSize() {
+      return size << 3;
+    }
+  }
+
+  /**
+   * Single precision storage on the heap.
+   *
+   * @author Erich Schubert
+   */
+  class FloatChunks implements TriangleStorage {
+    /**
+     * Data chunks.
+     */
+    private final float[][] chunks;
+
+    /**
+     * Total size.
+     */
+    private final long size;
+
+    /**
+     * Constructor.
+     *
+     * @param size Number of values
+     */
+    public FloatChunks(long size) {
+      this.size = size;
+      this.chunks = new float[numChunks(size)][];
+      for(int i = 0; i < chunks.length; i++) {
+        chunks[i] = new float[chunkSize(size, i)];
+      }
+    }
+
+    @Override
+    public double get(long pos) {
+      return chunks[(int) (pos >>> CHUNK_BITS)][(int) (pos & CHUNK_MASK)];
+    }
+
+    @Override
+    public void set(long pos, double val) {
+      chunks[(int) (pos >>> CHUNK_BITS)][(int) (pos & CHUNK_MASK)] = (float) val;
+    }
+
+    @Override
+    public long size() {
+      return size;
+    }
+
+    @Override
+    public long byteSize() {
+      return size << 2;
+    }
+  }
+
+  /**
+   * Double precision storage in a memory-mapped file.
+   *
+   * @author Erich Schubert
+   */
+  class MappedDouble implements TriangleStorage {
+    /**
+     * Data chunks.
+     */
+    private final DoubleBuffer[] chunks;
+
+    /**
+     * Total size.
+     */
+    private final long size;
+
+    /**
+     * Constructor.
+     *
+     * @param size Number of values
+     * @param file File to map
+     */
+    public MappedDouble(long size, Path file) {
+      this.size = size;
+      MappedByteBuffer[] buffers = map(file, size, Double.BYTES);
+      this.chunks = new DoubleBuffer[buffers.length];
+      for(int i = 0; i < chunks.length; i++) {
+        chunks[i] = buffers[i].asDoubleBuffer();
+      }
+    }
+
+    @Override
+    public double get(long pos) {
+      return chunks[(int) (pos >>> CHUNK_BITS)].get((int) (pos & CHUNK_MASK));
+    }
+
+    @Override
+    public void set(long pos, double val) {
+      chunks[(int) (pos >>> CHUNK_BITS)].put((int) (pos & CHUNK_MASK), val);
+    }
+
+    @Override
+    public long size() {
+      return size;
+    }
+
+    @Override
+    public long byteSize() {
+      return size << 3;
+    }
+  }
+
+  /**
+   * Single precision storage in a memory-mapped file.
+   *
+   * @author Erich Schubert
+   */
+  class MappedFloat implements TriangleStorage {
+    /**
+     * Data chunks.
+     */
+    private final FloatBuffer[] chunks;
+
+    /**
+     * Total size.
+     */
+    private final long size;
+
+    /**
+     * Constructor.
+     *
+     * @param size Number of values
+     * @param file File to map
+     */
+    public MappedFloat(long size, Path file) {
+      this.size = size;
+      MappedByteBuffer[] buffers = map(file, size, Float.BYTES);
+      this.chunks = new FloatBuffer[buffers.length];
+      for(int i = 0; i < chunks.length; i++) {
+        chunks[i] = buffers[i].asFloatBuffer();
+      }
+    }
+
+    @Override
+    public double get(long pos) {
+      return chunks[(int) (pos >>> CHUNK_BITS)].get((int) (pos & CHUNK_MASK));
+    }
+
+    @Override
+    public void set(long pos, double val) {
+      chunks[(int) (pos >>> CHUNK_BITS)].put((int) (pos & CHUNK_MASK), (float) val);
+    }
+
+    @Override
+    public long size() {
+      return size;
+    }
+
+    @Override
+    public long byteSize() {
+      return size << 2;
+    }
+  }
+}
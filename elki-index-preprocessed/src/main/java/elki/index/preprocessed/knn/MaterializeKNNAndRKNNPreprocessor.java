@@ -20,18 +20,20 @@
  */
 package elki.index.preprocessed.knn;
 
+import java.nio.file.Path;
+
 import elki.database.datastore.DataStoreFactory;
 import elki.database.datastore.DataStoreUtil;
 import elki.database.datastore.WritableDataStore;
 import elki.database.ids.*;
 import elki.database.query.distance.DistanceQuery;
+import elki.database.query.knn.KNNSearcher;
 import elki.database.query.rknn.PreprocessorRKNNQuery;
 import elki.database.query.rknn.RKNNSearcher;
 import elki.database.relation.Relation;
 import elki.distance.Distance;
 import elki.index.RKNNIndex;
 import elki.logging.Logging;
-import elki.logging.progress.FiniteProgress;
 import elki.logging.progress.StepProgress;
 import elki.utilities.documentation.Description;
 import elki.utilities.documentation.Title;
@@ -73,42 +75,48 @@ public class MaterializeKNNAndRKNNPreprocessor<O> extends MaterializeKNNPreproce
    * @param k query k
    */
   public MaterializeKNNAndRKNNPreprocessor(Relation<O> relation, Distance<? super O> distance, int k) {
-    super(relation, distance, k);
+    this(relation, distance, k, false, null);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param relation Relation to process
+   * @param distance the distance function to use
+   * @param k query k
+   * @param parallel Use multiple threads
+   * @param file File to load and store the kNN lists, may be {@code null}
+   */
+  public MaterializeKNNAndRKNNPreprocessor(Relation<O> relation, Distance<? super O> distance, int k, boolean parallel, Path file) {
+    super(relation, distance, k, parallel, file);
   }
 
   @Override
   protected void preprocess() {
-    createStorage();
+    // Compute (or load) the kNN, then invert them.
+    super.preprocess();
     storageRkNN = DataStoreUtil.makeStorage(relation.getDBIDs(), DataStoreFactory.HINT_HOT, ModifiableDoubleDBIDList.class);
-    FiniteProgress progress = LOG.isVerbose() ? new FiniteProgress("Materializing k nearest neighbors and reverse k nearest neighbors (k=" + k + ")", relation.size(), getLogger()) : null;
-    materializeKNNAndRKNNs(DBIDUtil.ensureArray(relation.getDBIDs()), progress);
+    materializeRKNNs(DBIDUtil.ensureArray(relation.getDBIDs()));
   }
 
   /**
-   * Materializes the kNNs and RkNNs of the specified object IDs.
+   * Materializes the RkNNs of the specified object IDs, from their kNN.
    *
    * @param ids the IDs of the objects
    */
-  private void materializeKNNAndRKNNs(ArrayDBIDs ids, FiniteProgress progress) {
+  private void materializeRKNNs(ArrayDBIDs ids) {
     // add an empty list to each rknn
     for(DBIDIter iter = ids.iter(); iter.valid(); iter.advance()) {
       if(storageRkNN.get(iter) == null) {
         storageRkNN.put(iter, DBIDUtil.newDistanceDBIDList());
       }
     }
-
-    // knn query
+    // inverse rkNN index:
     for(DBIDArrayIter id = ids.iter(); id.valid(); id.advance()) {
-      KNNList kNNs = knnQuery.getKNN(id, k);
-      storage.put(id, kNNs);
-      // inverse rkNN index:
-      for(DoubleDBIDListIter iter = kNNs.iter(); iter.valid(); iter.advance()) {
+      for(DoubleDBIDListIter iter = storage.get(id).iter(); iter.valid(); iter.advance()) {
         storageRkNN.get(iter).add(iter.doubleValue(), id);
       }
-      LOG.incrementProcessed(progress);
     }
-
-    LOG.ensureCompleted(progress);
   }
 
   @Override
@@ -117,7 +125,9 @@ public class MaterializeKNNAndRKNNPreprocessor<O> extends MaterializeKNNPreproce
     ArrayDBIDs aids = DBIDUtil.ensureArray(ids);
     // materialize the new kNNs and RkNNs
     LOG.beginStep(stepprog, 1, "New insertions ocurred, materialize their new kNNs and RkNNs.");
-    materializeKNNAndRKNNs(aids, null);
+    getMaxKNNDistance(); // Bound must be computed before adding the new kNN.
+    materializeKNN(aids, false, null);
+    materializeRKNNs(aids);
 
     // update the old kNNs and RkNNs
     LOG.beginStep(stepprog, 2, "New insertions ocurred, update the affected kNNs and RkNNs.");
@@ -138,71 +148,58 @@ public class MaterializeKNNAndRKNNPreprocessor<O> extends MaterializeKNNPreproce
    *         updated
    */
   private DBIDs updateKNNsAndRkNNs(DBIDs ids) {
-    ArrayModifiableDBIDs rkNN_ids = DBIDUtil.newArray();
-    DBIDs oldids = DBIDUtil.difference(relation.getDBIDs(), ids);
-    for(DBIDIter id = oldids.iter(); id.valid(); id.advance()) {
+    WritableDataStore<KNNHeap> heaps = DataStoreUtil.makeStorage(relation.getDBIDs(), DataStoreFactory.HINT_TEMP, KNNHeap.class);
+    ArrayModifiableDBIDs rkNN_ids = collectKNNChanges(ids, heaps);
+    for(DBIDIter id = rkNN_ids.iter(); id.valid(); id.advance()) {
       KNNList oldkNNs = storage.get(id);
-      double knnDist = oldkNNs.getKNNDistance();
-      // look for new kNNs
-      KNNHeap heap = null;
-      for(DBIDIter newid = ids.iter(); newid.valid(); newid.advance()) {
-        double dist = distanceQuery.distance(id, newid);
-        if(dist <= knnDist) {
-          // New id changes the kNNs of oldid.
-          heap = heap != null ? heap : DBIDUtil.newHeap(oldkNNs);
-          heap.insert(dist, newid);
-        }
-      }
       // kNNs for oldid have changed:
-      if(heap != null) {
-        KNNList newkNNs = heap.toKNNList();
-        storage.put(id, newkNNs);
+      KNNList newkNNs = heaps.get(id).toKNNList();
+      storeKNN(id, newkNNs);
 
-        // get the difference
-        ModifiableDoubleDBIDList added = DBIDUtil.newDistanceDBIDList(),
-            removed = DBIDUtil.newDistanceDBIDList();
-        DoubleDBIDListIter olditer = oldkNNs.iter(), newiter = newkNNs.iter();
-        while(olditer.valid() && newiter.valid()) {
-          if(DBIDUtil.equal(olditer, newiter)) {
-            olditer.advance();
-            newiter.advance();
-            continue;
-          }
-          double newd = newiter.doubleValue(), oldd = olditer.doubleValue();
-          if(newd < oldd || (newd == oldd && !oldkNNs.contains(newiter))) {
-            added.add(newiter.doubleValue(), newiter);
-            newiter.advance();
-          }
-          else if(oldd < newd || (oldd == newd && !newkNNs.contains(olditer))) {
-            removed.add(olditer.doubleValue(), olditer);
-            olditer.advance();
-          }
-          else {
-            throw new IllegalStateException("Unexpected third case, needs debug!");
-          }
-        }
-        for(; olditer.valid(); olditer.advance()) {
-          removed.add(olditer.doubleValue(), olditer);
+      // get the difference
+      ModifiableDoubleDBIDList added = DBIDUtil.newDistanceDBIDList(),
+          removed = DBIDUtil.newDistanceDBIDList();
+      DoubleDBIDListIter olditer = oldkNNs.iter(), newiter = newkNNs.iter();
+      while(olditer.valid() && newiter.valid()) {
+        if(DBIDUtil.equal(olditer, newiter)) {
+          olditer.advance();
+          newiter.advance();
+          continue;
         }
-        for(; newiter.valid(); newiter.advance()) {
+        double newd = newiter.doubleValue(), oldd = olditer.doubleValue();
+        if(newd < oldd || (newd == oldd && !oldkNNs.contains(newiter))) {
           added.add(newiter.doubleValue(), newiter);
+          newiter.advance();
+        }
+        else if(oldd < newd || (oldd == newd && !newkNNs.contains(olditer))) {
+          removed.add(olditer.doubleValue(), olditer);
+          olditer.advance();
         }
-        // add new RkNN
-        for(DoubleDBIDListIter newnn = added.iter(); newnn.valid(); newnn.advance()) {
-          storageRkNN.get(newnn).add(newnn.doubleValue(), id);
+        else {
+          throw new IllegalStateException("Unexpected third case, needs debug!");
         }
-        // remove old RkNN
-        for(DoubleDBIDListIter oldnn = removed.iter(); oldnn.valid(); oldnn.advance()) {
-          for(DoubleDBIDListMIter iter = storageRkNN.get(oldnn).iter(); iter.valid(); iter.advance()) {
-            if(DBIDUtil.equal(iter, id)) {
-              iter.remove();
-              break;
-            }
+      }
+      for(; olditer.valid(); olditer.advance()) {
+        removed.add(olditer.doubleValue(), olditer);
+      }
+      for(; newiter.valid(); newiter.advance()) {
+        added.add(newiter.doubleValue(), newiter);
+      }
+      // add new RkNN
+      for(DoubleDBIDListIter newnn = added.iter(); newnn.valid(); newnn.advance()) {
+        storageRkNN.get(newnn).add(newnn.doubleValue(), id);
+      }
+      // remove old RkNN
+      for(DoubleDBIDListIter oldnn = removed.iter(); oldnn.valid(); oldnn.advance()) {
+        for(DoubleDBIDListMIter iter = storageRkNN.get(oldnn).iter(); iter.valid(); iter.advance()) {
+          if(DBIDUtil.equal(iter, id)) {
+            iter.remove();
+            break;
           }
         }
-        rkNN_ids.add(id);
       }
     }
+    heaps.destroy();
     return rkNN_ids;
   }
 
@@ -239,13 +236,14 @@ public class MaterializeKNNAndRKNNPreprocessor<O> extends MaterializeKNNPreproce
     }
     // Recompute the kNN for affected objects (in rkNN lists)
     {
+      KNNSearcher<DBIDRef> knnQuery = getUpdateKNNSearcher();
       for(DBIDIter reknn = rkNNs.iter(); reknn.valid(); reknn.advance()) {
         KNNList rknnlist = knnQuery.getKNN(reknn, k);
         if(rknnlist == null) {
           LOG.warning("BUG in online kNN/RkNN maintainance: " + DBIDUtil.toString(reknn) + " no longer in database.");
           continue;
         }
-        storage.put(reknn, rknnlist);
+        storeKNN(reknn, rknnlist);
         for(DoubleDBIDListIter it = rknnlist.iter(); it.valid(); it.advance()) {
           ModifiableDoubleDBIDList rstor = storageRkNN.get(it);
           if(!rstor.contains(reknn)) {
@@ -317,9 +315,21 @@ public class MaterializeKNNAndRKNNPreprocessor<O> extends MaterializeKNNPreproce
       super(k, distance);
     }
 
+    /**
+     * Constructor.
+     *
+     * @param k k
+     * @param distance distance function
+     * @param parallel Use multiple threads
+     * @param file File to load and store the kNN lists, may be {@code null}
+     */
+    public Factory(int k, Distance<? super O> distance, boolean parallel, Path file) {
+      super(k, distance, parallel, file);
+    }
+
     @Override
     public MaterializeKNNAndRKNNPreprocessor<O> instantiate(Relation<O> relation) {
-      return new MaterializeKNNAndRKNNPreprocessor<>(relation, distance, k);
+      return new MaterializeKNNAndRKNNPreprocessor<>(relation, distance, k, parallel, file);
     }
 
     /**
@@ -330,7 +340,7 @@ public class MaterializeKNNAndRKNNPreprocessor<O> extends MaterializeKNNPreproce
     public static class Par<O> extends MaterializeKNNPreprocessor.Factory.Par<O> {
       @Override
       public Factory<O> make() {
-        return new Factory<>(k, distance);
+        return new Factory<>(k, distance, parallel, file);
       }
     }
   }
@@ -20,13 +20,31 @@
  */
 package elki.index.preprocessed.knn;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Supplier;
+
 import javax.swing.event.EventListenerList;
 
+import elki.database.datastore.DataStoreFactory;
+import elki.database.datastore.DataStoreUtil;
+import elki.database.datastore.WritableDataStore;
 import elki.database.ids.*;
 import elki.database.query.QueryBuilder;
 import elki.database.query.distance.DistanceQuery;
 import elki.database.query.knn.KNNSearcher;
 import elki.database.query.knn.PreprocessorKNNQuery;
+import elki.database.query.range.RangeSearcher;
 import elki.database.relation.Relation;
 import elki.distance.Distance;
 import elki.index.DynamicIndex;
@@ -35,14 +53,36 @@ import elki.logging.progress.FiniteProgress;
 import elki.logging.progress.StepProgress;
 import elki.logging.statistics.Duration;
 import elki.logging.statistics.LongStatistic;
+import elki.parallel.Executor;
+import elki.parallel.ParallelCore;
+import elki.parallel.ParallelExecutor;
+import elki.parallel.processor.Processor;
+import elki.result.Metadata;
 import elki.utilities.documentation.Description;
 import elki.utilities.documentation.Title;
+import elki.utilities.datastructures.iterator.It;
+import elki.utilities.exceptions.AbortException;
+import elki.utilities.io.ByteArrayUtil;
+import elki.utilities.optionhandling.OptionID;
+import elki.utilities.optionhandling.parameterization.Parameterization;
+import elki.utilities.optionhandling.parameters.FileParameter;
+import elki.utilities.optionhandling.parameters.Flag;
 
 /**
  * A preprocessor for annotation of the k nearest neighbors (and their
  * distances) to each database object.
  * <p>
  * Automatically added by the query optimizer if memory permits.
+ * <p>
+ * The initial materialization can be run in parallel. Insertions and
+ * deletions are processed incrementally: new objects only affect the objects
+ * within the maximum k-distance (found with a range query), and deleted
+ * objects only affect their reverse nearest neighbors, which are tracked in a
+ * reverse index once the first update occurs.
+ * <p>
+ * Optionally, the kNN lists can be stored in a binary file (the same format as
+ * used by {@code CacheDoubleDistanceKNNLists}) and are then reloaded instead
+ * of recomputed. The file must have been computed with the same distance.
  *
  * @author Erich Schubert
  * @since 0.2
@@ -62,15 +102,52 @@ public class MaterializeKNNPreprocessor<O> extends AbstractMaterializeKNNPreproc
   private static final Logging LOG = Logging.getLogger(MaterializeKNNPreprocessor.class);
 
   /**
-   * KNNSearcher instance to use.
+   * Magic number of the kNN cache files, must agree with
+   * {@code CacheDoubleDistanceKNNLists}.
+   */
+  private static final int KNN_CACHE_MAGIC = 0xCAC43D1C;
+
+  /**
+   * Minimum number of objects to use multiple threads, because each thread
+   * needs its own kNN searcher.
    */
-  protected final KNNSearcher<DBIDRef> knnQuery;
+  private static final int MIN_PARALLEL_SIZE = 1000;
+
+  /**
+   * Flag to disable optimization.
+   */
+  private final boolean noopt;
 
   /**
    * Holds the listener.
    */
   protected final EventListenerList listenerList = new EventListenerList();
 
+  /**
+   * Use multiple threads.
+   */
+  protected final boolean parallel;
+
+  /**
+   * File to load the kNN lists from, or store them in; may be {@code null}.
+   */
+  protected final Path file;
+
+  /**
+   * Reverse nearest neighbors, built on the first update.
+   */
+  private WritableDataStore<ArrayModifiableDBIDs> reverseNeighbors = null;
+
+  /**
+   * Upper bound of the k-distances, NaN until needed.
+   */
+  private double maxKNNDistance = Double.NaN;
+
+  /**
+   * Flag to disable this index while it is (re-) built.
+   */
+  private boolean building = false;
+
   /**
    * Constructor with preprocessing step.
    *
@@ -79,9 +156,23 @@ public class MaterializeKNNPreprocessor<O> extends AbstractMaterializeKNNPreproc
    * @param k query k
    */
   public MaterializeKNNPreprocessor(Relation<O> relation, Distance<? super O> distance, int k) {
+    this(relation, distance, k, false, null);
+  }
+
+  /**
+   * Constructor with preprocessing step.
+   *
+   * @param relation Relation to preprocess
+   * @param distance the distance function to use
+   * @param k query k
+   * @param parallel Use multiple threads
+   * @param file File to load and store the kNN lists, may be {@code null}
+   */
+  public MaterializeKNNPreprocessor(Relation<O> relation, Distance<? super O> distance, int k, boolean parallel, Path file) {
     super(relation, distance, k);
-    this.knnQuery = new QueryBuilder<>(distanceQuery).noCache().kNNByDBID(k);
-    assert !(knnQuery instanceof PreprocessorKNNQuery) : knnQuery.toString();
+    this.noopt = false;
+    this.parallel = parallel;
+    this.file = file;
   }
 
   /**
@@ -94,9 +185,9 @@ public class MaterializeKNNPreprocessor<O> extends AbstractMaterializeKNNPreproc
    */
   public MaterializeKNNPreprocessor(Relation<O> relation, DistanceQuery<O> distanceQuery, int k, boolean noopt) {
     super(relation, distanceQuery, k);
-    QueryBuilder<O> qb = new QueryBuilder<>(distanceQuery).noCache();
-    this.knnQuery = (noopt ? qb.cheapOnly() : qb).kNNByDBID(k);
-    assert !(knnQuery instanceof PreprocessorKNNQuery) : knnQuery.toString();
+    this.noopt = noopt;
+    this.parallel = ParallelCore.getCore().getParallelism() > 1;
+    this.file = null;
   }
 
   /**
@@ -106,6 +197,8 @@ public class MaterializeKNNPreprocessor<O> extends AbstractMaterializeKNNPreproc
   protected void preprocess() {
     final Logging log = getLogger(); // Could be subclass
     createStorage();
+    reverseNeighbors = null;
+    maxKNNDistance = Double.NaN;
 
     ArrayDBIDs ids = DBIDUtil.ensureArray(relation.getDBIDs());
 
@@ -113,29 +206,327 @@ public class MaterializeKNNPreprocessor<O> extends AbstractMaterializeKNNPreproc
       log.statistics(new LongStatistic(this.getClass().getName() + ".k", k));
     }
     Duration duration = log.isStatistics() ? log.newDuration(this.getClass().getName() + ".precomputation-time").begin() : null;
-    FiniteProgress progress = getLogger().isVerbose() ? new FiniteProgress("Materializing k nearest neighbors (k=" + k + ")", ids.size(), getLogger()) : null;
-    // Try bulk
+    DBIDs todo = ids;
+    if(file != null && Files.exists(file)) {
+      try {
+        todo = load(file, ids);
+      }
+      catch(IOException e) {
+        throw new AbortException("I/O error in loading kNN cache: " + e.getMessage(), e);
+      }
+      if(log.isStatistics()) {
+        log.statistics(new LongStatistic(this.getClass().getName() + ".loaded", ids.size() - todo.size()));
+      }
+    }
+    FiniteProgress progress = log.isVerbose() ? new FiniteProgress("Materializing k nearest neighbors (k=" + k + ")", todo.size(), log) : null;
+    materializeKNN(todo, true, progress);
+    if(file != null && !todo.isEmpty()) {
+      try {
+        save(file);
+      }
+      catch(IOException e) {
+        log.warning("Could not write kNN cache " + file + ": " + e.getMessage(), e);
+      }
+    }
+    if(duration != null) {
+      log.statistics(duration.end());
+    }
+  }
+
+  /**
+   * Create a kNN searcher for the current data. The searchers are not
+   * thread-safe, and must be created when needed, as indexes built by the
+   * optimizer do not see later updates.
+   * <p>
+   * Must only be called while {@link #building} is set, so that we do not find
+   * ourselves.
+   *
+   * @param optimize Allow the optimizer to build an index
+   * @return kNN searcher
+   */
+  private KNNSearcher<DBIDRef> makeKNNSearcher(boolean optimize) {
+    assert building;
+    QueryBuilder<O> qb = new QueryBuilder<>(distanceQuery).noCache();
+    KNNSearcher<DBIDRef> knnQuery = (optimize && !noopt ? qb : qb.cheapOnly()).kNNByDBID(k);
+    assert !(knnQuery instanceof PreprocessorKNNQuery) : knnQuery.toString();
+    return knnQuery;
+  }
+
+  /**
+   * Let the optimizer build an index for the kNN queries, if it chooses to,
+   * and add it to the relation temporarily, such that searchers created
+   * without the optimizer will use it.
+   * <p>
+   * Must only be called while {@link #building} is set, so that we do not find
+   * ourselves.
+   *
+   * @return Indexes added to the relation, to be removed afterwards
+   */
+  private List<Object> addOptimizerIndex() {
+    assert building;
+    Metadata.Hierarchy hier = Metadata.hierarchyOf(distanceQuery.getRelation());
+    List<Object> before = new ArrayList<>();
+    for(It<Object> it = hier.iterChildren(); it.valid(); it.advance()) {
+      before.add(it.get());
+    }
+    new QueryBuilder<>(distanceQuery).kNNByDBID(k);
+    List<Object> added = new ArrayList<>();
+    for(It<Object> it = hier.iterChildren(); it.valid(); it.advance()) {
+      if(!before.contains(it.get())) {
+        added.add(it.get());
+      }
+    }
+    return added;
+  }
+
+  /**
+   * Get a kNN searcher to update individual kNN lists, without building
+   * additional indexes.
+   *
+   * @return kNN searcher
+   */
+  protected KNNSearcher<DBIDRef> getUpdateKNNSearcher() {
+    building = true;
+    try {
+      return makeKNNSearcher(false);
+    }
+    finally {
+      building = false;
+    }
+  }
+
+  /**
+   * Compute and store the kNN of the given objects, using multiple threads if
+   * enabled.
+   * <p>
+   * For metric distances, the result is reused for duplicate objects that do
+   * not have a kNN list yet.
+   *
+   * @param ids Objects to process
+   * @param optimize Allow the optimizer to build an index
+   * @param progress Progress, may be {@code null}
+   */
+  protected void materializeKNN(DBIDs ids, boolean optimize, FiniteProgress progress) {
+    final Logging log = getLogger(); // Could be subclass
     final boolean ismetric = getDistanceQuery().getDistance().isMetric();
-    for(DBIDIter iter = ids.iter(); iter.valid(); iter.advance()) {
-      if(ismetric && storage.get(iter) != null) {
+    building = true;
+    try {
+      if(parallel && ids.size() >= MIN_PARALLEL_SIZE) {
+        // Searchers are not thread-safe, so we use one per thread. But we let
+        // the optimizer build an index only once, and only derive cheap
+        // searchers from it in each thread.
+        List<Object> added = optimize && !noopt ? addOptimizerIndex() : Collections.emptyList();
+        try {
+          ThreadLocal<KNNSearcher<DBIDRef>> searchers = ThreadLocal.withInitial(() -> makeKNNSearcher(false));
+          ParallelExecutor.run(ids, progress, log, new KNNMaterializer(searchers::get, ismetric));
+        }
+        finally {
+          Metadata.Hierarchy hier = Metadata.hierarchyOf(distanceQuery.getRelation());
+          for(Object idx : added) {
+            hier.removeChild(idx);
+          }
+        }
+        log.ensureCompleted(progress);
+        return;
+      }
+      KNNSearcher<DBIDRef> knnQuery = makeKNNSearcher(optimize);
+      for(DBIDIter iter = ids.iter(); iter.valid(); iter.advance()) {
+        if(ismetric && storage.get(iter) != null) {
+          log.incrementProcessed(progress);
+          continue; // Previously computed (duplicate point?)
+        }
+        KNNList knn = knnQuery.getKNN(iter, k);
+        storeKNN(iter, knn);
+        if(ismetric) {
+          reuseForDuplicates(knn);
+        }
         log.incrementProcessed(progress);
-        continue; // Previously computed (duplicate point?)
       }
-      KNNList knn = knnQuery.getKNN(iter, k);
-      storage.put(iter, knn);
-      if(ismetric) {
-        for(DoubleDBIDListIter it = knn.iter(); it.valid() && it.doubleValue() == 0.; it.advance()) {
-          storage.put(it, knn); // Reuse
+      log.ensureCompleted(progress);
+    }
+    finally {
+      building = false;
+    }
+  }
+
+  /**
+   * Reuse a kNN list for duplicate objects (metric distances only).
+   *
+   * @param knn kNN list
+   */
+  private void reuseForDuplicates(KNNList knn) {
+    for(DoubleDBIDListIter it = knn.iter(); it.valid() && it.doubleValue() == 0.; it.advance()) {
+      if(storage.get(it) == null) {
+        storeKNN(it, knn); // Reuse
+      }
+    }
+  }
+
+  /**
+   * Store a kNN list, and maintain the reverse nearest neighbors.
+   *
+   * @param id Object
+   * @param knn New kNN list
+   */
+  protected void storeKNN(DBIDRef id, KNNList knn) {
+    if(reverseNeighbors != null) {
+      KNNList old = storage.get(id);
+      if(old != null) {
+        for(DBIDIter it = old.iter(); it.valid(); it.advance()) {
+          ArrayModifiableDBIDs rnn = reverseNeighbors.get(it);
+          if(rnn != null) {
+            rnn.remove(id);
+          }
         }
       }
-      log.incrementProcessed(progress);
+      addReverseNeighbors(id, knn);
     }
-    log.ensureCompleted(progress);
-    if(duration != null) {
-      log.statistics(duration.end());
+    storage.put(id, knn);
+    // Remains NaN until initialized by getMaxKNNDistance:
+    maxKNNDistance = Math.max(maxKNNDistance, knn.getKNNDistance());
+  }
+
+  /**
+   * Add an object to the reverse nearest neighbors of its neighbors.
+   *
+   * @param id Object
+   * @param knn kNN list of the object
+   */
+  private void addReverseNeighbors(DBIDRef id, KNNList knn) {
+    for(DBIDIter it = knn.iter(); it.valid(); it.advance()) {
+      ArrayModifiableDBIDs rnn = reverseNeighbors.get(it);
+      if(rnn == null) {
+        reverseNeighbors.put(it, rnn = DBIDUtil.newArray());
+      }
+      rnn.add(id);
+    }
+  }
+
+  /**
+   * Get the reverse nearest neighbor index, building it when necessary.
+   *
+   * @return Reverse nearest neighbors
+   */
+  private WritableDataStore<ArrayModifiableDBIDs> getReverseNeighbors() {
+    if(reverseNeighbors == null) {
+      reverseNeighbors = DataStoreUtil.makeStorage(relation.getDBIDs(), DataStoreFactory.HINT_HOT, ArrayModifiableDBIDs.class);
+      for(DBIDIter iter = relation.iterDBIDs(); iter.valid(); iter.advance()) {
+        KNNList knn = storage.get(iter);
+        if(knn != null) {
+          addReverseNeighbors(iter, knn);
+        }
+      }
+    }
+    return reverseNeighbors;
+  }
+
+  /**
+   * Get an upper bound for the k-distances of all objects, computing it when
+   * necessary.
+   *
+   * @return Upper bound of the k-distance
+   */
+  protected double getMaxKNNDistance() {
+    if(Double.isNaN(maxKNNDistance)) {
+      double max = 0.;
+      for(DBIDIter iter = relation.iterDBIDs(); iter.valid(); iter.advance()) {
+        KNNList knn = storage.get(iter);
+        if(knn != null) {
+          max = Math.max(max, knn.getKNNDistance());
+        }
+      }
+      maxKNNDistance = max;
+    }
+    return maxKNNDistance;
+  }
+
+  /**
+   * Load the kNN lists from a file. Lists with too few neighbors, or with
+   * neighbors not in the current data, are ignored.
+   *
+   * @param file File to read
+   * @param ids Objects to load
+   * @return Objects that were not found in the file
+   * @throws IOException on read errors
+   */
+  protected ModifiableDBIDs load(Path file, DBIDs ids) throws IOException {
+    SetDBIDs all = DBIDUtil.ensureSet(ids);
+    ModifiableDBIDs todo = DBIDUtil.newHashSet(ids);
+    final int minsize = Math.min(k, ids.size());
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      MappedByteBuffer buffer = channel.map(MapMode.READ_ONLY, 0, channel.size());
+      // check magic header
+      if(buffer.getInt() != KNN_CACHE_MAGIC) {
+        throw new AbortException("Cache magic number does not match.");
+      }
+      while(buffer.hasRemaining()) {
+        DBID id = DBIDUtil.importInteger(ByteArrayUtil.readUnsignedVarint(buffer));
+        final int nnsize = ByteArrayUtil.readUnsignedVarint(buffer);
+        KNNHeap knn = DBIDUtil.newHeap(k);
+        boolean valid = nnsize >= minsize;
+        for(int i = 0; i < nnsize; i++) {
+          DBID nid = DBIDUtil.importInteger(ByteArrayUtil.readUnsignedVarint(buffer));
+          double dist = buffer.getDouble();
+          if(valid && (valid = all.contains(nid))) {
+            knn.insert(dist, nid);
+          }
+        }
+        if(valid && todo.remove(id)) {
+          storeKNN(id, knn.toKNNList());
+        }
+      }
+    }
+    return todo;
+  }
+
+  /**
+   * Save the kNN lists to a binary file, in the same format as
+   * {@code CacheDoubleDistanceKNNLists}.
+   *
+   * @param file Output file
+   * @throws IOException on write errors
+   */
+  public void save(Path file) throws IOException {
+    if(storage == null) {
+      preprocess();
+    }
+    try (FileChannel channel = FileChannel.open(file, //
+        StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+      int bufsize = k * 12 * 2 + 10; // Initial size, enough for 2 kNN.
+      ByteBuffer buffer = ByteBuffer.allocateDirect(bufsize);
+      buffer.putInt(KNN_CACHE_MAGIC).flip();
+      channel.write(buffer);
+      for(DBIDIter it = relation.iterDBIDs(); it.valid(); it.advance()) {
+        final KNNList nn = storage.get(it);
+        final int nnsize = nn.size();
+        // Grow the buffer when needed:
+        if(nnsize * 12 + 10 > bufsize) {
+          while(nnsize * 12 + 10 > bufsize) {
+            bufsize <<= 1;
+          }
+          buffer = ByteBuffer.allocateDirect(bufsize);
+        }
+        buffer.clear();
+        ByteArrayUtil.writeUnsignedVarint(buffer, it.internalGetIndex());
+        ByteArrayUtil.writeUnsignedVarint(buffer, nnsize);
+        for(DoubleDBIDListIter ni = nn.iter(); ni.valid(); ni.advance()) {
+          ByteArrayUtil.writeUnsignedVarint(buffer, ni.internalGetIndex());
+          buffer.putDouble(ni.doubleValue());
+        }
+        buffer.flip();
+        while(buffer.hasRemaining()) {
+          channel.write(buffer);
+        }
+      }
     }
   }
 
+  @Override
+  public KNNSearcher<DBIDRef> kNNByDBID(DistanceQuery<O> distQ, int maxk, int flags) {
+    // Do not use ourselves while building.
+    return building ? null : super.kNNByDBID(distQ, maxk, flags);
+  }
+
   @Override
   public final void insert(DBIDRef id) {
     objectsInserted(DBIDUtil.deref(id));
@@ -171,13 +562,12 @@ public class MaterializeKNNPreprocessor<O> extends AbstractMaterializeKNNPreproc
   protected void objectsInserted(DBIDs ids) {
     final Logging log = getLogger(); // Could be subclass
     StepProgress stepprog = log.isVerbose() ? new StepProgress(3) : null;
-    ArrayDBIDs aids = DBIDUtil.ensureArray(ids);
+    // Bound and reverse index must be computed before adding the new lists.
+    getMaxKNNDistance();
+    getReverseNeighbors();
     // materialize the new kNNs
     log.beginStep(stepprog, 1, "New insertions ocurred, materialize their new kNNs.");
-    // Store in storage
-    for(DBIDIter iter = aids.iter(); iter.valid(); iter.advance()) {
-      storage.put(iter, knnQuery.getKNN(iter, k));
-    }
+    materializeKNN(ids, false, null);
 
     // update the affected kNNs
     log.beginStep(stepprog, 2, "New insertions ocurred, update the affected kNNs.");
@@ -189,6 +579,48 @@ public class MaterializeKNNPreprocessor<O> extends AbstractMaterializeKNNPreproc
     log.setCompleted(stepprog);
   }
 
+  /**
+   * Find the existing objects whose kNN are changed by new objects. Only
+   * objects within the maximum k-distance of a new object can be affected, so
+   * we use a range query to find them.
+   *
+   * @param ids the ids of newly inserted objects
+   * @param heaps Output storage for the new kNN heaps, initialized with the
+   *        previous kNN
+   * @return the objects whose kNN have changed
+   */
+  protected ArrayModifiableDBIDs collectKNNChanges(DBIDs ids, WritableDataStore<KNNHeap> heaps) {
+    ArrayModifiableDBIDs changed = DBIDUtil.newArray();
+    SetDBIDs newids = DBIDUtil.ensureSet(ids);
+    final double maxdist = getMaxKNNDistance();
+    RangeSearcher<DBIDRef> rangeQuery = new QueryBuilder<>(distanceQuery).noCache().cheapOnly().rangeByDBID(maxdist);
+    ModifiableDoubleDBIDList candidates = DBIDUtil.newDistanceDBIDList();
+    for(DBIDIter iter = ids.iter(); iter.valid(); iter.advance()) {
+      candidates.clear();
+      for(DoubleDBIDListIter it = rangeQuery.getRange(iter, maxdist, candidates).iter(); it.valid(); it.advance()) {
+        if(newids.contains(it)) {
+          continue;
+        }
+        KNNList kNNs = storage.get(it);
+        if(kNNs == null) {
+          continue;
+        }
+        // Recompute, as range queries may round differently:
+        final double dist = distanceQuery.distance(it, iter);
+        if(dist > kNNs.getKNNDistance()) {
+          continue;
+        }
+        KNNHeap heap = heaps.get(it);
+        if(heap == null) {
+          heaps.put(it, heap = DBIDUtil.newHeap(kNNs));
+          changed.add(it);
+        }
+        heap.insert(dist, iter);
+      }
+    }
+    return changed;
+  }
+
   /**
    * Updates the kNNs of the RkNNs of the specified ids.
    *
@@ -198,25 +630,12 @@ public class MaterializeKNNPreprocessor<O> extends AbstractMaterializeKNNPreproc
    *         updated
    */
   private ArrayDBIDs updateKNNsAfterInsertion(DBIDs ids) {
-    ArrayModifiableDBIDs rkNN_ids = DBIDUtil.newArray();
-    DBIDs oldids = DBIDUtil.difference(relation.getDBIDs(), ids);
-    for(DBIDIter iter = oldids.iter(); iter.valid(); iter.advance()) {
-      KNNList kNNs = storage.get(iter);
-      double knnDist = kNNs.getKNNDistance();
-      // look for new kNNs
-      KNNHeap heap = null;
-      for(DBIDIter iter2 = ids.iter(); iter2.valid(); iter2.advance()) {
-        final double dist = distanceQuery.distance(iter, iter2);
-        if(dist <= knnDist) {
-          heap = heap != null ? heap : DBIDUtil.newHeap(kNNs);
-          heap.insert(dist, iter2);
-        }
-      }
-      if(heap != null) {
-        storage.put(iter, kNNs = heap.toKNNList());
-        rkNN_ids.add(iter);
-      }
+    WritableDataStore<KNNHeap> heaps = DataStoreUtil.makeStorage(relation.getDBIDs(), DataStoreFactory.HINT_TEMP, KNNHeap.class);
+    ArrayModifiableDBIDs rkNN_ids = collectKNNChanges(ids, heaps);
+    for(DBIDIter iter = rkNN_ids.iter(); iter.valid(); iter.advance()) {
+      storeKNN(iter, heaps.get(iter).toKNNList());
     }
+    heaps.destroy();
     return rkNN_ids;
   }
 
@@ -228,23 +647,36 @@ public class MaterializeKNNPreprocessor<O> extends AbstractMaterializeKNNPreproc
    *         updated
    */
   private ArrayDBIDs updateKNNsAfterDeletion(DBIDs ids) {
-    SetDBIDs idsSet = DBIDUtil.ensureSet(ids);
-    ArrayModifiableDBIDs rkNN_ids = DBIDUtil.newArray();
-    for(DBIDIter iditer = relation.iterDBIDs(); iditer.valid(); iditer.advance()) {
-      KNNList kNNs = storage.get(iditer);
-      for(DBIDIter it = kNNs.iter(); it.valid(); it.advance()) {
-        if(idsSet.contains(it)) {
-          rkNN_ids.add(iditer);
-          break;
+    WritableDataStore<ArrayModifiableDBIDs> rnns = getReverseNeighbors();
+    ModifiableDBIDs affected = DBIDUtil.newHashSet();
+    for(DBIDIter iter = ids.iter(); iter.valid(); iter.advance()) {
+      ArrayModifiableDBIDs rnn = rnns.get(iter);
+      if(rnn != null) {
+        affected.addDBIDs(rnn);
+      }
+    }
+    affected.removeDBIDs(ids);
+    // Remove the deleted objects from the index:
+    for(DBIDIter iter = ids.iter(); iter.valid(); iter.advance()) {
+      KNNList kNNs = storage.get(iter);
+      if(kNNs != null) {
+        for(DBIDIter it = kNNs.iter(); it.valid(); it.advance()) {
+          ArrayModifiableDBIDs rnn = rnns.get(it);
+          if(rnn != null) {
+            rnn.remove(iter);
+          }
         }
       }
+      storage.delete(iter);
+      rnns.delete(iter);
     }
 
     // update the kNNs of the RkNNs
+    ArrayModifiableDBIDs rkNN_ids = DBIDUtil.newArray(affected);
+    KNNSearcher<DBIDRef> knnQuery = getUpdateKNNSearcher();
     for(DBIDIter iter = rkNN_ids.iter(); iter.valid(); iter.advance()) {
-      storage.put(iter, knnQuery.getKNN(iter, k));
+      storeKNN(iter, knnQuery.getKNN(iter, k));
     }
-
     return rkNN_ids;
   }
 
@@ -256,23 +688,97 @@ public class MaterializeKNNPreprocessor<O> extends AbstractMaterializeKNNPreproc
    */
   protected void objectsRemoved(DBIDs ids) {
     final Logging log = getLogger();
-    StepProgress stepprog = log.isVerbose() ? new StepProgress(3) : null;
-    // delete the materialized (old) kNNs
-    log.beginStep(stepprog, 1, "New deletions ocurred, remove their materialized kNNs.");
-    for(DBIDIter iter = ids.iter(); iter.valid(); iter.advance()) {
-      storage.delete(iter);
-    }
-
-    // update the affected kNNs
-    log.beginStep(stepprog, 2, "New deletions ocurred, update the affected kNNs.");
+    StepProgress stepprog = log.isVerbose() ? new StepProgress(2) : null;
+    // remove the materialized (old) kNNs, and update the affected kNNs
+    log.beginStep(stepprog, 1, "New deletions ocurred, update the affected kNNs.");
     ArrayDBIDs rkNN_ids = updateKNNsAfterDeletion(ids);
 
     // inform listener
-    log.beginStep(stepprog, 3, "New deletions ocurred, inform listeners.");
+    log.beginStep(stepprog, 2, "New deletions ocurred, inform listeners.");
     fireKNNsRemoved(ids, rkNN_ids);
     log.setCompleted(stepprog);
   }
 
+  /**
+   * Processor to materialize the kNN in parallel.
+   *
+   * @author Erich Schubert
+   */
+  private class KNNMaterializer implements Processor {
+    /**
+     * Supplier of per-thread kNN searchers.
+     */
+    private Supplier<KNNSearcher<DBIDRef>> searchers;
+
+    /**
+     * Reuse results for duplicates.
+     */
+    private boolean ismetric;
+
+    /**
+     * Constructor.
+     *
+     * @param searchers Supplier of per-thread kNN searchers
+     * @param ismetric Reuse results for duplicates
+     */
+    protected KNNMaterializer(Supplier<KNNSearcher<DBIDRef>> searchers, boolean ismetric) {
+      super();
+      this.searchers = searchers;
+      this.ismetric = ismetric;
+    }
+
+    @Override
+    public Instance instantiate(Executor executor) {
+      return new Instance(searchers.get());
+    }
+
+    @Override
+    public void cleanup(Processor.Instance inst) {
+      // Nothing to do.
+    }
+
+    /**
+     * Instance for a single thread.
+     *
+     * @author Erich Schubert
+     */
+    private class Instance implements Processor.Instance {
+      /**
+       * kNN searcher of this thread.
+       */
+      private KNNSearcher<DBIDRef> knnq;
+
+      /**
+       * Constructor.
+       *
+       * @param knnq kNN searcher
+       */
+      protected Instance(KNNSearcher<DBIDRef> knnq) {
+        super();
+        this.knnq = knnq;
+      }
+
+      @Override
+      public void map(DBIDRef id) {
+        if(ismetric) {
+          synchronized(storage) {
+            if(storage.get(id) != null) {
+              return; // Previously computed (duplicate point?)
+            }
+          }
+        }
+        KNNList knn = knnq.getKNN(id, k);
+        // The storage may be a hash map, and is not thread-safe.
+        synchronized(storage) {
+          storeKNN(id, knn);
+          if(ismetric) {
+            reuseForDuplicates(knn);
+          }
+        }
+      }
+    }
+  }
+
   /**
    * Informs all registered KNNListener that new kNNs have been inserted and as
    * a result some kNNs have been changed.
@@ -351,6 +857,16 @@ public class MaterializeKNNPreprocessor<O> extends AbstractMaterializeKNNPreproc
    * @param <O> The object type
    */
   public static class Factory<O> extends AbstractMaterializeKNNPreprocessor.Factory<O> {
+    /**
+     * Use multiple threads.
+     */
+    protected boolean parallel;
+
+    /**
+     * File to load and store the kNN lists, may be {@code null}.
+     */
+    protected Path file;
+
     /**
      * Index factory.
      *
@@ -358,12 +874,26 @@ public class MaterializeKNNPreprocessor<O> extends AbstractMaterializeKNNPreproc
      * @param distance distance function
      */
     public Factory(int k, Distance<? super O> distance) {
+      this(k, distance, false, null);
+    }
+
+    /**
+     * Index factory.
+     *
+     * @param k k parameter
+     * @param distance distance function
+     * @param parallel Use multiple threads
+     * @param file File to load and store the kNN lists, may be {@code null}
+     */
+    public Factory(int k, Distance<? super O> distance, boolean parallel, Path file) {
       super(k, distance);
+      this.parallel = parallel;
+      this.file = file;
     }
 
     @Override
     public MaterializeKNNPreprocessor<O> instantiate(Relation<O> relation) {
-      MaterializeKNNPreprocessor<O> instance = new MaterializeKNNPreprocessor<O>(relation, distance, k);
+      MaterializeKNNPreprocessor<O> instance = new MaterializeKNNPreprocessor<O>(relation, distance, k, parallel, file);
       return instance;
     }
 
@@ -373,9 +903,38 @@ public class MaterializeKNNPreprocessor<O> extends AbstractMaterializeKNNPreproc
      * @author Erich Schubert
      */
     public static class Par<O> extends AbstractMaterializeKNNPreprocessor.Factory.Par<O> {
+      /**
+       * Option to enable the parallel materialization.
+       */
+      public static final OptionID PARALLEL_ID = new OptionID("materialize.parallel", "Materialize the kNN using multiple threads.");
+
+      /**
+       * Option for the file to load and store the kNN lists.
+       */
+      public static final OptionID FILE_ID = new OptionID("materialize.file", "File to load the kNN lists from if it exists, or to store them in otherwise.");
+
+      /**
+       * Use multiple threads.
+       */
+      protected boolean parallel;
+
+      /**
+       * File to load and store the kNN lists.
+       */
+      protected Path file;
+
+      @Override
+      public void configure(Parameterization config) {
+        super.configure(config);
+        new Flag(PARALLEL_ID).grab(config, x -> parallel = x);
+        new FileParameter(FILE_ID, FileParameter.FileType.OUTPUT_FILE) //
+            .setOptional(true) //
+            .grab(config, x -> file = Paths.get(x));
+      }
+
       @Override
       public Factory<O> make() {
-        return new Factory<>(k, distance);
+        return new Factory<>(k, distance, parallel, file);
       }
     }
   }
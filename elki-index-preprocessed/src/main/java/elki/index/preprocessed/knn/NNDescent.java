@@ -21,6 +21,7 @@
 package elki.index.preprocessed.knn;
 
 import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
 
 import elki.database.datastore.DataStoreFactory;
 import elki.database.datastore.WritableDataStore;
@@ -34,6 +35,9 @@ import elki.logging.Logging;
 import elki.logging.progress.IndefiniteProgress;
 import elki.logging.statistics.DoubleStatistic;
 import elki.logging.statistics.LongStatistic;
+import elki.parallel.Executor;
+import elki.parallel.ParallelExecutor;
+import elki.parallel.processor.Processor;
 import elki.utilities.documentation.Reference;
 import elki.utilities.optionhandling.OptionID;
 import elki.utilities.optionhandling.constraints.CommonConstraints;
@@ -56,7 +60,9 @@ import elki.utilities.random.RandomFactory;
  * measures<br>
  * Proc. 20th Int. Conf. on World Wide Web (WWW'11)
  * <p>
- * TODO: collect and log some query statistics.
+ * The local join can be run with multiple threads. Updates to the neighbor
+ * heaps are then guarded by a fixed number of striped locks, as each join
+ * updates the heaps of two other objects.
  *
  * @author Evelyn Kirner
  * @since 0.7.5
@@ -104,11 +110,26 @@ public class NNDescent<O> extends AbstractMaterializeKNNPreprocessor<O> {
    */
   private boolean noInitialNeighbors;
 
+  /**
+   * Use multiple threads for the local join.
+   */
+  private boolean parallel;
+
   /**
    * store for neighbors
    */
   private WritableDataStore<KNNHeap> store;
 
+  /**
+   * Number of lock stripes, must be a power of two.
+   */
+  private static final int LOCK_STRIPES = 1024;
+
+  /**
+   * Striped locks for the neighbor heaps, {@code null} if not parallel.
+   */
+  private Object[] locks;
+
   /**
    * Constructor.
    *
@@ -122,12 +143,30 @@ public class NNDescent<O> extends AbstractMaterializeKNNPreprocessor<O> {
    * @param iterations Maximum number of iterations
    */
   public NNDescent(Relation<O> relation, Distance<? super O> distance, int k, RandomFactory rnd, double delta, double rho, boolean noInitialNeighbors, int iterations) {
+    this(relation, distance, k, rnd, delta, rho, noInitialNeighbors, iterations, false);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param relation Relation to index
+   * @param distance distance function
+   * @param k k
+   * @param rnd Random generator
+   * @param delta Delta threshold
+   * @param rho Rho threshold
+   * @param noInitialNeighbors Do not use initial neighbors
+   * @param iterations Maximum number of iterations
+   * @param parallel Use multiple threads for the local join
+   */
+  public NNDescent(Relation<O> relation, Distance<? super O> distance, int k, RandomFactory rnd, double delta, double rho, boolean noInitialNeighbors, int iterations, boolean parallel) {
     super(relation, distance, k);
     this.rnd = rnd;
     this.delta = delta;
     this.rho = rho;
     this.noInitialNeighbors = noInitialNeighbors;
     this.iterations = iterations;
+    this.parallel = parallel;
   }
 
   @Override
@@ -193,29 +232,41 @@ public class NNDescent<O> extends AbstractMaterializeKNNPreprocessor<O> {
     for(; iter < iterations; iter++) {
       long counter = 0;
 
-      // iterate through dataset
-      for(DBIDIter iditer = relation.iterDBIDs(); iditer.valid(); iditer.advance()) {
-        // determine new and old neighbors
-        HashSetModifiableDBIDs newNeighbors = flag.get(iditer);
-        HashSetModifiableDBIDs oldNeighbors = DBIDUtil.newHashSet();
-        KNNHeap heap = store.get(iditer);
-        for(DoubleDBIDIter heapiter = heap.unorderedIterator(); heapiter.valid(); heapiter.advance()) {
-          if(!newNeighbors.contains(heapiter)) {
-            oldNeighbors.add(heapiter);
-          }
+      if(parallel) {
+        locks = new Object[LOCK_STRIPES];
+        for(int i = 0; i < LOCK_STRIPES; i++) {
+          locks[i] = new Object();
         }
+        LocalJoinProcessor proc = new LocalJoinProcessor(flag, sampleNewNeighbors, newReverseNeighbors, oldReverseNeighbors, items);
+        ParallelExecutor.run(ids, proc);
+        counter = proc.counter.get();
+        locks = null;
+      }
+      else {
+        // iterate through dataset
+        for(DBIDIter iditer = relation.iterDBIDs(); iditer.valid(); iditer.advance()) {
+          // determine new and old neighbors
+          HashSetModifiableDBIDs newNeighbors = flag.get(iditer);
+          HashSetModifiableDBIDs oldNeighbors = DBIDUtil.newHashSet();
+          KNNHeap heap = store.get(iditer);
+          for(DoubleDBIDIter heapiter = heap.unorderedIterator(); heapiter.valid(); heapiter.advance()) {
+            if(!newNeighbors.contains(heapiter)) {
+              oldNeighbors.add(heapiter);
+            }
+          }
 
-        // Sampling
-        HashSetModifiableDBIDs sampleNew = sampleNewNeighbors.get(iditer);
+          // Sampling
+          HashSetModifiableDBIDs sampleNew = sampleNewNeighbors.get(iditer);
 
-        HashSetModifiableDBIDs newRev = newReverseNeighbors.get(iditer);
-        newRev.removeDBIDs(sampleNew);
-        boundSize(newRev, items);
+          HashSetModifiableDBIDs newRev = newReverseNeighbors.get(iditer);
+          newRev.removeDBIDs(sampleNew);
+          boundSize(newRev, items);
 
-        HashSetModifiableDBIDs oldRev = oldReverseNeighbors.get(iditer);
-        oldRev.removeDBIDs(oldNeighbors);
-        boundSize(oldRev, items);
-        counter += processNewNeighbors(flag, sampleNew, oldNeighbors, newRev, oldRev);
+          HashSetModifiableDBIDs oldRev = oldReverseNeighbors.get(iditer);
+          oldRev.removeDBIDs(oldNeighbors);
+          boundSize(oldRev, items);
+          counter += processNewNeighbors(flag, sampleNew, oldNeighbors, newRev, oldRev);
+        }
       }
       counter_all += counter;
       if(LOG.isStatistics()) {
@@ -233,6 +284,8 @@ public class NNDescent<O> extends AbstractMaterializeKNNPreprocessor<O> {
       rate = (double) t / (double) (internal_k * size);
       if(LOG.isStatistics()) {
         LOG.statistics(new DoubleStatistic(prefix + ".update-rate", rate));
+        LOG.statistics(new LongStatistic(prefix + "." + iter + ".distance-computations", counter));
+        LOG.statistics(new LongStatistic(prefix + "." + iter + ".new-neighbors", t));
       }
       if(counter < delta * internal_k * size) {
         LOG.verbose("KNNGraph terminated because we performaned delta*k*size distance computations.");
@@ -247,6 +300,9 @@ public class NNDescent<O> extends AbstractMaterializeKNNPreprocessor<O> {
     if(LOG.isVerbose() && iter == iterations) {
       LOG.verbose("KNNGraph terminated because the maximum number of iterations was reached.");
     }
+    if(LOG.isStatistics()) {
+      LOG.statistics(new LongStatistic(prefix + ".iterations", Math.min(iter + 1, iterations)));
+    }
     LOG.setCompleted(progress);
     // convert store to storage
     storage = DataStoreFactory.FACTORY.makeStorage(ids, DataStoreFactory.HINT_DB, KNNList.class);
@@ -291,6 +347,20 @@ public class NNDescent<O> extends AbstractMaterializeKNNPreprocessor<O> {
     }
   }
 
+  /**
+   * Bound the size of a set by random sampling.
+   * 
+   * @param set Set to process
+   * @param items Maximum size
+   * @param random Random generator
+   */
+  private static void boundSize(HashSetModifiableDBIDs set, int items, Random random) {
+    if(set.size() > items) {
+      DBIDs sample = DBIDUtil.randomSample(set, items, random);
+      set.clear().addDBIDs(sample);
+    }
+  }
+
   /**
    * Process new neighbors.
    * 
@@ -401,6 +471,20 @@ public class NNDescent<O> extends AbstractMaterializeKNNPreprocessor<O> {
 
   private void addpair(WritableDataStore<HashSetModifiableDBIDs> newNeighbors, DBIDRef o1, DBIDRef o2) {
     final double distance = distanceQuery.distance(o1, o2);
+    if(locks != null) {
+      // Lock one object at a time only, to avoid deadlocks.
+      synchronized(lock(o1)) {
+        if(add(o1, o2, distance)) {
+          newNeighbors.get(o1).add(o2);
+        }
+      }
+      synchronized(lock(o2)) {
+        if(add(o2, o1, distance)) {
+          newNeighbors.get(o2).add(o1);
+        }
+      }
+      return;
+    }
     if(add(o1, o2, distance)) {
       newNeighbors.get(o1).add(o2);
     }
@@ -409,6 +493,16 @@ public class NNDescent<O> extends AbstractMaterializeKNNPreprocessor<O> {
     }
   }
 
+  /**
+   * Get the lock stripe of an object.
+   *
+   * @param id Object
+   * @return Lock
+   */
+  private Object lock(DBIDRef id) {
+    return locks[DBIDUtil.asInteger(id) & (LOCK_STRIPES - 1)];
+  }
+
   /**
    * samples newNeighbors for every object
    *
@@ -455,6 +549,127 @@ public class NNDescent<O> extends AbstractMaterializeKNNPreprocessor<O> {
     }
   }
 
+  /**
+   * Processor for the local join of each object, using multiple threads.
+   *
+   * @author Erich Schubert
+   */
+  private class LocalJoinProcessor implements Processor {
+    /**
+     * Flags to mark new neighbors.
+     */
+    private WritableDataStore<HashSetModifiableDBIDs> flag;
+
+    /**
+     * Sampled new forward neighbors.
+     */
+    private WritableDataStore<HashSetModifiableDBIDs> sampleNewNeighbors;
+
+    /**
+     * New reverse neighbors.
+     */
+    private WritableDataStore<HashSetModifiableDBIDs> newReverseNeighbors;
+
+    /**
+     * Old reverse neighbors.
+     */
+    private WritableDataStore<HashSetModifiableDBIDs> oldReverseNeighbors;
+
+    /**
+     * Sample size.
+     */
+    private int items;
+
+    /**
+     * Number of distance computations.
+     */
+    protected AtomicLong counter = new AtomicLong();
+
+    /**
+     * Constructor.
+     *
+     * @param flag Flags to mark new neighbors
+     * @param sampleNewNeighbors Sampled new forward neighbors
+     * @param newReverseNeighbors New reverse neighbors
+     * @param oldReverseNeighbors Old reverse neighbors
+     * @param items Sample size
+     */
+    protected LocalJoinProcessor(WritableDataStore<HashSetModifiableDBIDs> flag, WritableDataStore<HashSetModifiableDBIDs> sampleNewNeighbors, WritableDataStore<HashSetModifiableDBIDs> newReverseNeighbors, WritableDataStore<HashSetModifiableDBIDs> oldReverseNeighbors, int items) {
+      super();
+      this.flag = flag;
+      this.sampleNewNeighbors = sampleNewNeighbors;
+      this.newReverseNeighbors = newReverseNeighbors;
+      this.oldReverseNeighbors = oldReverseNeighbors;
+      this.items = items;
+    }
+
+    @Override
+    public Instance instantiate(Executor executor) {
+      synchronized(rnd) {
+        return new Instance(rnd.getSingleThreadedRandom());
+      }
+    }
+
+    @Override
+    public void cleanup(Processor.Instance inst) {
+      @SuppressWarnings("unchecked") // Inner class of a generic class
+      Instance instance = (Instance) inst;
+      counter.addAndGet(instance.counter);
+    }
+
+    /**
+     * Instance for a single thread.
+     *
+     * @author Erich Schubert
+     */
+    private class Instance implements Processor.Instance {
+      /**
+       * Random generator of this thread.
+       */
+      private Random random;
+
+      /**
+       * Number of distance computations.
+       */
+      private long counter;
+
+      /**
+       * Constructor.
+       *
+       * @param random Random generator
+       */
+      protected Instance(Random random) {
+        super();
+        this.random = random;
+      }
+
+      @Override
+      public void map(DBIDRef id) {
+        // determine new and old neighbors
+        HashSetModifiableDBIDs oldNeighbors = DBIDUtil.newHashSet();
+        synchronized(lock(id)) {
+          HashSetModifiableDBIDs newNeighbors = flag.get(id);
+          for(DoubleDBIDIter heapiter = store.get(id).unorderedIterator(); heapiter.valid(); heapiter.advance()) {
+            if(!newNeighbors.contains(heapiter)) {
+              oldNeighbors.add(heapiter);
+            }
+          }
+        }
+        // The sampled and reverse neighbor sets are only used by this object.
+        HashSetModifiableDBIDs sampleNew = sampleNewNeighbors.get(id);
+
+        HashSetModifiableDBIDs newRev = newReverseNeighbors.get(id);
+        newRev.removeDBIDs(sampleNew);
+        boundSize(newRev, items, random);
+
+        HashSetModifiableDBIDs oldRev = oldReverseNeighbors.get(id);
+        oldRev.removeDBIDs(oldNeighbors);
+        boundSize(oldRev, items, random);
+        counter += processNewNeighbors(flag, sampleNew, oldNeighbors, newRev, oldRev);
+      }
+    }
+  }
+
   @Override
   protected Logging getLogger() {
     return LOG;
@@ -499,6 +714,11 @@ public class NNDescent<O> extends AbstractMaterializeKNNPreprocessor<O> {
      */
     private final int iterations;
 
+    /**
+     * Use multiple threads for the local join.
+     */
+    private final boolean parallel;
+
     /**
      * Constructor.
      *
@@ -511,17 +731,34 @@ public class NNDescent<O> extends AbstractMaterializeKNNPreprocessor<O> {
      * @param iterations Maximum number of iterations
      */
     public Factory(int k, Distance<? super O> distance, RandomFactory rnd, double delta, double rho, boolean noInitialNeighbors, int iterations) {
+      this(k, distance, rnd, delta, rho, noInitialNeighbors, iterations, false);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param k K
+     * @param distance distance function
+     * @param rnd Random generator
+     * @param delta Delta threshold
+     * @param rho Rho threshold
+     * @param noInitialNeighbors Do not use initial neighbors
+     * @param iterations Maximum number of iterations
+     * @param parallel Use multiple threads for the local join
+     */
+    public Factory(int k, Distance<? super O> distance, RandomFactory rnd, double delta, double rho, boolean noInitialNeighbors, int iterations, boolean parallel) {
       super(k, distance);
       this.rnd = rnd;
       this.delta = delta;
       this.rho = rho;
       this.noInitialNeighbors = noInitialNeighbors;
       this.iterations = iterations;
+      this.parallel = parallel;
     }
 
     @Override
     public NNDescent<O> instantiate(Relation<O> relation) {
-      return new NNDescent<>(relation, distance, k, rnd, delta, rho, noInitialNeighbors, iterations);
+      return new NNDescent<>(relation, distance, k, rnd, delta, rho, noInitialNeighbors, iterations, parallel);
     }
 
     /**
@@ -559,6 +796,11 @@ public class NNDescent<O> extends AbstractMaterializeKNNPreprocessor<O> {
        */
       public static final OptionID ITER_ID = new OptionID("knngraph.maxiter", "maximum number of iterations");
 
+      /**
+       * Use multiple threads for the local join.
+       */
+      public static final OptionID PARALLEL_ID = new OptionID("knngraph.parallel", "Use multiple threads for the local join.");
+
       /**
        * Random generator
        */
@@ -584,6 +826,11 @@ public class NNDescent<O> extends AbstractMaterializeKNNPreprocessor<O> {
        */
       private int iterations;
 
+      /**
+       * Use multiple threads
+       */
+      private boolean parallel;
+
       @Override
       public void configure(Parameterization config) {
         super.configure(config);
@@ -598,11 +845,12 @@ public class NNDescent<O> extends AbstractMaterializeKNNPreprocessor<O> {
         new IntParameter(ITER_ID, 100) //
             .addConstraint(CommonConstraints.GREATER_EQUAL_ONE_INT) //
             .grab(config, x -> iterations = x);
+        new Flag(PARALLEL_ID).grab(config, x -> parallel = x);
       }
 
       @Override
       public NNDescent.Factory<O> make() {
-        return new NNDescent.Factory<>(k, distance, rnd, delta, rho, noInitialNeighbors, iterations);
+        return new NNDescent.Factory<>(k, distance, rnd, delta, rho, noInitialNeighbors, iterations, parallel);
       }
     }
   }
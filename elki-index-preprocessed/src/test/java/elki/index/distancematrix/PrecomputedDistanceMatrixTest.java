@@ -22,6 +22,9 @@ package elki.index.distancematrix;
 
 import static org.junit.Assert.assertTrue;
 
+import java.io.File;
+import java.io.IOException;
+
 import org.junit.Test;
 
 import elki.algorithm.AbstractSimpleAlgorithmTest;
@@ -60,6 +63,17 @@ public class PrecomputedDistanceMatrixTest extends AbstractIndexStructureTest {
     assertSinglePoint(factory, PrecomputedDistanceMatrix.PrecomputedKNNQuery.class, PrecomputedDistanceMatrix.PrecomputedRangeQuery.class);
   }
 
+  @Test
+  public void testEuclideanMapped() throws IOException {
+    File file = File.createTempFile("elki-matrix", ".bin");
+    file.deleteOnExit();
+    PrecomputedDistanceMatrix.Factory<?> factory = new ELKIBuilder<>(PrecomputedDistanceMatrix.Factory.class) //
+        .with(PrecomputedDistanceMatrix.Factory.Par.DISTANCE_ID, EuclideanDistance.class) //
+        .with(PrecomputedDistanceMatrix.Factory.Par.FILE_ID, file.getPath()).build();
+    assertExactEuclidean(factory, PrecomputedDistanceMatrix.PrecomputedKNNQuery.class, PrecomputedDistanceMatrix.PrecomputedRangeQuery.class, true);
+    assertSinglePoint(factory, PrecomputedDistanceMatrix.PrecomputedKNNQuery.class, PrecomputedDistanceMatrix.PrecomputedRangeQuery.class);
+  }
+
   /**
    * This test is to validate the odd optimized sorting logic for partial search
    * based on the distance matrix, which tries to combine benefits of
@@ -22,6 +22,10 @@ package elki.index.preprocessed.knn;
 
 import static org.junit.Assert.*;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Random;
@@ -121,6 +125,71 @@ public class MaterializedKNNPreprocessorTest {
     testKNNQueries(relation, lin_knn_query, preproc_knn_query, k);
   }
 
+  @Test
+  public void testParallelAndFile() throws IOException {
+    UpdatableDatabase db = new ELKIBuilder<>(HashmapDatabase.class) //
+        .with(FileBasedDatabaseConnection.Par.INPUT_ID, getClass().getClassLoader().getResource(dataset)) //
+        .build();
+    db.initialize();
+    Relation<DoubleVector> relation = db.getRelation(TypeUtil.DOUBLE_VECTOR_FIELD);
+    DistanceQuery<DoubleVector> distanceQuery = new QueryBuilder<>(relation, EuclideanDistance.STATIC).distanceQuery();
+    KNNSearcher<DBIDRef> lin_knn_query = new LinearScanKNNByDBID<>(distanceQuery);
+    Path file = Files.createTempFile("knn", ".bin");
+    Files.delete(file);
+    try {
+      MaterializeKNNPreprocessor.Factory<DoubleVector> factory = //
+          new ELKIBuilder<MaterializeKNNPreprocessor.Factory<DoubleVector>>(MaterializeKNNPreprocessor.Factory.class) //
+              .with(MaterializeKNNPreprocessor.Factory.DISTANCE_FUNCTION_ID, distanceQuery.getDistance()) //
+              .with(MaterializeKNNPreprocessor.Factory.K_ID, k) //
+              .with(MaterializeKNNPreprocessor.Factory.Par.PARALLEL_ID) //
+              .with(MaterializeKNNPreprocessor.Factory.Par.FILE_ID, file.toString()) //
+              .build();
+      MaterializeKNNPreprocessor<DoubleVector> preproc = factory.instantiate(relation);
+      KNNSearcher<DBIDRef> preproc_knn_query = preproc.kNNByDBID(distanceQuery, k, 0);
+      Metadata.hierarchyOf(relation).addChild(preproc);
+      assertKNNClose(relation, lin_knn_query, preproc_knn_query);
+      assertTrue("kNN file was not written.", Files.size(file) > 4);
+
+      // Large enough to use multiple threads:
+      List<DoubleVector> insertions = new ArrayList<>();
+      NumberVector.Factory<DoubleVector> o = RelationUtil.getNumberVectorFactory(relation);
+      int dim = RelationUtil.dimensionality(relation);
+      Random random = new Random(seed);
+      for(int i = 0; i < 1500; i++) {
+        insertions.add(VectorUtil.randomVector(o, dim, random));
+      }
+      DBIDs inserted = db.insert(MultipleObjectsBundle.makeSimple(relation.getDataTypeInformation(), insertions));
+      assertKNNClose(relation, lin_knn_query, preproc_knn_query);
+      db.delete(DBIDUtil.randomSample(inserted, 500, random));
+      assertKNNClose(relation, lin_knn_query, preproc_knn_query);
+
+      // Store, and reload without recomputing:
+      preproc.save(file);
+      Files.setLastModifiedTime(file, FileTime.fromMillis(0));
+      MaterializeKNNPreprocessor<DoubleVector> loaded = factory.instantiate(relation);
+      assertKNNClose(relation, lin_knn_query, loaded.kNNByDBID(distanceQuery, k, 0));
+      assertEquals("kNN file should not have been rewritten.", 0, Files.getLastModifiedTime(file).toMillis());
+    }
+    finally {
+      Files.deleteIfExists(file);
+    }
+  }
+
+  /**
+   * Compare kNN distances, allowing for different rounding (the preprocessor
+   * uses the optimized Euclidean linear scan).
+   */
+  private void assertKNNClose(Relation<DoubleVector> rep, KNNSearcher<DBIDRef> lin_knn_query, KNNSearcher<DBIDRef> preproc_knn_query) {
+    for(DBIDIter iter = rep.iterDBIDs(); iter.valid(); iter.advance()) {
+      KNNList lin_knn = lin_knn_query.getKNN(iter, k);
+      KNNList pre_knn = preproc_knn_query.getKNN(iter, k);
+      assertEquals("kNN sizes do not agree.", lin_knn.size(), pre_knn.size());
+      for(DoubleDBIDListIter lin = lin_knn.iter(), pre = pre_knn.iter(); lin.valid(); lin.advance(), pre.advance()) {
+        assertEquals("kNN distances do not agree.", lin.doubleValue(), pre.doubleValue(), 1e-15);
+      }
+    }
+  }
+
   public static void testKNNQueries(Relation<DoubleVector> rep, KNNSearcher<DBIDRef> lin_knn_query, KNNSearcher<DBIDRef> preproc_knn_query, int k) {
     assertNotEquals("Preprocessor knn query class incorrect.", lin_knn_query.getClass(), preproc_knn_query.getClass());
     for(DBIDIter iter = rep.iterDBIDs(); iter.valid(); iter.advance()) {
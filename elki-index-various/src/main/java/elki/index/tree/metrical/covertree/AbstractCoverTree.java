@@ -197,11 +197,29 @@ public abstract class AbstractCoverTree<O> implements Index {
    * @param collect Output list
    */
   protected void collectByCover(DBIDRef cur, ModifiableDoubleDBIDList candidates, double fmax, ModifiableDoubleDBIDList collect) {
+    distComputations += collectByCoverConcurrent(cur, candidates, fmax, collect);
+  }
+
+  /**
+   * Collect all elements with respect to a new routing object.
+   * <p>
+   * This variant may be used from multiple threads: it does not update the
+   * shared distance counter, but returns the number of distances computed.
+   * 
+   * @param cur Routing object
+   * @param candidates Candidate list
+   * @param fmax Maximum distance
+   * @param collect Output list
+   * @return Number of distance computations
+   */
+  protected int collectByCoverConcurrent(DBIDRef cur, ModifiableDoubleDBIDList candidates, double fmax, ModifiableDoubleDBIDList collect) {
     assert collect.isEmpty() : "Not empty";
+    int computations = 0;
     DoubleDBIDListIter it = candidates.iter().advance(); // Except first = cur!
     while(it.valid()) {
       assert !DBIDUtil.equal(cur, it);
-      final double dist = distance(cur, it);
+      final double dist = distanceQuery.distance(cur, it);
+      ++computations;
       if(dist <= fmax) { // Collect
         collect.add(dist, it);
         candidates.removeSwap(it.getOffset());
@@ -210,6 +228,7 @@ public abstract class AbstractCoverTree<O> implements Index {
         it.advance(); // Keep in candidates, outside cover radius.
       }
     }
+    return computations;
   }
 
   @Override
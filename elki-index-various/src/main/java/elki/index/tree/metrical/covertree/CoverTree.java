@@ -23,6 +23,9 @@ package elki.index.tree.metrical.covertree;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RecursiveTask;
 
 import elki.database.ids.*;
 import elki.database.query.PrioritySearcher;
@@ -34,11 +37,16 @@ import elki.distance.Distance;
 import elki.index.DistancePriorityIndex;
 import elki.logging.Logging;
 import elki.logging.statistics.DoubleStatistic;
+import elki.logging.statistics.Duration;
 import elki.logging.statistics.LongStatistic;
 import elki.math.MathUtil;
+import elki.parallel.ParallelCore;
 import elki.utilities.Priority;
 import elki.utilities.datastructures.heap.DoubleObjectMinHeap;
 import elki.utilities.documentation.Reference;
+import elki.utilities.optionhandling.OptionID;
+import elki.utilities.optionhandling.parameterization.Parameterization;
+import elki.utilities.optionhandling.parameters.Flag;
 
 /**
  * Cover tree data structure (in-memory). This is a <i>metrical</i> data
@@ -63,6 +71,10 @@ import elki.utilities.documentation.Reference;
  * parent nodes. It thus needs more than twice the memory of
  * {@link SimplifiedCoverTree}, but computes fewer distances.
  * <p>
+ * The bulk load can optionally use multiple threads: the candidates of each
+ * level are partitioned serially, while the subtrees of large partitions are
+ * built in parallel. The resulting tree is identical to the serial one.
+ * <p>
  * TODO: allow insertions and removals, as in the original publication.
  *
  * @author Erich Schubert
@@ -70,6 +82,7 @@ import elki.utilities.documentation.Reference;
  *
  * @has - - - CoverTreeRangeSearcher
  * @has - - - CoverTreeKNNSearcher
+ * @has - - - BulkTask
  */
 @Reference(authors = "A. Beygelzimer, S. Kakade, J. Langford", //
     title = "Cover trees for nearest neighbor", //
@@ -83,11 +96,26 @@ public class CoverTree<O> extends AbstractCoverTree<O> implements DistancePriori
    */
   private static final Logging LOG = Logging.getLogger(CoverTree.class);
 
+  /**
+   * Number of subtree tasks per thread to aim for in parallel bulk loading.
+   */
+  private static final int TASKS_PER_THREAD = 16;
+
+  /**
+   * Minimum subtree size to build in a separate task, to limit the overhead.
+   */
+  private static final int MIN_TASKSIZE = 100;
+
   /**
    * Tree root.
    */
   private Node root = null;
 
+  /**
+   * Build the tree using multiple threads.
+   */
+  protected boolean parallel;
+
   /**
    * Constructor.
    *
@@ -95,9 +123,11 @@ public class CoverTree<O> extends AbstractCoverTree<O> implements DistancePriori
    * @param distance distance function
    * @param expansion Expansion rate
    * @param truncate Truncate branches with less than this number of instances
+   * @param parallel Build the tree using multiple threads
    */
-  public CoverTree(Relation<O> relation, Distance<? super O> distance, double expansion, int truncate) {
+  public CoverTree(Relation<O> relation, Distance<? super O> distance, double expansion, int truncate, boolean parallel) {
     super(relation, distance, expansion, truncate);
+    this.parallel = parallel;
   }
 
   /**
@@ -105,10 +135,24 @@ public class CoverTree<O> extends AbstractCoverTree<O> implements DistancePriori
    *
    * @param relation data relation
    * @param distance distance function
+   * @param expansion Expansion rate
+   * @param truncate Truncate branches with less than this number of instances
+   */
+  public CoverTree(Relation<O> relation, Distance<? super O> distance, double expansion, int truncate) {
+    this(relation, distance, expansion, truncate, false);
+  }
+
+  /**
+   * Constructor.
+   * <p>
+   * Uses a parallel bulk load if more than one thread is available.
+   *
+   * @param relation data relation
+   * @param distance distance function
    */
   // Note: used from {@link EmpiricalQueryOptimizer} via reflection!
   public CoverTree(Relation<O> relation, Distance<? super O> distance) {
-    this(relation, distance, 1.3, 10);
+    this(relation, distance, 1.3, 10, ParallelCore.getCore().getParallelism() > 1);
   }
 
   /**
@@ -175,7 +219,11 @@ public class CoverTree<O> extends AbstractCoverTree<O> implements DistancePriori
 
   @Override
   public void initialize() {
+    Duration duration = LOG.isStatistics() ? LOG.newDuration(this.getClass().getName() + ".construction-time").begin() : null;
     bulkLoad(relation.getDBIDs());
+    if(duration != null) {
+      LOG.statistics(duration.end());
+    }
     if(LOG.isVerbose()) {
       int[] counts = new int[5];
       checkCoverTree(root, counts, 0);
@@ -204,7 +252,21 @@ public class CoverTree<O> extends AbstractCoverTree<O> implements DistancePriori
     for(it.advance(); it.valid(); it.advance()) {
       candidates.add(distance(first, it), it);
     }
-    root = bulkConstruct(first, Integer.MAX_VALUE, 0., candidates);
+    if(!parallel) {
+      root = bulkConstruct(first, Integer.MAX_VALUE, 0., candidates);
+      return;
+    }
+    ParallelCore core = ParallelCore.getCore();
+    core.connect();
+    try {
+      final int minsize = Math.max(MIN_TASKSIZE, ids.size() / (core.getParallelism() * TASKS_PER_THREAD));
+      Map<Thread, BuildStatistics> stats = new ConcurrentHashMap<>();
+      root = core.invoke(new BulkTask(first, Integer.MAX_VALUE, 0., candidates, minsize, stats));
+      logBuildStatistics(stats);
+    }
+    finally {
+      core.disconnect();
+    }
   }
 
   /**
@@ -220,53 +282,222 @@ public class CoverTree<O> extends AbstractCoverTree<O> implements DistancePriori
    * @return Root node of subtree
    */
   protected Node bulkConstruct(DBIDRef cur, int maxScale, double parentDist, ModifiableDoubleDBIDList elems) {
-    final double max = maxDistance(elems);
-    final int scale = Math.min(distToScale(max) - 1, maxScale);
-    final int nextScale = scale - 1;
-    // Leaf node, because points coincide, we are too deep, or have too few
-    // elements remaining:
-    if(max <= 0 || scale <= scaleBottom || elems.size() < truncate) {
-      return new Node(cur, max, parentDist, elems);
-    }
-    // Find neighbors in the cover of the current object:
-    ModifiableDoubleDBIDList candidates = DBIDUtil.newDistanceDBIDList();
-    excludeNotCovered(elems, scaleToDist(scale), candidates);
-    // If no elements were not in the cover, build a compact tree:
-    if(candidates.isEmpty()) {
-      LOG.warning("Scale not chosen appropriately? " + max + " " + scaleToDist(scale));
-      return bulkConstruct(cur, nextScale, parentDist, elems);
-    }
-    // We will have at least one other child, so build the parent:
-    Node node = new Node(cur, max, parentDist);
-    // Routing element now is a singleton:
-    final boolean curSingleton = elems.isEmpty();
-    if(!curSingleton) {
-      // Add node for the routing object:
-      node.children.add(bulkConstruct(cur, nextScale, 0, elems));
-    }
-    final double fmax = scaleToDist(nextScale);
-    // Build additional cover nodes:
-    for(DoubleDBIDListIter it = candidates.iter(); it.valid();) {
-      assert it.getOffset() == 0;
-      DBID t = DBIDUtil.deref(it);
-      collectByCover(it, candidates, fmax, elems.clear());
-      assert DBIDUtil.equal(t, it) : "First element in candidates must not change!";
-      if(elems.isEmpty()) { // Singleton
-        node.singletons.add(it.doubleValue(), it);
+    BulkTask task = new BulkTask(cur, maxScale, parentDist, elems, Integer.MAX_VALUE, null);
+    Node node = task.bulkConstruct(cur, maxScale, parentDist, elems);
+    distComputations += task.distComputations;
+    return node;
+  }
+
+  /**
+   * Add the distance computations of the parallel bulk load, and log the
+   * per-thread statistics.
+   *
+   * @param stats Statistics of each worker thread
+   */
+  private void logBuildStatistics(Map<Thread, BuildStatistics> stats) {
+    List<Map.Entry<Thread, BuildStatistics>> entries = new ArrayList<>(stats.entrySet());
+    entries.sort((a, b) -> a.getKey().getName().compareTo(b.getKey().getName()));
+    final String prefix = this.getClass().getName() + ".construction.";
+    int i = 0;
+    for(Map.Entry<Thread, BuildStatistics> e : entries) {
+      final BuildStatistics s = e.getValue();
+      distComputations += s.distComputations;
+      if(LOG.isStatistics()) {
+        LOG.statistics(new LongStatistic(prefix + "thread-" + i + ".subtrees", s.subtrees));
+        LOG.statistics(new LongStatistic(prefix + "thread-" + i + ".distance-computations", s.distComputations));
+      }
+      ++i;
+    }
+    if(LOG.isStatistics()) {
+      LOG.statistics(new LongStatistic(prefix + "threads", entries.size()));
+    }
+  }
+
+  /**
+   * Work done by a single thread during parallel bulk loading.
+   *
+   * @author Erich Schubert
+   */
+  private static class BuildStatistics {
+    /**
+     * Number of subtrees built.
+     */
+    long subtrees;
+
+    /**
+     * Number of distance computations.
+     */
+    long distComputations;
+  }
+
+  /**
+   * Task to bulk-load a subtree. Subtrees with at least {@code minsize}
+   * candidates are forked as separate tasks; they receive their own candidate
+   * lists, and are joined in the original order of the children, so the
+   * result does not depend on scheduling.
+   *
+   * @author Erich Schubert
+   */
+  private class BulkTask extends RecursiveTask<Node> {
+    /**
+     * Serialization version.
+     */
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Routing object.
+     */
+    private DBIDRef cur;
+
+    /**
+     * Maximum scale.
+     */
+    private int maxScale;
+
+    /**
+     * Distance to parent element.
+     */
+    private double parentDist;
+
+    /**
+     * Candidates.
+     */
+    private ModifiableDoubleDBIDList elems;
+
+    /**
+     * Minimum size of subtrees to fork.
+     */
+    private int minsize;
+
+    /**
+     * Per-thread statistics, {@code null} when running serially.
+     */
+    private Map<Thread, BuildStatistics> stats;
+
+    /**
+     * Distance computations performed by this task.
+     */
+    long distComputations = 0L;
+
+    /**
+     * Constructor.
+     *
+     * @param cur Routing object
+     * @param maxScale Maximum scale
+     * @param parentDist Distance to parent element
+     * @param elems Candidates
+     * @param minsize Minimum size of subtrees to fork
+     * @param stats Per-thread statistics, {@code null} when running serially
+     */
+    BulkTask(DBIDRef cur, int maxScale, double parentDist, ModifiableDoubleDBIDList elems, int minsize, Map<Thread, BuildStatistics> stats) {
+      this.cur = cur;
+      this.maxScale = maxScale;
+      this.parentDist = parentDist;
+      this.elems = elems;
+      this.minsize = minsize;
+      this.stats = stats;
+    }
+
+    @Override
+    protected Node compute() {
+      Node node = bulkConstruct(cur, maxScale, parentDist, elems);
+      BuildStatistics s = stats.computeIfAbsent(Thread.currentThread(), x -> new BuildStatistics());
+      s.subtrees++;
+      s.distComputations += distComputations;
+      return node;
+    }
+
+    /**
+     * Bulk-load the cover tree.
+     *
+     * @param cur Current routing object
+     * @param maxScale Maximum scale
+     * @param parentDist Distance to parent element
+     * @param elems Candidates
+     * @return Root node of subtree
+     */
+    Node bulkConstruct(DBIDRef cur, int maxScale, double parentDist, ModifiableDoubleDBIDList elems) {
+      final double max = maxDistance(elems);
+      final int scale = Math.min(distToScale(max) - 1, maxScale);
+      final int nextScale = scale - 1;
+      // Leaf node, because points coincide, we are too deep, or have too few
+      // elements remaining:
+      if(max <= 0 || scale <= scaleBottom || elems.size() < truncate) {
+        return new Node(cur, max, parentDist, elems);
+      }
+      // Find neighbors in the cover of the current object:
+      ModifiableDoubleDBIDList candidates = DBIDUtil.newDistanceDBIDList();
+      excludeNotCovered(elems, scaleToDist(scale), candidates);
+      // If no elements were not in the cover, build a compact tree:
+      if(candidates.isEmpty()) {
+        LOG.warning("Scale not chosen appropriately? " + max + " " + scaleToDist(scale));
+        return bulkConstruct(cur, nextScale, parentDist, elems);
+      }
+      // We will have at least one other child, so build the parent:
+      Node node = new Node(cur, max, parentDist);
+      // Subtrees built by other tasks:
+      List<BulkTask> forked = stats != null ? new ArrayList<>() : null;
+      // Routing element now is a singleton:
+      final boolean curSingleton = elems.isEmpty();
+      if(!curSingleton) {
+        // Add node for the routing object:
+        elems = buildChild(node, cur, nextScale, 0, elems, forked);
       }
-      else {
-        // Build a full child node:
-        node.children.add(bulkConstruct(it, nextScale, it.doubleValue(), elems));
+      final double fmax = scaleToDist(nextScale);
+      // Build additional cover nodes:
+      for(DoubleDBIDListIter it = candidates.iter(); it.valid();) {
+        assert it.getOffset() == 0;
+        DBID t = DBIDUtil.deref(it);
+        distComputations += collectByCoverConcurrent(it, candidates, fmax, elems.clear());
+        assert DBIDUtil.equal(t, it) : "First element in candidates must not change!";
+        if(elems.isEmpty()) { // Singleton
+          node.singletons.add(it.doubleValue(), it);
+        }
+        else {
+          // Build a full child node:
+          elems = buildChild(node, it, nextScale, it.doubleValue(), elems, forked);
+        }
+        candidates.removeSwap(0);
+      }
+      assert candidates.isEmpty();
+      // Routing object is not yet handled:
+      if(curSingleton && !node.children.isEmpty()) {
+        node.singletons.add(0., cur); // Add as regular singleton.
+      }
+      // Collect the subtrees built in parallel:
+      if(forked != null && !forked.isEmpty()) {
+        for(int i = 0, j = 0; i < node.children.size(); i++) {
+          if(node.children.get(i) == null) {
+            node.children.set(i, forked.get(j++).join());
+          }
+        }
       }
-      candidates.removeSwap(0);
+      // TODO: improve recycling of lists?
+      return node;
     }
-    assert candidates.isEmpty();
-    // Routing object is not yet handled:
-    if(curSingleton && !node.children.isEmpty()) {
-      node.singletons.add(parentDist, cur); // Add as regular singleton.
+
+    /**
+     * Build a child node, either directly or in a forked task.
+     *
+     * @param node Parent node
+     * @param cur Routing object of the child
+     * @param nextScale Scale of the child
+     * @param parentDist Distance to the parent routing object
+     * @param elems Candidates of the child
+     * @param forked List of forked tasks, {@code null} when running serially
+     * @return Candidate list for reuse
+     */
+    private ModifiableDoubleDBIDList buildChild(Node node, DBIDRef cur, int nextScale, double parentDist, ModifiableDoubleDBIDList elems, List<BulkTask> forked) {
+      if(forked == null || elems.size() < minsize) {
+        node.children.add(bulkConstruct(cur, nextScale, parentDist, elems));
+        return elems;
+      }
+      BulkTask task = new BulkTask(DBIDUtil.deref(cur), nextScale, parentDist, elems, minsize, stats);
+      task.fork();
+      forked.add(task);
+      node.children.add(null); // Placeholder, until joined
+      return DBIDUtil.newDistanceDBIDList();
     }
-    // TODO: improve recycling of lists?
-    return node;
   }
 
   /**
@@ -814,20 +1045,38 @@ public class CoverTree<O> extends AbstractCoverTree<O> implements DistancePriori
    * @param <O> Object type
    */
   public static class Factory<O> extends AbstractCoverTree.Factory<O> {
+    /**
+     * Build the tree using multiple threads.
+     */
+    protected boolean parallel;
+
     /**
      * Constructor.
      *
      * @param distance Distance function
      * @param expansion Expansion rate
      * @param truncate Truncate branches with less than this number of instances
+     * @param parallel Build the tree using multiple threads
      */
-    public Factory(Distance<? super O> distance, double expansion, int truncate) {
+    public Factory(Distance<? super O> distance, double expansion, int truncate, boolean parallel) {
       super(distance, expansion, truncate);
+      this.parallel = parallel;
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param distance Distance function
+     * @param expansion Expansion rate
+     * @param truncate Truncate branches with less than this number of instances
+     */
+    public Factory(Distance<? super O> distance, double expansion, int truncate) {
+      this(distance, expansion, truncate, false);
     }
 
     @Override
     public CoverTree<O> instantiate(Relation<O> relation) {
-      return new CoverTree<>(relation, distance, expansion, truncate);
+      return new CoverTree<>(relation, distance, expansion, truncate, parallel);
     }
 
     /**
@@ -836,9 +1085,25 @@ public class CoverTree<O> extends AbstractCoverTree<O> implements DistancePriori
      * @author Erich Schubert
      */
     public static class Par<O> extends AbstractCoverTree.Factory.Par<O> {
+      /**
+       * Flag to bulk-load the tree using multiple threads.
+       */
+      public static final OptionID PARALLEL_ID = new OptionID("covertree.parallel", "Bulk-load the tree using multiple threads.");
+
+      /**
+       * Build the tree using multiple threads.
+       */
+      protected boolean parallel;
+
+      @Override
+      public void configure(Parameterization config) {
+        super.configure(config);
+        new Flag(PARALLEL_ID).grab(config, x -> parallel = x);
+      }
+
       @Override
       public CoverTree.Factory<O> make() {
-        return new CoverTree.Factory<>(distance, expansion, truncate);
+        return new CoverTree.Factory<>(distance, expansion, truncate, parallel);
       }
     }
   }
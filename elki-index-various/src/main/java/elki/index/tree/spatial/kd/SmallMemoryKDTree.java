@@ -20,7 +20,14 @@
  */
 package elki.index.tree.spatial.kd;
 
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.IntConsumer;
+
 import elki.data.NumberVector;
+import elki.data.SparseNumberVector;
 import elki.data.type.TypeInformation;
 import elki.data.type.TypeUtil;
 import elki.database.ids.*;
@@ -32,22 +39,28 @@ import elki.database.relation.Relation;
 import elki.database.relation.RelationUtil;
 import elki.distance.Distance;
 import elki.distance.PrimitiveDistance;
-import elki.distance.minkowski.LPNormDistance;
-import elki.distance.minkowski.SparseLPNormDistance;
-import elki.distance.minkowski.SquaredEuclideanDistance;
+import elki.distance.minkowski.*;
 import elki.index.DistancePriorityIndex;
 import elki.index.IndexFactory;
 import elki.logging.Logging;
+import elki.logging.statistics.AtomicLongCounter;
 import elki.logging.statistics.Counter;
+import elki.math.MathUtil;
+import elki.parallel.ParallelCore;
+import elki.parallel.ParallelExecutor;
 import elki.utilities.Alias;
+import elki.utilities.datastructures.arrays.IntegerArrayQuickSort;
 import elki.utilities.datastructures.heap.ComparableMinHeap;
 import elki.utilities.documentation.Reference;
 import elki.utilities.optionhandling.OptionID;
 import elki.utilities.optionhandling.Parameterizer;
 import elki.utilities.optionhandling.constraints.CommonConstraints;
 import elki.utilities.optionhandling.parameterization.Parameterization;
+import elki.utilities.optionhandling.parameters.Flag;
 import elki.utilities.optionhandling.parameters.IntParameter;
 
+import net.jafama.FastMath;
+
 /**
  * Simple implementation of a static in-memory K-D-tree. Does not support
  * dynamic updates or anything, but also is very simple and memory efficient:
@@ -58,6 +71,13 @@ import elki.utilities.optionhandling.parameters.IntParameter;
  * it is also considerably faster because it does not need to lookup this value
  * from the vectors.
  * <p>
+ * For dense vectors, the coordinates are additionally copied into a single
+ * array in tree order, so that the common Minkowski distances can be computed
+ * with linear memory access instead of going through the relation. This needs
+ * one additional double per coordinate.
+ * Optionally, the tree can be built with multiple threads, and batches of
+ * queries can be answered in parallel.
+ * <p>
  * Reference:
  * <p>
  * J. L. Bentley<br>
@@ -85,6 +105,46 @@ public class SmallMemoryKDTree<O extends NumberVector> implements DistancePriori
    */
   private static final Logging LOG = Logging.getLogger(SmallMemoryKDTree.class);
 
+  /**
+   * Minimum number of elements to build in a separate task.
+   */
+  private static final int MIN_TASKSIZE = 1 << 12;
+
+  /**
+   * Minimum number of queries per block in batch processing.
+   */
+  private static final int MIN_BATCHSIZE = 64;
+
+  /**
+   * Number of query blocks per thread to aim for in batch processing.
+   */
+  private static final int BLOCKS_PER_THREAD = 16;
+
+  /**
+   * Distances computed via the relation.
+   */
+  private static final int FLAT_NONE = 0;
+
+  /**
+   * Squared Euclidean distance on the flat copy.
+   */
+  private static final int FLAT_SQUARED_EUCLIDEAN = 1;
+
+  /**
+   * Euclidean distance on the flat copy.
+   */
+  private static final int FLAT_EUCLIDEAN = 2;
+
+  /**
+   * Manhattan distance on the flat copy.
+   */
+  private static final int FLAT_MANHATTAN = 3;
+
+  /**
+   * Maximum distance on the flat copy.
+   */
+  private static final int FLAT_MAXIMUM = 4;
+
   /**
    * The representation we are bound to.
    */
@@ -95,6 +155,11 @@ public class SmallMemoryKDTree<O extends NumberVector> implements DistancePriori
    */
   protected ModifiableDoubleDBIDList sorted = null;
 
+  /**
+   * Coordinates of the data in tree order, or {@code null}.
+   */
+  protected double[] flat = null;
+
   /**
    * The number of dimensions.
    */
@@ -105,6 +170,11 @@ public class SmallMemoryKDTree<O extends NumberVector> implements DistancePriori
    */
   protected int leafsize;
 
+  /**
+   * Build the tree and process query batches using multiple threads.
+   */
+  protected boolean parallel;
+
   /**
    * Counter for comparisons.
    */
@@ -120,15 +190,18 @@ public class SmallMemoryKDTree<O extends NumberVector> implements DistancePriori
    *
    * @param relation Relation to index
    * @param leafsize Maximum size of leaf nodes
+   * @param parallel Build the tree and process query batches using multiple
+   *        threads
    */
-  public SmallMemoryKDTree(Relation<O> relation, int leafsize) {
+  public SmallMemoryKDTree(Relation<O> relation, int leafsize, boolean parallel) {
     this.relation = relation;
     this.leafsize = leafsize;
+    this.parallel = parallel;
     assert (leafsize >= 1);
     if(LOG.isStatistics()) {
       String prefix = this.getClass().getName();
-      this.objaccess = LOG.newCounter(prefix + ".objaccess");
-      this.distcalc = LOG.newCounter(prefix + ".distancecalcs");
+      this.objaccess = parallel ? new AtomicLongCounter(prefix + ".objaccess") : LOG.newCounter(prefix + ".objaccess");
+      this.distcalc = parallel ? new AtomicLongCounter(prefix + ".distancecalcs") : LOG.newCounter(prefix + ".distancecalcs");
     }
     else {
       this.objaccess = null;
@@ -136,6 +209,19 @@ public class SmallMemoryKDTree<O extends NumberVector> implements DistancePriori
     }
   }
 
+  /**
+   * Constructor.
+   * <p>
+   * Uses multiple threads if more than one thread is available.
+   *
+   * @param relation Relation to index
+   * @param leafsize Maximum size of leaf nodes
+   */
+  // Note: used from {@link EmpiricalQueryOptimizer} via reflection!
+  public SmallMemoryKDTree(Relation<O> relation, int leafsize) {
+    this(relation, leafsize, ParallelCore.getCore().getParallelism() > 1);
+  }
+
   @Override
   public void initialize() {
     sorted = DBIDUtil.newDistanceDBIDList(relation.size());
@@ -143,7 +229,29 @@ public class SmallMemoryKDTree<O extends NumberVector> implements DistancePriori
     for(DBIDIter it = relation.iterDBIDs(); it.valid(); it.advance()) {
       sorted.add(Double.NaN, it);
     }
-    buildTree(0, sorted.size(), 0, sorted.iter());
+    final int size = sorted.size();
+    // Dense copy of the data, if it fits into a single array:
+    final boolean dense = size > 0 && (long) size * dims < Integer.MAX_VALUE - 8 //
+        && !(relation.get(sorted.iter()) instanceof SparseNumberVector);
+    flat = dense ? new double[size * dims] : null;
+    if(!parallel) {
+      buildTree(0, size, 0, sorted.iter());
+      if(flat != null) {
+        flatten(0, size);
+      }
+      return;
+    }
+    ParallelCore core = ParallelCore.getCore();
+    core.connect();
+    try {
+      core.invoke(new BuildTask(0, size, 0));
+      if(flat != null) {
+        ParallelExecutor.forEach(size, blocksize(core, size), i -> flatten(i, i + 1));
+      }
+    }
+    finally {
+      core.disconnect();
+    }
   }
 
   /**
@@ -160,7 +268,9 @@ public class SmallMemoryKDTree<O extends NumberVector> implements DistancePriori
     assert (left < right);
     for(iter.seek(left); iter.getOffset() < right; iter.advance()) {
       iter.setDouble(relation.get(iter).doubleValue(axis));
-      countObjectAccess();
+    }
+    if(objaccess != null) {
+      objaccess.increment(right - left);
     }
     if(right - left <= leafsize) {
       return;
@@ -169,6 +279,11 @@ public class SmallMemoryKDTree<O extends NumberVector> implements DistancePriori
     int middle = (left + right) >>> 1;
     QuickSelectDBIDs.quickSelect(sorted, left, right, middle);
     final int next = next(axis);
+    // Large enough to build both halves in parallel:
+    if(parallel && right - left >= MIN_TASKSIZE) {
+      ForkJoinTask.invokeAll(new BuildTask(left, middle, next), new BuildTask(middle + 1, right, next));
+      return;
+    }
     if(left < middle) {
       buildTree(left, middle, next, iter);
     }
@@ -178,6 +293,203 @@ public class SmallMemoryKDTree<O extends NumberVector> implements DistancePriori
     }
   }
 
+  /**
+   * Task to build a subtree.
+   *
+   * @author Erich Schubert
+   */
+  private class BuildTask extends RecursiveAction {
+    /**
+     * Serialization version.
+     */
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Interval minimum
+     */
+    private int left;
+
+    /**
+     * Interval maximum
+     */
+    private int right;
+
+    /**
+     * Splitting axis
+     */
+    private int axis;
+
+    /**
+     * Constructor.
+     *
+     * @param left Interval minimum
+     * @param right Interval maximum
+     * @param axis Splitting axis
+     */
+    BuildTask(int left, int right, int axis) {
+      this.left = left;
+      this.right = right;
+      this.axis = axis;
+    }
+
+    @Override
+    protected void compute() {
+      buildTree(left, right, axis, sorted.iter());
+    }
+  }
+
+  /**
+   * Copy the coordinates of a range of the sorted list into the flat array.
+   *
+   * @param start First position
+   * @param end End position (exclusive)
+   */
+  private void flatten(int start, int end) {
+    DoubleDBIDListIter iter = sorted.iter();
+    for(int i = start, off = start * dims; i < end; i++) {
+      final O v = relation.get(iter.seek(i));
+      for(int d = 0; d < dims; d++, off++) {
+        flat[off] = v.doubleValue(d);
+      }
+    }
+  }
+
+  /**
+   * Choose how to compute distances with the flat copy of the data.
+   *
+   * @param distance Distance function
+   * @return Kernel constant
+   */
+  private int flatKernel(PrimitiveDistance<? super O> distance) {
+    if(flat == null) {
+      return FLAT_NONE;
+    }
+    // Exact classes only, subclasses such as weighted distances differ.
+    final Class<?> c = distance.getClass();
+    return c == SquaredEuclideanDistance.class ? FLAT_SQUARED_EUCLIDEAN : //
+        c == EuclideanDistance.class ? FLAT_EUCLIDEAN : //
+            c == ManhattanDistance.class ? FLAT_MANHATTAN : //
+                c == MaximumDistance.class ? FLAT_MAXIMUM : FLAT_NONE;
+  }
+
+  /**
+   * Get the query coordinates, if the flat copy can be used.
+   *
+   * @param kernel Kernel constant
+   * @param query Query object
+   * @return Query coordinates, or {@code null}
+   */
+  private double[] flatQuery(int kernel, O query) {
+    return kernel != FLAT_NONE && query.getDimensionality() == dims ? query.toArray() : null;
+  }
+
+  /**
+   * Compute the distance from the query to the object at a tree position.
+   *
+   * @param distance Distance function
+   * @param kernel Kernel constant for the flat copy
+   * @param query Query object
+   * @param q Query coordinates, {@code null} to use the relation
+   * @param pos Position in the tree
+   * @return Distance
+   */
+  protected double distance(PrimitiveDistance<? super O> distance, int kernel, O query, double[] q, DoubleDBIDListIter pos) {
+    countDistanceComputation();
+    if(q == null) {
+      countObjectAccess();
+      return distance.distance(query, relation.get(pos));
+    }
+    double agg = 0.;
+    int off = pos.getOffset() * dims;
+    switch(kernel){
+    case FLAT_SQUARED_EUCLIDEAN:
+    case FLAT_EUCLIDEAN:
+      for(int d = 0; d < dims; d++, off++) {
+        final double delta = q[d] - flat[off];
+        agg += delta * delta;
+      }
+      return kernel == FLAT_EUCLIDEAN ? FastMath.sqrt(agg) : agg;
+    case FLAT_MANHATTAN:
+      for(int d = 0; d < dims; d++, off++) {
+        final double xd = q[d], yd = flat[off];
+        agg += xd >= yd ? xd - yd : yd - xd;
+      }
+      return agg;
+    case FLAT_MAXIMUM:
+      for(int d = 0; d < dims; d++, off++) {
+        final double xd = q[d], yd = flat[off];
+        final double delta = xd >= yd ? xd - yd : yd - xd;
+        agg = delta >= agg ? delta : agg;
+      }
+      return agg;
+    default:
+      throw new IllegalStateException("Unknown kernel: " + kernel);
+    }
+  }
+
+  /**
+   * Process a batch of queries.
+   * <p>
+   * The queries are processed in the order of the leaves they fall into, so
+   * that consecutive queries visit mostly the same (cached) parts of the tree.
+   * If enabled, blocks of queries are processed in parallel.
+   *
+   * @param queries Query objects
+   * @param op Operation to perform for each query index
+   */
+  protected void batch(List<? extends O> queries, IntConsumer op) {
+    final int n = queries.size();
+    final int[] order = MathUtil.sequence(0, n), leaf = new int[n];
+    for(int i = 0; i < n; i++) {
+      leaf[i] = findLeaf(queries.get(i));
+    }
+    IntegerArrayQuickSort.sort(order, (a, b) -> Integer.compare(leaf[a], leaf[b]));
+    if(!parallel || n < 2 * MIN_BATCHSIZE) {
+      for(int i : order) {
+        op.accept(i);
+      }
+      return;
+    }
+    ParallelExecutor.forEach(n, blocksize(ParallelCore.getCore(), n), i -> op.accept(order[i]));
+  }
+
+  /**
+   * Find the tree position a query object falls into.
+   *
+   * @param query Query object
+   * @return Leaf position
+   */
+  private int findLeaf(O query) {
+    DoubleDBIDListIter iter = sorted.iter();
+    int left = 0, right = sorted.size(), axis = 0;
+    while(right - left > leafsize) {
+      final int middle = (left + right) >>> 1;
+      final double split = iter.seek(middle).doubleValue(), v = query.doubleValue(axis);
+      if(v < split) {
+        right = middle;
+      }
+      else if(v > split && middle + 1 < right) {
+        left = middle + 1;
+      }
+      else {
+        return middle;
+      }
+      axis = next(axis);
+    }
+    return left;
+  }
+
+  /**
+   * Block size for parallel processing.
+   *
+   * @param core Parallel core
+   * @param n Number of elements
+   * @return Block size
+   */
+  private static int blocksize(ParallelCore core, int n) {
+    return Math.max(MIN_BATCHSIZE, n / (core.getParallelism() * BLOCKS_PER_THREAD));
+  }
+
   /**
    * Next axis.
    *
@@ -260,6 +572,11 @@ public class SmallMemoryKDTree<O extends NumberVector> implements DistancePriori
      */
     private PrimitiveDistance<? super O> distance;
 
+    /**
+     * Kernel for the flat copy of the data.
+     */
+    private int kernel;
+
     /**
      * Constructor.
      *
@@ -268,15 +585,29 @@ public class SmallMemoryKDTree<O extends NumberVector> implements DistancePriori
     public KDTreeKNNSearcher(PrimitiveDistance<? super O> distance) {
       super();
       this.distance = distance;
+      this.kernel = flatKernel(distance);
     }
 
     @Override
     public KNNList getKNN(O obj, int k) {
       final KNNHeap knns = DBIDUtil.newHeap(k);
-      kdKNNSearch(0, sorted.size(), 0, obj, knns, sorted.iter(), Double.POSITIVE_INFINITY);
+      kdKNNSearch(0, sorted.size(), 0, obj, flatQuery(kernel, obj), knns, sorted.iter(), Double.POSITIVE_INFINITY);
       return knns.toKNNList();
     }
 
+    /**
+     * Answer a batch of kNN queries.
+     *
+     * @param queries Query objects
+     * @param k Number of neighbors
+     * @return kNN lists, in the order of the queries
+     */
+    public List<KNNList> getKNN(List<? extends O> queries, int k) {
+      final KNNList[] res = new KNNList[queries.size()];
+      batch(queries, i -> res[i] = getKNN(queries.get(i), k));
+      return Arrays.asList(res);
+    }
+
     /**
      * Perform a kNN search on the k-d-tree.
      *
@@ -284,17 +615,16 @@ public class SmallMemoryKDTree<O extends NumberVector> implements DistancePriori
      * @param right Subtree end (exclusive)
      * @param axis Current splitting axis
      * @param query Query object
+     * @param q Query coordinates, or {@code null}
      * @param knns kNN heap
      * @param iter Iterator variable (reduces memory footprint!)
      * @param maxdist Current upper bound of kNN distance.
      * @return New upper bound of kNN distance.
      */
-    private double kdKNNSearch(int left, int right, int axis, O query, KNNHeap knns, DoubleDBIDListIter iter, double maxdist) {
+    private double kdKNNSearch(int left, int right, int axis, O query, double[] q, KNNHeap knns, DoubleDBIDListIter iter, double maxdist) {
       if(right - left <= leafsize) {
         for(iter.seek(left); iter.getOffset() < right; iter.advance()) {
-          double dist = distance.distance(query, relation.get(iter));
-          countObjectAccess();
-          countDistanceComputation();
+          double dist = distance(distance, kernel, query, q, iter);
           if(dist <= maxdist) {
             knns.insert(dist, iter);
           }
@@ -317,60 +647,51 @@ public class SmallMemoryKDTree<O extends NumberVector> implements DistancePriori
       // Exact match chance (delta == 0)!
       // process first, then descend both sides.
       if(onleft && onright) {
-        O split = relation.get(iter.seek(middle));
-        countObjectAccess();
-        double dist = distance.distance(query, split);
-        countDistanceComputation();
+        double dist = distance(distance, kernel, query, q, iter.seek(middle));
         if(dist <= maxdist) {
           assert (iter.getOffset() == middle);
           knns.insert(dist, iter /* .seek(middle) */);
           maxdist = knns.getKNNDistance();
         }
         if(left < middle) {
-          maxdist = kdKNNSearch(left, middle, next, query, knns, iter, maxdist);
+          maxdist = kdKNNSearch(left, middle, next, query, q, knns, iter, maxdist);
         }
         if(middle + 1 < right) {
-          maxdist = kdKNNSearch(middle + 1, right, next, query, knns, iter, maxdist);
+          maxdist = kdKNNSearch(middle + 1, right, next, query, q, knns, iter, maxdist);
         }
       }
       else {
         final double mindist = distance instanceof SquaredEuclideanDistance ? delta * delta : Math.abs(delta);
         if(onleft) {
           if(left < middle) {
-            maxdist = kdKNNSearch(left, middle, next, query, knns, iter, maxdist);
+            maxdist = kdKNNSearch(left, middle, next, query, q, knns, iter, maxdist);
           }
           // Look at splitting element (unless already above):
           if(mindist <= maxdist) {
-            O split = relation.get(iter.seek(middle));
-            countObjectAccess();
-            double dist = distance.distance(query, split);
-            countDistanceComputation();
+            double dist = distance(distance, kernel, query, q, iter.seek(middle));
             if(dist <= maxdist) {
               knns.insert(dist, iter);
               maxdist = knns.getKNNDistance();
             }
           }
           if(middle + 1 < right && mindist <= maxdist) {
-            maxdist = kdKNNSearch(middle + 1, right, next, query, knns, iter, maxdist);
+            maxdist = kdKNNSearch(middle + 1, right, next, query, q, knns, iter, maxdist);
           }
         }
         else { // onright
           if(middle + 1 < right) {
-            maxdist = kdKNNSearch(middle + 1, right, next, query, knns, iter, maxdist);
+            maxdist = kdKNNSearch(middle + 1, right, next, query, q, knns, iter, maxdist);
           }
           // Look at splitting element (unless already above):
           if(mindist <= maxdist) {
-            O split = relation.get(iter.seek(middle));
-            countObjectAccess();
-            double dist = distance.distance(query, split);
-            countDistanceComputation();
+            double dist = distance(distance, kernel, query, q, iter.seek(middle));
             if(dist <= maxdist) {
               knns.insert(dist, iter);
               maxdist = knns.getKNNDistance();
             }
           }
           if(left < middle && mindist <= maxdist) {
-            maxdist = kdKNNSearch(left, middle, next, query, knns, iter, maxdist);
+            maxdist = kdKNNSearch(left, middle, next, query, q, knns, iter, maxdist);
           }
         }
       }
@@ -389,6 +710,11 @@ public class SmallMemoryKDTree<O extends NumberVector> implements DistancePriori
      */
     private PrimitiveDistance<? super O> distance;
 
+    /**
+     * Kernel for the flat copy of the data.
+     */
+    private int kernel;
+
     /**
      * Constructor.
      *
@@ -397,14 +723,28 @@ public class SmallMemoryKDTree<O extends NumberVector> implements DistancePriori
     public KDTreeRangeSearcher(PrimitiveDistance<? super O> distance) {
       super();
       this.distance = distance;
+      this.kernel = flatKernel(distance);
     }
 
     @Override
     public ModifiableDoubleDBIDList getRange(O obj, double range, ModifiableDoubleDBIDList result) {
-      kdRangeSearch(0, sorted.size(), 0, obj, result, sorted.iter(), range);
+      kdRangeSearch(0, sorted.size(), 0, obj, flatQuery(kernel, obj), result, sorted.iter(), range);
       return result;
     }
 
+    /**
+     * Answer a batch of range queries.
+     *
+     * @param queries Query objects
+     * @param range Query radius
+     * @return Range query results, in the order of the queries
+     */
+    public List<DoubleDBIDList> getRange(List<? extends O> queries, double range) {
+      final DoubleDBIDList[] res = new DoubleDBIDList[queries.size()];
+      batch(queries, i -> res[i] = getRange(queries.get(i), range, DBIDUtil.newDistanceDBIDList()));
+      return Arrays.asList(res);
+    }
+
     /**
      * Perform a range search on the k-d-tree.
      *
@@ -412,16 +752,15 @@ public class SmallMemoryKDTree<O extends NumberVector> implements DistancePriori
      * @param right Subtree end (exclusive)
      * @param axis Current splitting axis
      * @param query Query object
+     * @param q Query coordinates, or {@code null}
      * @param res kNN heap
      * @param iter Iterator variable (reduces memory footprint!)
      * @param radius Query radius
      */
-    private void kdRangeSearch(int left, int right, int axis, O query, ModifiableDoubleDBIDList res, DoubleDBIDListIter iter, double radius) {
+    private void kdRangeSearch(int left, int right, int axis, O query, double[] q, ModifiableDoubleDBIDList res, DoubleDBIDListIter iter, double radius) {
       if(right - left <= leafsize) {
         for(iter.seek(left); iter.getOffset() < right; iter.advance()) {
-          double dist = distance.distance(query, relation.get(iter));
-          countObjectAccess();
-          countDistanceComputation();
+          double dist = distance(distance, kernel, query, q, iter);
           if(dist <= radius) {
             res.add(dist, iter);
           }
@@ -442,20 +781,17 @@ public class SmallMemoryKDTree<O extends NumberVector> implements DistancePriori
 
       // Current object:
       if(close) {
-        O split = relation.get(iter.seek(middle));
-        countObjectAccess();
-        double dist = distance.distance(query, split);
-        countDistanceComputation();
+        double dist = distance(distance, kernel, query, q, iter.seek(middle));
         if(dist <= radius) {
           assert (iter.getOffset() == middle);
           res.add(dist, iter /* .seek(middle) */);
         }
       }
       if(left < middle && (onleft || close)) {
-        kdRangeSearch(left, middle, next, query, res, iter, radius);
+        kdRangeSearch(left, middle, next, query, q, res, iter, radius);
       }
       if(middle + 1 < right && (onright || close)) {
-        kdRangeSearch(middle + 1, right, next, query, res, iter, radius);
+        kdRangeSearch(middle + 1, right, next, query, q, res, iter, radius);
       }
     }
   }
@@ -518,6 +854,11 @@ public class SmallMemoryKDTree<O extends NumberVector> implements DistancePriori
      */
     private PrimitiveDistance<? super O> distance;
 
+    /**
+     * Kernel for the flat copy of the data.
+     */
+    private int kernel;
+
     /**
      * Min heap for searching.
      */
@@ -533,6 +874,11 @@ public class SmallMemoryKDTree<O extends NumberVector> implements DistancePriori
      */
     private O query;
 
+    /**
+     * Current query coordinates, or {@code null}.
+     */
+    private double[] q;
+
     /**
      * Stopping threshold.
      */
@@ -556,11 +902,13 @@ public class SmallMemoryKDTree<O extends NumberVector> implements DistancePriori
     public KDTreePrioritySearcher(PrimitiveDistance<? super O> distance) {
       super();
       this.distance = distance;
+      this.kernel = flatKernel(distance);
     }
 
     @Override
     public PrioritySearcher<O> search(O query) {
       this.query = query;
+      this.q = flatQuery(kernel, query);
       this.threshold = Double.POSITIVE_INFINITY;
       this.pos = Integer.MIN_VALUE;
       this.heap.clear();
@@ -630,9 +978,7 @@ public class SmallMemoryKDTree<O extends NumberVector> implements DistancePriori
 
     @Override
     public double computeExactDistance() {
-      countDistanceComputation();
-      countObjectAccess();
-      return distance.distance(query, relation.get(iter.seek(pos)));
+      return distance(distance, kernel, query, q, iter.seek(pos));
     }
 
     @Override
@@ -665,6 +1011,11 @@ public class SmallMemoryKDTree<O extends NumberVector> implements DistancePriori
      */
     int leafsize;
 
+    /**
+     * Use multiple threads.
+     */
+    boolean parallel;
+
     /**
      * Constructor.
      */
@@ -678,13 +1029,24 @@ public class SmallMemoryKDTree<O extends NumberVector> implements DistancePriori
      * @param leafsize Maximum size of leaf nodes.
      */
     public Factory(int leafsize) {
+      this(leafsize, false);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param leafsize Maximum size of leaf nodes.
+     * @param parallel Use multiple threads
+     */
+    public Factory(int leafsize, boolean parallel) {
       super();
       this.leafsize = leafsize;
+      this.parallel = parallel;
     }
 
     @Override
     public SmallMemoryKDTree<O> instantiate(Relation<O> relation) {
-      return new SmallMemoryKDTree<>(relation, leafsize);
+      return new SmallMemoryKDTree<>(relation, leafsize, parallel);
     }
 
     @Override
@@ -703,21 +1065,32 @@ public class SmallMemoryKDTree<O extends NumberVector> implements DistancePriori
        */
       public static final OptionID LEAFSIZE_P = MinimalisticMemoryKDTree.Factory.Par.LEAFSIZE_P;
 
+      /**
+       * Flag to build the tree and process query batches in parallel.
+       */
+      public static final OptionID PARALLEL_ID = new OptionID("kd.parallel", "Build the tree and process query batches using multiple threads.");
+
       /**
        * Maximum size of leaf nodes.
        */
       int leafsize;
 
+      /**
+       * Use multiple threads.
+       */
+      boolean parallel;
+
       @Override
       public void configure(Parameterization config) {
         new IntParameter(LEAFSIZE_P, 1) //
             .addConstraint(CommonConstraints.GREATER_EQUAL_ONE_INT) //
             .grab(config, x -> leafsize = x);
+        new Flag(PARALLEL_ID).grab(config, x -> parallel = x);
       }
 
       @Override
       public Factory<O> make() {
-        return new Factory<>(leafsize);
+        return new Factory<>(leafsize, parallel);
       }
     }
   }
@@ -20,8 +20,23 @@
  */
 package elki.index.tree.metrical.covertree;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
 import org.junit.Test;
 
+import elki.algorithm.AbstractSimpleAlgorithmTest;
+import elki.data.DoubleVector;
+import elki.data.type.TypeUtil;
+import elki.database.Database;
+import elki.database.ids.DBIDIter;
+import elki.database.ids.DBIDUtil;
+import elki.database.ids.KNNList;
+import elki.database.query.PrioritySearcher;
+import elki.database.query.QueryBuilder;
+import elki.database.query.distance.DistanceQuery;
+import elki.database.query.knn.KNNSearcher;
+import elki.database.relation.Relation;
 import elki.distance.minkowski.EuclideanDistance;
 import elki.index.AbstractIndexStructureTest;
 import elki.utilities.ELKIBuilder;
@@ -41,4 +56,56 @@ public class CoverTreeTest extends AbstractIndexStructureTest {
     assertPrioritySearchEuclidean(factory, CoverTree.CoverTreePrioritySearcher.class);
     assertSinglePoint(factory, CoverTree.CoverTreePrioritySearcher.class, CoverTree.CoverTreeRangeSearcher.class);
   }
+
+  @Test
+  public void testCovertreeParallel() {
+    CoverTree.Factory<?> factory = new ELKIBuilder<>(CoverTree.Factory.class) //
+        .with(CoverTree.Factory.Par.DISTANCE_FUNCTION_ID, EuclideanDistance.class) //
+        .with(CoverTree.Factory.Par.PARALLEL_ID).build();
+    assertExactEuclidean(factory, CoverTree.CoverTreePrioritySearcher.class, CoverTree.CoverTreeRangeSearcher.class);
+    assertPrioritySearchEuclidean(factory, CoverTree.CoverTreePrioritySearcher.class);
+    assertSinglePoint(factory, CoverTree.CoverTreePrioritySearcher.class, CoverTree.CoverTreeRangeSearcher.class);
+  }
+
+  @Test
+  public void testParallelIdentical() {
+    Database db = AbstractSimpleAlgorithmTest.makeSimpleDatabase("elki/testdata/unittests/hierarchical-3d2d1d.csv", 600);
+    Relation<DoubleVector> relation = db.getRelation(TypeUtil.DOUBLE_VECTOR_FIELD);
+    CoverTree<DoubleVector> serial = new CoverTree<>(relation, EuclideanDistance.STATIC, 1.3, 2, false);
+    CoverTree<DoubleVector> parallel = new CoverTree<>(relation, EuclideanDistance.STATIC, 1.3, 2, true);
+    serial.initialize();
+    parallel.initialize();
+    assertEquals("Construction cost differs.", serial.distComputations, parallel.distComputations);
+    // Identical trees must also compute the same distances for queries:
+    KNNSearcher<DoubleVector> sq = serial.kNNByObject(EuclideanDistance.STATIC.instantiate(relation), 10, 0);
+    KNNSearcher<DoubleVector> pq = parallel.kNNByObject(EuclideanDistance.STATIC.instantiate(relation), 10, 0);
+    for(DBIDIter it = relation.iterDBIDs(); it.valid(); it.advance()) {
+      KNNList sl = sq.getKNN(relation.get(it), 10), pl = pq.getKNN(relation.get(it), 10);
+      assertEquals("kNN distance differs.", sl.getKNNDistance(), pl.getKNNDistance(), 0.);
+    }
+    assertEquals("Query cost differs.", serial.distComputations, parallel.distComputations);
+  }
+
+  @Test
+  public void testRoutingSingleton() {
+    Database db = AbstractSimpleAlgorithmTest.makeSimpleDatabase("elki/testdata/unittests/hierarchical-3d2d1d.csv", 600);
+    Relation<DoubleVector> relation = db.getRelation(TypeUtil.DOUBLE_VECTOR_FIELD);
+    // Routing objects that do not cover other points must still be found:
+    CoverTree<DoubleVector> tree = new CoverTree<>(relation, EuclideanDistance.STATIC, 1.3, 2, false);
+    tree.initialize();
+    DistanceQuery<DoubleVector> dq = EuclideanDistance.STATIC.instantiate(relation);
+    KNNSearcher<DoubleVector> kq = tree.kNNByObject(dq, 10, 0);
+    PrioritySearcher<DoubleVector> pq = tree.priorityByObject(dq, Double.POSITIVE_INFINITY, 0);
+    KNNSearcher<DoubleVector> lin = new QueryBuilder<>(relation, EuclideanDistance.STATIC).linearOnly().kNNByObject(10);
+    for(DBIDIter it = relation.iterDBIDs(); it.valid(); it.advance()) {
+      final DoubleVector v = relation.get(it);
+      final double kdist = lin.getKNN(v, 10).getKNNDistance();
+      assertEquals("kNN distance differs.", kdist, kq.getKNN(v, 10).getKNNDistance(), 1e-15);
+      boolean found = false;
+      for(pq.search(v); pq.valid() && !found; pq.advance()) {
+        found = DBIDUtil.equal(pq, it);
+      }
+      assertTrue("Query point not found by priority search.", found);
+    }
+  }
 }
@@ -20,10 +20,26 @@
  */
 package elki.index.tree.spatial.kd;
 
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
 import org.junit.Test;
 
+import elki.data.NumberVector;
+import elki.data.type.TypeUtil;
+import elki.database.Database;
+import elki.database.StaticArrayDatabase;
+import elki.database.ids.*;
 import elki.database.query.knn.WrappedKNNDBIDByLookup;
 import elki.database.query.range.WrappedRangeDBIDByLookup;
+import elki.database.relation.Relation;
+import elki.datasource.ArrayAdapterDatabaseConnection;
+import elki.distance.minkowski.EuclideanDistance;
 import elki.index.AbstractIndexStructureTest;
 import elki.utilities.ELKIBuilder;
 
@@ -41,4 +57,60 @@ public class SmallMemoryKDTreeTest extends AbstractIndexStructureTest {
     assertPrioritySearchEuclidean(factory, SmallMemoryKDTree.KDTreePrioritySearcher.class);
     assertSinglePoint(factory, WrappedKNNDBIDByLookup.class, WrappedRangeDBIDByLookup.class);
   }
+
+  @Test
+  public void testSmallMemoryKDTreeParallel() {
+    SmallMemoryKDTree.Factory<?> factory = new ELKIBuilder<>(SmallMemoryKDTree.Factory.class) //
+        .with(SmallMemoryKDTree.Factory.Par.PARALLEL_ID).build();
+    assertExactEuclidean(factory, SmallMemoryKDTree.KDTreeKNNSearcher.class, SmallMemoryKDTree.KDTreeRangeSearcher.class);
+    assertPrioritySearchEuclidean(factory, SmallMemoryKDTree.KDTreePrioritySearcher.class);
+  }
+
+  @Test
+  public void testParallelBatch() {
+    Random rnd = new Random(0L);
+    double[][] data = new double[10000][3];
+    for(double[] row : data) {
+      for(int d = 0; d < row.length; d++) {
+        row[d] = rnd.nextInt(100) * .1; // With duplicates
+      }
+    }
+    Database db = new StaticArrayDatabase(new ArrayAdapterDatabaseConnection(data), null);
+    db.initialize();
+    Relation<NumberVector> relation = db.getRelation(TypeUtil.NUMBER_VECTOR_FIELD);
+    SmallMemoryKDTree<NumberVector> serial = new SmallMemoryKDTree<>(relation, 1, false);
+    SmallMemoryKDTree<NumberVector> parallel = new SmallMemoryKDTree<>(relation, 1, true);
+    serial.initialize();
+    parallel.initialize();
+    for(DBIDIter a = serial.sorted.iter(), b = parallel.sorted.iter(); a.valid(); a.advance(), b.advance()) {
+      assertTrue("Trees differ.", DBIDUtil.equal(a, b));
+    }
+    assertArrayEquals("Flat copies differ.", serial.flat, parallel.flat, 0.);
+
+    List<NumberVector> queries = new ArrayList<>();
+    for(DBIDIter it = relation.iterDBIDs(); it.valid(); it.advance()) {
+      if(rnd.nextInt(50) == 0) {
+        queries.add(relation.get(it));
+      }
+    }
+    final int k = 7;
+    final double eps = 0.25;
+    List<KNNList> knns = parallel.new KDTreeKNNSearcher(EuclideanDistance.STATIC).getKNN(queries, k);
+    List<DoubleDBIDList> ranges = parallel.new KDTreeRangeSearcher(EuclideanDistance.STATIC).getRange(queries, eps);
+    assertEquals(queries.size(), knns.size());
+    assertEquals(queries.size(), ranges.size());
+    for(int i = 0; i < queries.size(); i++) {
+      // Compare to a linear scan, with the exact same distances:
+      NumberVector q = queries.get(i);
+      KNNHeap heap = DBIDUtil.newHeap(k);
+      int inrange = 0;
+      for(DBIDIter it = relation.iterDBIDs(); it.valid(); it.advance()) {
+        final double dist = EuclideanDistance.STATIC.distance(q, relation.get(it));
+        heap.insert(dist, it);
+        inrange += dist <= eps ? 1 : 0;
+      }
+      assertEquals("kNN distance differs.", heap.getKNNDistance(), knns.get(i).getKNNDistance(), 0.);
+      assertEquals("Range query size differs.", inrange, ranges.get(i).size());
+    }
+  }
 }
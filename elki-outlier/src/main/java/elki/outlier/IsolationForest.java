@@ -0,0 +1,660 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2019
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package elki.outlier;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import elki.data.NumberVector;
+import elki.data.type.TypeInformation;
+import elki.data.type.TypeUtil;
+import elki.database.datastore.DataStoreFactory;
+import elki.database.datastore.DataStoreUtil;
+import elki.database.datastore.WritableDoubleDataStore;
+import elki.database.ids.DBIDIter;
+import elki.database.ids.DBIDRef;
+import elki.database.ids.DBIDUtil;
+import elki.database.ids.DBIDs;
+import elki.database.relation.DoubleRelation;
+import elki.database.relation.MaterializedDoubleRelation;
+import elki.database.relation.Relation;
+import elki.database.relation.RelationUtil;
+import elki.logging.Logging;
+import elki.logging.progress.FiniteProgress;
+import elki.math.DoubleMinMax;
+import elki.math.statistics.distribution.GammaDistribution;
+import elki.parallel.Executor;
+import elki.parallel.ParallelExecutor;
+import elki.parallel.processor.AbstractDoubleProcessor;
+import elki.parallel.processor.DoubleMinMaxProcessor;
+import elki.parallel.processor.WriteDoubleDataStoreProcessor;
+import elki.parallel.variables.SharedDouble;
+import elki.result.outlier.BasicOutlierScoreMeta;
+import elki.result.outlier.OutlierResult;
+import elki.result.outlier.OutlierScoreMeta;
+import elki.utilities.documentation.Reference;
+import elki.utilities.optionhandling.OptionID;
+import elki.utilities.optionhandling.Parameterizer;
+import elki.utilities.optionhandling.constraints.CommonConstraints;
+import elki.utilities.optionhandling.parameterization.Parameterization;
+import elki.utilities.optionhandling.parameters.IntParameter;
+import elki.utilities.optionhandling.parameters.RandomParameter;
+import elki.utilities.random.RandomFactory;
+import elki.utilities.random.Xoroshiro128NonThreadsafeRandom;
+
+import net.jafama.FastMath;
+
+/**
+ * Isolation Forest outlier detection.
+ * <p>
+ * An ensemble of random trees is built on small subsamples of the data, and
+ * objects are scored by their average path length: outliers are easy to
+ * isolate, and hence end up in shallow leaves. The runtime is linear in the
+ * number of objects, and no neighbor queries are necessary.
+ * <p>
+ * With an extension level above 0, the extended variant of Hariri et al. is
+ * used, which splits on random hyperplanes instead of single attributes.
+ * <p>
+ * The trees are stored as flat primitive arrays in preorder, and both the
+ * construction of the trees and the scoring of the objects are performed in
+ * parallel. All random decisions are drawn before, so the result does not
+ * depend on the number of threads.
+ * <p>
+ * Reference:
+ * <p>
+ * F. T. Liu, K. M. Ting, Z.-H. Zhou<br>
+ * Isolation Forest<br>
+ * Proc. 8th IEEE Int. Conf. on Data Mining (ICDM 2008)
+ * <p>
+ * S. Hariri, M. Carrasco Kind, R. J. Brunner<br>
+ * Extended Isolation Forest<br>
+ * IEEE Trans. Knowledge and Data Engineering 33(4)
+ *
+ * @author Erich Schubert
+ * @since 0.8.0
+ *
+ * @has - - - Tree
+ * @composed - - - ScoreProcessor
+ */
+@Reference(authors = "F. T. Liu, K. M. Ting, Z.-H. Zhou", //
+    title = "Isolation Forest", //
+    booktitle = "Proc. 8th IEEE Int. Conf. on Data Mining (ICDM 2008)", //
+    url = "https://doi.org/10.1109/ICDM.2008.17", //
+    bibkey = "DBLP:conf/icdm/LiuTZ08")
+@Reference(authors = "S. Hariri, M. Carrasco Kind, R. J. Brunner", //
+    title = "Extended Isolation Forest", //
+    booktitle = "IEEE Trans. Knowledge and Data Engineering 33(4)", //
+    url = "https://doi.org/10.1109/TKDE.2019.2947676", //
+    bibkey = "DBLP:journals/tkde/HaririKB21")
+public class IsolationForest implements OutlierAlgorithm {
+  /**
+   * Class logger.
+   */
+  private static final Logging LOG = Logging.getLogger(IsolationForest.class);
+
+  /**
+   * Number of trees.
+   */
+  protected int numtrees;
+
+  /**
+   * Subsample size.
+   */
+  protected int subsampleSize;
+
+  /**
+   * Extension level, 0 for axis-parallel splits.
+   */
+  protected int extension;
+
+  /**
+   * Random generator.
+   */
+  protected RandomFactory rnd;
+
+  /**
+   * Constructor.
+   *
+   * @param numtrees Number of trees
+   * @param subsampleSize Subsample size
+   * @param extension Extension level, 0 for the original Isolation Forest
+   * @param rnd Random generator
+   */
+  public IsolationForest(int numtrees, int subsampleSize, int extension, RandomFactory rnd) {
+    super();
+    this.numtrees = numtrees;
+    this.subsampleSize = subsampleSize;
+    this.extension = extension;
+    this.rnd = rnd;
+  }
+
+  /**
+   * Constructor for the original Isolation Forest.
+   *
+   * @param numtrees Number of trees
+   * @param subsampleSize Subsample size
+   * @param rnd Random generator
+   */
+  public IsolationForest(int numtrees, int subsampleSize, RandomFactory rnd) {
+    this(numtrees, subsampleSize, 0, rnd);
+  }
+
+  /**
+   * Run the isolation forest algorithm.
+   *
+   * @param relation Data relation
+   * @return Outlier result
+   */
+  public OutlierResult run(Relation<? extends NumberVector> relation) {
+    final DBIDs ids = relation.getDBIDs();
+    final int dim = RelationUtil.dimensionality(relation);
+    final int size = Math.min(subsampleSize, ids.size());
+    // Draw all random decisions sequentially, for reproducibility.
+    Random random = rnd.getSingleThreadedRandom();
+    final DBIDs[] samples = new DBIDs[numtrees];
+    final long[] seeds = new long[numtrees];
+    for(int i = 0; i < numtrees; i++) {
+      samples[i] = size < ids.size() ? DBIDUtil.randomSample(ids, size, random) : ids;
+      seeds[i] = random.nextLong();
+    }
+    final Tree[] forest = new Tree[numtrees];
+    FiniteProgress tprog = LOG.isVerbose() ? new FiniteProgress("Building isolation trees", numtrees, LOG) : null;
+    ParallelExecutor.forEach(numtrees, i -> {
+      forest[i] = new TreeBuilder(relation, samples[i], dim, extension, seeds[i]).build();
+      samples[i] = null; // Not needed anymore
+      LOG.incrementProcessed(tprog);
+    });
+    LOG.ensureCompleted(tprog);
+
+    // Score all objects in parallel
+    WritableDoubleDataStore scores = DataStoreUtil.makeDoubleStorage(ids, DataStoreFactory.HINT_DB);
+    ScoreProcessor scorem = new ScoreProcessor(relation, forest, c(size));
+    SharedDouble scorev = new SharedDouble();
+    scorem.connectOutput(scorev);
+    WriteDoubleDataStoreProcessor storem = new WriteDoubleDataStoreProcessor(scores);
+    storem.connectInput(scorev);
+    DoubleMinMaxProcessor mmm = new DoubleMinMaxProcessor();
+    mmm.connectInput(scorev);
+    FiniteProgress sprog = LOG.isVerbose() ? new FiniteProgress("Scoring objects", ids.size(), LOG) : null;
+    ParallelExecutor.run(ids, sprog, LOG, scorem, storem, mmm);
+    LOG.ensureCompleted(sprog);
+
+    DoubleMinMax minmax = mmm.getMinMax();
+    DoubleRelation scoreres = new MaterializedDoubleRelation("Isolation Forest Score", ids, scores);
+    OutlierScoreMeta meta = new BasicOutlierScoreMeta(minmax.getMin(), minmax.getMax(), 0., 1., .5);
+    return new OutlierResult(meta, scoreres);
+  }
+
+  /**
+   * Average path length of an unsuccessful search in a binary search tree,
+   * used to normalize the path lengths and to estimate the remaining depth of
+   * a leaf containing more than one object.
+   *
+   * @param n Number of objects
+   * @return Average path length
+   */
+  protected static double c(int n) {
+    return n > 2 ? 2. * (FastMath.log(n - 1.) + GammaDistribution.EULERS_CONST) - 2. * (n - 1.) / n : n == 2 ? 1. : 0.;
+  }
+
+  /**
+   * A single isolation tree, stored in preorder as primitive arrays. The left
+   * child of an inner node always is the next node.
+   *
+   * @author Erich Schubert
+   */
+  protected static class Tree {
+    /**
+     * Split attribute (or normal vector row for the extended variant) of inner
+     * nodes, -1 for leaves.
+     */
+    final int[] split;
+
+    /**
+     * Split threshold of inner nodes, expected path length for leaves.
+     */
+    final double[] value;
+
+    /**
+     * Index of the right child of inner nodes.
+     */
+    final int[] right;
+
+    /**
+     * Normal vectors of the splitting hyperplanes, {@code null} for
+     * axis-parallel splits.
+     */
+    final double[] normals;
+
+    /**
+     * Constructor.
+     *
+     * @param split Split attributes
+     * @param value Split values
+     * @param right Right children
+     * @param normals Normal vectors, may be {@code null}
+     */
+    Tree(int[] split, double[] value, int[] right, double[] normals) {
+      this.split = split;
+      this.value = value;
+      this.right = right;
+      this.normals = normals;
+    }
+
+    /**
+     * Compute the path length of an object.
+     *
+     * @param vec Object
+     * @return Path length, including the estimate for the leaf
+     */
+    double pathLength(NumberVector vec) {
+      int n = 0;
+      if(normals == null) {
+        for(int s = split[n]; s >= 0; s = split[n]) {
+          n = vec.doubleValue(s) <= value[n] ? n + 1 : right[n];
+        }
+        return value[n];
+      }
+      final int dim = vec.getDimensionality();
+      for(int s = split[n]; s >= 0; s = split[n]) {
+        double v = 0;
+        for(int d = 0, o = s * dim; d < dim; d++, o++) {
+          final double w = normals[o];
+          v += w != 0 ? w * vec.doubleValue(d) : 0;
+        }
+        n = v <= value[n] ? n + 1 : right[n];
+      }
+      return value[n];
+    }
+  }
+
+  /**
+   * Builder for a single tree. The sample is copied into a local array, and
+   * the tree arrays are allocated for the maximum size, then trimmed.
+   *
+   * @author Erich Schubert
+   */
+  private static class TreeBuilder {
+    /**
+     * Local copy of the sample.
+     */
+    double[][] data;
+
+    /**
+     * Dimensionality.
+     */
+    int dim;
+
+    /**
+     * Number of nonzero components of the hyperplane normals, 0 for
+     * axis-parallel splits.
+     */
+    int nonzero;
+
+    /**
+     * Maximum depth.
+     */
+    int maxdepth;
+
+    /**
+     * Random generator.
+     */
+    Random random;
+
+    /**
+     * Tree arrays under construction.
+     */
+    int[] split, right;
+
+    /**
+     * Tree values under construction.
+     */
+    double[] value, normals;
+
+    /**
+     * Number of nodes and number of inner nodes.
+     */
+    int nodes, inner;
+
+    /**
+     * Scratch: object order, attribute ranges, and attribute permutation.
+     */
+    int[] order, perm;
+
+    /**
+     * Scratch: attribute ranges.
+     */
+    double[] min, max;
+
+    /**
+     * Constructor.
+     *
+     * @param relation Data relation
+     * @param sample Sample to build the tree on
+     * @param dim Dimensionality
+     * @param extension Extension level
+     * @param seed Random seed
+     */
+    TreeBuilder(Relation<? extends NumberVector> relation, DBIDs sample, int dim, int extension, long seed) {
+      final int size = sample.size();
+      this.data = new double[size][];
+      int i = 0;
+      for(DBIDIter it = sample.iter(); it.valid(); it.advance(), i++) {
+        data[i] = relation.get(it).toArray();
+      }
+      this.dim = dim;
+      this.nonzero = extension > 0 ? Math.min(extension + 1, dim) : 0;
+      this.maxdepth = size > 1 ? 32 - Integer.numberOfLeadingZeros(size - 1) : 0;
+      this.random = new Xoroshiro128NonThreadsafeRandom(seed);
+      final int maxnodes = Math.max(1, (size << 1) - 1);
+      this.split = new int[maxnodes];
+      this.right = new int[maxnodes];
+      this.value = new double[maxnodes];
+      this.normals = nonzero > 0 ? new double[(maxnodes >>> 1) * dim] : null;
+      this.order = new int[size];
+      for(i = 0; i < size; i++) {
+        order[i] = i;
+      }
+      this.perm = new int[dim];
+      this.min = new double[dim];
+      this.max = new double[dim];
+    }
+
+    /**
+     * Build the tree.
+     *
+     * @return Tree
+     */
+    Tree build() {
+      build(0, data.length, 0);
+      return new Tree(Arrays.copyOf(split, nodes), Arrays.copyOf(value, nodes), //
+          Arrays.copyOf(right, nodes), normals != null ? Arrays.copyOf(normals, inner * dim) : null);
+    }
+
+    /**
+     * Build a subtree.
+     *
+     * @param start Object range start
+     * @param end Object range end (exclusive)
+     * @param depth Depth
+     */
+    private void build(int start, int end, int depth) {
+      final int node = nodes++;
+      final int n = end - start;
+      if(n <= 1 || depth >= maxdepth) {
+        makeLeaf(node, n, depth);
+        return;
+      }
+      // Attribute ranges, and the non-constant attributes
+      final double[] first = data[order[start]];
+      System.arraycopy(first, 0, min, 0, dim);
+      System.arraycopy(first, 0, max, 0, dim);
+      for(int i = start + 1; i < end; i++) {
+        final double[] v = data[order[i]];
+        for(int d = 0; d < dim; d++) {
+          final double x = v[d];
+          min[d] = x < min[d] ? x : min[d];
+          max[d] = x > max[d] ? x : max[d];
+        }
+      }
+      int nc = 0;
+      for(int d = 0; d < dim; d++) {
+        if(min[d] < max[d]) {
+          perm[nc++] = d;
+        }
+      }
+      if(nc == 0) { // All duplicates, cannot be split.
+        makeLeaf(node, n, depth);
+        return;
+      }
+      final int mid;
+      if(nonzero == 0) {
+        final int d = perm[random.nextInt(nc)];
+        final double s = min[d] + random.nextDouble() * (max[d] - min[d]);
+        split[node] = d;
+        value[node] = s;
+        mid = partition(start, end, d, s);
+      }
+      else {
+        final int row = inner++, off = row * dim;
+        // Choose the nonzero components among the non-constant attributes
+        double s = 0;
+        for(int j = 0, e = Math.min(nonzero, nc); j < e; j++) {
+          final int r = j + random.nextInt(nc - j);
+          final int d = perm[r];
+          perm[r] = perm[j];
+          perm[j] = d;
+          final double w = random.nextGaussian();
+          normals[off + d] = w;
+          s += w * (min[d] + random.nextDouble() * (max[d] - min[d]));
+        }
+        split[node] = row;
+        value[node] = s;
+        mid = partitionHyperplane(start, end, off, s);
+      }
+      build(start, mid, depth + 1);
+      right[node] = nodes;
+      build(mid, end, depth + 1);
+    }
+
+    /**
+     * Make a leaf node.
+     *
+     * @param node Node
+     * @param n Number of objects
+     * @param depth Depth
+     */
+    private void makeLeaf(int node, int n, int depth) {
+      split[node] = -1;
+      value[node] = depth + c(n);
+    }
+
+    /**
+     * Partition the objects on a single attribute.
+     *
+     * @param start Range start
+     * @param end Range end
+     * @param d Attribute
+     * @param s Split value
+     * @return Start of the right part
+     */
+    private int partition(int start, int end, int d, double s) {
+      int l = start, r = end - 1;
+      while(l <= r) {
+        if(data[order[l]][d] <= s) {
+          ++l;
+          continue;
+        }
+        final int t = order[l];
+        order[l] = order[r];
+        order[r--] = t;
+      }
+      return l;
+    }
+
+    /**
+     * Partition the objects on a hyperplane.
+     *
+     * @param start Range start
+     * @param end Range end
+     * @param off Offset of the normal vector
+     * @param s Split value
+     * @return Start of the right part
+     */
+    private int partitionHyperplane(int start, int end, int off, double s) {
+      int l = start, r = end - 1;
+      while(l <= r) {
+        final double[] v = data[order[l]];
+        double p = 0;
+        for(int d = 0; d < dim; d++) {
+          final double w = normals[off + d];
+          p += w != 0 ? w * v[d] : 0;
+        }
+        if(p <= s) {
+          ++l;
+          continue;
+        }
+        final int t = order[l];
+        order[l] = order[r];
+        order[r--] = t;
+      }
+      return l;
+    }
+  }
+
+  /**
+   * Processor to compute the isolation scores.
+   *
+   * @author Erich Schubert
+   */
+  private static class ScoreProcessor extends AbstractDoubleProcessor {
+    /**
+     * Data relation.
+     */
+    Relation<? extends NumberVector> relation;
+
+    /**
+     * Isolation trees.
+     */
+    Tree[] forest;
+
+    /**
+     * Normalization factor.
+     */
+    double norm;
+
+    /**
+     * Constructor.
+     *
+     * @param relation Data relation
+     * @param forest Isolation trees
+     * @param norm Average path length for the sample size
+     */
+    ScoreProcessor(Relation<? extends NumberVector> relation, Tree[] forest, double norm) {
+      super();
+      this.relation = relation;
+      this.forest = forest;
+      this.norm = norm > 0 ? norm : 1.;
+    }
+
+    @Override
+    public Instance instantiate(Executor executor) {
+      return new Instance(executor.getInstance(output));
+    }
+
+    /**
+     * Instance for a single thread.
+     *
+     * @author Erich Schubert
+     */
+    private class Instance extends AbstractDoubleProcessor.Instance {
+      /**
+       * Constructor.
+       *
+       * @param output Output variable
+       */
+      Instance(SharedDouble.Instance output) {
+        super(output);
+      }
+
+      @Override
+      public void map(DBIDRef id) {
+        final NumberVector vec = relation.get(id);
+        double sum = 0;
+        for(Tree tree : forest) {
+          sum += tree.pathLength(vec);
+        }
+        output.set(FastMath.pow(2., -sum / (forest.length * norm)));
+      }
+    }
+  }
+
+  @Override
+  public TypeInformation[] getInputTypeRestriction() {
+    return TypeUtil.array(TypeUtil.NUMBER_VECTOR_FIELD);
+  }
+
+  /**
+   * Parameterization class.
+   *
+   * @author Erich Schubert
+   */
+  public static class Par implements Parameterizer {
+    /**
+     * Number of trees.
+     */
+    public static final OptionID NUM_TREES_ID = new OptionID("iforest.numtrees", "Number of trees to use.");
+
+    /**
+     * Subsample size.
+     */
+    public static final OptionID SUBSAMPLE_SIZE_ID = new OptionID("iforest.subsample", "Subsampling size.");
+
+    /**
+     * Extension level.
+     */
+    public static final OptionID EXTENSION_ID = new OptionID("iforest.extension", "Extension level of the Extended Isolation Forest: number of additional attributes combined in a random hyperplane split. 0 is the original Isolation Forest with axis-parallel splits.");
+
+    /**
+     * Random generator.
+     */
+    public static final OptionID SEED_ID = new OptionID("iforest.seed", "Random seed for sampling and tree construction.");
+
+    /**
+     * Number of trees.
+     */
+    protected int numtrees;
+
+    /**
+     * Subsample size.
+     */
+    protected int subsampleSize;
+
+    /**
+     * Extension level.
+     */
+    protected int extension;
+
+    /**
+     * Random generator.
+     */
+    protected RandomFactory rnd;
+
+    @Override
+    public void configure(Parameterization config) {
+      new IntParameter(NUM_TREES_ID, 100) //
+          .addConstraint(CommonConstraints.GREATER_EQUAL_ONE_INT) //
+          .grab(config, x -> numtrees = x);
+      new IntParameter(SUBSAMPLE_SIZE_ID, 256) //
+          .addConstraint(CommonConstraints.GREATER_THAN_ONE_INT) //
+          .grab(config, x -> subsampleSize = x);
+      new IntParameter(EXTENSION_ID, 0) //
+          .addConstraint(CommonConstraints.GREATER_EQUAL_ZERO_INT) //
+          .grab(config, x -> extension = x);
+      new RandomParameter(SEED_ID).grab(config, x -> rnd = x);
+    }
+
+    @Override
+    public IsolationForest make() {
+      return new IsolationForest(numtrees, subsampleSize, extension, rnd);
+    }
+  }
+}
@@ -0,0 +1,230 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2019
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package elki.outlier.distance.parallel;
+
+import elki.database.datastore.DataStoreFactory;
+import elki.database.datastore.DataStoreUtil;
+import elki.database.datastore.WritableDataStore;
+import elki.database.datastore.WritableDoubleDataStore;
+import elki.database.ids.DBIDIter;
+import elki.database.ids.DBIDRef;
+import elki.database.ids.DBIDUtil;
+import elki.database.ids.DBIDs;
+import elki.database.ids.DoubleDBIDList;
+import elki.database.ids.DoubleDBIDListIter;
+import elki.database.ids.KNNList;
+import elki.database.ids.ModifiableDoubleDBIDList;
+import elki.database.query.QueryBuilder;
+import elki.database.relation.DoubleRelation;
+import elki.database.relation.MaterializedDoubleRelation;
+import elki.database.relation.Relation;
+import elki.distance.Distance;
+import elki.math.DoubleMinMax;
+import elki.outlier.distance.KNNSOS;
+import elki.outlier.distance.SOS;
+import elki.outlier.intrinsic.ISOS;
+import elki.parallel.Executor;
+import elki.parallel.ParallelExecutor;
+import elki.parallel.processor.KNNProcessor;
+import elki.parallel.processor.Processor;
+import elki.parallel.variables.SharedObject;
+import elki.result.outlier.OutlierResult;
+import elki.result.outlier.OutlierScoreMeta;
+import elki.result.outlier.ProbabilisticOutlierScore;
+
+import net.jafama.FastMath;
+
+/**
+ * Parallel implementation of kNN-based Stochastic Outlier Selection.
+ * <p>
+ * The affinities (with their binary search for the bandwidth) are computed in
+ * parallel, and each object's votes for its neighbors are collected. The votes
+ * are then applied in a linear pass, in the same order as in the sequential
+ * version.
+ *
+ * @author Erich Schubert
+ * @since 0.8.0
+ *
+ * @has - - - VoteProcessor
+ *
+ * @param <O> Object type
+ */
+public class ParallelKNNSOS<O> extends KNNSOS<O> {
+  /**
+   * Constructor.
+   *
+   * @param distance Distance function
+   * @param k Number of neighbors to consider
+   */
+  public ParallelKNNSOS(Distance<? super O> distance, int k) {
+    super(distance, k);
+  }
+
+  @Override
+  public OutlierResult run(Relation<O> relation) {
+    final DBIDs ids = relation.getDBIDs();
+    final int k1 = k + 1; // Query size
+    final double perplexity = k / 3.;
+    final double logPerp = perplexity > 1. ? FastMath.log(perplexity) : .1;
+    QueryBuilder<O> qb = new QueryBuilder<>(relation, distance);
+
+    // Phase one: kNN and votes
+    WritableDataStore<DoubleDBIDList> votes = DataStoreUtil.makeStorage(ids, DataStoreFactory.HINT_HOT | DataStoreFactory.HINT_TEMP, DoubleDBIDList.class);
+    {
+      KNNProcessor knnm = new KNNProcessor(k1, () -> qb.kNNByDBID(k1));
+      SharedObject<KNNList> knnv = new SharedObject<>();
+      knnm.connectKNNOutput(knnv);
+      VoteProcessor votem = new VoteProcessor(votes, perplexity, logPerp);
+      votem.connectKNNInput(knnv);
+      ParallelExecutor.run(ids, knnm, votem);
+    }
+
+    // Phase two: apply the votes
+    WritableDoubleDataStore scores = DataStoreUtil.makeDoubleStorage(ids, DataStoreFactory.HINT_HOT | DataStoreFactory.HINT_DB, 1.);
+    for(DBIDIter it = ids.iter(); it.valid(); it.advance()) {
+      for(DoubleDBIDListIter vi = votes.get(it).iter(); vi.valid(); vi.advance()) {
+        scores.increment(vi, vi.doubleValue());
+      }
+    }
+    votes.destroy();
+
+    DoubleMinMax minmax = ISOS.transformScores(scores, ids, logPerp, phi);
+    DoubleRelation scoreres = new MaterializedDoubleRelation("kNN Stoachastic Outlier Selection", ids, scores);
+    OutlierScoreMeta meta = new ProbabilisticOutlierScore(minmax.getMin(), minmax.getMax(), 0.);
+    return new OutlierResult(meta, scoreres);
+  }
+
+  /**
+   * Processor to compute the affinities, and collect the votes.
+   *
+   * @author Erich Schubert
+   */
+  private static class VoteProcessor implements Processor {
+    /**
+     * Output store.
+     */
+    private WritableDataStore<DoubleDBIDList> votes;
+
+    /**
+     * Perplexity, and its logarithm.
+     */
+    private double perplexity, logPerp;
+
+    /**
+     * kNN input.
+     */
+    private SharedObject<KNNList> input;
+
+    /**
+     * Constructor.
+     *
+     * @param votes Output store
+     * @param perplexity Perplexity
+     * @param logPerp Logarithm of the perplexity
+     */
+    VoteProcessor(WritableDataStore<DoubleDBIDList> votes, double perplexity, double logPerp) {
+      super();
+      this.votes = votes;
+      this.perplexity = perplexity;
+      this.logPerp = logPerp;
+    }
+
+    /**
+     * Connect the kNN input channel.
+     *
+     * @param input Input channel
+     */
+    void connectKNNInput(SharedObject<KNNList> input) {
+      this.input = input;
+    }
+
+    @Override
+    public Instance instantiate(Executor executor) {
+      return new Instance(executor.getInstance(input));
+    }
+
+    @Override
+    public void cleanup(Processor.Instance inst) {
+      // Nothing to do.
+    }
+
+    /**
+     * Instance for a single thread.
+     *
+     * @author Erich Schubert
+     */
+    private class Instance implements Processor.Instance {
+      /**
+       * kNN input.
+       */
+      private SharedObject.Instance<KNNList> input;
+
+      /**
+       * Affinity buffer.
+       */
+      private double[] p = new double[0];
+
+      /**
+       * Constructor.
+       *
+       * @param input kNN input
+       */
+      Instance(SharedObject.Instance<KNNList> input) {
+        super();
+        this.input = input;
+      }
+
+      @Override
+      public void map(DBIDRef id) {
+        final KNNList knns = input.get();
+        if(p.length < knns.size() + 1) {
+          p = new double[knns.size() + 10];
+        }
+        final DoubleDBIDListIter ki = knns.iter();
+        // Compute affinities
+        SOS.computePi(id, ki, p, perplexity, logPerp);
+        // Normalization factor:
+        double s = SOS.sumOfProbabilities(id, ki, p);
+        ModifiableDoubleDBIDList v = DBIDUtil.newDistanceDBIDList(knns.size());
+        if(s > 0) {
+          ISOS.nominateNeighbors(id, ki, p, 1. / s, v);
+        }
+        votes.put(id, v);
+      }
+    }
+  }
+
+  /**
+   * Parameterization class.
+   *
+   * @author Erich Schubert
+   *
+   * @hidden
+   *
+   * @param <O> Object type
+   */
+  public static class Par<O> extends KNNSOS.Par<O> {
+    @Override
+    public ParallelKNNSOS<O> make() {
+      return new ParallelKNNSOS<>(distance, k);
+    }
+  }
+}
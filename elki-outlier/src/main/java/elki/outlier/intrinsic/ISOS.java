@@ -221,7 +221,7 @@ public class ISOS<O> implements OutlierAlgorithm {
    * @param norm Normalization factor (1/sum)
    * @param scores Output score storage
    */
-  public static void nominateNeighbors(DBIDIter ignore, DBIDArrayIter di, double[] p, double norm, WritableDoubleDataStore scores) {
+  public static void nominateNeighbors(DBIDRef ignore, DBIDArrayIter di, double[] p, double norm, WritableDoubleDataStore scores) {
     for(di.seek(0); di.valid(); di.advance()) {
       if(DBIDUtil.equal(ignore, di)) {
         continue;
@@ -234,6 +234,29 @@ public class ISOS<O> implements OutlierAlgorithm {
     }
   }
 
+  /**
+   * Vote for neighbors not being outliers, but only collect the votes, to be
+   * applied to the scores later (e.g., when processing objects in parallel).
+   *
+   * @param ignore Object to ignore
+   * @param di Neighbor object IDs.
+   * @param p Probabilities
+   * @param norm Normalization factor (1/sum)
+   * @param votes Output list of score increments
+   */
+  public static void nominateNeighbors(DBIDRef ignore, DBIDArrayIter di, double[] p, double norm, ModifiableDoubleDBIDList votes) {
+    for(di.seek(0); di.valid(); di.advance()) {
+      if(DBIDUtil.equal(ignore, di)) {
+        continue;
+      }
+      double v = p[di.getOffset()] * norm; // Normalize
+      if(!(v > 0)) {
+        break;
+      }
+      votes.add(FastMath.log1p(-v), di);
+    }
+  }
+
   /**
    * Transform scores
    * 
@@ -0,0 +1,295 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2019
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package elki.outlier.intrinsic.parallel;
+
+import elki.database.datastore.DataStore;
+import elki.database.datastore.DataStoreFactory;
+import elki.database.datastore.DataStoreUtil;
+import elki.database.datastore.DoubleDataStore;
+import elki.database.datastore.WritableDataStore;
+import elki.database.datastore.WritableDoubleDataStore;
+import elki.database.ids.DBIDRef;
+import elki.database.ids.DBIDUtil;
+import elki.database.ids.DBIDs;
+import elki.database.ids.DoubleDBIDListIter;
+import elki.database.ids.KNNList;
+import elki.database.query.QueryBuilder;
+import elki.database.query.knn.KNNSearcher;
+import elki.database.relation.DoubleRelation;
+import elki.database.relation.MaterializedDoubleRelation;
+import elki.database.relation.Relation;
+import elki.distance.Distance;
+import elki.math.DoubleMinMax;
+import elki.math.statistics.intrinsicdimensionality.IntrinsicDimensionalityEstimator;
+import elki.outlier.intrinsic.IDOS;
+import elki.parallel.Executor;
+import elki.parallel.ParallelExecutor;
+import elki.parallel.processor.AbstractDoubleProcessor;
+import elki.parallel.processor.DoubleMinMaxProcessor;
+import elki.parallel.processor.KNNProcessor;
+import elki.parallel.processor.WriteDataStoreProcessor;
+import elki.parallel.processor.WriteDoubleDataStoreProcessor;
+import elki.parallel.variables.SharedDouble;
+import elki.parallel.variables.SharedObject;
+import elki.result.outlier.OutlierResult;
+import elki.result.outlier.OutlierScoreMeta;
+import elki.result.outlier.QuotientOutlierScoreMeta;
+
+/**
+ * Parallel implementation of the Intrinsic Dimensionality Outlier Score.
+ * <p>
+ * The neighborhoods are materialized in a first parallel pass. Because some
+ * estimators also query the neighbors of the neighbors, the intrinsic
+ * dimensionalities are only estimated in a second pass, once all neighborhoods
+ * are available; the scores are computed in a third pass.
+ *
+ * @author Erich Schubert
+ * @since 0.8.0
+ *
+ * @has - - - IDProcessor
+ * @has - - - IDOSProcessor
+ *
+ * @param <O> Object type
+ */
+public class ParallelIDOS<O> extends IDOS<O> {
+  /**
+   * Constructor.
+   *
+   * @param distance Distance function
+   * @param estimator Estimator for intrinsic dimensionality
+   * @param kc Context set size
+   * @param kr Reference set size
+   */
+  public ParallelIDOS(Distance<? super O> distance, IntrinsicDimensionalityEstimator estimator, int kc, int kr) {
+    super(distance, estimator, kc, kr);
+  }
+
+  @Override
+  public OutlierResult run(Relation<O> relation) {
+    DBIDs ids = relation.getDBIDs();
+    QueryBuilder<O> qb = new QueryBuilder<>(relation, distance);
+    final int kmax = Math.max(k_c, k_r) + 1;
+
+    // Phase one: materialize the neighborhoods
+    WritableDataStore<KNNList> knns = DataStoreUtil.makeStorage(ids, DataStoreFactory.HINT_HOT | DataStoreFactory.HINT_TEMP, KNNList.class);
+    {
+      KNNProcessor knnm = new KNNProcessor(kmax, () -> qb.kNNByDBID(kmax));
+      SharedObject<KNNList> knnv = new SharedObject<>();
+      knnm.connectKNNOutput(knnv);
+      WriteDataStoreProcessor<KNNList> storek = new WriteDataStoreProcessor<>(knns);
+      storek.connectInput(knnv);
+      ParallelExecutor.run(ids, knnm, storek);
+    }
+    final KNNSearcher<DBIDRef> knnq = (q, k) -> knns.get(q).subList(k);
+
+    // Phase two: intrinsic dimensionality
+    WritableDoubleDataStore intDims = DataStoreUtil.makeDoubleStorage(ids, DataStoreFactory.HINT_HOT | DataStoreFactory.HINT_TEMP);
+    {
+      IDProcessor idm = new IDProcessor(knnq, estimator, k_c + 1);
+      SharedDouble idv = new SharedDouble();
+      idm.connectOutput(idv);
+      WriteDoubleDataStoreProcessor storem = new WriteDoubleDataStoreProcessor(intDims);
+      storem.connectInput(idv);
+      ParallelExecutor.run(ids, idm, storem);
+    }
+
+    // Phase three: outlier scores
+    WritableDoubleDataStore ldms = DataStoreUtil.makeDoubleStorage(ids, DataStoreFactory.HINT_STATIC);
+    DoubleMinMaxProcessor mmm = new DoubleMinMaxProcessor();
+    {
+      IDOSProcessor idosm = new IDOSProcessor(knns, intDims, k_r);
+      SharedDouble idosv = new SharedDouble();
+      idosm.connectOutput(idosv);
+      WriteDoubleDataStoreProcessor storem = new WriteDoubleDataStoreProcessor(ldms);
+      storem.connectInput(idosv);
+      mmm.connectInput(idosv);
+      ParallelExecutor.run(ids, idosm, storem, mmm);
+    }
+    knns.destroy();
+    intDims.destroy();
+
+    DoubleMinMax idosminmax = mmm.getMinMax();
+    DoubleRelation scoreResult = new MaterializedDoubleRelation("Intrinsic Dimensionality Outlier Score", ids, ldms);
+    OutlierScoreMeta scoreMeta = new QuotientOutlierScoreMeta(idosminmax.getMin(), idosminmax.getMax(), 0.0, Double.POSITIVE_INFINITY, 1.0);
+    return new OutlierResult(scoreMeta, scoreResult);
+  }
+
+  /**
+   * Processor to estimate the intrinsic dimensionality of each object.
+   *
+   * @author Erich Schubert
+   */
+  private static class IDProcessor extends AbstractDoubleProcessor {
+    /**
+     * kNN searcher on the materialized neighborhoods.
+     */
+    private KNNSearcher<DBIDRef> knnq;
+
+    /**
+     * Estimator of intrinsic dimensionality.
+     */
+    private IntrinsicDimensionalityEstimator estimator;
+
+    /**
+     * Number of neighbors to use.
+     */
+    private int k;
+
+    /**
+     * Constructor.
+     *
+     * @param knnq kNN searcher on the materialized neighborhoods
+     * @param estimator Estimator of intrinsic dimensionality
+     * @param k Number of neighbors to use
+     */
+    IDProcessor(KNNSearcher<DBIDRef> knnq, IntrinsicDimensionalityEstimator estimator, int k) {
+      super();
+      this.knnq = knnq;
+      this.estimator = estimator;
+      this.k = k;
+    }
+
+    @Override
+    public Instance instantiate(Executor executor) {
+      return new Instance(executor.getInstance(output));
+    }
+
+    /**
+     * Instance for a single thread.
+     *
+     * @author Erich Schubert
+     */
+    private class Instance extends AbstractDoubleProcessor.Instance {
+      /**
+       * Constructor.
+       *
+       * @param output Output variable
+       */
+      Instance(SharedDouble.Instance output) {
+        super(output);
+      }
+
+      @Override
+      public void map(DBIDRef id) {
+        double lid = 0.;
+        try {
+          lid = estimator.estimate(knnq, id, k);
+        }
+        catch(ArithmeticException e) {
+          lid = 0; // Too many duplicates, etc.
+        }
+        output.set(lid);
+      }
+    }
+  }
+
+  /**
+   * Processor to compute the IDOS scores.
+   *
+   * @author Erich Schubert
+   */
+  private static class IDOSProcessor extends AbstractDoubleProcessor {
+    /**
+     * Materialized neighborhoods.
+     */
+    private DataStore<KNNList> knns;
+
+    /**
+     * Intrinsic dimensionalities.
+     */
+    private DoubleDataStore intDims;
+
+    /**
+     * Reference set size.
+     */
+    private int k_r;
+
+    /**
+     * Constructor.
+     *
+     * @param knns Materialized neighborhoods
+     * @param intDims Intrinsic dimensionalities
+     * @param k_r Reference set size
+     */
+    IDOSProcessor(DataStore<KNNList> knns, DoubleDataStore intDims, int k_r) {
+      super();
+      this.knns = knns;
+      this.intDims = intDims;
+      this.k_r = k_r;
+    }
+
+    @Override
+    public Instance instantiate(Executor executor) {
+      return new Instance(executor.getInstance(output));
+    }
+
+    /**
+     * Instance for a single thread.
+     *
+     * @author Erich Schubert
+     */
+    private class Instance extends AbstractDoubleProcessor.Instance {
+      /**
+       * Constructor.
+       *
+       * @param output Output variable
+       */
+      Instance(SharedDouble.Instance output) {
+        super(output);
+      }
+
+      @Override
+      public void map(DBIDRef id) {
+        final KNNList neighbors = knns.get(id).subList(k_r);
+        double sum = 0.;
+        int cnt = 0;
+        for(DoubleDBIDListIter neighbor = neighbors.iter(); neighbor.valid(); neighbor.advance()) {
+          if(DBIDUtil.equal(id, neighbor)) {
+            continue;
+          }
+          final double lid = intDims.doubleValue(neighbor);
+          sum += lid > 0 ? 1.0 / lid : 0.;
+          if(++cnt == k_r) { // Always stop after at most k_r elements.
+            break;
+          }
+        }
+        final double id_q = intDims.doubleValue(id);
+        output.set(id_q > 0 ? id_q * sum / cnt : 0.);
+      }
+    }
+  }
+
+  /**
+   * Parameterization class.
+   *
+   * @author Erich Schubert
+   *
+   * @hidden
+   *
+   * @param <O> Object type
+   */
+  public static class Par<O> extends IDOS.Par<O> {
+    @Override
+    public ParallelIDOS<O> make() {
+      return new ParallelIDOS<>(distance, estimator, k_c, k_r);
+    }
+  }
+}
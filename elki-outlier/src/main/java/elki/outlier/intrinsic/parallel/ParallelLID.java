@@ -0,0 +1,186 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2019
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package elki.outlier.intrinsic.parallel;
+
+import java.util.function.Supplier;
+
+import elki.database.datastore.DataStoreFactory;
+import elki.database.datastore.DataStoreUtil;
+import elki.database.datastore.WritableDoubleDataStore;
+import elki.database.ids.DBIDRef;
+import elki.database.ids.DBIDs;
+import elki.database.query.QueryBuilder;
+import elki.database.query.knn.KNNSearcher;
+import elki.database.relation.DoubleRelation;
+import elki.database.relation.MaterializedDoubleRelation;
+import elki.database.relation.Relation;
+import elki.distance.Distance;
+import elki.math.DoubleMinMax;
+import elki.math.statistics.intrinsicdimensionality.IntrinsicDimensionalityEstimator;
+import elki.outlier.intrinsic.LID;
+import elki.parallel.Executor;
+import elki.parallel.ParallelExecutor;
+import elki.parallel.processor.AbstractDoubleProcessor;
+import elki.parallel.processor.DoubleMinMaxProcessor;
+import elki.parallel.processor.WriteDoubleDataStoreProcessor;
+import elki.parallel.variables.SharedDouble;
+import elki.result.outlier.BasicOutlierScoreMeta;
+import elki.result.outlier.OutlierResult;
+import elki.result.outlier.OutlierScoreMeta;
+
+/**
+ * Parallel implementation of the local intrinsic dimensionality outlier score.
+ * <p>
+ * Each thread uses its own kNN searcher, as some estimators issue additional
+ * kNN queries for the neighbors.
+ *
+ * @author Erich Schubert
+ * @since 0.8.0
+ *
+ * @has - - - IDProcessor
+ *
+ * @param <O> Object type
+ */
+public class ParallelLID<O> extends LID<O> {
+  /**
+   * Constructor.
+   *
+   * @param distance Distance function
+   * @param k Neighborhood size
+   * @param estimator Estimator for intrinsic dimensionality
+   */
+  public ParallelLID(Distance<? super O> distance, int k, IntrinsicDimensionalityEstimator estimator) {
+    super(distance, k, estimator);
+  }
+
+  @Override
+  public OutlierResult run(Relation<O> relation) {
+    DBIDs ids = relation.getDBIDs();
+    QueryBuilder<O> qb = new QueryBuilder<>(relation, distance);
+    WritableDoubleDataStore id_score = DataStoreUtil.makeDoubleStorage(ids, DataStoreFactory.HINT_STATIC);
+
+    IDProcessor idm = new IDProcessor(() -> qb.kNNByDBID(kplus), estimator, kplus);
+    SharedDouble idv = new SharedDouble();
+    idm.connectOutput(idv);
+    WriteDoubleDataStoreProcessor storem = new WriteDoubleDataStoreProcessor(id_score);
+    storem.connectInput(idv);
+    DoubleMinMaxProcessor mmm = new DoubleMinMaxProcessor();
+    mmm.connectInput(idv);
+    ParallelExecutor.run(ids, idm, storem, mmm);
+
+    DoubleMinMax minmax = mmm.getMinMax();
+    DoubleRelation scoreres = new MaterializedDoubleRelation("Intrinsic dimensionality", ids, id_score);
+    OutlierScoreMeta meta = new BasicOutlierScoreMeta(minmax.getMin(), minmax.getMax(), 0.0, Double.POSITIVE_INFINITY, 0.0);
+    return new OutlierResult(meta, scoreres);
+  }
+
+  /**
+   * Processor to estimate the intrinsic dimensionality of each object.
+   *
+   * @author Erich Schubert
+   */
+  private static class IDProcessor extends AbstractDoubleProcessor {
+    /**
+     * Factory for the kNN searcher of each thread.
+     */
+    private Supplier<KNNSearcher<DBIDRef>> knnq;
+
+    /**
+     * Estimator of intrinsic dimensionality.
+     */
+    private IntrinsicDimensionalityEstimator estimator;
+
+    /**
+     * Number of neighbors to use.
+     */
+    private int k;
+
+    /**
+     * Constructor.
+     *
+     * @param knnq Factory for the kNN searcher
+     * @param estimator Estimator of intrinsic dimensionality
+     * @param k Number of neighbors to use
+     */
+    IDProcessor(Supplier<KNNSearcher<DBIDRef>> knnq, IntrinsicDimensionalityEstimator estimator, int k) {
+      super();
+      this.knnq = knnq;
+      this.estimator = estimator;
+      this.k = k;
+    }
+
+    @Override
+    public Instance instantiate(Executor executor) {
+      return new Instance(knnq.get(), executor.getInstance(output));
+    }
+
+    /**
+     * Instance for a single thread.
+     *
+     * @author Erich Schubert
+     */
+    private class Instance extends AbstractDoubleProcessor.Instance {
+      /**
+       * kNN searcher.
+       */
+      private KNNSearcher<DBIDRef> knnq;
+
+      /**
+       * Constructor.
+       *
+       * @param knnq kNN searcher
+       * @param output Output variable
+       */
+      Instance(KNNSearcher<DBIDRef> knnq, SharedDouble.Instance output) {
+        super(output);
+        this.knnq = knnq;
+      }
+
+      @Override
+      public void map(DBIDRef id) {
+        double lid = 0.;
+        try {
+          lid = estimator.estimate(knnq, id, k);
+        }
+        catch(ArithmeticException e) {
+          // pass, use 0.
+        }
+        output.set(lid);
+      }
+    }
+  }
+
+  /**
+   * Parameterization class.
+   *
+   * @author Erich Schubert
+   *
+   * @hidden
+   *
+   * @param <O> Object type
+   */
+  public static class Par<O> extends LID.Par<O> {
+    @Override
+    public ParallelLID<O> make() {
+      return new ParallelLID<>(distance, k, estimator);
+    }
+  }
+}
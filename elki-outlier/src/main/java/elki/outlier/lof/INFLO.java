@@ -99,17 +99,17 @@ public class INFLO<O> implements OutlierAlgorithm {
   /**
    * Distance function used.
    */
-  private Distance<? super O> distance;
+  protected Distance<? super O> distance;
 
   /**
    * Pruning threshold m.
    */
-  private double m;
+  protected double m;
 
   /**
    * Number of neighbors to use.
    */
-  private int kplus;
+  protected int kplus;
 
   /**
    * Constructor with parameters.
@@ -192,7 +192,7 @@ public class INFLO<O> implements OutlierAlgorithm {
    * @param pruned Pruned objects: with too many neighbors
    * @param rNNminuskNNs reverse kNN storage
    */
-  private void computeNeighborhoods(Relation<O> relation, DataStore<SetDBIDs> knns, ModifiableDBIDs pruned, WritableDataStore<ModifiableDBIDs> rNNminuskNNs) {
+  protected void computeNeighborhoods(Relation<O> relation, DataStore<SetDBIDs> knns, ModifiableDBIDs pruned, WritableDataStore<ModifiableDBIDs> rNNminuskNNs) {
     FiniteProgress prog = LOG.isVerbose() ? new FiniteProgress("Finding RkNN", relation.size(), LOG) : null;
     for(DBIDIter iter = relation.iterDBIDs(); iter.valid(); iter.advance()) {
       DBIDs knn = knns.get(iter);
@@ -109,7 +109,7 @@ public class KDEOS<O> implements OutlierAlgorithm {
   /**
    * Significance cutoff when computing kernel density.
    */
-  private final static double CUTOFF = 1e-20;
+  protected static final double CUTOFF = 1e-20;
 
   /**
    * Distance function used.
@@ -256,7 +256,7 @@ public class KDEOS<O> implements OutlierAlgorithm {
    * @param rel Data relation
    * @return Dimensionality
    */
-  private int dimensionality(Relation<O> rel) {
+  protected int dimensionality(Relation<O> rel) {
     // Explicit:
     if(idim >= 0) {
       return idim;
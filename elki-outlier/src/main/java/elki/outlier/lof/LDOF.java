@@ -89,7 +89,7 @@ public class LDOF<O> implements OutlierAlgorithm {
    * The baseline for LDOF values. The paper gives 0.5 for uniform
    * distributions, although one might also discuss using 1.0 as baseline.
    */
-  private static final double LDOF_BASELINE = 0.5;
+  protected static final double LDOF_BASELINE = 0.5;
 
   /**
    * Distance function used.
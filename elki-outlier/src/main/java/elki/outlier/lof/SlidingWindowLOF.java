@@ -0,0 +1,861 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2019
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package elki.outlier.lof;
+
+import java.util.Arrays;
+
+import elki.Algorithm;
+import elki.data.NumberVector;
+import elki.data.type.TypeInformation;
+import elki.data.type.TypeUtil;
+import elki.database.datastore.DataStoreFactory;
+import elki.database.datastore.DataStoreUtil;
+import elki.database.datastore.WritableDoubleDataStore;
+import elki.database.ids.DBIDIter;
+import elki.database.ids.DBIDRange;
+import elki.database.ids.DBIDUtil;
+import elki.database.ids.DBIDs;
+import elki.database.relation.DoubleRelation;
+import elki.database.relation.MaterializedDoubleRelation;
+import elki.database.relation.Relation;
+import elki.datasource.bundle.BundleMeta;
+import elki.datasource.bundle.BundleStreamSource;
+import elki.distance.PrimitiveDistance;
+import elki.distance.minkowski.EuclideanDistance;
+import elki.logging.Logging;
+import elki.logging.progress.FiniteProgress;
+import elki.logging.progress.IndefiniteProgress;
+import elki.logging.statistics.DoubleStatistic;
+import elki.logging.statistics.LongStatistic;
+import elki.math.DoubleMinMax;
+import elki.outlier.OutlierAlgorithm;
+import elki.result.outlier.OutlierResult;
+import elki.result.outlier.OutlierScoreMeta;
+import elki.result.outlier.QuotientOutlierScoreMeta;
+import elki.utilities.datastructures.arraylike.DoubleArray;
+import elki.utilities.documentation.Reference;
+import elki.utilities.exceptions.AbortException;
+import elki.utilities.optionhandling.OptionID;
+import elki.utilities.optionhandling.Parameterizer;
+import elki.utilities.optionhandling.constraints.CommonConstraints;
+import elki.utilities.optionhandling.constraints.GreaterConstraint;
+import elki.utilities.optionhandling.parameterization.Parameterization;
+import elki.utilities.optionhandling.parameters.DoubleParameter;
+import elki.utilities.optionhandling.parameters.Flag;
+import elki.utilities.optionhandling.parameters.IntParameter;
+import elki.utilities.optionhandling.parameters.ObjectParameter;
+
+/**
+ * Local Outlier Factor (LOF) on a sliding window, for continuous scoring of a
+ * data stream.
+ * <p>
+ * Each object is scored on arrival, with respect to the objects currently in
+ * the window. Objects are evicted when the window is full, or when they are
+ * older than the time window. The k nearest neighbors, reverse k nearest
+ * neighbors, and local reachability densities of the objects in the window are
+ * maintained incrementally in primitive arrays. Only the densities affected by
+ * a changed k-distance are recomputed.
+ * <p>
+ * The cost of an insertion is one distance computation for each object in the
+ * window; an eviction additionally needs one scan of the window for each
+ * reverse nearest neighbor of the evicted object. Hence the per-event latency
+ * is bounded by the window size.
+ * <p>
+ * The time of an object is either its position in the stream, or the value of
+ * one dimension of the vector. To exclude this dimension from the distance,
+ * use a subspace distance.
+ * <p>
+ * The incremental maintenance follows the approach of:
+ * <p>
+ * D. Pokrajac, A. Lazarevic, L. J. Latecki<br>
+ * Incremental Local Outlier Detection for Data Streams<br>
+ * IEEE Symposium on Computational Intelligence and Data Mining (CIDM 2007)
+ *
+ * @author Erich Schubert
+ * @since 0.8.0
+ *
+ * @has - - - Window
+ *
+ * @param <O> Object type
+ */
+@Reference(authors = "D. Pokrajac, A. Lazarevic, L. J. Latecki", //
+    title = "Incremental Local Outlier Detection for Data Streams", //
+    booktitle = "IEEE Symposium on Computational Intelligence and Data Mining (CIDM 2007)", //
+    url = "https://doi.org/10.1109/CIDM.2007.368917", //
+    bibkey = "DBLP:conf/cidm/PokrajacLL07")
+public class SlidingWindowLOF<O> implements OutlierAlgorithm {
+  /**
+   * The logger for this class.
+   */
+  private static final Logging LOG = Logging.getLogger(SlidingWindowLOF.class);
+
+  /**
+   * Key for statistics logging.
+   */
+  private static final String KEY = SlidingWindowLOF.class.getName();
+
+  /**
+   * Distance function used.
+   */
+  protected PrimitiveDistance<? super O> distance;
+
+  /**
+   * The number of neighbors.
+   */
+  protected int k;
+
+  /**
+   * Maximum number of objects in the window.
+   */
+  protected int window;
+
+  /**
+   * Maximum age of objects in the window.
+   */
+  protected double timewindow;
+
+  /**
+   * Dimension containing the time stamp, or -1 to use the stream position.
+   */
+  protected int timedim;
+
+  /**
+   * Use the simplified LOF densities.
+   */
+  protected boolean simplified;
+
+  /**
+   * Constructor.
+   *
+   * @param distance Distance function
+   * @param k Number of neighbors
+   * @param window Maximum number of objects in the window
+   * @param timewindow Maximum age of objects in the window
+   * @param timedim Dimension containing the time stamp, or -1 to use the
+   *        stream position
+   * @param simplified Use the simplified LOF densities
+   */
+  public SlidingWindowLOF(PrimitiveDistance<? super O> distance, int k, int window, double timewindow, int timedim, boolean simplified) {
+    super();
+    this.distance = distance;
+    this.k = k;
+    this.window = window;
+    this.timewindow = timewindow;
+    this.timedim = timedim;
+    this.simplified = simplified;
+  }
+
+  @Override
+  public TypeInformation[] getInputTypeRestriction() {
+    return TypeUtil.array(distance.getInputTypeRestriction());
+  }
+
+  /**
+   * Process a relation as a stream, in the order of the object ids.
+   *
+   * @param relation Data relation
+   * @return Scores on arrival
+   */
+  public OutlierResult run(Relation<O> relation) {
+    DBIDs ids = relation.getDBIDs();
+    WritableDoubleDataStore scores = DataStoreUtil.makeDoubleStorage(ids, DataStoreFactory.HINT_STATIC | DataStoreFactory.HINT_DB);
+    DoubleMinMax minmax = new DoubleMinMax();
+    Window<O> win = newWindow();
+    FiniteProgress prog = LOG.isVerbose() ? new FiniteProgress("Sliding window LOF", ids.size(), LOG) : null;
+    for(DBIDIter it = ids.iter(); it.valid(); it.advance()) {
+      final double score = process(win, relation.get(it));
+      scores.putDouble(it, score);
+      minmax.put(score);
+      LOG.incrementProcessed(prog);
+    }
+    LOG.ensureCompleted(prog);
+    win.logStatistics();
+    return wrapResult(ids, scores, minmax);
+  }
+
+  /**
+   * Process a data stream, in a single pass.
+   * <p>
+   * The scores are stored by the position of the objects in the stream.
+   *
+   * @param source Data source
+   * @return Scores on arrival
+   */
+  public OutlierResult run(BundleStreamSource source) {
+    final TypeInformation restriction = getInputTypeRestriction()[0];
+    DoubleArray buf = new DoubleArray();
+    DoubleMinMax minmax = new DoubleMinMax();
+    Window<O> win = newWindow();
+    IndefiniteProgress prog = LOG.isVerbose() ? new IndefiniteProgress("Sliding window LOF", LOG) : null;
+    int dcol = -1;
+    loop: while(true) {
+      switch(source.nextEvent()){
+      case END_OF_STREAM:
+        break loop;
+      case META_CHANGED:
+        BundleMeta meta = source.getMeta();
+        dcol = -1;
+        for(int i = 0; i < meta.size(); i++) {
+          if(restriction.isAssignableFromType(meta.get(i))) {
+            if(dcol >= 0) {
+              throw new AbortException("More than one data column.");
+            }
+            dcol = i;
+          }
+        }
+        break;
+      case NEXT_OBJECT:
+        if(dcol < 0) {
+          throw new AbortException("No data column available.");
+        }
+        @SuppressWarnings("unchecked")
+        O obj = (O) source.data(dcol);
+        final double score = process(win, obj);
+        buf.add(score);
+        minmax.put(score);
+        LOG.incrementProcessed(prog);
+        break;
+      }
+    }
+    LOG.setCompleted(prog);
+    win.logStatistics();
+    DBIDRange ids = DBIDUtil.generateStaticDBIDRange(buf.size);
+    WritableDoubleDataStore scores = DataStoreUtil.makeDoubleStorage(ids, DataStoreFactory.HINT_STATIC | DataStoreFactory.HINT_DB);
+    int i = 0;
+    for(DBIDIter it = ids.iter(); it.valid(); it.advance()) {
+      scores.putDouble(it, buf.data[i++]);
+    }
+    return wrapResult(ids, scores, minmax);
+  }
+
+  /**
+   * Create a new, empty window, to score objects one at a time.
+   *
+   * @return Window
+   */
+  public Window<O> newWindow() {
+    return new Window<>(distance, k, window, timewindow, simplified);
+  }
+
+  /**
+   * Process a single object, using the configured time.
+   *
+   * @param win Window
+   * @param obj Object
+   * @return Score on arrival
+   */
+  private double process(Window<O> win, O obj) {
+    return win.insert(obj, timedim >= 0 ? ((NumberVector) obj).doubleValue(timedim) : win.inserted);
+  }
+
+  /**
+   * Wrap the scores into an outlier result.
+   *
+   * @param ids Object ids
+   * @param scores Scores
+   * @param minmax Score range
+   * @return Outlier result
+   */
+  private OutlierResult wrapResult(DBIDs ids, WritableDoubleDataStore scores, DoubleMinMax minmax) {
+    DoubleRelation scoreResult = new MaterializedDoubleRelation(simplified ? "Sliding Window Simplified LOF" : "Sliding Window LOF", ids, scores);
+    OutlierScoreMeta scoreMeta = new QuotientOutlierScoreMeta(minmax.getMin(), minmax.getMax(), 0., Double.POSITIVE_INFINITY, 1.);
+    return new OutlierResult(scoreMeta, scoreResult);
+  }
+
+  /**
+   * Sliding window, with incrementally maintained neighborhoods.
+   * <p>
+   * Objects are stored in a ring buffer of slots. The k nearest neighbors of
+   * each slot are kept sorted by distance in flat arrays; the reverse nearest
+   * neighbors in growing per-slot arrays.
+   *
+   * @author Erich Schubert
+   *
+   * @param <O> Object type
+   */
+  public static class Window<O> {
+    /**
+     * Distance function used.
+     */
+    private PrimitiveDistance<? super O> distance;
+
+    /**
+     * Number of neighbors.
+     */
+    private int k;
+
+    /**
+     * Maximum age of objects.
+     */
+    private double timewindow;
+
+    /**
+     * Use the simplified LOF densities.
+     */
+    private boolean simplified;
+
+    /**
+     * Objects in the window.
+     */
+    private Object[] objs;
+
+    /**
+     * Time stamps of the objects.
+     */
+    private double[] time;
+
+    /**
+     * Nearest neighbors (k per slot), and their distances.
+     */
+    private int[] knn;
+
+    /**
+     * Distances of the nearest neighbors (k per slot).
+     */
+    private double[] knnd;
+
+    /**
+     * Number of nearest neighbors of each slot.
+     */
+    private int[] knnc;
+
+    /**
+     * Reverse nearest neighbors.
+     */
+    private int[][] rknn;
+
+    /**
+     * Number of reverse nearest neighbors of each slot.
+     */
+    private int[] rknnc;
+
+    /**
+     * Local reachability densities.
+     */
+    private double[] lrd;
+
+    /**
+     * Markers for the affected slots, and for the slots needing a density
+     * update.
+     */
+    private int[] mark, mark2;
+
+    /**
+     * Current marker value.
+     */
+    private int epoch;
+
+    /**
+     * Slots with a changed neighborhood, and slots needing a density update.
+     */
+    private int[] changed, update;
+
+    /**
+     * Number of slots with a changed neighborhood.
+     */
+    private int nchanged;
+
+    /**
+     * Oldest slot, and number of objects in the window.
+     */
+    private int head, size;
+
+    /**
+     * Number of objects inserted.
+     */
+    private long inserted;
+
+    /**
+     * Number of objects evicted.
+     */
+    private long evicted;
+
+    /**
+     * Number of distance computations.
+     */
+    private long distcalc;
+
+    /**
+     * Total and maximum latency, in nanoseconds.
+     */
+    private long totallatency, maxlatency;
+
+    /**
+     * Constructor.
+     *
+     * @param distance Distance function
+     * @param k Number of neighbors
+     * @param capacity Maximum number of objects in the window
+     * @param timewindow Maximum age of objects
+     * @param simplified Use the simplified LOF densities
+     */
+    public Window(PrimitiveDistance<? super O> distance, int k, int capacity, double timewindow, boolean simplified) {
+      this.distance = distance;
+      this.k = k;
+      this.timewindow = timewindow;
+      this.simplified = simplified;
+      this.objs = new Object[capacity];
+      this.time = new double[capacity];
+      this.knn = new int[capacity * k];
+      this.knnd = new double[capacity * k];
+      this.knnc = new int[capacity];
+      this.rknn = new int[capacity][];
+      this.rknnc = new int[capacity];
+      this.lrd = new double[capacity];
+      this.mark = new int[capacity];
+      this.mark2 = new int[capacity];
+      this.changed = new int[capacity];
+      this.update = new int[capacity];
+    }
+
+    /**
+     * Insert an object, evicting old objects as necessary.
+     *
+     * @param obj Object
+     * @param t Time stamp
+     * @return LOF score of the object, with respect to the window
+     */
+    public double insert(O obj, double t) {
+      final long start = LOG.isStatistics() ? System.nanoTime() : 0L;
+      // Expire old objects:
+      while(size > 0 && t - time[head] > timewindow) {
+        evict();
+      }
+      if(size == objs.length) {
+        evict();
+      }
+      final int p = (head + size) % objs.length;
+      objs[p] = obj;
+      time[p] = t;
+      knnc[p] = rknnc[p] = 0;
+      beginChanges();
+      // A single scan: the neighbors of p, and p as a neighbor of the others.
+      for(int i = 0; i < size; i++) {
+        final int q = (head + i) % objs.length;
+        @SuppressWarnings("unchecked")
+        final double d = distance.distance(obj, (O) objs[q]);
+        insertNeighbor(p, q, d);
+        if(knnc[q] < k || d < knnd[q * k + k - 1]) {
+          final int o = insertNeighbor(q, p, d);
+          if(o >= 0) {
+            removeReverse(o, q);
+          }
+          addReverse(p, q);
+          markChanged(q);
+        }
+      }
+      distcalc += size;
+      ++size;
+      for(int j = 0, off = p * k; j < knnc[p]; j++) {
+        addReverse(knn[off + j], p);
+      }
+      markChanged(p);
+      updateDensities();
+      ++inserted;
+      final double score = score(p);
+      if(LOG.isStatistics()) {
+        final long latency = System.nanoTime() - start;
+        totallatency += latency;
+        maxlatency = latency > maxlatency ? latency : maxlatency;
+      }
+      return score;
+    }
+
+    /**
+     * Evict the oldest object.
+     */
+    private void evict() {
+      final int x = head;
+      head = (head + 1) % objs.length;
+      --size;
+      beginChanges();
+      for(int j = 0, off = x * k; j < knnc[x]; j++) {
+        removeReverse(knn[off + j], x);
+      }
+      // Each reverse neighbor lost a neighbor, and needs a replacement:
+      for(int r = 0; r < rknnc[x]; r++) {
+        final int q = rknn[x][r];
+        removeNeighbor(q, x);
+        refill(q);
+        markChanged(q);
+      }
+      knnc[x] = rknnc[x] = 0;
+      objs[x] = null;
+      updateDensities();
+      ++evicted;
+    }
+
+    /**
+     * Compute the LOF score of an object in the window.
+     *
+     * @param p Slot
+     * @return LOF score
+     */
+    private double score(int p) {
+      final double lrdp = lrd[p];
+      if(Double.isInfinite(lrdp) || knnc[p] == 0) {
+        return 1.0;
+      }
+      double sum = 0.;
+      for(int j = 0, off = p * k; j < knnc[p]; j++) {
+        sum += lrd[knn[off + j]];
+      }
+      return sum / (lrdp * knnc[p]);
+    }
+
+    /**
+     * Start a new set of changed slots.
+     */
+    private void beginChanges() {
+      if(++epoch == 0) { // Overflow, reset the markers.
+        Arrays.fill(mark, 0);
+        Arrays.fill(mark2, 0);
+        epoch = 1;
+      }
+      nchanged = 0;
+    }
+
+    /**
+     * Mark a slot as changed.
+     *
+     * @param q Slot
+     */
+    private void markChanged(int q) {
+      if(mark[q] != epoch) {
+        mark[q] = epoch;
+        changed[nchanged++] = q;
+      }
+    }
+
+    /**
+     * Update the densities of all slots affected by the changes.
+     * <p>
+     * The density of a slot changes if its neighbors changed, or (unless
+     * simplified) if the k-distance of one of its neighbors changed.
+     */
+    private void updateDensities() {
+      int nupdate = 0;
+      for(int i = 0; i < nchanged; i++) {
+        final int q = changed[i];
+        if(mark2[q] != epoch) {
+          mark2[q] = epoch;
+          update[nupdate++] = q;
+        }
+        if(!simplified) {
+          final int[] rq = rknn[q];
+          for(int r = 0; r < rknnc[q]; r++) {
+            final int a = rq[r];
+            if(mark2[a] != epoch) {
+              mark2[a] = epoch;
+              update[nupdate++] = a;
+            }
+          }
+        }
+      }
+      for(int i = 0; i < nupdate; i++) {
+        final int a = update[i];
+        lrd[a] = simplified ? simplifiedDensity(a) : density(a);
+      }
+    }
+
+    /**
+     * Compute the local reachability density of a slot.
+     *
+     * @param a Slot
+     * @return Local reachability density
+     */
+    private double density(int a) {
+      double sum = 0.;
+      for(int j = 0, off = a * k; j < knnc[a]; j++) {
+        final int b = knn[off + j];
+        final double kdist = knnd[b * k + knnc[b] - 1];
+        final double d = knnd[off + j];
+        sum += d > kdist ? d : kdist;
+      }
+      // Avoid division by 0
+      return (sum > 0) ? (knnc[a] / sum) : Double.POSITIVE_INFINITY;
+    }
+
+    /**
+     * Compute the simplified density of a slot.
+     *
+     * @param a Slot
+     * @return Simplified density
+     */
+    private double simplifiedDensity(int a) {
+      double sum = 0.;
+      for(int j = 0, off = a * k; j < knnc[a]; j++) {
+        sum += knnd[off + j];
+      }
+      // Avoid division by 0
+      return (sum > 0) ? (knnc[a] / sum) : Double.POSITIVE_INFINITY;
+    }
+
+    /**
+     * Insert a neighbor into the sorted neighbor list of a slot.
+     *
+     * @param a Slot
+     * @param b New neighbor
+     * @param d Distance
+     * @return Neighbor removed from the list, -1 if none, -2 if {@code b} was
+     *         not inserted
+     */
+    private int insertNeighbor(int a, int b, double d) {
+      final int off = a * k, c = knnc[a];
+      if(c == k && d >= knnd[off + k - 1]) {
+        return -2;
+      }
+      final int removed = c == k ? knn[off + k - 1] : -1;
+      int j = c == k ? k - 1 : c;
+      for(; j > 0 && knnd[off + j - 1] > d; j--) {
+        knn[off + j] = knn[off + j - 1];
+        knnd[off + j] = knnd[off + j - 1];
+      }
+      knn[off + j] = b;
+      knnd[off + j] = d;
+      knnc[a] = c == k ? k : c + 1;
+      return removed;
+    }
+
+    /**
+     * Remove a neighbor from the neighbor list of a slot.
+     *
+     * @param a Slot
+     * @param b Neighbor to remove
+     */
+    private void removeNeighbor(int a, int b) {
+      final int off = a * k, c = knnc[a];
+      int j = 0;
+      while(j < c && knn[off + j] != b) {
+        j++;
+      }
+      assert j < c : "Neighbor not found.";
+      for(; j < c - 1; j++) {
+        knn[off + j] = knn[off + j + 1];
+        knnd[off + j] = knnd[off + j + 1];
+      }
+      knnc[a] = c - 1;
+    }
+
+    /**
+     * Find the nearest object not yet in the neighbor list of a slot, after a
+     * neighbor was removed.
+     * <p>
+     * All objects not in the list are at least as far as the remaining
+     * neighbors, so only ties need to be checked for membership.
+     *
+     * @param q Slot
+     */
+    private void refill(int q) {
+      final int off = q * k, c = knnc[q];
+      final double last = c > 0 ? knnd[off + c - 1] : Double.NEGATIVE_INFINITY;
+      @SuppressWarnings("unchecked")
+      final O oq = (O) objs[q];
+      double bestd = Double.POSITIVE_INFINITY;
+      int best = -1;
+      for(int i = 0; i < size; i++) {
+        final int o = (head + i) % objs.length;
+        if(o == q) {
+          continue;
+        }
+        @SuppressWarnings("unchecked")
+        final double d = distance.distance(oq, (O) objs[o]);
+        if(d < last || d >= bestd || (d == last && isNeighbor(q, o))) {
+          continue;
+        }
+        bestd = d;
+        best = o;
+      }
+      distcalc += size - 1;
+      if(best >= 0) {
+        knn[off + c] = best;
+        knnd[off + c] = bestd;
+        knnc[q] = c + 1;
+        addReverse(best, q);
+      }
+    }
+
+    /**
+     * Test if an object is in the neighbor list of a slot.
+     *
+     * @param a Slot
+     * @param b Object slot
+     * @return {@code true} if {@code b} is a neighbor of {@code a}
+     */
+    private boolean isNeighbor(int a, int b) {
+      for(int j = 0, off = a * k; j < knnc[a]; j++) {
+        if(knn[off + j] == b) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    /**
+     * Add a reverse neighbor.
+     *
+     * @param b Slot
+     * @param a New reverse neighbor of b
+     */
+    private void addReverse(int b, int a) {
+      int[] rb = rknn[b];
+      if(rb == null) {
+        rb = rknn[b] = new int[k << 1];
+      }
+      else if(rknnc[b] == rb.length) {
+        rb = rknn[b] = Arrays.copyOf(rb, rb.length << 1);
+      }
+      rb[rknnc[b]++] = a;
+    }
+
+    /**
+     * Remove a reverse neighbor.
+     *
+     * @param b Slot
+     * @param a Reverse neighbor to remove
+     */
+    private void removeReverse(int b, int a) {
+      final int[] rb = rknn[b];
+      final int c = rknnc[b];
+      for(int r = 0; r < c; r++) {
+        if(rb[r] == a) {
+          rb[r] = rb[c - 1];
+          rknnc[b] = c - 1;
+          return;
+        }
+      }
+      assert false : "Reverse neighbor not found.";
+    }
+
+    /**
+     * Get the number of objects in the window.
+     *
+     * @return Number of objects
+     */
+    public int size() {
+      return size;
+    }
+
+    /**
+     * Log the throughput and latency statistics.
+     */
+    public void logStatistics() {
+      if(!LOG.isStatistics()) {
+        return;
+      }
+      LOG.statistics(new LongStatistic(KEY + ".inserted", inserted));
+      LOG.statistics(new LongStatistic(KEY + ".evicted", evicted));
+      LOG.statistics(new LongStatistic(KEY + ".distance-computations", distcalc));
+      if(inserted > 0) {
+        LOG.statistics(new DoubleStatistic(KEY + ".latency.mean-ms", totallatency * 1e-6 / inserted));
+        LOG.statistics(new DoubleStatistic(KEY + ".latency.max-ms", maxlatency * 1e-6));
+        LOG.statistics(new DoubleStatistic(KEY + ".throughput.per-second", totallatency > 0 ? inserted * 1e9 / totallatency : Double.POSITIVE_INFINITY));
+      }
+    }
+  }
+
+  /**
+   * Parameterization class.
+   *
+   * @author Erich Schubert
+   *
+   * @hidden
+   *
+   * @param <O> Object type
+   */
+  public static class Par<O> implements Parameterizer {
+    /**
+     * Maximum number of objects in the window.
+     */
+    public static final OptionID WINDOW_ID = new OptionID("swlof.window", "Maximum number of objects in the sliding window.");
+
+    /**
+     * Maximum age of objects in the window.
+     */
+    public static final OptionID TIMEWINDOW_ID = new OptionID("swlof.timewindow", "Maximum age of objects in the sliding window.");
+
+    /**
+     * Dimension containing the time stamp.
+     */
+    public static final OptionID TIMEDIM_ID = new OptionID("swlof.timedim", "Dimension containing the time stamp. If not given, the position in the stream is used.");
+
+    /**
+     * Use the simplified LOF densities.
+     */
+    public static final OptionID SIMPLIFIED_ID = new OptionID("swlof.simplified", "Use the simplified LOF densities, which are cheaper to maintain.");
+
+    /**
+     * The distance function to use.
+     */
+    protected PrimitiveDistance<? super O> distance;
+
+    /**
+     * The neighborhood size to use.
+     */
+    protected int k = 2;
+
+    /**
+     * Maximum number of objects in the window.
+     */
+    protected int window;
+
+    /**
+     * Maximum age of objects in the window.
+     */
+    protected double timewindow = Double.POSITIVE_INFINITY;
+
+    /**
+     * Dimension containing the time stamp.
+     */
+    protected int timedim = -1;
+
+    /**
+     * Use the simplified LOF densities.
+     */
+    protected boolean simplified;
+
+    @Override
+    public void configure(Parameterization config) {
+      new ObjectParameter<PrimitiveDistance<? super O>>(Algorithm.Utils.DISTANCE_FUNCTION_ID, PrimitiveDistance.class, EuclideanDistance.class) //
+          .grab(config, x -> distance = x);
+      new IntParameter(LOF.Par.K_ID) //
+          .addConstraint(CommonConstraints.GREATER_EQUAL_ONE_INT) //
+          .grab(config, x -> k = x);
+      new IntParameter(WINDOW_ID) //
+          .addConstraint(new GreaterConstraint(k)) //
+          .grab(config, x -> window = x);
+      new DoubleParameter(TIMEWINDOW_ID) //
+          .addConstraint(CommonConstraints.GREATER_THAN_ZERO_DOUBLE) //
+          .setOptional(true) //
+          .grab(config, x -> timewindow = x);
+      new IntParameter(TIMEDIM_ID) //
+          .addConstraint(CommonConstraints.GREATER_EQUAL_ZERO_INT) //
+          .setOptional(true) //
+          .grab(config, x -> timedim = x);
+      new Flag(SIMPLIFIED_ID).grab(config, x -> simplified = x);
+    }
+
+    @Override
+    public SlidingWindowLOF<O> make() {
+      return new SlidingWindowLOF<>(distance, k, window, timewindow, timedim, simplified);
+    }
+  }
+}
@@ -0,0 +1,327 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2019
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package elki.outlier.lof.parallel;
+
+import elki.database.datastore.DataStore;
+import elki.database.datastore.DataStoreFactory;
+import elki.database.datastore.DataStoreUtil;
+import elki.database.datastore.DoubleDataStore;
+import elki.database.datastore.WritableDataStore;
+import elki.database.datastore.WritableDoubleDataStore;
+import elki.database.ids.DBIDIter;
+import elki.database.ids.DBIDRef;
+import elki.database.ids.DBIDUtil;
+import elki.database.ids.DBIDs;
+import elki.database.ids.DoubleDBIDListIter;
+import elki.database.ids.KNNList;
+import elki.database.query.QueryBuilder;
+import elki.database.query.distance.DistanceQuery;
+import elki.database.relation.DoubleRelation;
+import elki.database.relation.MaterializedDoubleRelation;
+import elki.database.relation.Relation;
+import elki.distance.Distance;
+import elki.math.DoubleMinMax;
+import elki.outlier.lof.COF;
+import elki.parallel.Executor;
+import elki.parallel.ParallelExecutor;
+import elki.parallel.processor.AbstractDoubleProcessor;
+import elki.parallel.processor.DoubleMinMaxProcessor;
+import elki.parallel.processor.KNNProcessor;
+import elki.parallel.processor.WriteDataStoreProcessor;
+import elki.parallel.processor.WriteDoubleDataStoreProcessor;
+import elki.parallel.variables.SharedDouble;
+import elki.parallel.variables.SharedObject;
+import elki.result.outlier.OutlierResult;
+import elki.result.outlier.OutlierScoreMeta;
+import elki.result.outlier.QuotientOutlierScoreMeta;
+
+/**
+ * Parallel implementation of the Connectivity-based Outlier Factor, using
+ * processors.
+ * <p>
+ * The average chaining distances, which dominate the cost with their
+ * quadratic number of distance computations per neighborhood, are computed in
+ * the same parallel pass as the nearest neighbors.
+ *
+ * @author Erich Schubert
+ * @since 0.8.0
+ *
+ * @has - - - ACDProcessor
+ * @has - - - COFProcessor
+ *
+ * @param <O> Object type
+ */
+public class ParallelCOF<O> extends COF<O> {
+  /**
+   * Constructor.
+   *
+   * @param distance Distance function
+   * @param k k Parameter
+   */
+  public ParallelCOF(Distance<? super O> distance, int k) {
+    super(distance, k);
+  }
+
+  @Override
+  public OutlierResult run(Relation<O> relation) {
+    DBIDs ids = relation.getDBIDs();
+    QueryBuilder<O> qb = new QueryBuilder<>(relation, distance);
+    DistanceQuery<O> dq = qb.distanceQuery();
+
+    // Phase one: kNN and average chaining distances
+    WritableDataStore<KNNList> knns = DataStoreUtil.makeStorage(ids, DataStoreFactory.HINT_HOT | DataStoreFactory.HINT_TEMP, KNNList.class);
+    WritableDoubleDataStore acds = DataStoreUtil.makeDoubleStorage(ids, DataStoreFactory.HINT_HOT | DataStoreFactory.HINT_TEMP);
+    {
+      KNNProcessor knnm = new KNNProcessor(k, () -> qb.kNNByDBID(k));
+      SharedObject<KNNList> knnv = new SharedObject<>();
+      WriteDataStoreProcessor<KNNList> storek = new WriteDataStoreProcessor<>(knns);
+      knnm.connectKNNOutput(knnv);
+      storek.connectInput(knnv);
+      ACDProcessor acdm = new ACDProcessor(dq, k);
+      SharedDouble acdv = new SharedDouble();
+      WriteDoubleDataStoreProcessor storea = new WriteDoubleDataStoreProcessor(acds);
+      acdm.connectKNNInput(knnv);
+      acdm.connectOutput(acdv);
+      storea.connectInput(acdv);
+      ParallelExecutor.run(ids, knnm, storek, acdm, storea);
+    }
+
+    // Phase two: COF scores
+    WritableDoubleDataStore cofs = DataStoreUtil.makeDoubleStorage(ids, DataStoreFactory.HINT_HOT | DataStoreFactory.HINT_DB);
+    DoubleMinMax minmax;
+    {
+      COFProcessor cofm = new COFProcessor(knns, acds, k);
+      SharedDouble cofv = new SharedDouble();
+      WriteDoubleDataStoreProcessor storec = new WriteDoubleDataStoreProcessor(cofs);
+      DoubleMinMaxProcessor mmm = new DoubleMinMaxProcessor();
+      cofm.connectOutput(cofv);
+      storec.connectInput(cofv);
+      mmm.connectInput(cofv);
+      ParallelExecutor.run(ids, cofm, storec, mmm);
+      minmax = mmm.getMinMax();
+    }
+    knns.destroy();
+    acds.destroy();
+
+    DoubleRelation scoreResult = new MaterializedDoubleRelation("Connectivity-Based Outlier Factor", ids, cofs);
+    OutlierScoreMeta scoreMeta = new QuotientOutlierScoreMeta(minmax.getMin(), minmax.getMax(), 0.0, Double.POSITIVE_INFINITY, 1.0);
+    return new OutlierResult(scoreMeta, scoreResult);
+  }
+
+  /**
+   * Processor for the average chaining distances.
+   *
+   * @author Erich Schubert
+   */
+  private static class ACDProcessor extends AbstractDoubleProcessor {
+    /**
+     * Distance query.
+     */
+    private DistanceQuery<?> dq;
+
+    /**
+     * Neighborhood size, including the query point.
+     */
+    private int k;
+
+    /**
+     * kNN input.
+     */
+    private SharedObject<KNNList> input;
+
+    /**
+     * Constructor.
+     *
+     * @param dq Distance query
+     * @param k Neighborhood size, including the query point
+     */
+    ACDProcessor(DistanceQuery<?> dq, int k) {
+      super();
+      this.dq = dq;
+      this.k = k;
+    }
+
+    /**
+     * Connect the kNN input channel.
+     *
+     * @param input Input channel
+     */
+    void connectKNNInput(SharedObject<KNNList> input) {
+      this.input = input;
+    }
+
+    @Override
+    public Instance instantiate(Executor executor) {
+      return new Instance(executor.getInstance(input), executor.getInstance(output));
+    }
+
+    /**
+     * Instance for a single thread.
+     *
+     * @author Erich Schubert
+     */
+    private class Instance extends AbstractDoubleProcessor.Instance {
+      /**
+       * kNN input.
+       */
+      private SharedObject.Instance<KNNList> input;
+
+      /**
+       * Constructor.
+       *
+       * @param input kNN input
+       * @param output Output variable
+       */
+      Instance(SharedObject.Instance<KNNList> input, SharedDouble.Instance output) {
+        super(output);
+        this.input = input;
+      }
+
+      @Override
+      public void map(DBIDRef id) {
+        final KNNList neighbors = input.get();
+        final int r = neighbors.size();
+        DoubleDBIDListIter it1 = neighbors.iter(), it2 = neighbors.iter();
+        // Store the current lowest reachability.
+        final double[] mindists = new double[r];
+        for(int i = 0; it1.valid(); it1.advance(), ++i) {
+          mindists[i] = DBIDUtil.equal(it1, id) ? Double.NaN : it1.doubleValue();
+        }
+        double acsum = 0.;
+        for(int j = ((r < k) ? r : k) - 1; j > 0; --j) {
+          // Find the minimum:
+          int minpos = -1;
+          double mindist = Double.NaN;
+          for(int i = 0; i < mindists.length; ++i) {
+            double curdist = mindists[i];
+            // Both values could be NaN, deliberately.
+            if(curdist == curdist && !(curdist > mindist)) {
+              minpos = i;
+              mindist = curdist;
+            }
+          }
+          acsum += mindist * j; // Weighted sum, decreasing weights
+          mindists[minpos] = Double.NaN;
+          it1.seek(minpos);
+          // Update distances
+          it2.seek(0);
+          for(int i = 0; it2.valid(); it2.advance(), ++i) {
+            final double curdist = mindists[i];
+            if(curdist != curdist) {
+              continue; // NaN = processed!
+            }
+            double newdist = dq.distance(it1, it2);
+            if(newdist < curdist) {
+              mindists[i] = newdist;
+            }
+          }
+        }
+        output.set(acsum / (r * 0.5 * (r - 1.)));
+      }
+    }
+  }
+
+  /**
+   * Processor for the COF scores.
+   *
+   * @author Erich Schubert
+   */
+  private static class COFProcessor extends AbstractDoubleProcessor {
+    /**
+     * kNN store.
+     */
+    private DataStore<? extends KNNList> knns;
+
+    /**
+     * Average chaining distances.
+     */
+    private DoubleDataStore acds;
+
+    /**
+     * Neighborhood size, including the query point.
+     */
+    private int k;
+
+    /**
+     * Constructor.
+     *
+     * @param knns kNN store
+     * @param acds Average chaining distances
+     * @param k Neighborhood size, including the query point
+     */
+    COFProcessor(DataStore<? extends KNNList> knns, DoubleDataStore acds, int k) {
+      super();
+      this.knns = knns;
+      this.acds = acds;
+      this.k = k;
+    }
+
+    @Override
+    public Instance instantiate(Executor executor) {
+      return new Instance(executor.getInstance(output));
+    }
+
+    /**
+     * Instance for a single thread.
+     *
+     * @author Erich Schubert
+     */
+    private class Instance extends AbstractDoubleProcessor.Instance {
+      /**
+       * Constructor.
+       *
+       * @param output Output variable
+       */
+      Instance(SharedDouble.Instance output) {
+        super(output);
+      }
+
+      @Override
+      public void map(DBIDRef id) {
+        double sum = 0.;
+        for(DBIDIter neighbor = knns.get(id).iter(); neighbor.valid(); neighbor.advance()) {
+          if(DBIDUtil.equal(neighbor, id)) {
+            continue;
+          }
+          sum += acds.doubleValue(neighbor);
+        }
+        final double acd = acds.doubleValue(id);
+        output.set(sum > 0. ? acd * k / sum : acd > 0. ? Double.POSITIVE_INFINITY : 1.);
+      }
+    }
+  }
+
+  /**
+   * Parameterization class.
+   *
+   * @author Erich Schubert
+   *
+   * @hidden
+   *
+   * @param <O> Object type
+   */
+  public static class Par<O> extends COF.Par<O> {
+    @Override
+    public ParallelCOF<O> make() {
+      return new ParallelCOF<>(distance, k);
+    }
+  }
+}
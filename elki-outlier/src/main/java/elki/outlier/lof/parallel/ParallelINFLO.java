@@ -0,0 +1,308 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2019
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package elki.outlier.lof.parallel;
+
+import elki.database.datastore.DataStore;
+import elki.database.datastore.DataStoreFactory;
+import elki.database.datastore.DataStoreUtil;
+import elki.database.datastore.DoubleDataStore;
+import elki.database.datastore.WritableDataStore;
+import elki.database.datastore.WritableDoubleDataStore;
+import elki.database.ids.DBIDIter;
+import elki.database.ids.DBIDRef;
+import elki.database.ids.DBIDUtil;
+import elki.database.ids.DBIDs;
+import elki.database.ids.HashSetModifiableDBIDs;
+import elki.database.ids.KNNList;
+import elki.database.ids.ModifiableDBIDs;
+import elki.database.ids.SetDBIDs;
+import elki.database.query.QueryBuilder;
+import elki.database.relation.DoubleRelation;
+import elki.database.relation.MaterializedDoubleRelation;
+import elki.database.relation.Relation;
+import elki.distance.Distance;
+import elki.logging.Logging;
+import elki.logging.statistics.LongStatistic;
+import elki.math.DoubleMinMax;
+import elki.outlier.lof.INFLO;
+import elki.parallel.Executor;
+import elki.parallel.ParallelExecutor;
+import elki.parallel.processor.AbstractDoubleProcessor;
+import elki.parallel.processor.DoubleMinMaxProcessor;
+import elki.parallel.processor.KDistanceProcessor;
+import elki.parallel.processor.KNNProcessor;
+import elki.parallel.processor.Processor;
+import elki.parallel.processor.WriteDataStoreProcessor;
+import elki.parallel.processor.WriteDoubleDataStoreProcessor;
+import elki.parallel.variables.SharedDouble;
+import elki.parallel.variables.SharedObject;
+import elki.result.outlier.OutlierResult;
+import elki.result.outlier.OutlierScoreMeta;
+import elki.result.outlier.QuotientOutlierScoreMeta;
+
+/**
+ * Parallel implementation of INFLO, using processors.
+ * <p>
+ * The nearest neighbors (and their set representation) and the final scores
+ * are computed in parallel. Collecting the reverse nearest neighbors is a
+ * linear pass over the kNN graph that is performed sequentially.
+ *
+ * @author Erich Schubert
+ * @since 0.8.0
+ *
+ * @has - - - INFLOProcessor
+ *
+ * @param <O> Object type
+ */
+public class ParallelINFLO<O> extends INFLO<O> {
+  /**
+   * Class logger.
+   */
+  private static final Logging LOG = Logging.getLogger(ParallelINFLO.class);
+
+  /**
+   * Constructor.
+   *
+   * @param distance Distance function
+   * @param m m Parameter
+   * @param k k Parameter
+   */
+  public ParallelINFLO(Distance<? super O> distance, double m, int k) {
+    super(distance, m, k);
+  }
+
+  @Override
+  public OutlierResult run(Relation<O> relation) {
+    DBIDs ids = relation.getDBIDs();
+    QueryBuilder<O> qb = new QueryBuilder<>(relation, distance);
+
+    // Phase one: kNN, k-distances, and kNN sets
+    WritableDataStore<KNNList> knns = DataStoreUtil.makeStorage(ids, DataStoreFactory.HINT_HOT | DataStoreFactory.HINT_TEMP, KNNList.class);
+    WritableDoubleDataStore kdists = DataStoreUtil.makeDoubleStorage(ids, DataStoreFactory.HINT_HOT | DataStoreFactory.HINT_TEMP);
+    WritableDataStore<SetDBIDs> knnsets = DataStoreUtil.makeStorage(ids, DataStoreFactory.HINT_TEMP | DataStoreFactory.HINT_HOT, SetDBIDs.class);
+    {
+      KNNProcessor knnm = new KNNProcessor(kplus, () -> qb.kNNByDBID(kplus));
+      SharedObject<KNNList> knnv = new SharedObject<>();
+      WriteDataStoreProcessor<KNNList> storek = new WriteDataStoreProcessor<>(knns);
+      knnm.connectKNNOutput(knnv);
+      storek.connectInput(knnv);
+      KDistanceProcessor kdistm = new KDistanceProcessor(kplus);
+      SharedDouble kdistv = new SharedDouble();
+      WriteDoubleDataStoreProcessor stored = new WriteDoubleDataStoreProcessor(kdists);
+      kdistm.connectKNNInput(knnv);
+      kdistm.connectOutput(kdistv);
+      stored.connectInput(kdistv);
+      KNNSetProcessor setm = new KNNSetProcessor(knnsets);
+      setm.connectKNNInput(knnv);
+      ParallelExecutor.run(ids, knnm, storek, kdistm, stored, setm);
+    }
+
+    // Phase two: reverse nearest neighbors and pruning
+    ModifiableDBIDs pruned = DBIDUtil.newHashSet();
+    WritableDataStore<ModifiableDBIDs> rnnMinusKNNs = DataStoreUtil.makeStorage(ids, DataStoreFactory.HINT_TEMP | DataStoreFactory.HINT_HOT, ModifiableDBIDs.class);
+    for(DBIDIter iditer = ids.iter(); iditer.valid(); iditer.advance()) {
+      rnnMinusKNNs.put(iditer, DBIDUtil.newArray());
+    }
+    computeNeighborhoods(relation, knnsets, pruned, rnnMinusKNNs);
+    knnsets.destroy();
+
+    // Phase three: INFLO scores
+    WritableDoubleDataStore inflos = DataStoreUtil.makeDoubleStorage(ids, DataStoreFactory.HINT_STATIC);
+    DoubleMinMax minmax;
+    {
+      INFLOProcessor inflom = new INFLOProcessor(knns, kdists, rnnMinusKNNs, pruned);
+      SharedDouble inflov = new SharedDouble();
+      WriteDoubleDataStoreProcessor storei = new WriteDoubleDataStoreProcessor(inflos);
+      DoubleMinMaxProcessor mmm = new DoubleMinMaxProcessor();
+      inflom.connectOutput(inflov);
+      storei.connectInput(inflov);
+      mmm.connectInput(inflov);
+      ParallelExecutor.run(ids, inflom, storei, mmm);
+      minmax = mmm.getMinMax();
+    }
+    LOG.statistics(new LongStatistic(ParallelINFLO.class.getName() + ".pruned", pruned.size()));
+
+    DoubleRelation scoreResult = new MaterializedDoubleRelation("Influence Outlier Score", ids, inflos);
+    OutlierScoreMeta scoreMeta = new QuotientOutlierScoreMeta(minmax.getMin(), minmax.getMax(), 0., Double.POSITIVE_INFINITY, 1.);
+    return new OutlierResult(scoreMeta, scoreResult);
+  }
+
+  /**
+   * Processor to store the kNN as sets, for fast lookups.
+   *
+   * @author Erich Schubert
+   */
+  private static class KNNSetProcessor implements Processor {
+    /**
+     * Output store.
+     */
+    private WritableDataStore<SetDBIDs> store;
+
+    /**
+     * kNN input.
+     */
+    private SharedObject<KNNList> input;
+
+    /**
+     * Constructor.
+     *
+     * @param store Output store
+     */
+    KNNSetProcessor(WritableDataStore<SetDBIDs> store) {
+      super();
+      this.store = store;
+    }
+
+    /**
+     * Connect the kNN input channel.
+     *
+     * @param input Input channel
+     */
+    void connectKNNInput(SharedObject<KNNList> input) {
+      this.input = input;
+    }
+
+    @Override
+    public Instance instantiate(Executor executor) {
+      final SharedObject.Instance<KNNList> in = executor.getInstance(input);
+      return id -> store.put(id, DBIDUtil.ensureSet(in.get()));
+    }
+
+    @Override
+    public void cleanup(Instance inst) {
+      // Nothing to do.
+    }
+  }
+
+  /**
+   * Processor to compute the INFLO scores.
+   *
+   * @author Erich Schubert
+   */
+  private static class INFLOProcessor extends AbstractDoubleProcessor {
+    /**
+     * kNN store.
+     */
+    private DataStore<? extends KNNList> knns;
+
+    /**
+     * k-distances.
+     */
+    private DoubleDataStore kdists;
+
+    /**
+     * Reverse nearest neighbors, except the nearest neighbors.
+     */
+    private DataStore<? extends DBIDs> rnnMinusKNNs;
+
+    /**
+     * Pruned objects.
+     */
+    private DBIDs pruned;
+
+    /**
+     * Constructor.
+     *
+     * @param knns kNN store
+     * @param kdists k-distances
+     * @param rnnMinusKNNs Reverse nearest neighbors, except the kNN
+     * @param pruned Pruned objects
+     */
+    INFLOProcessor(DataStore<? extends KNNList> knns, DoubleDataStore kdists, DataStore<? extends DBIDs> rnnMinusKNNs, DBIDs pruned) {
+      super();
+      this.knns = knns;
+      this.kdists = kdists;
+      this.rnnMinusKNNs = rnnMinusKNNs;
+      this.pruned = pruned;
+    }
+
+    @Override
+    public Instance instantiate(Executor executor) {
+      return new Instance(executor.getInstance(output));
+    }
+
+    /**
+     * Instance for a single thread.
+     *
+     * @author Erich Schubert
+     */
+    private class Instance extends AbstractDoubleProcessor.Instance {
+      /**
+       * Scratch set for the influence space.
+       */
+      private HashSetModifiableDBIDs set = DBIDUtil.newHashSet();
+
+      /**
+       * Constructor.
+       *
+       * @param output Output variable
+       */
+      Instance(SharedDouble.Instance output) {
+        super(output);
+      }
+
+      @Override
+      public void map(DBIDRef id) {
+        final double kdist = kdists.doubleValue(id);
+        if(pruned.contains(id) || kdist == 0.) {
+          output.set(1.);
+          return;
+        }
+        set.clear().addDBIDs(knns.get(id));
+        set.addDBIDs(rnnMinusKNNs.get(id));
+        // Compute mean density of NN \cup RNN
+        double sum = 0.;
+        int c = 0;
+        for(DBIDIter niter = set.iter(); niter.valid(); niter.advance()) {
+          if(DBIDUtil.equal(id, niter)) {
+            continue;
+          }
+          final double nkdist = kdists.doubleValue(niter);
+          if(nkdist <= 0) {
+            sum = Double.POSITIVE_INFINITY;
+            c++;
+            break;
+          }
+          sum += 1. / nkdist;
+          c++;
+        }
+        sum *= kdist;
+        output.set(sum == 0 ? 1. : sum / c);
+      }
+    }
+  }
+
+  /**
+   * Parameterization class.
+   *
+   * @author Erich Schubert
+   *
+   * @hidden
+   *
+   * @param <O> Object type
+   */
+  public static class Par<O> extends INFLO.Par<O> {
+    @Override
+    public ParallelINFLO<O> make() {
+      return new ParallelINFLO<>(distance, m, k);
+    }
+  }
+}
@@ -0,0 +1,470 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2019
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package elki.outlier.lof.parallel;
+
+import elki.database.datastore.DataStoreFactory;
+import elki.database.datastore.DataStoreUtil;
+import elki.database.datastore.WritableDataStore;
+import elki.database.datastore.WritableDoubleDataStore;
+import elki.database.ids.ArrayModifiableDBIDs;
+import elki.database.ids.DBIDArrayIter;
+import elki.database.ids.DBIDIter;
+import elki.database.ids.DBIDRef;
+import elki.database.ids.DBIDUtil;
+import elki.database.ids.DBIDs;
+import elki.database.ids.DoubleDBIDListIter;
+import elki.database.ids.KNNList;
+import elki.database.query.QueryBuilder;
+import elki.database.relation.DoubleRelation;
+import elki.database.relation.MaterializedDoubleRelation;
+import elki.database.relation.Relation;
+import elki.distance.Distance;
+import elki.math.DoubleMinMax;
+import elki.math.MathUtil;
+import elki.math.MeanVariance;
+import elki.math.statistics.distribution.NormalDistribution;
+import elki.math.statistics.kernelfunctions.KernelDensityFunction;
+import elki.outlier.lof.KDEOS;
+import elki.parallel.Executor;
+import elki.parallel.ParallelExecutor;
+import elki.parallel.processor.AbstractDoubleProcessor;
+import elki.parallel.processor.DoubleMinMaxProcessor;
+import elki.parallel.processor.KNNProcessor;
+import elki.parallel.processor.Processor;
+import elki.parallel.processor.WriteDataStoreProcessor;
+import elki.parallel.processor.WriteDoubleDataStoreProcessor;
+import elki.parallel.variables.SharedDouble;
+import elki.parallel.variables.SharedObject;
+import elki.result.outlier.OutlierResult;
+import elki.result.outlier.OutlierScoreMeta;
+import elki.result.outlier.ProbabilisticOutlierScore;
+import elki.utilities.datastructures.arraylike.IntegerArray;
+
+/**
+ * Parallel implementation of KDEOS, using processors.
+ * <p>
+ * The sequential version distributes the density contributions of each object
+ * to its neighbors. Here, each object instead collects the contributions from
+ * its reverse nearest neighbors: the kernel bandwidths and the kernel cutoff
+ * positions are computed in parallel with the nearest neighbors, the reverse
+ * neighbor lists are collected in a linear pass, then the densities and the
+ * scores are again computed in parallel. The contributions are summed in the
+ * same order as in the sequential version.
+ *
+ * @author Erich Schubert
+ * @since 0.8.0
+ *
+ * @has - - - BandwidthProcessor
+ * @has - - - DensityProcessor
+ * @has - - - KDEOSProcessor
+ *
+ * @param <O> Object type
+ */
+public class ParallelKDEOS<O> extends KDEOS<O> {
+  /**
+   * Constructor.
+   *
+   * @param distance Distance function
+   * @param kmin Minimum k
+   * @param kmax Maximum k
+   * @param kernel Kernel function
+   * @param minBandwidth Minimum bandwidth
+   * @param scale Kernel scaling parameter
+   * @param idim Intrinsic dimensionality (use 0 to use real dimensionality)
+   */
+  public ParallelKDEOS(Distance<? super O> distance, int kmin, int kmax, KernelDensityFunction kernel, double minBandwidth, double scale, int idim) {
+    super(distance, kmin, kmax, kernel, minBandwidth, scale, idim);
+  }
+
+  @Override
+  public OutlierResult run(Relation<O> rel) {
+    final DBIDs ids = rel.getDBIDs();
+    final int dim = dimensionality(rel);
+    final int kplus = kmax + 1;
+    QueryBuilder<O> qb = new QueryBuilder<>(rel, distance);
+
+    // Phase one: kNN, bandwidths and kernel cutoffs
+    WritableDataStore<KNNList> knns = DataStoreUtil.makeStorage(ids, DataStoreFactory.HINT_HOT | DataStoreFactory.HINT_TEMP, KNNList.class);
+    WritableDataStore<double[]> ibws = DataStoreUtil.makeStorage(ids, DataStoreFactory.HINT_HOT | DataStoreFactory.HINT_TEMP, double[].class);
+    WritableDataStore<int[]> cuts = DataStoreUtil.makeStorage(ids, DataStoreFactory.HINT_HOT | DataStoreFactory.HINT_TEMP, int[].class);
+    {
+      KNNProcessor knnm = new KNNProcessor(kplus, () -> qb.kNNByDBID(kplus));
+      SharedObject<KNNList> knnv = new SharedObject<>();
+      WriteDataStoreProcessor<KNNList> storek = new WriteDataStoreProcessor<>(knns);
+      knnm.connectKNNOutput(knnv);
+      storek.connectInput(knnv);
+      BandwidthProcessor bwm = new BandwidthProcessor(dim, ibws, cuts);
+      bwm.connectKNNInput(knnv);
+      ParallelExecutor.run(ids, knnm, storek, bwm);
+    }
+
+    // Phase two: reverse nearest neighbors, in the sequential order
+    WritableDataStore<ArrayModifiableDBIDs> rnns = DataStoreUtil.makeStorage(ids, DataStoreFactory.HINT_HOT | DataStoreFactory.HINT_TEMP, ArrayModifiableDBIDs.class);
+    WritableDataStore<IntegerArray> rpos = DataStoreUtil.makeStorage(ids, DataStoreFactory.HINT_HOT | DataStoreFactory.HINT_TEMP, IntegerArray.class);
+    for(DBIDIter iter = ids.iter(); iter.valid(); iter.advance()) {
+      rnns.put(iter, DBIDUtil.newArray(kplus));
+      rpos.put(iter, new IntegerArray(kplus));
+    }
+    for(DBIDIter iter = ids.iter(); iter.valid(); iter.advance()) {
+      int j = 0;
+      for(DBIDIter neighbor = knns.get(iter).iter(); neighbor.valid(); neighbor.advance(), j++) {
+        rnns.get(neighbor).add(iter);
+        rpos.get(neighbor).add(j);
+      }
+    }
+
+    // Phase three: densities
+    WritableDataStore<double[]> densities = DataStoreUtil.makeStorage(ids, DataStoreFactory.HINT_HOT | DataStoreFactory.HINT_TEMP, double[].class);
+    ParallelExecutor.run(ids, new DensityProcessor(dim, knns, ibws, cuts, rnns, rpos, densities));
+    ibws.destroy();
+    cuts.destroy();
+    rnns.destroy();
+    rpos.destroy();
+
+    // Phase four: scores
+    WritableDoubleDataStore kofs = DataStoreUtil.makeDoubleStorage(ids, DataStoreFactory.HINT_DB);
+    DoubleMinMax minmax;
+    {
+      KDEOSProcessor kdeosm = new KDEOSProcessor(knns, densities);
+      SharedDouble kdeosv = new SharedDouble();
+      WriteDoubleDataStoreProcessor storem = new WriteDoubleDataStoreProcessor(kofs);
+      DoubleMinMaxProcessor mmm = new DoubleMinMaxProcessor();
+      kdeosm.connectOutput(kdeosv);
+      storem.connectInput(kdeosv);
+      mmm.connectInput(kdeosv);
+      ParallelExecutor.run(ids, kdeosm, storem, mmm);
+      minmax = mmm.getMinMax();
+    }
+    knns.destroy();
+    densities.destroy();
+
+    DoubleRelation scoreres = new MaterializedDoubleRelation("Kernel Density Estimation Outlier Scores", ids, kofs);
+    OutlierScoreMeta meta = new ProbabilisticOutlierScore(minmax.getMin(), minmax.getMax());
+    return new OutlierResult(meta, scoreres);
+  }
+
+  /**
+   * Kernel density contribution of a single neighbor.
+   *
+   * @param sca Scaling factor
+   * @param ibw Inverse bandwidth
+   * @param d Distance
+   * @return Density contribution
+   */
+  private double density(double sca, double ibw, double d) {
+    return sca < Double.POSITIVE_INFINITY ? sca * kernel.density(d * ibw) // NaNs with duplicate points!
+        : d == 0. ? 1. : 0.;
+  }
+
+  /**
+   * Processor to compute the kernel bandwidths for each k, and the number of
+   * neighbors that receive a density contribution.
+   *
+   * @author Erich Schubert
+   */
+  private class BandwidthProcessor implements Processor {
+    /**
+     * Dimensionality.
+     */
+    private int dim;
+
+    /**
+     * Output store for the inverse bandwidths.
+     */
+    private WritableDataStore<double[]> ibws;
+
+    /**
+     * Output store for the cutoff positions.
+     */
+    private WritableDataStore<int[]> cuts;
+
+    /**
+     * kNN input.
+     */
+    private SharedObject<KNNList> input;
+
+    /**
+     * Constructor.
+     *
+     * @param dim Dimensionality
+     * @param ibws Output store for inverse bandwidths
+     * @param cuts Output store for the cutoff positions
+     */
+    BandwidthProcessor(int dim, WritableDataStore<double[]> ibws, WritableDataStore<int[]> cuts) {
+      super();
+      this.dim = dim;
+      this.ibws = ibws;
+      this.cuts = cuts;
+    }
+
+    /**
+     * Connect the kNN input channel.
+     *
+     * @param input Input channel
+     */
+    void connectKNNInput(SharedObject<KNNList> input) {
+      this.input = input;
+    }
+
+    @Override
+    public Instance instantiate(Executor executor) {
+      final SharedObject.Instance<KNNList> in = executor.getInstance(input);
+      final int knum = kmax + 1 - kmin;
+      final double iminbw = (minBandwidth > 0.) ? 1. / (minBandwidth * scale) : Double.POSITIVE_INFINITY;
+      return id -> {
+        final KNNList neighbors = in.get();
+        double[] ibw = new double[knum];
+        int[] cut = new int[knum];
+        int k = 1, idx = 0;
+        double sum = 0.;
+        for(DoubleDBIDListIter kneighbor = neighbors.iter(); k <= kmax && kneighbor.valid(); kneighbor.advance(), k++) {
+          sum += kneighbor.doubleValue();
+          if(k < kmin) {
+            continue;
+          }
+          final double bw = ibw[idx] = Math.min(k / (sum * scale), iminbw);
+          final double sca = MathUtil.powi(bw, dim);
+          int c = 0;
+          for(DoubleDBIDListIter neighbor = neighbors.iter(); neighbor.valid(); neighbor.advance()) {
+            ++c;
+            if(density(sca, bw, neighbor.doubleValue()) < CUTOFF) {
+              break;
+            }
+          }
+          cut[idx++] = c;
+        }
+        ibws.put(id, ibw);
+        cuts.put(id, cut);
+      };
+    }
+
+    @Override
+    public void cleanup(Instance inst) {
+      // Nothing to do.
+    }
+  }
+
+  /**
+   * Processor to collect the density contributions from the reverse nearest
+   * neighbors.
+   *
+   * @author Erich Schubert
+   */
+  private class DensityProcessor implements Processor {
+    /**
+     * Dimensionality.
+     */
+    private int dim;
+
+    /**
+     * Nearest neighbors.
+     */
+    private WritableDataStore<KNNList> knns;
+
+    /**
+     * Inverse bandwidths.
+     */
+    private WritableDataStore<double[]> ibws;
+
+    /**
+     * Cutoff positions.
+     */
+    private WritableDataStore<int[]> cuts;
+
+    /**
+     * Reverse nearest neighbors.
+     */
+    private WritableDataStore<ArrayModifiableDBIDs> rnns;
+
+    /**
+     * Positions in the reverse nearest neighbors' lists.
+     */
+    private WritableDataStore<IntegerArray> rpos;
+
+    /**
+     * Output densities.
+     */
+    private WritableDataStore<double[]> densities;
+
+    /**
+     * Constructor.
+     *
+     * @param dim Dimensionality
+     * @param knns Nearest neighbors
+     * @param ibws Inverse bandwidths
+     * @param cuts Cutoff positions
+     * @param rnns Reverse nearest neighbors
+     * @param rpos Positions in the reverse nearest neighbors' lists
+     * @param densities Output densities
+     */
+    DensityProcessor(int dim, WritableDataStore<KNNList> knns, WritableDataStore<double[]> ibws, WritableDataStore<int[]> cuts, WritableDataStore<ArrayModifiableDBIDs> rnns, WritableDataStore<IntegerArray> rpos, WritableDataStore<double[]> densities) {
+      super();
+      this.dim = dim;
+      this.knns = knns;
+      this.ibws = ibws;
+      this.cuts = cuts;
+      this.rnns = rnns;
+      this.rpos = rpos;
+      this.densities = densities;
+    }
+
+    @Override
+    public Instance instantiate(Executor executor) {
+      final int knum = kmax + 1 - kmin;
+      return id -> {
+        double[] dens = new double[knum];
+        final IntegerArray pos = rpos.get(id);
+        DBIDArrayIter r = rnns.get(id).iter();
+        for(int i = 0; r.valid(); r.advance(), i++) {
+          final int j = pos.data[i];
+          final double d = knns.get(r).doubleValue(j);
+          final double[] ibw = ibws.get(r);
+          final int[] cut = cuts.get(r);
+          for(int idx = 0; idx < knum; idx++) {
+            if(j < cut[idx]) {
+              dens[idx] += density(MathUtil.powi(ibw[idx], dim), ibw[idx], d);
+            }
+          }
+        }
+        densities.put(id, dens);
+      };
+    }
+
+    @Override
+    public void cleanup(Instance inst) {
+      // Nothing to do.
+    }
+  }
+
+  /**
+   * Processor for the KDEOS scores.
+   *
+   * @author Erich Schubert
+   */
+  private class KDEOSProcessor extends AbstractDoubleProcessor {
+    /**
+     * Nearest neighbors.
+     */
+    private WritableDataStore<KNNList> knns;
+
+    /**
+     * Densities.
+     */
+    private WritableDataStore<double[]> densities;
+
+    /**
+     * Constructor.
+     *
+     * @param knns Nearest neighbors
+     * @param densities Densities
+     */
+    KDEOSProcessor(WritableDataStore<KNNList> knns, WritableDataStore<double[]> densities) {
+      super();
+      this.knns = knns;
+      this.densities = densities;
+    }
+
+    @Override
+    public Instance instantiate(Executor executor) {
+      return new Instance(executor.getInstance(output));
+    }
+
+    /**
+     * Instance for a single thread.
+     *
+     * @author Erich Schubert
+     */
+    private class Instance extends AbstractDoubleProcessor.Instance {
+      /**
+       * Number of k values.
+       */
+      private final int knum = kmax + 1 - kmin;
+
+      /**
+       * Scratch buffer for the neighbor densities.
+       */
+      private double[][] scratch = new double[knum][kmax + 5];
+
+      /**
+       * Mean and variance.
+       */
+      private MeanVariance mv = new MeanVariance();
+
+      /**
+       * Constructor.
+       *
+       * @param output Output variable
+       */
+      Instance(SharedDouble.Instance output) {
+        super(output);
+      }
+
+      @Override
+      public void map(DBIDRef id) {
+        double[] dens = densities.get(id);
+        KNNList neighbors = knns.get(id);
+        if(scratch[0].length < neighbors.size()) {
+          // Resize scratch. Add some extra margin again.
+          scratch = new double[knum][neighbors.size() + 5];
+        }
+        { // Store density matrix of neighbors
+          int i = 0;
+          for(DoubleDBIDListIter neighbor = neighbors.iter(); neighbor.valid(); neighbor.advance(), i++) {
+            double[] ndens = densities.get(neighbor);
+            for(int k = 0; k < knum; k++) {
+              scratch[k][i] = ndens[k];
+            }
+          }
+        }
+        // Compute means and stddevs for each k
+        double score = 0.;
+        for(int i = 0; i < knum; i++) {
+          mv.reset();
+          for(int j = 0; j < neighbors.size(); j++) {
+            mv.put(scratch[i][j]);
+          }
+          final double mean = mv.getMean(), stddev = mv.getSampleStddev();
+          if(stddev > 0.) {
+            score += (mean - dens[i]) / stddev;
+          }
+        }
+        score /= knum; // average
+        output.set(NormalDistribution.standardNormalCDF(score));
+      }
+    }
+  }
+
+  /**
+   * Parameterization class.
+   *
+   * @author Erich Schubert
+   *
+   * @hidden
+   *
+   * @param <O> Object type
+   */
+  public static class Par<O> extends KDEOS.Par<O> {
+    @Override
+    public ParallelKDEOS<O> make() {
+      return new ParallelKDEOS<>(distance, kmin, kmax, kernel, minBandwidth, scale, idim);
+    }
+  }
+}
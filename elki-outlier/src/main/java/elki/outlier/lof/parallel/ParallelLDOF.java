@@ -0,0 +1,210 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2019
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package elki.outlier.lof.parallel;
+
+import elki.database.datastore.DataStoreFactory;
+import elki.database.datastore.DataStoreUtil;
+import elki.database.datastore.WritableDoubleDataStore;
+import elki.database.ids.DBIDRef;
+import elki.database.ids.DBIDUtil;
+import elki.database.ids.DBIDs;
+import elki.database.ids.DoubleDBIDListIter;
+import elki.database.ids.KNNList;
+import elki.database.query.QueryBuilder;
+import elki.database.query.distance.DistanceQuery;
+import elki.database.relation.DoubleRelation;
+import elki.database.relation.MaterializedDoubleRelation;
+import elki.database.relation.Relation;
+import elki.distance.Distance;
+import elki.math.DoubleMinMax;
+import elki.math.Mean;
+import elki.outlier.lof.LDOF;
+import elki.parallel.Executor;
+import elki.parallel.ParallelExecutor;
+import elki.parallel.processor.AbstractDoubleProcessor;
+import elki.parallel.processor.DoubleMinMaxProcessor;
+import elki.parallel.processor.KNNProcessor;
+import elki.parallel.processor.WriteDoubleDataStoreProcessor;
+import elki.parallel.variables.SharedDouble;
+import elki.parallel.variables.SharedObject;
+import elki.result.outlier.OutlierResult;
+import elki.result.outlier.OutlierScoreMeta;
+import elki.result.outlier.QuotientOutlierScoreMeta;
+
+/**
+ * Parallel implementation of the Local Distance-based Outlier Factor, using
+ * processors.
+ * <p>
+ * LDOF only uses the neighborhood of each object itself, so the entire
+ * computation is a single parallel pass, and the kNN are not materialized.
+ *
+ * @author Erich Schubert
+ * @since 0.8.0
+ *
+ * @has - - - LDOFProcessor
+ *
+ * @param <O> Object type
+ */
+public class ParallelLDOF<O> extends LDOF<O> {
+  /**
+   * Constructor.
+   *
+   * @param distance Distance function
+   * @param k k Parameter
+   */
+  public ParallelLDOF(Distance<? super O> distance, int k) {
+    super(distance, k);
+  }
+
+  @Override
+  public OutlierResult run(Relation<O> relation) {
+    DBIDs ids = relation.getDBIDs();
+    QueryBuilder<O> qb = new QueryBuilder<>(relation, distance);
+    WritableDoubleDataStore ldofs = DataStoreUtil.makeDoubleStorage(ids, DataStoreFactory.HINT_HOT | DataStoreFactory.HINT_TEMP);
+
+    KNNProcessor knnm = new KNNProcessor(kplus, () -> qb.kNNByDBID(kplus));
+    SharedObject<KNNList> knnv = new SharedObject<>();
+    knnm.connectKNNOutput(knnv);
+    LDOFProcessor ldofm = new LDOFProcessor(qb.distanceQuery());
+    SharedDouble ldofv = new SharedDouble();
+    ldofm.connectKNNInput(knnv);
+    ldofm.connectOutput(ldofv);
+    WriteDoubleDataStoreProcessor storem = new WriteDoubleDataStoreProcessor(ldofs);
+    storem.connectInput(ldofv);
+    DoubleMinMaxProcessor mmm = new DoubleMinMaxProcessor();
+    mmm.connectInput(ldofv);
+    ParallelExecutor.run(ids, knnm, ldofm, storem, mmm);
+
+    DoubleMinMax minmax = mmm.getMinMax();
+    DoubleRelation scoreResult = new MaterializedDoubleRelation("LDOF Outlier Score", ids, ldofs);
+    OutlierScoreMeta scoreMeta = new QuotientOutlierScoreMeta(minmax.getMin(), minmax.getMax(), 0.0, Double.POSITIVE_INFINITY, LDOF_BASELINE);
+    return new OutlierResult(scoreMeta, scoreResult);
+  }
+
+  /**
+   * Processor for the LDOF scores.
+   *
+   * @author Erich Schubert
+   */
+  private static class LDOFProcessor extends AbstractDoubleProcessor {
+    /**
+     * Distance query.
+     */
+    private DistanceQuery<?> dq;
+
+    /**
+     * kNN input.
+     */
+    private SharedObject<KNNList> input;
+
+    /**
+     * Constructor.
+     *
+     * @param dq Distance query
+     */
+    LDOFProcessor(DistanceQuery<?> dq) {
+      super();
+      this.dq = dq;
+    }
+
+    /**
+     * Connect the kNN input channel.
+     *
+     * @param input Input channel
+     */
+    void connectKNNInput(SharedObject<KNNList> input) {
+      this.input = input;
+    }
+
+    @Override
+    public Instance instantiate(Executor executor) {
+      return new Instance(executor.getInstance(input), executor.getInstance(output));
+    }
+
+    /**
+     * Instance for a single thread.
+     *
+     * @author Erich Schubert
+     */
+    private class Instance extends AbstractDoubleProcessor.Instance {
+      /**
+       * kNN input.
+       */
+      private SharedObject.Instance<KNNList> input;
+
+      /**
+       * Mean distances to the query point, and among the neighbors.
+       */
+      private Mean dxp = new Mean(), Dxp = new Mean();
+
+      /**
+       * Constructor.
+       *
+       * @param input kNN input
+       * @param output Output variable
+       */
+      Instance(SharedObject.Instance<KNNList> input, SharedDouble.Instance output) {
+        super(output);
+        this.input = input;
+      }
+
+      @Override
+      public void map(DBIDRef id) {
+        final KNNList neighbors = input.get();
+        dxp.reset();
+        Dxp.reset();
+        DoubleDBIDListIter neighbor1 = neighbors.iter(), neighbor2 = neighbors.iter();
+        for(; neighbor1.valid(); neighbor1.advance()) {
+          // skip the point itself
+          if(DBIDUtil.equal(neighbor1, id)) {
+            continue;
+          }
+          dxp.put(neighbor1.doubleValue());
+          for(neighbor2.seek(neighbor1.getOffset() + 1); neighbor2.valid(); neighbor2.advance()) {
+            // skip the point itself
+            if(DBIDUtil.equal(neighbor2, id)) {
+              continue;
+            }
+            Dxp.put(dq.distance(neighbor1, neighbor2));
+          }
+        }
+        double ldof = dxp.getMean() / Dxp.getMean();
+        output.set(Double.isNaN(ldof) || Double.isInfinite(ldof) ? 1.0 : ldof);
+      }
+    }
+  }
+
+  /**
+   * Parameterization class.
+   *
+   * @author Erich Schubert
+   *
+   * @hidden
+   *
+   * @param <O> Object type
+   */
+  public static class Par<O> extends LDOF.Par<O> {
+    @Override
+    public ParallelLDOF<O> make() {
+      return new ParallelLDOF<>(distance, k);
+    }
+  }
+}
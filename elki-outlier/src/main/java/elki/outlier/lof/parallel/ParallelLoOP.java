@@ -0,0 +1,325 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2019
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package elki.outlier.lof.parallel;
+
+import elki.database.datastore.DataStore;
+import elki.database.datastore.DataStoreFactory;
+import elki.database.datastore.DataStoreUtil;
+import elki.database.datastore.DoubleDataStore;
+import elki.database.datastore.WritableDataStore;
+import elki.database.datastore.WritableDoubleDataStore;
+import elki.database.ids.DBIDIter;
+import elki.database.ids.DBIDRef;
+import elki.database.ids.DBIDUtil;
+import elki.database.ids.DBIDs;
+import elki.database.ids.DoubleDBIDListIter;
+import elki.database.ids.KNNList;
+import elki.database.query.QueryBuilder;
+import elki.database.relation.DoubleRelation;
+import elki.database.relation.MaterializedDoubleRelation;
+import elki.database.relation.Relation;
+import elki.distance.Distance;
+import elki.math.DoubleMinMax;
+import elki.math.MathUtil;
+import elki.math.statistics.distribution.NormalDistribution;
+import elki.outlier.lof.LoOP;
+import elki.parallel.Executor;
+import elki.parallel.ParallelExecutor;
+import elki.parallel.processor.AbstractDoubleProcessor;
+import elki.parallel.processor.KNNProcessor;
+import elki.parallel.processor.WriteDataStoreProcessor;
+import elki.parallel.processor.WriteDoubleDataStoreProcessor;
+import elki.parallel.variables.SharedDouble;
+import elki.parallel.variables.SharedObject;
+import elki.result.outlier.OutlierResult;
+import elki.result.outlier.OutlierScoreMeta;
+import elki.result.outlier.ProbabilisticOutlierScore;
+
+import net.jafama.FastMath;
+
+/**
+ * Parallel implementation of Local Outlier Probabilities, using processors.
+ * <p>
+ * The probabilistic distances are computed in the same pass as the nearest
+ * neighbors; the normalization constant is aggregated afterwards, in a cheap
+ * linear pass.
+ *
+ * @author Erich Schubert
+ * @since 0.8.0
+ *
+ * @has - - - PDistProcessor
+ * @has - - - PLOFProcessor
+ *
+ * @param <O> Object type
+ */
+public class ParallelLoOP<O> extends LoOP<O> {
+  /**
+   * Constructor.
+   *
+   * @param kreach k for reachability
+   * @param kcomp k for comparison
+   * @param reachabilityDistance distance function for reachability
+   * @param comparisonDistance distance function for comparison
+   * @param lambda Lambda parameter
+   */
+  public ParallelLoOP(int kreach, int kcomp, Distance<? super O> reachabilityDistance, Distance<? super O> comparisonDistance, double lambda) {
+    super(kreach, kcomp, reachabilityDistance, comparisonDistance, lambda);
+  }
+
+  @Override
+  public OutlierResult run(Relation<O> relation) {
+    DBIDs ids = relation.getDBIDs();
+    final boolean same = comparisonDistance == reachabilityDistance || comparisonDistance.equals(reachabilityDistance);
+
+    // Phase one: kNN and probabilistic distances
+    WritableDataStore<KNNList> knnComp = DataStoreUtil.makeStorage(ids, DataStoreFactory.HINT_HOT | DataStoreFactory.HINT_TEMP, KNNList.class);
+    WritableDoubleDataStore pdists = DataStoreUtil.makeDoubleStorage(ids, DataStoreFactory.HINT_HOT | DataStoreFactory.HINT_TEMP);
+    {
+      final int kc = same ? MathUtil.max(kcomp, kreach) + 1 : kcomp + 1;
+      final QueryBuilder<O> qbc = new QueryBuilder<>(relation, comparisonDistance);
+      KNNProcessor knnc = new KNNProcessor(kc, () -> qbc.kNNByDBID(kc));
+      SharedObject<KNNList> knncv = new SharedObject<>();
+      WriteDataStoreProcessor<KNNList> storec = new WriteDataStoreProcessor<>(knnComp);
+      knnc.connectKNNOutput(knncv);
+      storec.connectInput(knncv);
+      // Probabilistic distances
+      PDistProcessor pdistm = new PDistProcessor(kreach);
+      SharedDouble pdistv = new SharedDouble();
+      WriteDoubleDataStoreProcessor storep = new WriteDoubleDataStoreProcessor(pdists);
+      pdistm.connectOutput(pdistv);
+      storep.connectInput(pdistv);
+      if(same) {
+        pdistm.connectKNNInput(knncv);
+        ParallelExecutor.run(ids, knnc, storec, pdistm, storep);
+      }
+      else {
+        final int kr = kreach + 1;
+        final QueryBuilder<O> qbr = new QueryBuilder<>(relation, reachabilityDistance);
+        KNNProcessor knnr = new KNNProcessor(kr, () -> qbr.kNNByDBID(kr));
+        SharedObject<KNNList> knnrv = new SharedObject<>();
+        knnr.connectKNNOutput(knnrv);
+        pdistm.connectKNNInput(knnrv);
+        ParallelExecutor.run(ids, knnc, storec, knnr, pdistm, storep);
+      }
+    }
+
+    // Phase two: PLOF
+    WritableDoubleDataStore plofs = DataStoreUtil.makeDoubleStorage(ids, DataStoreFactory.HINT_HOT | DataStoreFactory.HINT_TEMP);
+    {
+      PLOFProcessor plofm = new PLOFProcessor(knnComp, pdists, kcomp);
+      SharedDouble plofv = new SharedDouble();
+      WriteDoubleDataStoreProcessor storeplof = new WriteDoubleDataStoreProcessor(plofs);
+      plofm.connectOutput(plofv);
+      storeplof.connectInput(plofv);
+      ParallelExecutor.run(ids, plofm, storeplof);
+    }
+    knnComp.destroy();
+    pdists.destroy();
+
+    // Phase three: normalization
+    double nplof = 0.;
+    for(DBIDIter iditer = ids.iter(); iditer.valid(); iditer.advance()) {
+      final double plof = plofs.doubleValue(iditer);
+      nplof += (plof - 1.0) * (plof - 1.0);
+    }
+    nplof = lambda * FastMath.sqrt(nplof / ids.size());
+    nplof = nplof > 0. ? nplof : 1.;
+    DoubleMinMax mm = new DoubleMinMax();
+    final double norm = 1. / (nplof * MathUtil.SQRT2);
+    for(DBIDIter iditer = ids.iter(); iditer.valid(); iditer.advance()) {
+      double loop = NormalDistribution.erf((plofs.doubleValue(iditer) - 1.) * norm);
+      plofs.putDouble(iditer, loop);
+      mm.put(loop);
+    }
+
+    DoubleRelation scoreResult = new MaterializedDoubleRelation("Local Outlier Probabilities", ids, plofs);
+    OutlierScoreMeta scoreMeta = new ProbabilisticOutlierScore(mm.getMin(), mm.getMax(), 0.);
+    return new OutlierResult(scoreMeta, scoreResult);
+  }
+
+  /**
+   * Processor for the probabilistic distance of LoOP.
+   *
+   * @author Erich Schubert
+   */
+  private static class PDistProcessor extends AbstractDoubleProcessor {
+    /**
+     * Number of neighbors to use.
+     */
+    private int kreach;
+
+    /**
+     * kNN input.
+     */
+    private SharedObject<KNNList> input;
+
+    /**
+     * Constructor.
+     *
+     * @param kreach Number of neighbors to use
+     */
+    PDistProcessor(int kreach) {
+      super();
+      this.kreach = kreach;
+    }
+
+    /**
+     * Connect the kNN input channel.
+     *
+     * @param input Input channel
+     */
+    void connectKNNInput(SharedObject<KNNList> input) {
+      this.input = input;
+    }
+
+    @Override
+    public Instance instantiate(Executor executor) {
+      return new Instance(executor.getInstance(input), executor.getInstance(output));
+    }
+
+    /**
+     * Instance for a single thread.
+     *
+     * @author Erich Schubert
+     */
+    private class Instance extends AbstractDoubleProcessor.Instance {
+      /**
+       * kNN input.
+       */
+      private SharedObject.Instance<KNNList> input;
+
+      /**
+       * Constructor.
+       *
+       * @param input kNN input
+       * @param output Output variable
+       */
+      Instance(SharedObject.Instance<KNNList> input, SharedDouble.Instance output) {
+        super(output);
+        this.input = input;
+      }
+
+      @Override
+      public void map(DBIDRef id) {
+        int ks = 0;
+        double ssum = 0.;
+        for(DoubleDBIDListIter neighbor = input.get().iter(); neighbor.valid() && ks < kreach; neighbor.advance()) {
+          if(DBIDUtil.equal(neighbor, id)) {
+            continue;
+          }
+          final double d = neighbor.doubleValue();
+          ssum += d * d;
+          ks++;
+        }
+        output.set(ks > 0 ? FastMath.sqrt(ssum / ks) : 0.);
+      }
+    }
+  }
+
+  /**
+   * Processor for the probabilistic local outlier factor.
+   *
+   * @author Erich Schubert
+   */
+  private static class PLOFProcessor extends AbstractDoubleProcessor {
+    /**
+     * kNN store.
+     */
+    private DataStore<? extends KNNList> knns;
+
+    /**
+     * Probabilistic distances.
+     */
+    private DoubleDataStore pdists;
+
+    /**
+     * Number of neighbors to compare to.
+     */
+    private int kcomp;
+
+    /**
+     * Constructor.
+     *
+     * @param knns kNN store
+     * @param pdists Probabilistic distances
+     * @param kcomp Number of neighbors to compare to
+     */
+    PLOFProcessor(DataStore<? extends KNNList> knns, DoubleDataStore pdists, int kcomp) {
+      super();
+      this.knns = knns;
+      this.pdists = pdists;
+      this.kcomp = kcomp;
+    }
+
+    @Override
+    public Instance instantiate(Executor executor) {
+      return new Instance(executor.getInstance(output));
+    }
+
+    /**
+     * Instance for a single thread.
+     *
+     * @author Erich Schubert
+     */
+    private class Instance extends AbstractDoubleProcessor.Instance {
+      /**
+       * Constructor.
+       *
+       * @param output Output variable
+       */
+      Instance(SharedDouble.Instance output) {
+        super(output);
+      }
+
+      @Override
+      public void map(DBIDRef id) {
+        int ks = 0;
+        double sum = 0.;
+        for(DBIDIter neighbor = knns.get(id).iter(); neighbor.valid() && ks < kcomp; neighbor.advance()) {
+          if(DBIDUtil.equal(neighbor, id)) {
+            continue;
+          }
+          sum += pdists.doubleValue(neighbor);
+          ks++;
+        }
+        double plof = MathUtil.max(pdists.doubleValue(id) * ks / sum, 1.0);
+        output.set(Double.isNaN(plof) || Double.isInfinite(plof) ? 1.0 : plof);
+      }
+    }
+  }
+
+  /**
+   * Parameterization class.
+   *
+   * @author Erich Schubert
+   *
+   * @hidden
+   *
+   * @param <O> Object type
+   */
+  public static class Par<O> extends LoOP.Par<O> {
+    @Override
+    public ParallelLoOP<O> make() {
+      Distance<O> realreach = (reachabilityDistance != null) ? reachabilityDistance : comparisonDistance;
+      return new ParallelLoOP<>(kreach, kcomp, realreach, comparisonDistance, lambda);
+    }
+  }
+}
@@ -0,0 +1,312 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2019
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package elki.outlier.lof.parallel;
+
+import elki.data.NumberVector;
+import elki.database.datastore.DataStore;
+import elki.database.datastore.DataStoreFactory;
+import elki.database.datastore.DataStoreUtil;
+import elki.database.datastore.DoubleDataStore;
+import elki.database.datastore.WritableDataStore;
+import elki.database.datastore.WritableDoubleDataStore;
+import elki.database.ids.DBIDIter;
+import elki.database.ids.DBIDRef;
+import elki.database.ids.DBIDUtil;
+import elki.database.ids.DBIDs;
+import elki.database.ids.DoubleDBIDListIter;
+import elki.database.ids.KNNList;
+import elki.database.query.QueryBuilder;
+import elki.database.relation.DoubleRelation;
+import elki.database.relation.MaterializedDoubleRelation;
+import elki.database.relation.Relation;
+import elki.database.relation.RelationUtil;
+import elki.distance.Distance;
+import elki.math.DoubleMinMax;
+import elki.math.MathUtil;
+import elki.math.statistics.kernelfunctions.KernelDensityFunction;
+import elki.outlier.lof.SimpleKernelDensityLOF;
+import elki.parallel.Executor;
+import elki.parallel.ParallelExecutor;
+import elki.parallel.processor.AbstractDoubleProcessor;
+import elki.parallel.processor.DoubleMinMaxProcessor;
+import elki.parallel.processor.KDistanceProcessor;
+import elki.parallel.processor.KNNProcessor;
+import elki.parallel.processor.WriteDataStoreProcessor;
+import elki.parallel.processor.WriteDoubleDataStoreProcessor;
+import elki.parallel.variables.SharedDouble;
+import elki.parallel.variables.SharedObject;
+import elki.result.outlier.OutlierResult;
+import elki.result.outlier.OutlierScoreMeta;
+import elki.result.outlier.QuotientOutlierScoreMeta;
+
+/**
+ * Parallel implementation of the simple kernel density LOF, using processors.
+ * <p>
+ * This follows the same three passes as {@link ParallelLOF}, with the local
+ * reachability density replaced by a kernel density estimate.
+ *
+ * @author Erich Schubert
+ * @since 0.8.0
+ *
+ * @has - - - DensityProcessor
+ * @has - - - KLOFProcessor
+ *
+ * @param <O> Object type
+ */
+public class ParallelSimpleKernelDensityLOF<O extends NumberVector> extends SimpleKernelDensityLOF<O> {
+  /**
+   * Constructor.
+   *
+   * @param k the number of neighbors to use for comparison (excluding the
+   *        query point)
+   * @param distance Distance function
+   * @param kernel Kernel function
+   */
+  public ParallelSimpleKernelDensityLOF(int k, Distance<? super O> distance, KernelDensityFunction kernel) {
+    super(k, distance, kernel);
+  }
+
+  @Override
+  public OutlierResult run(Relation<O> relation) {
+    DBIDs ids = relation.getDBIDs();
+    QueryBuilder<O> qb = new QueryBuilder<>(relation, distance);
+
+    // Phase one: kNN and k-distances
+    WritableDataStore<KNNList> knns = DataStoreUtil.makeStorage(ids, DataStoreFactory.HINT_HOT | DataStoreFactory.HINT_TEMP, KNNList.class);
+    WritableDoubleDataStore kdists = DataStoreUtil.makeDoubleStorage(ids, DataStoreFactory.HINT_HOT | DataStoreFactory.HINT_TEMP);
+    {
+      KNNProcessor knnm = new KNNProcessor(kplus, () -> qb.kNNByDBID(kplus));
+      SharedObject<KNNList> knnv = new SharedObject<>();
+      WriteDataStoreProcessor<KNNList> storek = new WriteDataStoreProcessor<>(knns);
+      knnm.connectKNNOutput(knnv);
+      storek.connectInput(knnv);
+      KDistanceProcessor kdistm = new KDistanceProcessor(kplus);
+      SharedDouble kdistv = new SharedDouble();
+      WriteDoubleDataStoreProcessor stored = new WriteDoubleDataStoreProcessor(kdists);
+      kdistm.connectKNNInput(knnv);
+      kdistm.connectOutput(kdistv);
+      stored.connectInput(kdistv);
+      ParallelExecutor.run(ids, knnm, storek, kdistm, stored);
+    }
+
+    // Phase two: densities
+    WritableDoubleDataStore dens = DataStoreUtil.makeDoubleStorage(ids, DataStoreFactory.HINT_HOT | DataStoreFactory.HINT_TEMP);
+    {
+      DensityProcessor densm = new DensityProcessor(knns, kdists, kernel, RelationUtil.dimensionality(relation));
+      SharedDouble densv = new SharedDouble();
+      WriteDoubleDataStoreProcessor stored = new WriteDoubleDataStoreProcessor(dens);
+      densm.connectOutput(densv);
+      stored.connectInput(densv);
+      ParallelExecutor.run(ids, densm, stored);
+    }
+    kdists.destroy();
+
+    // Phase three: KLOF scores
+    WritableDoubleDataStore lofs = DataStoreUtil.makeDoubleStorage(ids, DataStoreFactory.HINT_STATIC);
+    DoubleMinMax minmax;
+    {
+      KLOFProcessor lofm = new KLOFProcessor(knns, dens);
+      SharedDouble lofv = new SharedDouble();
+      WriteDoubleDataStoreProcessor storel = new WriteDoubleDataStoreProcessor(lofs);
+      DoubleMinMaxProcessor mmm = new DoubleMinMaxProcessor();
+      lofm.connectOutput(lofv);
+      storel.connectInput(lofv);
+      mmm.connectInput(lofv);
+      ParallelExecutor.run(ids, lofm, storel, mmm);
+      minmax = mmm.getMinMax();
+    }
+    knns.destroy();
+    dens.destroy();
+
+    DoubleRelation scoreResult = new MaterializedDoubleRelation("Kernel Density Local Outlier Factor", ids, lofs);
+    OutlierScoreMeta scoreMeta = new QuotientOutlierScoreMeta(minmax.getMin(), minmax.getMax(), 0.0, Double.POSITIVE_INFINITY, 1.0);
+    return new OutlierResult(scoreMeta, scoreResult);
+  }
+
+  /**
+   * Processor for the kernel density estimates.
+   *
+   * @author Erich Schubert
+   */
+  private static class DensityProcessor extends AbstractDoubleProcessor {
+    /**
+     * kNN store.
+     */
+    private DataStore<? extends KNNList> knns;
+
+    /**
+     * k-distances.
+     */
+    private DoubleDataStore kdists;
+
+    /**
+     * Kernel function.
+     */
+    private KernelDensityFunction kernel;
+
+    /**
+     * Dimensionality.
+     */
+    private int dim;
+
+    /**
+     * Constructor.
+     *
+     * @param knns kNN store
+     * @param kdists k-distances
+     * @param kernel Kernel function
+     * @param dim Dimensionality
+     */
+    DensityProcessor(DataStore<? extends KNNList> knns, DoubleDataStore kdists, KernelDensityFunction kernel, int dim) {
+      super();
+      this.knns = knns;
+      this.kdists = kdists;
+      this.kernel = kernel;
+      this.dim = dim;
+    }
+
+    @Override
+    public Instance instantiate(Executor executor) {
+      return new Instance(executor.getInstance(output));
+    }
+
+    /**
+     * Instance for a single thread.
+     *
+     * @author Erich Schubert
+     */
+    private class Instance extends AbstractDoubleProcessor.Instance {
+      /**
+       * Constructor.
+       *
+       * @param output Output variable
+       */
+      Instance(SharedDouble.Instance output) {
+        super(output);
+      }
+
+      @Override
+      public void map(DBIDRef id) {
+        int count = 0;
+        double sum = 0.0;
+        for(DoubleDBIDListIter neighbor = knns.get(id).iter(); neighbor.valid(); neighbor.advance()) {
+          if(DBIDUtil.equal(neighbor, id)) {
+            continue;
+          }
+          double max = kdists.doubleValue(neighbor);
+          if(max == 0) {
+            sum = Double.POSITIVE_INFINITY;
+            break;
+          }
+          final double v = neighbor.doubleValue() / max;
+          sum += kernel.density(v) / MathUtil.powi(max, dim);
+          count++;
+        }
+        output.set(count > 0 ? sum / count : 0.);
+      }
+    }
+  }
+
+  /**
+   * Processor for the kernel density LOF scores.
+   *
+   * @author Erich Schubert
+   */
+  private static class KLOFProcessor extends AbstractDoubleProcessor {
+    /**
+     * kNN store.
+     */
+    private DataStore<? extends KNNList> knns;
+
+    /**
+     * Densities.
+     */
+    private DoubleDataStore dens;
+
+    /**
+     * Constructor.
+     *
+     * @param knns kNN store
+     * @param dens Densities
+     */
+    KLOFProcessor(DataStore<? extends KNNList> knns, DoubleDataStore dens) {
+      super();
+      this.knns = knns;
+      this.dens = dens;
+    }
+
+    @Override
+    public Instance instantiate(Executor executor) {
+      return new Instance(executor.getInstance(output));
+    }
+
+    /**
+     * Instance for a single thread.
+     *
+     * @author Erich Schubert
+     */
+    private class Instance extends AbstractDoubleProcessor.Instance {
+      /**
+       * Constructor.
+       *
+       * @param output Output variable
+       */
+      Instance(SharedDouble.Instance output) {
+        super(output);
+      }
+
+      @Override
+      public void map(DBIDRef id) {
+        final double lrdp = dens.doubleValue(id);
+        if(!(lrdp > 0)) {
+          output.set(1.0);
+          return;
+        }
+        double sum = 0.0;
+        int count = 0;
+        for(DBIDIter neighbor = knns.get(id).iter(); neighbor.valid(); neighbor.advance()) {
+          if(DBIDUtil.equal(neighbor, id)) {
+            continue;
+          }
+          sum += dens.doubleValue(neighbor);
+          count++;
+        }
+        output.set(lrdp == Double.POSITIVE_INFINITY ? (sum == Double.POSITIVE_INFINITY ? 1 : 0.) : sum / (count * lrdp));
+      }
+    }
+  }
+
+  /**
+   * Parameterization class.
+   *
+   * @author Erich Schubert
+   *
+   * @hidden
+   *
+   * @param <O> Vector type
+   */
+  public static class Par<O extends NumberVector> extends SimpleKernelDensityLOF.Par<O> {
+    @Override
+    public ParallelSimpleKernelDensityLOF<O> make() {
+      return new ParallelSimpleKernelDensityLOF<>(k, distance, kernel);
+    }
+  }
+}
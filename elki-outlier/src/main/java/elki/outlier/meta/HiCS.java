@@ -42,6 +42,7 @@ import elki.math.statistics.tests.GoodnessOfFitTest;
 import elki.math.statistics.tests.KolmogorovSmirnovTest;
 import elki.outlier.OutlierAlgorithm;
 import elki.outlier.lof.LOF;
+import elki.parallel.ParallelExecutor;
 import elki.result.outlier.BasicOutlierScoreMeta;
 import elki.result.outlier.OutlierResult;
 import elki.result.outlier.OutlierScoreMeta;
@@ -59,6 +60,7 @@ import elki.utilities.optionhandling.parameters.IntParameter;
 import elki.utilities.optionhandling.parameters.ObjectParameter;
 import elki.utilities.optionhandling.parameters.RandomParameter;
 import elki.utilities.random.RandomFactory;
+import elki.utilities.random.Xoroshiro128NonThreadsafeRandom;
 
 import net.jafama.FastMath;
 
@@ -71,6 +73,13 @@ import net.jafama.FastMath;
  * F. Keller, E. Müller, K. Böhm<br>
  * HiCS: High Contrast Subspaces for Density-Based Outlier Ranking<br>
  * Proc. IEEE 28th Int. Conf. on Data Engineering (ICDE 2012)
+ * <p>
+ * The contrast of the candidate subspaces of each level, and the outlier
+ * scores in the final subspaces, are computed in parallel. Each subspace uses
+ * its own random generator, seeded from the global seed and the subspace
+ * dimensions, so the result does not depend on the number of threads. The
+ * outlier detection algorithm is run concurrently in multiple subspaces, and
+ * hence must be thread safe.
  *
  * @author Jan Brusis
  * @author Erich Schubert
@@ -109,7 +118,7 @@ public class HiCS implements OutlierAlgorithm {
   private double alpha;
 
   /**
-   * Outlier detection algorithm.
+   * Outlier detection algorithm, must be thread safe.
    */
   private OutlierAlgorithm outlierAlgorithm;
 
@@ -164,30 +173,31 @@ public class HiCS implements OutlierAlgorithm {
     final DBIDs ids = relation.getDBIDs();
 
     ArrayList<ArrayDBIDs> subspaceIndex = buildOneDimIndexes(relation);
-    Set<HiCSSubspace> subspaces = calculateSubspaces(relation, subspaceIndex, rnd.getSingleThreadedRandom());
+    double[][] sortedValues = projectOneDimIndexes(relation, subspaceIndex);
+    Set<HiCSSubspace> subspaces = calculateSubspaces(relation, subspaceIndex, sortedValues, rnd.getSingleThreadedRandom().nextLong());
 
     if(LOG.isVerbose()) {
       LOG.verbose("Number of high-contrast subspaces: " + subspaces.size());
     }
-    List<DoubleRelation> results = new ArrayList<>();
-    FiniteProgress prog = LOG.isVerbose() ? new FiniteProgress("Calculating Outlier scores for high Contrast subspaces", subspaces.size(), LOG) : null;
+    final HiCSSubspace[] dimsets = subspaces.toArray(new HiCSSubspace[subspaces.size()]);
+    final DoubleRelation[] results = new DoubleRelation[dimsets.length];
+    FiniteProgress prog = LOG.isVerbose() ? new FiniteProgress("Calculating Outlier scores for high Contrast subspaces", dimsets.length, LOG) : null;
 
     // run outlier detection and collect the result
     // TODO extend so that any outlierAlgorithm can be used (use materialized
     // relation instead of SubspaceEuclideanDistance?)
-    for(HiCSSubspace dimset : subspaces) {
+    ParallelExecutor.forEach(dimsets.length, i -> {
       if(LOG.isVerbose()) {
-        LOG.verbose("Performing outlier detection in subspace " + dimset);
+        LOG.verbose("Performing outlier detection in subspace " + dimsets[i]);
       }
 
       ProxyDatabase pdb = new ProxyDatabase(ids);
-      pdb.addRelation(new ProjectedView<>(relation, new NumericalFeatureSelection<>(dimset.bits)));
+      pdb.addRelation(new ProjectedView<>(relation, new NumericalFeatureSelection<>(dimsets[i].bits)));
 
       // run LOF and collect the result
-      OutlierResult result = outlierAlgorithm.autorun(pdb);
-      results.add(result.getScores());
+      results[i] = outlierAlgorithm.autorun(pdb).getScores();
       LOG.incrementProcessed(prog);
-    }
+    });
     LOG.ensureCompleted(prog);
 
     WritableDoubleDataStore scores = DataStoreUtil.makeDoubleStorage(relation.getDBIDs(), DataStoreFactory.HINT_STATIC);
@@ -233,14 +243,37 @@ public class HiCS implements OutlierAlgorithm {
     return subspaceIndex;
   }
 
+  /**
+   * Project the sorted objects onto their dimension, so that the full
+   * distribution of each attribute is available without accessing the
+   * relation again.
+   *
+   * @param relation Relation to index
+   * @param subspaceIndex Sorted objects, for every dimension
+   * @return Sorted values, for every dimension
+   */
+  private double[][] projectOneDimIndexes(Relation<? extends NumberVector> relation, ArrayList<ArrayDBIDs> subspaceIndex) {
+    double[][] sortedValues = new double[subspaceIndex.size()][];
+    for(int d = 0; d < sortedValues.length; d++) {
+      final double[] values = sortedValues[d] = new double[relation.size()];
+      int l = 0;
+      for(DBIDIter iter = subspaceIndex.get(d).iter(); iter.valid(); iter.advance()) {
+        values[l++] = relation.get(iter).doubleValue(d);
+      }
+    }
+    return sortedValues;
+  }
+
   /**
    * Identifies high contrast subspaces in a given full-dimensional database.
    * 
    * @param relation the relation the HiCS should be evaluated for
    * @param subspaceIndex Subspace indexes
+   * @param sortedValues Sorted values, for every dimension
+   * @param seed Random seed
    * @return a set of high contrast subspaces
    */
-  private Set<HiCSSubspace> calculateSubspaces(Relation<? extends NumberVector> relation, ArrayList<ArrayDBIDs> subspaceIndex, Random random) {
+  private Set<HiCSSubspace> calculateSubspaces(Relation<? extends NumberVector> relation, ArrayList<ArrayDBIDs> subspaceIndex, double[][] sortedValues, long seed) {
     final int dbdim = RelationUtil.dimensionality(relation);
 
     FiniteProgress dprog = LOG.isVerbose() ? new FiniteProgress("Subspace dimensionality", dbdim, LOG) : null;
@@ -252,19 +285,25 @@ public class HiCS implements OutlierAlgorithm {
     Heap<HiCSSubspace> dDimensionalList = new Heap<>(cutoff, HiCSSubspace.SORT_BY_CONTRAST_ASC);
     FiniteProgress prog = LOG.isVerbose() ? new FiniteProgress("Generating two-element subsets", (dbdim * (dbdim - 1)) >> 1, LOG) : null;
     // compute two-element sets of subspaces
+    ArrayList<HiCSSubspace> twoDimList = new ArrayList<>((dbdim * (dbdim - 1)) >> 1);
     for(int i = 0; i < dbdim; i++) {
       for(int j = i + 1; j < dbdim; j++) {
-        HiCSSubspace ts = new HiCSSubspace(dbdim).set(i).set(j);
-        calculateContrast(relation, ts, subspaceIndex, random);
-        dDimensionalList.add(ts, cutoff);
-        LOG.incrementProcessed(prog);
+        twoDimList.add(new HiCSSubspace(dbdim).set(i).set(j));
       }
     }
+    ParallelExecutor.forEach(twoDimList.size(), i -> {
+      calculateContrast(relation, twoDimList.get(i), subspaceIndex, sortedValues, seed);
+      LOG.incrementProcessed(prog);
+    });
+    for(HiCSSubspace ts : twoDimList) {
+      dDimensionalList.add(ts, cutoff);
+    }
     LOG.ensureCompleted(prog);
 
     IndefiniteProgress qprog = LOG.isVerbose() ? new IndefiniteProgress("Testing subspace candidates", LOG) : null;
     for(int d = 3; !dDimensionalList.isEmpty(); d++) {
-      if(dprog != null) {
+      // The last round only collects the full-dimensional candidates:
+      if(dprog != null && d <= dbdim) {
         dprog.setProcessed(d, LOG);
       }
       // result now contains all d-dimensional sets of subspaces
@@ -279,19 +318,23 @@ public class HiCS implements OutlierAlgorithm {
       Collections.sort(candidateList, HiCSSubspace.SORT_BY_SUBSPACE);
 
       // TODO: optimize APRIORI style, by not even computing the bit set or?
+      ArrayList<HiCSSubspace> joinedList = new ArrayList<>();
       for(int i = 0; i < candidateList.size() - 1; i++) {
         for(int j = i + 1; j < candidateList.size(); j++) {
           HiCSSubspace joinedSet = new HiCSSubspace(candidateList.get(i)) //
               .or(candidateList.get(j));
-          if(joinedSet.dimensionality() != d) {
-            continue;
+          if(joinedSet.dimensionality() == d) {
+            joinedList.add(joinedSet);
           }
-
-          calculateContrast(relation, joinedSet, subspaceIndex, random);
-          dDimensionalList.add(joinedSet, cutoff);
-          LOG.incrementProcessed(qprog);
         }
       }
+      ParallelExecutor.forEach(joinedList.size(), i -> {
+        calculateContrast(relation, joinedList.get(i), subspaceIndex, sortedValues, seed);
+        LOG.incrementProcessed(qprog);
+      });
+      for(HiCSSubspace joinedSet : joinedList) {
+        dDimensionalList.add(joinedSet, cutoff);
+      }
       // Prune
       for(HiCSSubspace cand : candidateList) {
         for(Heap<HiCSSubspace>.UnorderedIter it = dDimensionalList.unorderedIter(); it.valid(); it.advance()) {
@@ -316,8 +359,11 @@ public class HiCS implements OutlierAlgorithm {
    * @param relation Relation to process
    * @param subspace Subspace
    * @param subspaceIndex Subspace indexes
+   * @param sortedValues Sorted values, for every dimension
+   * @param seed Random seed
    */
-  private void calculateContrast(Relation<? extends NumberVector> relation, HiCSSubspace subspace, ArrayList<ArrayDBIDs> subspaceIndex, Random random) {
+  private void calculateContrast(Relation<? extends NumberVector> relation, HiCSSubspace subspace, ArrayList<ArrayDBIDs> subspaceIndex, double[][] sortedValues, long seed) {
+    final Random random = new Xoroshiro128NonThreadsafeRandom(subspace.seed(seed));
     final int card = subspace.dimensionality();
     final double alpha1 = FastMath.pow(alpha, (1.0 / card));
     final int windowsize = (int) (relation.size() * alpha1);
@@ -325,6 +371,8 @@ public class HiCS implements OutlierAlgorithm {
 
     int retries = 0;
     double deviationSum = 0.0;
+    // Buffer for the full set, as the test may modify its input.
+    double[] fullValues = new double[relation.size()];
     for(int i = 0; i < m; i++) {
       // Choose a random set bit.
       int chosen = -1;
@@ -371,13 +419,7 @@ public class HiCS implements OutlierAlgorithm {
         }
       }
       // Project full set
-      double[] fullValues = new double[relation.size()];
-      {
-        int l = 0;
-        for(DBIDIter iter = subspaceIndex.get(chosen).iter(); iter.valid(); iter.advance()) {
-          fullValues[l++] = relation.get(iter).doubleValue(chosen);
-        }
-      }
+      System.arraycopy(sortedValues[chosen], 0, fullValues, 0, fullValues.length);
       double contrast = statTest.deviation(fullValues, sampleValues);
       if(Double.isNaN(contrast)) {
         i--;
@@ -469,6 +511,20 @@ public class HiCS implements OutlierAlgorithm {
       return buf.append(']').toString();
     }
 
+    /**
+     * Derive a random seed for this subspace.
+     *
+     * @param seed Global seed
+     * @return Seed for this subspace
+     */
+    protected long seed(long seed) {
+      long h = seed;
+      for(long w : bits) {
+        h = (h ^ w) * 0x9E3779B97F4A7C15L;
+      }
+      return h;
+    }
+
     /**
      * Get the next set bit.
      *
@@ -545,7 +601,7 @@ public class HiCS implements OutlierAlgorithm {
      * Parameter that specifies which outlier detection algorithm to use on the
      * resulting set of high contrast subspaces.
      */
-    public static final OptionID ALGO_ID = new OptionID("hics.algo", "The Algorithm that performs the actual outlier detection on the resulting set of subspace");
+    public static final OptionID ALGO_ID = new OptionID("hics.algo", "The Algorithm that performs the actual outlier detection on the resulting set of subspace. It is run concurrently in multiple subspaces, and must be thread safe.");
 
     /**
      * Parameter that specifies which statistical test to use in order to
@@ -0,0 +1,159 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2019
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package elki.outlier.meta;
+
+import java.util.Arrays;
+import java.util.List;
+
+import elki.database.Database;
+import elki.database.relation.Relation;
+import elki.distance.Distance;
+import elki.distance.minkowski.EuclideanDistance;
+import elki.index.preprocessed.knn.MaterializeKNNPreprocessor;
+import elki.logging.Logging;
+import elki.logging.progress.FiniteProgress;
+import elki.outlier.OutlierAlgorithm;
+import elki.parallel.ParallelExecutor;
+import elki.result.Metadata;
+import elki.result.outlier.OutlierResult;
+import elki.utilities.ensemble.EnsembleVoting;
+import elki.utilities.optionhandling.OptionID;
+import elki.utilities.optionhandling.constraints.CommonConstraints;
+import elki.utilities.optionhandling.parameterization.Parameterization;
+import elki.utilities.optionhandling.parameters.IntParameter;
+import elki.utilities.optionhandling.parameters.ObjectParameter;
+
+/**
+ * Outlier ensemble of kNN-based methods, which shares the nearest neighbor
+ * computation among all members.
+ * <p>
+ * The k+1 nearest neighbors (including the query point) for the largest
+ * neighborhood size k used by the members are materialized once (in
+ * parallel), and made available to all members as an index of the relation.
+ * The members are then run concurrently, so they must not share mutable
+ * state.
+ * <p>
+ * Members that use a different distance function, or a larger neighborhood,
+ * fall back to their usual queries.
+ *
+ * @author Erich Schubert
+ * @since 0.8.0
+ *
+ * @composed - - - MaterializeKNNPreprocessor
+ */
+public class SharedKNNOutlierEnsemble extends SimpleOutlierEnsemble {
+  /**
+   * The logger for this class.
+   */
+  private static final Logging LOG = Logging.getLogger(SharedKNNOutlierEnsemble.class);
+
+  /**
+   * Distance function shared by the members.
+   */
+  protected Distance<?> distance;
+
+  /**
+   * Largest neighborhood size of the members.
+   */
+  protected int k;
+
+  /**
+   * Constructor.
+   *
+   * @param algorithms Algorithms to run
+   * @param voting Voting method
+   * @param distance Distance function shared by the members
+   * @param k Largest neighborhood size of the members
+   */
+  public SharedKNNOutlierEnsemble(List<? extends OutlierAlgorithm> algorithms, EnsembleVoting voting, Distance<?> distance, int k) {
+    super(algorithms, voting);
+    this.distance = distance;
+    this.k = k;
+  }
+
+  @Override
+  protected List<OutlierResult> runAlgorithms(Database database) {
+    Relation<Object> relation = database.getRelation(distance.getInputTypeRestriction());
+    @SuppressWarnings("unchecked")
+    Distance<? super Object> dist = (Distance<? super Object>) distance;
+    // kNN-based members (e.g., LOF, LoOP, KNNOutlier) query k+1 neighbors,
+    // because the query point itself is included:
+    MaterializeKNNPreprocessor<Object> idx = new MaterializeKNNPreprocessor<>(relation, dist, Math.min(k + 1, relation.size()), true, null);
+    idx.initialize();
+    Metadata.hierarchyOf(relation).addChild(idx);
+    try {
+      final int num = algorithms.size();
+      OutlierResult[] results = new OutlierResult[num];
+      FiniteProgress prog = LOG.isVerbose() ? new FiniteProgress("Inner outlier algorithms", num, LOG) : null;
+      ParallelExecutor.forEach(num, i -> {
+        results[i] = algorithms.get(i).autorun(database);
+        LOG.incrementProcessed(prog);
+      });
+      LOG.ensureCompleted(prog);
+      return Arrays.asList(results);
+    }
+    finally {
+      Metadata.hierarchyOf(relation).removeChild(idx);
+    }
+  }
+
+  /**
+   * Parameterization class.
+   *
+   * @author Erich Schubert
+   */
+  public static class Par extends SimpleOutlierEnsemble.Par {
+    /**
+     * Distance function shared by the ensemble members.
+     */
+    public static final OptionID DISTANCE_ID = new OptionID("ensemble.distance", "Distance function used by the ensemble members, for sharing the nearest neighbors.");
+
+    /**
+     * Largest neighborhood size of the ensemble members.
+     */
+    public static final OptionID K_ID = new OptionID("ensemble.maxk", "Largest neighborhood size used by the ensemble members. The nearest neighbors are computed once up to this size, plus the query point.");
+
+    /**
+     * Distance function shared by the members.
+     */
+    protected Distance<?> distance;
+
+    /**
+     * Largest neighborhood size of the members.
+     */
+    protected int k;
+
+    @Override
+    public void configure(Parameterization config) {
+      new IntParameter(K_ID) //
+          .addConstraint(CommonConstraints.GREATER_EQUAL_ONE_INT) //
+          .grab(config, x -> k = x);
+      new ObjectParameter<Distance<?>>(DISTANCE_ID, Distance.class, EuclideanDistance.class) //
+          .grab(config, x -> distance = x);
+      super.configure(config);
+    }
+
+    @Override
+    public SharedKNNOutlierEnsemble make() {
+      return new SharedKNNOutlierEnsemble(algorithms, voting, distance, k);
+    }
+  }
+}
@@ -70,12 +70,12 @@ public class SimpleOutlierEnsemble implements OutlierAlgorithm {
   /**
    * The algorithms to run.
    */
-  private List<? extends OutlierAlgorithm> algorithms;
+  protected List<? extends OutlierAlgorithm> algorithms;
 
   /**
    * The voting in use.
    */
-  private EnsembleVoting voting;
+  protected EnsembleVoting voting;
 
   /**
    * Constructor.
@@ -102,17 +102,10 @@ public class SimpleOutlierEnsemble implements OutlierAlgorithm {
   public OutlierResult autorun(Database database) throws IllegalStateException {
     int num = algorithms.size();
     // Run inner outlier algorithms
+    List<OutlierResult> results = runAlgorithms(database);
     ModifiableDBIDs ids = DBIDUtil.newHashSet();
-    ArrayList<OutlierResult> results = new ArrayList<>(num);
-    {
-      FiniteProgress prog = LOG.isVerbose() ? new FiniteProgress("Inner outlier algorithms", num, LOG) : null;
-      for(OutlierAlgorithm alg : algorithms) {
-        OutlierResult or = alg.autorun(database);
-        results.add(or);
-        ids.addDBIDs(or.getScores().getDBIDs());
-        LOG.incrementProcessed(prog);
-      }
-      LOG.ensureCompleted(prog);
+    for(OutlierResult or : results) {
+      ids.addDBIDs(or.getScores().getDBIDs());
     }
     // Combine
     WritableDoubleDataStore sumscore = DataStoreUtil.makeDoubleStorage(ids, DataStoreFactory.HINT_STATIC);
@@ -153,6 +146,23 @@ public class SimpleOutlierEnsemble implements OutlierAlgorithm {
     return new OutlierResult(meta, scores);
   }
 
+  /**
+   * Run the inner outlier algorithms.
+   *
+   * @param database Database to process
+   * @return Results, in the order of the algorithms
+   */
+  protected List<OutlierResult> runAlgorithms(Database database) {
+    ArrayList<OutlierResult> results = new ArrayList<>(algorithms.size());
+    FiniteProgress prog = LOG.isVerbose() ? new FiniteProgress("Inner outlier algorithms", algorithms.size(), LOG) : null;
+    for(OutlierAlgorithm alg : algorithms) {
+      results.add(alg.autorun(database));
+      LOG.incrementProcessed(prog);
+    }
+    LOG.ensureCompleted(prog);
+    return results;
+  }
+
   /**
    * Parameterization class.
    * 
@@ -167,12 +177,12 @@ public class SimpleOutlierEnsemble implements OutlierAlgorithm {
     /**
      * The algorithms to run.
      */
-    private List<? extends OutlierAlgorithm> algorithms;
+    protected List<? extends OutlierAlgorithm> algorithms;
 
     /**
      * The voting in use.
      */
-    private EnsembleVoting voting;
+    protected EnsembleVoting voting;
 
     @Override
     public void configure(Parameterization config) {
@@ -0,0 +1,81 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2019
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package elki.outlier;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import elki.database.Database;
+import elki.database.ids.DBIDIter;
+import elki.database.relation.DoubleRelation;
+import elki.result.outlier.OutlierResult;
+import elki.utilities.ELKIBuilder;
+
+/**
+ * Tests the Isolation Forest algorithm.
+ *
+ * @author Erich Schubert
+ * @since 0.8.0
+ */
+public class IsolationForestTest extends AbstractOutlierAlgorithmTest {
+  @Test
+  public void testIsolationForest() {
+    Database db = makeSimpleDatabase(UNITTEST + "outlier-3d-3clusters.ascii", 960);
+    OutlierResult result = new ELKIBuilder<>(IsolationForest.class) //
+        .with(IsolationForest.Par.SEED_ID, 0).build().autorun(db);
+    assertSingleScore(result, 945, 0.46220004360914385);
+    assertAUC(db, "Noise", result, 0.9597037037037036);
+  }
+
+  @Test
+  public void testExtendedIsolationForest() {
+    Database db = makeSimpleDatabase(UNITTEST + "outlier-3d-3clusters.ascii", 960);
+    OutlierResult result = new ELKIBuilder<>(IsolationForest.class) //
+        .with(IsolationForest.Par.EXTENSION_ID, 2) //
+        .with(IsolationForest.Par.SEED_ID, 0).build().autorun(db);
+    assertSingleScore(result, 945, 0.4724917326294844);
+    assertAUC(db, "Noise", result, 0.9716111111111111);
+  }
+
+  @Test
+  public void testParallel() {
+    Database db = makeSimpleDatabase(UNITTEST + "outlier-3d-3clusters.ascii", 960);
+    DoubleRelation seq = makeInstance().autorun(db).getScores();
+    withParallelism(4, () -> {
+      DoubleRelation par = makeInstance().autorun(db).getScores();
+      for(DBIDIter it = seq.iterDBIDs(); it.valid(); it.advance()) {
+        assertEquals("Parallel score differs.", seq.doubleValue(it), par.doubleValue(it), 0.);
+      }
+    });
+  }
+
+  /**
+   * Make a fresh instance with a fixed seed.
+   *
+   * @return Isolation forest
+   */
+  private static IsolationForest makeInstance() {
+    return new ELKIBuilder<>(IsolationForest.class) //
+        .with(IsolationForest.Par.EXTENSION_ID, 1) //
+        .with(IsolationForest.Par.SEED_ID, 0).build();
+  }
+}
@@ -0,0 +1,130 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2019
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package elki.outlier.lof;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import elki.Algorithm;
+import elki.data.DoubleVector;
+import elki.data.NumberVector;
+import elki.data.type.TypeUtil;
+import elki.database.Database;
+import elki.database.StaticArrayDatabase;
+import elki.database.ids.DBIDIter;
+import elki.database.ids.DBIDRange;
+import elki.database.relation.DoubleRelation;
+import elki.database.relation.Relation;
+import elki.datasource.ArrayAdapterDatabaseConnection;
+import elki.datasource.bundle.MultipleObjectsBundle;
+import elki.datasource.bundle.StreamFromBundle;
+import elki.distance.minkowski.EuclideanDistance;
+import elki.outlier.AbstractOutlierAlgorithmTest;
+import elki.outlier.OutlierAlgorithm;
+import elki.result.outlier.OutlierResult;
+import elki.utilities.ELKIBuilder;
+
+/**
+ * Tests the sliding window LOF, by comparing each score to the score of the
+ * static algorithm on the contents of the window.
+ *
+ * @author Erich Schubert
+ * @since 0.8.0
+ */
+public class SlidingWindowLOFTest extends AbstractOutlierAlgorithmTest {
+  @Test
+  public void testSlidingWindowLOF() {
+    Database db = makeSimpleDatabase(UNITTEST + "3clusters-and-noise-2d.csv", 330);
+    OutlierResult result = new ELKIBuilder<SlidingWindowLOF<DoubleVector>>(SlidingWindowLOF.class) //
+        .with(LOF.Par.K_ID, 5) //
+        .with(SlidingWindowLOF.Par.WINDOW_ID, 50) //
+        .build().autorun(db);
+    Relation<NumberVector> rel = db.getRelation(TypeUtil.NUMBER_VECTOR_FIELD);
+    assertWindowScores(rel, result.getScores(), 50, LOF.class);
+  }
+
+  @Test
+  public void testSlidingWindowSimplifiedLOF() {
+    Database db = makeSimpleDatabase(UNITTEST + "3clusters-and-noise-2d.csv", 330);
+    OutlierResult result = new ELKIBuilder<SlidingWindowLOF<DoubleVector>>(SlidingWindowLOF.class) //
+        .with(LOF.Par.K_ID, 5) //
+        .with(SlidingWindowLOF.Par.WINDOW_ID, 50) //
+        .with(SlidingWindowLOF.Par.SIMPLIFIED_ID) //
+        .build().autorun(db);
+    Relation<NumberVector> rel = db.getRelation(TypeUtil.NUMBER_VECTOR_FIELD);
+    assertWindowScores(rel, result.getScores(), 50, SimplifiedLOF.class);
+  }
+
+  @Test
+  public void testStream() {
+    Database db = makeSimpleDatabase(UNITTEST + "3clusters-and-noise-2d.csv", 330);
+    Relation<NumberVector> rel = db.getRelation(TypeUtil.NUMBER_VECTOR_FIELD);
+    SlidingWindowLOF<NumberVector> swlof = new SlidingWindowLOF<>(EuclideanDistance.STATIC, 5, 50, Double.POSITIVE_INFINITY, -1, false);
+    DoubleRelation reference = swlof.run(rel).getScores();
+    List<NumberVector> data = new ArrayList<>(rel.size());
+    for(DBIDIter it = rel.iterDBIDs(); it.valid(); it.advance()) {
+      data.add(rel.get(it));
+    }
+    MultipleObjectsBundle bundle = MultipleObjectsBundle.makeSimple(rel.getDataTypeInformation(), data);
+    DoubleRelation scores = swlof.run(new StreamFromBundle(bundle)).getScores();
+    assertEquals("Wrong number of scores.", rel.size(), scores.size());
+    DBIDIter it2 = scores.iterDBIDs();
+    for(DBIDIter it = reference.iterDBIDs(); it.valid(); it.advance(), it2.advance()) {
+      assertEquals("Stream score differs.", reference.doubleValue(it), scores.doubleValue(it2), 0.);
+    }
+  }
+
+  /**
+   * Compare each score to the score of a static algorithm on the window
+   * contents at the time of arrival.
+   *
+   * @param rel Data relation
+   * @param scores Sliding window scores
+   * @param window Window size
+   * @param cls Static algorithm
+   */
+  private static void assertWindowScores(Relation<NumberVector> rel, DoubleRelation scores, int window, Class<? extends OutlierAlgorithm> cls) {
+    DBIDRange ids = (DBIDRange) rel.getDBIDs();
+    for(int i = 1; i < ids.size(); i++) {
+      final int start = Math.max(0, i - window + 1);
+      double[][] data = new double[i - start + 1][];
+      for(int j = start; j <= i; j++) {
+        data[j - start] = rel.get(ids.iter().seek(j)).toArray();
+      }
+      if(data.length <= 5) {
+        continue; // Too few points for the static algorithm.
+      }
+      Database wdb = new StaticArrayDatabase(new ArrayAdapterDatabaseConnection(data));
+      wdb.initialize();
+      OutlierAlgorithm alg = new ELKIBuilder<>(cls) //
+          .with(LOF.Par.K_ID, 5) //
+          .with(Algorithm.Utils.DISTANCE_FUNCTION_ID, EuclideanDistance.class) //
+          .build();
+      OutlierResult ref = alg.autorun(wdb);
+      DBIDRange wids = (DBIDRange) ref.getScores().getDBIDs();
+      assertEquals("Score differs at " + i, ref.getScores().doubleValue(wids.iter().seek(data.length - 1)), scores.doubleValue(ids.iter().seek(i)), 1e-10);
+    }
+  }
+}
@@ -20,9 +20,17 @@
  */
 package elki.outlier.meta;
 
+import static org.junit.Assert.assertEquals;
+
+import java.util.logging.Logger;
+
 import org.junit.Test;
 
 import elki.database.Database;
+import elki.database.ids.DBIDIter;
+import elki.database.relation.DoubleRelation;
+import elki.logging.Logging.Level;
+import elki.logging.LoggingConfiguration;
 import elki.math.statistics.tests.KolmogorovSmirnovTest;
 import elki.math.statistics.tests.WelchTTest;
 import elki.outlier.AbstractOutlierAlgorithmTest;
@@ -46,8 +54,8 @@ public class HiCSTest extends AbstractOutlierAlgorithmTest {
         .with(HiCS.Par.SEED_ID, 0) //
         .with(HiCS.Par.TEST_ID, KolmogorovSmirnovTest.STATIC) //
         .build().autorun(db);
-    assertAUC(db, "Noise", result, 0.85340056);
-    assertSingleScore(result, 1293, 4.935802);
+    assertAUC(db, "Noise", result, 0.86715966);
+    assertSingleScore(result, 1293, 4.7877822);
   }
 
   @Test
@@ -59,7 +67,45 @@ public class HiCSTest extends AbstractOutlierAlgorithmTest {
         .with(HiCS.Par.SEED_ID, 0) //
         .with(HiCS.Par.TEST_ID, WelchTTest.STATIC) //
         .build().autorun(db);
-    assertAUC(db, "Noise", result, 0.867159);
-    assertSingleScore(result, 1293, 4.7877822);
+    assertAUC(db, "Noise", result, 0.64867226);
+    assertSingleScore(result, 1293, 3.5803913);
+  }
+
+  @Test
+  public void testHiCSVerbose() {
+    Database db = makeSimpleDatabase(UNITTEST + "outlier-axis-subspaces-6d.ascii", 1345);
+    // Progress logging must not exceed the data dimensionality:
+    LoggingConfiguration.setLevelFor(HiCS.class.getName(), Level.VERBOSE.getName());
+    try {
+      OutlierResult result = new ELKIBuilder<>(HiCS.class) //
+          .with(LOF.Par.K_ID, 10) //
+          .with(HiCS.Par.LIMIT_ID, 10) //
+          .with(HiCS.Par.SEED_ID, 0) //
+          .with(HiCS.Par.TEST_ID, WelchTTest.STATIC) //
+          .build().autorun(db);
+      assertAUC(db, "Noise", result, 0.64867226);
+    }
+    finally {
+      Logger.getLogger(HiCS.class.getName()).setLevel(null);
+    }
+  }
+
+  @Test
+  public void testHiCSParallel() {
+    Database db = makeSimpleDatabase(UNITTEST + "outlier-axis-subspaces-6d.ascii", 1345);
+    OutlierResult ref = withParallelism(1, () -> new ELKIBuilder<>(HiCS.class) //
+        .with(LOF.Par.K_ID, 10) //
+        .with(HiCS.Par.LIMIT_ID, 10) //
+        .with(HiCS.Par.SEED_ID, 0) //
+        .build().autorun(db));
+    OutlierResult result = withParallelism(4, () -> new ELKIBuilder<>(HiCS.class) //
+        .with(LOF.Par.K_ID, 10) //
+        .with(HiCS.Par.LIMIT_ID, 10) //
+        .with(HiCS.Par.SEED_ID, 0) //
+        .build().autorun(db));
+    DoubleRelation rs = ref.getScores(), ps = result.getScores();
+    for(DBIDIter it = rs.iterDBIDs(); it.valid(); it.advance()) {
+      assertEquals("Scores differ.", rs.doubleValue(it), ps.doubleValue(it), 0.);
+    }
   }
 }
@@ -0,0 +1,115 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2019
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package elki.outlier.meta;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import elki.Algorithm;
+import elki.data.NumberVector;
+import elki.database.Database;
+import elki.database.ids.DBIDIter;
+import elki.database.ids.DBIDRef;
+import elki.database.query.QueryBuilder;
+import elki.database.query.knn.KNNSearcher;
+import elki.database.query.knn.PreprocessorKNNQuery;
+import elki.database.relation.DoubleRelation;
+import elki.database.relation.Relation;
+import elki.distance.minkowski.EuclideanDistance;
+import elki.index.preprocessed.knn.MaterializeKNNPreprocessor;
+import elki.outlier.AbstractOutlierAlgorithmTest;
+import elki.outlier.distance.KNNOutlier;
+import elki.outlier.lof.LOF;
+import elki.outlier.lof.LoOP;
+import elki.result.outlier.OutlierResult;
+import elki.utilities.ELKIBuilder;
+import elki.utilities.ensemble.EnsembleVotingMean;
+
+/**
+ * Tests the outlier ensemble with shared nearest neighbors.
+ *
+ * @author Erich Schubert
+ * @since 0.8.0
+ */
+public class SharedKNNOutlierEnsembleTest extends AbstractOutlierAlgorithmTest {
+  @Test
+  public void testEnsembleMean() {
+    Database db = makeSimpleDatabase(UNITTEST + "outlier-3d-3clusters.ascii", 960);
+    OutlierResult result = new ELKIBuilder<>(SharedKNNOutlierEnsemble.class) //
+        .with(Algorithm.Utils.ALGORITHM_ID, LOF.class.getName() + "," + KNNOutlier.class.getName()) //
+        .with(SimpleOutlierEnsemble.Par.VOTING_ID, EnsembleVotingMean.class) //
+        .with(SharedKNNOutlierEnsemble.Par.K_ID, 10) //
+        .with(KNNOutlier.Par.K_ID, 1).with(LOF.Par.K_ID, 10).build().autorun(db);
+    assertAUC(db, "Noise", result, 0.98631);
+  }
+
+  @Test
+  public void testConcurrentMembers() {
+    Database db = makeSimpleDatabase(UNITTEST + "outlier-3d-3clusters.ascii", 960);
+    // The last member uses the largest k, and hence needs k+1 neighbors:
+    RecordingKNNOutlier recref = new RecordingKNNOutlier(20), rec = new RecordingKNNOutlier(20);
+    OutlierResult ref = new SimpleOutlierEnsemble(Arrays.asList(new LOF<>(10, EuclideanDistance.STATIC), //
+        new LoOP<>(20, 20, EuclideanDistance.STATIC, EuclideanDistance.STATIC, 2.), //
+        new KNNOutlier<>(EuclideanDistance.STATIC, 5), recref), new EnsembleVotingMean()).autorun(db);
+    assertFalse("Reference used a preprocessor.", recref.query instanceof PreprocessorKNNQuery);
+    OutlierResult result = withParallelism(4, () -> new SharedKNNOutlierEnsemble(Arrays.asList(new LOF<>(10, EuclideanDistance.STATIC), //
+        new LoOP<>(20, 20, EuclideanDistance.STATIC, EuclideanDistance.STATIC, 2.), //
+        new KNNOutlier<>(EuclideanDistance.STATIC, 5), rec), new EnsembleVotingMean(), EuclideanDistance.STATIC, 20).autorun(db));
+    assertTrue("kNN query not answered by the shared preprocessor.", rec.query instanceof PreprocessorKNNQuery);
+    assertTrue("kNN query not answered by the shared preprocessor.", ((PreprocessorKNNQuery<?>) rec.query).getPreprocessor() instanceof MaterializeKNNPreprocessor);
+    DoubleRelation rs = ref.getScores(), ps = result.getScores();
+    for(DBIDIter it = rs.iterDBIDs(); it.valid(); it.advance()) {
+      assertEquals("Scores differ.", rs.doubleValue(it), ps.doubleValue(it), 1e-15);
+    }
+  }
+
+  /**
+   * kNN outlier detection that records the kNN query it was given.
+   *
+   * @author Erich Schubert
+   */
+  public static class RecordingKNNOutlier extends KNNOutlier<NumberVector> {
+    /**
+     * kNN query used by the last run.
+     */
+    KNNSearcher<DBIDRef> query;
+
+    /**
+     * Constructor.
+     *
+     * @param k Value of k (excluding query point!)
+     */
+    public RecordingKNNOutlier(int k) {
+      super(EuclideanDistance.STATIC, k);
+    }
+
+    @Override
+    public OutlierResult run(Relation<NumberVector> relation) {
+      query = new QueryBuilder<>(relation, distance).kNNByDBID(kplus);
+      return super.run(relation);
+    }
+  }
+}
@@ -0,0 +1,432 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2019
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package elki.application.cache;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import elki.application.AbstractApplication;
+import elki.data.ModifiableHyperBoundingBox;
+import elki.data.NumberVector;
+import elki.data.VectorUtil.SortDBIDsBySingleDimension;
+import elki.data.type.TypeUtil;
+import elki.database.Database;
+import elki.database.StaticArrayDatabase;
+import elki.database.ids.*;
+import elki.database.relation.Relation;
+import elki.distance.SpatialPrimitiveDistance;
+import elki.distance.minkowski.EuclideanDistance;
+import elki.logging.Logging;
+import elki.logging.progress.FiniteProgress;
+import elki.logging.statistics.Duration;
+import elki.logging.statistics.LongStatistic;
+import elki.parallel.ParallelCore;
+import elki.utilities.datastructures.arrays.DoubleIntegerArrayQuickSort;
+import elki.utilities.exceptions.AbortException;
+import elki.utilities.io.ByteArrayUtil;
+import elki.utilities.optionhandling.OptionID;
+import elki.utilities.optionhandling.constraints.CommonConstraints;
+import elki.utilities.optionhandling.parameterization.Parameterization;
+import elki.utilities.optionhandling.parameters.FileParameter;
+import elki.utilities.optionhandling.parameters.IntParameter;
+import elki.utilities.optionhandling.parameters.ObjectParameter;
+
+/**
+ * Compute the k nearest neighbors of all objects with a parallel, index-free
+ * self-join, and store them in a disk cache.
+ * <p>
+ * The data is split into partitions of bounded size with a k-d-tree style
+ * median partitioning. Each partition is then joined with the other
+ * partitions in order of their minimum distance, until the remaining
+ * partitions cannot contain any neighbors anymore; objects whose current
+ * k-distance is smaller than the minimum distance to the other partition are
+ * skipped individually. Partitions are processed in parallel, and the
+ * finished kNN lists of a partition are appended to the output file
+ * immediately, so that only the lists of the partitions currently processed
+ * need to be kept in memory.
+ * <p>
+ * The output uses the same format as {@link CacheDoubleDistanceKNNLists}, and
+ * can be loaded with
+ * {@link elki.index.preprocessed.knn.CachedDoubleDistanceKNNPreprocessor}.
+ *
+ * @author Erich Schubert
+ * @since 0.8.0
+ *
+ * @has - - - SpatialPrimitiveDistance
+ *
+ * @param <V> Vector type
+ */
+public class CacheDoubleDistanceKNNSelfJoin<V extends NumberVector> extends AbstractApplication {
+  /**
+   * The logger for this class.
+   */
+  private static final Logging LOG = Logging.getLogger(CacheDoubleDistanceKNNSelfJoin.class);
+
+  /**
+   * Data source to process.
+   */
+  private Database database;
+
+  /**
+   * Distance function that is to be cached.
+   */
+  private SpatialPrimitiveDistance<? super V> distance;
+
+  /**
+   * Number of neighbors to precompute.
+   */
+  private int k;
+
+  /**
+   * Maximum partition size.
+   */
+  private int partitionsize;
+
+  /**
+   * Output file.
+   */
+  private Path out;
+
+  /**
+   * Constructor.
+   *
+   * @param database Data source
+   * @param distance Distance function
+   * @param k Number of nearest neighbors
+   * @param partitionsize Maximum partition size
+   * @param out Output file
+   */
+  public CacheDoubleDistanceKNNSelfJoin(Database database, SpatialPrimitiveDistance<? super V> distance, int k, int partitionsize, Path out) {
+    super();
+    this.database = database;
+    this.distance = distance;
+    this.k = k;
+    this.partitionsize = partitionsize;
+    this.out = out;
+  }
+
+  @Override
+  public void run() {
+    database.initialize();
+    Relation<V> relation = database.getRelation(TypeUtil.NUMBER_VECTOR_FIELD);
+    Duration duration = LOG.isStatistics() ? LOG.newDuration(getClass().getName() + ".runtime").begin() : null;
+    ArrayModifiableDBIDs ids = DBIDUtil.newArray(relation.getDBIDs());
+    List<Partition> partitions = new ArrayList<>();
+    partition(relation, ids, 0, ids.size(), new SortDBIDsBySingleDimension(relation), partitions);
+    if(LOG.isStatistics()) {
+      LOG.statistics(new LongStatistic(getClass().getName() + ".partitions", partitions.size()));
+    }
+
+    // open file.
+    try (FileChannel channel = FileChannel.open(out, //
+        StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+        // and acquire a file write lock
+        FileLock lock = channel.lock()) {
+      // write magic header
+      ByteBuffer header = ByteBuffer.allocate(4);
+      header.putInt(CacheDoubleDistanceKNNLists.KNN_CACHE_MAGIC).flip();
+      channel.write(header);
+
+      FiniteProgress prog = LOG.isVerbose() ? new FiniteProgress("Computing kNN", relation.size(), LOG) : null;
+      AtomicLong pairs = new AtomicLong();
+      ParallelCore core = ParallelCore.getCore();
+      core.connect();
+      try {
+        List<Future<Void>> futures = new ArrayList<>(partitions.size());
+        for(Partition p : partitions) {
+          futures.add(core.submit(() -> {
+            ByteBuffer buffer = join(relation, ids, p, partitions, pairs);
+            synchronized(channel) {
+              while(buffer.hasRemaining()) {
+                channel.write(buffer);
+              }
+            }
+            if(prog != null) {
+              prog.incrementProcessed(p.end - p.start, LOG);
+            }
+            return null;
+          }));
+        }
+        for(Future<Void> future : futures) {
+          future.get();
+        }
+      }
+      catch(InterruptedException e) {
+        throw new AbortException("Interrupted.", e);
+      }
+      catch(ExecutionException e) {
+        throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : new AbortException("kNN join failed.", e.getCause());
+      }
+      finally {
+        core.disconnect();
+      }
+      LOG.ensureCompleted(prog);
+      if(LOG.isStatistics()) {
+        LOG.statistics(new LongStatistic(getClass().getName() + ".partition-pairs", pairs.get()));
+      }
+    }
+    catch(IOException e) {
+      throw new AbortException("I/O error writing kNN cache: " + e.getMessage(), e);
+    }
+    if(duration != null) {
+      LOG.statistics(duration.end());
+    }
+  }
+
+  /**
+   * Recursively partition the data, splitting the widest dimension at the
+   * median.
+   *
+   * @param relation Data relation
+   * @param ids Object ids, will be reordered
+   * @param start Interval start
+   * @param end Interval end (exclusive)
+   * @param comp Comparator
+   * @param partitions Output list of partitions
+   */
+  private void partition(Relation<V> relation, ArrayModifiableDBIDs ids, int start, int end, SortDBIDsBySingleDimension comp, List<Partition> partitions) {
+    if(start >= end) {
+      return;
+    }
+    ModifiableHyperBoundingBox mbr = null;
+    for(DBIDArrayIter it = ids.iter().seek(start); it.getOffset() < end; it.advance()) {
+      V vec = relation.get(it);
+      if(mbr == null) {
+        mbr = new ModifiableHyperBoundingBox(vec);
+      }
+      else {
+        mbr.extend(vec);
+      }
+    }
+    if(end - start <= partitionsize) {
+      partitions.add(new Partition(start, end, mbr));
+      return;
+    }
+    int widest = 0;
+    double width = Double.NEGATIVE_INFINITY;
+    for(int d = 0; d < mbr.getDimensionality(); d++) {
+      final double w = mbr.getMax(d) - mbr.getMin(d);
+      if(w > width) {
+        widest = d;
+        width = w;
+      }
+    }
+    if(!(width > 0)) { // All duplicates, cannot split.
+      partitions.add(new Partition(start, end, mbr));
+      return;
+    }
+    final int middle = (start + end) >>> 1;
+    comp.setDimension(widest);
+    QuickSelectDBIDs.quickSelect(ids, comp, start, end, middle);
+    partition(relation, ids, start, middle, comp, partitions);
+    partition(relation, ids, middle, end, comp, partitions);
+  }
+
+  /**
+   * Join one partition with all partitions that may contain neighbors.
+   *
+   * @param relation Data relation
+   * @param ids Partitioned object ids
+   * @param p Partition to compute the kNN of
+   * @param partitions All partitions
+   * @param pairs Counter for joined partition pairs
+   * @return Serialized kNN lists, ready for writing
+   */
+  private ByteBuffer join(Relation<V> relation, ArrayDBIDs ids, Partition p, List<Partition> partitions, AtomicLong pairs) {
+    final int size = p.end - p.start, np = partitions.size();
+    // Order the partitions by their minimum distance.
+    double[] mindist = new double[np];
+    int[] order = new int[np];
+    for(int i = 0; i < np; i++) {
+      mindist[i] = distance.minDist(p.mbr, partitions.get(i).mbr);
+      order[i] = i;
+    }
+    DoubleIntegerArrayQuickSort.sort(mindist, order, np);
+
+    List<V> vecs = new ArrayList<>(size);
+    KNNHeap[] heaps = new KNNHeap[size];
+    DBIDArrayIter it = ids.iter().seek(p.start);
+    for(int i = 0; i < size; i++, it.advance()) {
+      vecs.add(relation.get(it));
+      heaps[i] = DBIDUtil.newHeap(k);
+    }
+    int[] active = new int[size];
+    double max = Double.POSITIVE_INFINITY;
+    int joined = 0;
+    for(int i = 0; i < np && mindist[i] <= max; i++, joined++) {
+      Partition other = partitions.get(order[i]);
+      // Objects that may still find neighbors in the other partition:
+      int nactive = 0;
+      for(int j = 0; j < size; j++) {
+        final double kdist = heaps[j].getKNNDistance();
+        if(kdist == Double.POSITIVE_INFINITY || distance.minDist(vecs.get(j), other.mbr) <= kdist) {
+          active[nactive++] = j;
+        }
+      }
+      for(it.seek(other.start); nactive > 0 && it.getOffset() < other.end; it.advance()) {
+        V vec = relation.get(it);
+        for(int a = 0; a < nactive; a++) {
+          final int j = active[a];
+          final KNNHeap heap = heaps[j];
+          final double dist = distance.distance(vecs.get(j), vec);
+          if(dist <= heap.getKNNDistance()) {
+            heap.insert(dist, it);
+          }
+        }
+      }
+      max = 0.;
+      for(KNNHeap heap : heaps) {
+        max = Math.max(max, heap.getKNNDistance());
+      }
+    }
+    pairs.addAndGet(joined);
+
+    // Serialize the results.
+    ByteBuffer buffer = ByteBuffer.allocate(size * (k * 13 + 10) + 64);
+    it.seek(p.start);
+    for(int j = 0; j < size; j++, it.advance()) {
+      final KNNList nn = heaps[j].toKNNList();
+      heaps[j] = null;
+      final int needed = 10 + nn.size() * 14;
+      if(buffer.remaining() < needed) {
+        ByteBuffer larger = ByteBuffer.allocate((buffer.capacity() << 1) + needed);
+        buffer.flip();
+        buffer = larger.put(buffer);
+      }
+      ByteArrayUtil.writeUnsignedVarint(buffer, it.internalGetIndex());
+      ByteArrayUtil.writeUnsignedVarint(buffer, nn.size());
+      for(DoubleDBIDListIter ni = nn.iter(); ni.valid(); ni.advance()) {
+        ByteArrayUtil.writeUnsignedVarint(buffer, ni.internalGetIndex());
+        buffer.putDouble(ni.doubleValue());
+      }
+    }
+    buffer.flip();
+    return buffer;
+  }
+
+  /**
+   * A partition of the data.
+   *
+   * @author Erich Schubert
+   */
+  private static class Partition {
+    /**
+     * Interval of the partition in the ids array.
+     */
+    final int start, end;
+
+    /**
+     * Bounding box of the partition.
+     */
+    final ModifiableHyperBoundingBox mbr;
+
+    /**
+     * Constructor.
+     *
+     * @param start Start offset
+     * @param end End offset (exclusive)
+     * @param mbr Bounding box
+     */
+    Partition(int start, int end, ModifiableHyperBoundingBox mbr) {
+      this.start = start;
+      this.end = end;
+      this.mbr = mbr;
+    }
+  }
+
+  /**
+   * Parameterization class.
+   *
+   * @author Erich Schubert
+   */
+  public static class Par<V extends NumberVector> extends AbstractApplication.Par {
+    /**
+     * Parameter for the maximum partition size.
+     */
+    public static final OptionID PARTITION_SIZE_ID = new OptionID("loader.partitionsize", "Maximum number of objects in a partition of the kNN join.");
+
+    /**
+     * Data source to process.
+     */
+    private Database database = null;
+
+    /**
+     * Distance function that is to be cached.
+     */
+    private SpatialPrimitiveDistance<? super V> distance = null;
+
+    /**
+     * Number of neighbors to precompute.
+     */
+    private int k;
+
+    /**
+     * Maximum partition size.
+     */
+    private int partitionsize;
+
+    /**
+     * Output file.
+     */
+    private Path out = null;
+
+    @Override
+    public void configure(Parameterization config) {
+      super.configure(config);
+      new ObjectParameter<Database>(DATABASE_ID, Database.class, StaticArrayDatabase.class) //
+          .grab(config, x -> database = x);
+      new ObjectParameter<SpatialPrimitiveDistance<? super V>>(CacheDoubleDistanceKNNLists.Par.DISTANCE_ID, SpatialPrimitiveDistance.class, EuclideanDistance.class) //
+          .grab(config, x -> distance = x);
+      new IntParameter(CacheDoubleDistanceKNNLists.Par.K_ID) //
+          .addConstraint(CommonConstraints.GREATER_EQUAL_ONE_INT) //
+          .grab(config, x -> k = x);
+      new IntParameter(PARTITION_SIZE_ID, 256) //
+          .addConstraint(CommonConstraints.GREATER_EQUAL_ONE_INT) //
+          .grab(config, x -> partitionsize = x);
+      new FileParameter(CacheDoubleDistanceKNNLists.Par.CACHE_ID, FileParameter.FileType.OUTPUT_FILE) //
+          .grab(config, x -> out = Paths.get(x));
+    }
+
+    @Override
+    public CacheDoubleDistanceKNNSelfJoin<V> make() {
+      return new CacheDoubleDistanceKNNSelfJoin<>(database, distance, k, partitionsize, out);
+    }
+  }
+
+  /**
+   * Main method, delegate to super class.
+   *
+   * @param args Command line arguments
+   */
+  public static void main(String[] args) {
+    runCLIApplication(CacheDoubleDistanceKNNSelfJoin.class, args);
+  }
+}
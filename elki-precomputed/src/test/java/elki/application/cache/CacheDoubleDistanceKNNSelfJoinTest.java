@@ -0,0 +1,83 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2019
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package elki.application.cache;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+import org.junit.Test;
+
+import elki.data.NumberVector;
+import elki.data.type.TypeUtil;
+import elki.database.Database;
+import elki.database.StaticArrayDatabase;
+import elki.database.ids.DBIDIter;
+import elki.database.ids.DBIDRef;
+import elki.database.ids.DBIDUtil;
+import elki.database.ids.KNNList;
+import elki.database.query.QueryBuilder;
+import elki.database.query.knn.KNNSearcher;
+import elki.database.relation.Relation;
+import elki.datasource.ArrayAdapterDatabaseConnection;
+import elki.distance.minkowski.EuclideanDistance;
+import elki.index.preprocessed.knn.CachedDoubleDistanceKNNPreprocessor;
+
+/**
+ * Unit test for the parallel kNN self-join.
+ *
+ * @author Erich Schubert
+ * @since 0.8.0
+ */
+public class CacheDoubleDistanceKNNSelfJoinTest {
+  @Test
+  public void testSelfJoin() throws IOException {
+    Random rnd = new Random(0L);
+    double[][] data = new double[1000][3];
+    for(double[] row : data) {
+      for(int d = 0; d < row.length; d++) {
+        row[d] = rnd.nextGaussian();
+      }
+    }
+    Database db = new StaticArrayDatabase(new ArrayAdapterDatabaseConnection(data));
+    db.initialize();
+    Relation<NumberVector> rel = db.getRelation(TypeUtil.NUMBER_VECTOR_FIELD);
+    Path file = Files.createTempFile("elki-knn", ".cache");
+    try {
+      new CacheDoubleDistanceKNNSelfJoin<>(db, EuclideanDistance.STATIC, 7, 50, file).run();
+      CachedDoubleDistanceKNNPreprocessor<NumberVector> cache = new CachedDoubleDistanceKNNPreprocessor<>(rel, EuclideanDistance.STATIC, 7, file);
+      cache.initialize();
+      KNNSearcher<DBIDRef> ref = new QueryBuilder<>(rel, EuclideanDistance.STATIC).linearOnly().kNNByDBID(7);
+      for(DBIDIter it = rel.iterDBIDs(); it.valid(); it.advance()) {
+        KNNList l1 = cache.get(it), l2 = ref.getKNN(it, 7);
+        assertEquals("kNN size differs.", l2.size(), l1.size());
+        assertEquals("kNN distance differs.", l2.getKNNDistance(), l1.getKNNDistance(), 0.);
+        assertEquals("kNN sets differ.", l1.size(), DBIDUtil.intersectionSize(l1, l2));
+      }
+    }
+    finally {
+      Files.delete(file);
+    }
+  }
+}
@@ -22,12 +22,15 @@ package elki.algorithm;
 
 import static org.junit.Assert.*;
 
+import java.util.function.Supplier;
+
 import elki.data.type.TypeUtil;
 import elki.database.Database;
 import elki.database.StaticArrayDatabase;
 import elki.datasource.AbstractDatabaseConnection;
 import elki.datasource.FileBasedDatabaseConnection;
 import elki.datasource.filter.FixedDBIDsFilter;
+import elki.parallel.ParallelCore;
 import elki.utilities.ClassGenericsUtil;
 import elki.utilities.optionhandling.parameterization.ListParameterization;
 
@@ -88,4 +91,39 @@ public abstract class AbstractSimpleAlgorithmTest {
     }
     return db;
   }
+
+  /**
+   * Run a test with the given number of threads, and restore the previous
+   * parallelism afterwards.
+   *
+   * @param threads Number of threads
+   * @param body Code to run
+   * @param <T> Result type
+   * @return Result of the code
+   */
+  public static <T> T withParallelism(int threads, Supplier<T> body) {
+    ParallelCore core = ParallelCore.getCore();
+    final int prev = core.getParallelism();
+    core.setParallelism(threads);
+    try {
+      return body.get();
+    }
+    finally {
+      core.setParallelism(prev);
+    }
+  }
+
+  /**
+   * Run a test with the given number of threads, and restore the previous
+   * parallelism afterwards.
+   *
+   * @param threads Number of threads
+   * @param body Code to run
+   */
+  public static void withParallelism(int threads, Runnable body) {
+    withParallelism(threads, () -> {
+      body.run();
+      return null;
+    });
+  }
 }